@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.environment;
+
+/**
+ * Planning representations that allow controllers to reuse plans for equivalent problems should inherit this interface.
+ * @author Martin Cerny
+ */
+public interface IPlanCachingRepresentation<PROBLEM, GOAL extends IPlanningGoal> {
+    /**
+     * Gets a canonical fingerprint of a planning problem. Two problems for given body, whose fingerprints are equal (with respect to equals() and hashCode()),
+     * must have the same set of solutions - a plan for one of them may be reused for the other.
+     * @param body
+     * @param goal the goal the problem was created for
+     * @param problem the problem created by {@link IPlanningRepresentation#getProblem(cz.cuni.amis.aiste.environment.AgentBody, cz.cuni.amis.aiste.environment.IPlanningGoal) }
+     * @return the fingerprint or null, if plans for the problem should not be cached
+     */
+    Object getProblemFingerprint(AgentBody body, GOAL goal, PROBLEM problem);
+}
@@ -0,0 +1,33 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.environment;
+
+/**
+ * A simulable environment that is able to reuse its simulation copies.
+ * Copies that are no longer needed should be passed back to the environment, which may
+ * then return them from subsequent calls to {@link #cloneForSimulation() } instead of creating new ones.
+ * @author Martin Cerny
+ */
+public interface IReusableSimulableEnvironment<ACTION extends IAction> extends ISimulableEnvironment<ACTION> {
+    /**
+     * Returns a copy obtained by {@link #cloneForSimulation() } for reuse.
+     * Neither the copy nor any object bound to it (e.g. reactive plans cloned for simulation)
+     * may be used after this call.
+     * @param simulationCopy 
+     */
+    void releaseSimulationCopy(ISimulableEnvironment<ACTION> simulationCopy);
+}
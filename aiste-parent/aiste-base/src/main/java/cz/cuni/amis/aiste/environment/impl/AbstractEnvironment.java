@@ -78,18 +78,37 @@ public abstract class AbstractEnvironment<ACTION extends IAction> implements IEn
      */
     protected AbstractEnvironment(AbstractEnvironment original){
         this.actionClass = original.actionClass;
+        this.failureReward = original.failureReward;
+        this.runtimeLoggingOutput = NullLoggingOutput.NULL_LOG;
+        copySharedState(original);
+        
+        //total rewards are the only thing that is deeply copied
+        this.totalRewards = new HashMap<AgentBody, Double>(original.totalRewards);
+    }
+    
+    /**
+     * Overwrites the state of a copy created with {@link #AbstractEnvironment(cz.cuni.amis.aiste.environment.impl.AbstractEnvironment) },
+     * so that it corresponds to the current state of the original. Allows simulation copies to be reused instead of created
+     * for every simulation. Subclasses that override this method must call the super implementation.
+     * @param original 
+     */
+    protected void resetToCopyOf(AbstractEnvironment original){
+        copySharedState(original);
+        if(!totalRewards.keySet().equals(original.totalRewards.keySet())){
+            totalRewards.clear();
+        }
+        //when the bodies are the same, values are only replaced and no new map entries are created
+        totalRewards.putAll(original.totalRewards);
+    }
+    
+    private void copySharedState(AbstractEnvironment original){
         this.finished = original.finished;
         this.bodies = original.bodies;
         this.timeStep = original.timeStep;
-        this.failureReward = original.failureReward;
         this.representations = original.representations;
         this.activeBodies = original.activeBodies;
         this.removedBodies = original.removedBodies;
         this.instanceCount = original.instanceCount;
-        this.runtimeLoggingOutput = NullLoggingOutput.NULL_LOG;
-        
-        //total rewards are the only thing that is deeply copied
-        this.totalRewards = new HashMap<AgentBody, Double>(original.totalRewards);
     }
     
     public AbstractEnvironment(Class<ACTION> actionClass){
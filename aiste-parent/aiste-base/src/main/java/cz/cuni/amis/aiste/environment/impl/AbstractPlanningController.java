@@ -116,8 +116,21 @@ implements IFutureListener<PLANNING_RESULT>
     protected IntegerAverageMetric averageTimePerUnsuccesfulPlanning;
     protected IntegerAverageMetric averageTimePerCancelledPlanning;
     
+    protected IncrementalMetric numPlanCacheHits;
+    protected IncrementalMetric numPlanCacheMisses;
+    
     long lastPlanningStartTime = 0;
     
+    /**
+     * Cache of plans for problems already solved. Null if plans should not be cached.
+     */
+    private PlanCache<PLANNER_ACTION> planCache = null;
+    
+    /**
+     * Fingerprint of the problem currently solved by planner, null if the plan should not be cached.
+     */
+    private Object planningProblemFingerprint = null;
+    
     /**
      * If current plan vas validated in this simulation step.
      * There are several places where current plan may get validated: After it
@@ -186,6 +199,11 @@ implements IFutureListener<PLANNING_RESULT>
         metrics.addMetric(averageTimePerUnsuccesfulPlanning);
         averageTimePerCancelledPlanning = new IntegerAverageMetric("avgCancelledPlanningTime");
         metrics.addMetric(averageTimePerUnsuccesfulPlanning);       
+        
+        numPlanCacheHits = new IncrementalMetric("numPlanCacheHits");
+        metrics.addMetric(numPlanCacheHits);
+        numPlanCacheMisses = new IncrementalMetric("numPlanCacheMisses");
+        metrics.addMetric(numPlanCacheMisses);
     }
 
     @Override
@@ -207,6 +225,11 @@ implements IFutureListener<PLANNING_RESULT>
         this.currentPlan.clear(); 
         this.numFailuresSinceLastImportantEnvChange = 0;
         this.planFuture = null;
+        this.planningProblemFingerprint = null;
+        if(planCache != null){
+            //plans from previous environment are useless
+            planCache.clear();
+        }
         
     }
 
@@ -501,9 +524,10 @@ implements IFutureListener<PLANNING_RESULT>
         
         int numValidationSteps = 0;
         long validationStart = System.currentTimeMillis();
+        ISimulableEnvironment environmentCopy = null;
         try {
             //those casts are safe, beacause types are enforced in constructor if validation is set to environment simulation
-            ISimulableEnvironment environmentCopy = ((ISimulableEnvironment)environment).cloneForSimulation();
+            environmentCopy = ((ISimulableEnvironment)environment).cloneForSimulation();
             if(environment.isFinished()){
                 //the environment has been finished while we have been busy, lets stop the validation
                 //the check has to be AFTER cloning the environment, otherwise a race condition is possible
@@ -545,6 +569,9 @@ implements IFutureListener<PLANNING_RESULT>
             }
             return isGoalState;
         } finally {
+            if(environmentCopy != null && environment instanceof IReusableSimulableEnvironment){
+                ((IReusableSimulableEnvironment)environment).releaseSimulationCopy(environmentCopy);
+            }
             if(logger.isDebugEnabled()){
                 long validationTime = System.currentTimeMillis() - validationStart;
                 long timePerStep;
@@ -587,6 +614,96 @@ implements IFutureListener<PLANNING_RESULT>
     }
     
     
+    /**
+     * Validates a plan for {@link #goalForPlanning} and replaces current plan with it, if it is better.
+     * @param plannerActions
+     * @param issueFirstAction if true and no reactive action was issued in this step, 
+     * the first action of the new plan is issued immediately
+     * @return true if the plan is valid
+     */
+    protected boolean adoptPlan(List<PLANNER_ACTION> plannerActions, boolean issueFirstAction) {
+        timeSpentValidating.taskStarted();
+        ArrayDeque<PLANNER_ACTION> newPlanDeque = new ArrayDeque<PLANNER_ACTION>(plannerActions);
+        boolean planValid = validatePlan(newPlanDeque, EmptyReactivePlan.EMPTY_PLAN, goalForPlanning);
+        timeSpentValidating.taskFinished();
+
+        if (planValid) {
+            boolean overwriteCurrentPlan = false;
+            if (currentPlan.isEmpty() && activePlannerActionReactivePlan.getStatus().isFinished()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(body.getId() + ": No current plan, using new plan.");
+                }
+                overwriteCurrentPlan = true;
+            } else if (goalForPlanning.getPriority() > executedGoal.getPriority()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(body.getId() + ": New plan achieves higher priority goal, using new plan.");
+                }
+                overwriteCurrentPlan = true;
+            } else if (getPlanCost(currentPlan) > getPlanCost(newPlanDeque)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(body.getId() + ": New plan has lower cost, using new plan.");
+                }
+                overwriteCurrentPlan = true;
+            } else if (!validatePlan(currentPlan, activePlannerActionReactivePlan, executedGoal)) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(body.getId() + ": Current plan is no longer valid, using new plan.");
+                }
+                overwriteCurrentPlan = true;
+            } else {
+                if (logger.isDebugEnabled()) {
+                    logger.debug(body.getId() + ": New plan is no better than old plan. Keeping old plan.");
+                    numPlanningResultInapplicable.increment();
+                }
+                //I have just validated the current plan
+                planValidatedForThisStep = true;
+            }
+
+            if (overwriteCurrentPlan) {
+                currentPlan.clear();
+                currentPlan.addAll(plannerActions);
+                executedGoal = goalForPlanning;
+
+                //found plan, reset failure count
+                numFailuresSinceLastImportantEnvChange = 0;
+
+                //current plan was overwritten with new plan, which was validated
+                planValidatedForThisStep = true;
+
+                if (!issueFirstAction) {
+                    //the caller continues with the new plan
+                    activePlannerActionReactivePlan = EmptyReactivePlan.EMPTY_PLAN;
+                } else if (!reactiveActionIssuedThisStep) {
+                    if (logger.isDebugEnabled()) {
+                        logger.debug(body.getId() + ": Overwriting previous non-reactive action.");
+                    }
+                    //I have finished planning and no action was issued yet in this step -> lets do the first action of our plan
+                    getNextReactivePlanFromCurrentPlan();
+                    if (!activePlannerActionReactivePlan.getStatus().isFinished()) {
+                        environment.act(body, activePlannerActionReactivePlan.nextAction());
+                    }
+                }
+            }
+        } else {
+            if (logger.isDebugEnabled()) {
+                logger.debug(body.getId() + ": New plan is not valid.");
+            }
+            numPlanningResultInapplicable.increment();
+        }
+        return planValid;
+    }
+    
+    /**
+     * Gets the fingerprint of a problem for plan caching.
+     * @param problem
+     * @return the fingerprint or null if the plan for the problem should not be cached
+     */
+    protected Object getProblemFingerprint(PROBLEM problem){
+        if(planCache == null || !(representation instanceof IPlanCachingRepresentation)){
+            return null;
+        }
+        return ((IPlanCachingRepresentation<PROBLEM, IPlanningGoal>)representation).getProblemFingerprint(body, goalForPlanning, problem);
+    }
+    
     @Override
     public void start() {
         super.start();
@@ -608,7 +725,6 @@ implements IFutureListener<PLANNING_RESULT>
         representation.setMarker(body);
         lastPlanningStartTime = System.currentTimeMillis();
         timeSpentPlanning.taskStarted();
-        numPlannerExecutions.increment();
         
         if(logger.isDebugEnabled()){
             logger.debug(body.getId() + ": Starting planning process. Current goal: " + goalForPlanning);
@@ -621,6 +737,30 @@ implements IFutureListener<PLANNING_RESULT>
         timeSpentTranslatingToPlanner.taskStarted();
         PROBLEM problem = createProblem();
         timeSpentTranslatingToPlanner.taskFinished();
+        
+        planningProblemFingerprint = getProblemFingerprint(problem);
+        if(planningProblemFingerprint != null){
+            List<PLANNER_ACTION> cachedPlan = planCache.get(planningProblemFingerprint);
+            if(cachedPlan != null){
+                numPlanCacheHits.increment();
+                timeSpentPlanning.taskFinished();
+                if(logger.isDebugEnabled()){
+                    logger.debug(body.getId() + ": Found cached plan for current problem.");
+                }
+                planFuture = null;
+                //actions are issued by the caller
+                if(adoptPlan(cachedPlan, false)){
+                    return;
+                }
+                //the plan does not work in current situation, forget it and run the planner
+                planCache.remove(planningProblemFingerprint);
+                timeSpentPlanning.taskStarted();
+            } else {
+                numPlanCacheMisses.increment();
+            }
+        }
+        
+        numPlannerExecutions.increment();
         timeSpentStartingPlanner.taskStarted();
         planFuture = startPlanningProcess(problem);
         timeSpentStartingPlanner.taskFinished();
@@ -685,69 +825,8 @@ implements IFutureListener<PLANNING_RESULT>
                         averageTimePerSuccesfulPlanning.addSample(planningTime);
                         averagePlanLength.addSample(plannerActions.size());
 
-                        timeSpentValidating.taskStarted();
-                        ArrayDeque<PLANNER_ACTION> newPlanDeque = new ArrayDeque<PLANNER_ACTION>(plannerActions);
-                        boolean planValid = validatePlan(newPlanDeque, EmptyReactivePlan.EMPTY_PLAN, goalForPlanning);
-                        timeSpentValidating.taskFinished();
-
-                        if (planValid) {
-                            boolean overwriteCurrentPlan = false;
-                            if (currentPlan.isEmpty() && activePlannerActionReactivePlan.getStatus().isFinished()) {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug(body.getId() + ": No current plan, using new plan.");
-                                }
-                                overwriteCurrentPlan = true;
-                            } else if (goalForPlanning.getPriority() > executedGoal.getPriority()) {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug(body.getId() + ": New plan achieves higher priority goal, using new plan.");
-                                }
-                                overwriteCurrentPlan = true;
-                            } else if (getPlanCost(currentPlan) > getPlanCost(newPlanDeque)) {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug(body.getId() + ": New plan has lower cost, using new plan.");
-                                }
-                                overwriteCurrentPlan = true;
-                            } else if (!validatePlan(currentPlan, activePlannerActionReactivePlan, executedGoal)) {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug(body.getId() + ": Current plan is no longer valid, using new plan.");
-                                }
-                                overwriteCurrentPlan = true;
-                            } else {
-                                if (logger.isDebugEnabled()) {
-                                    logger.debug(body.getId() + ": New plan is no better than old plan. Keeping old plan.");
-                                    numPlanningResultInapplicable.increment();
-                                }
-                                //I have just validated the current plan
-                                planValidatedForThisStep = true;
-                            }
-
-                            if (overwriteCurrentPlan) {
-                                currentPlan.clear();
-                                currentPlan.addAll(plannerActions);
-                                executedGoal = goalForPlanning;
-
-                                //found plan, reset failure count
-                                numFailuresSinceLastImportantEnvChange = 0;
-
-                                //current plan was overwritten with new plan, which was validated
-                                planValidatedForThisStep = true;
-
-                                if (!reactiveActionIssuedThisStep) {
-                                    if (logger.isDebugEnabled()) {
-                                        logger.debug(body.getId() + ": Overwriting previous non-reactive action.");
-                                    }
-                                    //I have finished planning and no action was issued yet in this step -> lets do the first action of our plan
-                                    getNextReactivePlanFromCurrentPlan();
-                                    if (!activePlannerActionReactivePlan.getStatus().isFinished()) {
-                                        environment.act(body, activePlannerActionReactivePlan.nextAction());
-                                    }
-                                }
-                            }
-                        } else {
-                            if (logger.isDebugEnabled()) {
-                                logger.debug(body.getId() + ": Freshly received plan is not valid.");
-                            }
-                            numPlanningResultInapplicable.increment();                            
+                        if(adoptPlan(plannerActions, true) && planningProblemFingerprint != null){
+                            planCache.put(planningProblemFingerprint, plannerActions);
                         }
 
 
@@ -785,6 +864,20 @@ implements IFutureListener<PLANNING_RESULT>
     protected IFutureWithListeners<PLANNING_RESULT> getPlanFuture() {
         return planFuture;
     }
+
+    public PlanCache<PLANNER_ACTION> getPlanCache() {
+        return planCache;
+    }
+
+    /**
+     * Sets the cache of plans for already solved problems. Plans are cached only if 
+     * the representation implements {@link IPlanCachingRepresentation}. 
+     * Cached plans are validated before they are used.
+     * @param planCache the cache or null to disable caching
+     */
+    public void setPlanCache(PlanCache<PLANNER_ACTION> planCache) {
+        this.planCache = planCache;
+    }
   
     
     
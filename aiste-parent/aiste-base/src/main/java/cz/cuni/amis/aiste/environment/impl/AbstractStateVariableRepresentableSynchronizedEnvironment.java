@@ -20,50 +20,153 @@ import cz.cuni.amis.aiste.environment.IAction;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import cz.cuni.amis.aiste.environment.IStateVariable;
 import cz.cuni.amis.aiste.environment.IStateVariableRepresentation;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashMap;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
- *
+ * Base for environments represented by state variables.
+ * <p>
+ * Every variable gets an index when added and its value is stored in a primitive int array.
+ * The value of an {@link IntegerStateVariable} is stored directly, values of other variables
+ * are stored as indices into {@link IStateVariable#getValues() } (i.e. the ordinal for an {@link EnumStateVariable}).
+ * Descendants should use the index based methods in their simulation step, the object based
+ * methods are kept for representations and are only a view of the primitive values.
+ * </p>
  * @author Martin Cerny
  */
 public abstract class AbstractStateVariableRepresentableSynchronizedEnvironment<ACTION extends IAction>
     extends AbstractSynchronizedEnvironment<ACTION> implements IStateVariableRepresentation<ACTION> {
 
-    private Map<IStateVariable, Object> stateVariableValues;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Map<IStateVariable, Integer> stateVariableIndices;
+    
+    private IStateVariable[] stateVariables;
+    
+    /**
+     * True for variables whose value is stored directly, instead of an index into their values.
+     */
+    private boolean[] directValue;
+    
+    /**
+     * Possible values of variables, cached to avoid calling {@link IStateVariable#getValues() } on every lookup.
+     * Indexed by variable index, null for variables with directly stored value.
+     */
+    private List<List<Object>> possibleValues;
+    
+    private int[] stateVariableValues;
+    
+    private boolean[] valueDefined;
+    
+    private int numStateVariables = 0;
     
     public AbstractStateVariableRepresentableSynchronizedEnvironment(Class<ACTION> actionClass) {
         super( actionClass);
-        stateVariableValues = new HashMap<IStateVariable, Object>();
+        stateVariableIndices = new LinkedHashMap<IStateVariable, Integer>();
+        stateVariables = new IStateVariable[INITIAL_CAPACITY];
+        directValue = new boolean[INITIAL_CAPACITY];
+        possibleValues = new ArrayList<List<Object>>(INITIAL_CAPACITY);
+        stateVariableValues = new int[INITIAL_CAPACITY];
+        valueDefined = new boolean[INITIAL_CAPACITY];
     }
     
-    protected void addStateVariable(IStateVariable var){
-        if(stateVariableValues.containsKey(var)){
+    /**
+     * Adds a variable with no defined value.
+     * @param var
+     * @return index of the variable, for use with {@link #getIntStateVariableValue(int) } and {@link #setIntStateVariableValue(int, int) }
+     */
+    protected int addStateVariable(IStateVariable var){
+        if(stateVariableIndices.containsKey(var)){
             throw new IllegalArgumentException("Variable " + var.getName() + " already added");
         }
-        stateVariableValues.put(var, null);
+        if(numStateVariables == stateVariables.length){
+            int newCapacity = stateVariables.length * 2;
+            stateVariables = Arrays.copyOf(stateVariables, newCapacity);
+            directValue = Arrays.copyOf(directValue, newCapacity);
+            stateVariableValues = Arrays.copyOf(stateVariableValues, newCapacity);
+            valueDefined = Arrays.copyOf(valueDefined, newCapacity);
+        }
+        int index = numStateVariables;
+        stateVariables[index] = var;
+        directValue[index] = var instanceof IntegerStateVariable;
+        possibleValues.add(directValue[index] ? null : var.getValues());
+        valueDefined[index] = false;
+        stateVariableIndices.put(var, index);
+        numStateVariables++;
+        return index;
     }
     
-    protected void setStateVariableValue(IStateVariable var, Object value){
-        if(!stateVariableValues.containsKey(var)){
+    /**
+     * Gets the index assigned to the variable by {@link #addStateVariable(cz.cuni.amis.aiste.environment.IStateVariable) }.
+     */
+    protected int getStateVariableIndex(IStateVariable var){
+        Integer index = stateVariableIndices.get(var);
+        if(index == null){
             throw new IllegalArgumentException("Variable " + var.getName() + " not found");
         }
-        stateVariableValues.put(var, value);
+        return index;
+    }
+    
+    protected void setStateVariableValue(IStateVariable var, Object value){
+        int index = getStateVariableIndex(var);
+        if(value == null){
+            valueDefined[index] = false;
+        } else if(directValue[index]){
+            setIntStateVariableValue(index, (Integer) value);
+        } else {
+            int valueIndex = possibleValues.get(index).indexOf(value);
+            if(valueIndex < 0){
+                throw new IllegalArgumentException("Value " + value + " is not a value of variable " + var.getName());
+            }
+            setIntStateVariableValue(index, valueIndex);
+        }
+    }
+
+    /**
+     * Sets the primitive value of a variable - the value itself for {@link IntegerStateVariable},
+     * the index of the value otherwise.
+     * @param index index of the variable
+     * @param value 
+     */
+    protected void setIntStateVariableValue(int index, int value){
+        stateVariableValues[index] = value;
+        valueDefined[index] = true;
+    }
+
+    /**
+     * Gets the primitive value of a variable - the value itself for {@link IntegerStateVariable},
+     * the index of the value otherwise.
+     * @param index index of the variable
+     * @return 
+     */
+    protected int getIntStateVariableValue(int index){
+        if(!valueDefined[index]){
+            throw new IllegalStateException("Variable " + stateVariables[index].getName() + " has no defined value");
+        }
+        return stateVariableValues[index];
     }
 
     @Override
     public Object getStateVariableValue(IStateVariable variable) {
-        Object value = stateVariableValues.get(variable);
-        if(value == null){
+        Integer index = stateVariableIndices.get(variable);
+        if(index == null || !valueDefined[index]){
             throw new IllegalStateException("Variable " + variable.getName() + " has no defined value");
         }
-        return value;
+        if(directValue[index]){
+            return stateVariableValues[index];
+        } else {
+            return possibleValues.get(index).get(stateVariableValues[index]);
+        }
     }
 
     @Override
     public Collection<IStateVariable> getStateVariables() {
-        return stateVariableValues.keySet();
+        return Collections.unmodifiableSet(stateVariableIndices.keySet());
     }
     
     
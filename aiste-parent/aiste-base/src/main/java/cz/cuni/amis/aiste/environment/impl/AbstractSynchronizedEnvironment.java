@@ -19,17 +19,17 @@ package cz.cuni.amis.aiste.environment.impl;
 import cz.cuni.amis.aiste.environment.IAction;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import cz.cuni.amis.aiste.environment.ISimulableEnvironment;
+import java.util.Arrays;
 import java.util.HashMap;
-import java.util.HashSet;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import org.apache.log4j.Logger;
 
 /**
  * An environment that is synchronized. The actions passed to the environment are gathered and
  * then synchronously retrieved upon performing a simulation step. Only one action per agent body
  * is retained, if multiple actions are invoked for a single body between successive simulation steps,
- * the last one is taken.
+ * the last one is taken. Submitting actions never blocks.
  * Any code that does not wish to be interrupted by environment updates should synchronize on the 
  * environment instance.
  * @author Martin Cerny
@@ -38,12 +38,22 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
     
     private final Logger logger = Logger.getLogger(AbstractSynchronizedEnvironment.class);
     
-    private Map<AgentBody, ACTION> actionsForNextStep = new HashMap<AgentBody, ACTION>();
+    /**
+     * Actions for next step, indexed by body id. The simulation step takes the actions
+     * out with getAndSet(), so that an action submitted concurrently with the step is performed exactly once - either
+     * in this step or in the next one.
+     */
+    private volatile AtomicReferenceArray<ACTION> actionsForNextStep = new AtomicReferenceArray<ACTION>(0);
+    
+    /**
+     * Registered bodies, indexed by body id.
+     */
+    private AgentBody[] bodiesById = new AgentBody[0];
     
     /**
-     * Mutex for synchronization of access to actionsForNextStep.
+     * Actions passed to {@link #nextStepInternal(java.util.Map) }. Reused among steps.
      */
-    private final Object actionsMutex = new Object();
+    private final Map<AgentBody, ACTION> actionsForCurrentStep = new HashMap<AgentBody, ACTION>();
 
     /**
      * Helper to support action failures
@@ -57,6 +67,25 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
     protected AbstractSynchronizedEnvironment(AbstractSynchronizedEnvironment original){
         super(original);
         this.lastAgentActionFailure = new HashMap<AgentBody, Long>(original.lastAgentActionFailure);
+        this.bodiesById = original.bodiesById;
+        this.actionsForNextStep = new AtomicReferenceArray<ACTION>(original.actionsForNextStep.length());
+    }
+
+    @Override
+    protected void resetToCopyOf(AbstractEnvironment original) {
+        super.resetToCopyOf(original);
+        Map<AgentBody, Long> originalActionFailure = ((AbstractSynchronizedEnvironment)original).lastAgentActionFailure;
+        if(!lastAgentActionFailure.keySet().equals(originalActionFailure.keySet())){
+            lastAgentActionFailure.clear();
+        }
+        lastAgentActionFailure.putAll(originalActionFailure);
+        AbstractSynchronizedEnvironment<ACTION> synchronizedOriginal = (AbstractSynchronizedEnvironment<ACTION>)original;
+        bodiesById = synchronizedOriginal.bodiesById;
+        if(actionsForNextStep.length() != synchronizedOriginal.actionsForNextStep.length()){
+            actionsForNextStep = new AtomicReferenceArray<ACTION>(synchronizedOriginal.actionsForNextStep.length());
+        } else {
+            clearActionsForNextStep();
+        }
     }
     
     public AbstractSynchronizedEnvironment(Class<ACTION> actionClass) {
@@ -68,17 +97,27 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
 
     @Override
     protected Map<AgentBody, Double> nextStepInternal() {
-        Map<AgentBody,ACTION> actionsCopy;
-        synchronized (actionsMutex){
-            actionsCopy = new HashMap<AgentBody, ACTION>(actionsForNextStep);
-            actionsForNextStep.clear();
+        AtomicReferenceArray<ACTION> pendingActions = actionsForNextStep;
+        actionsForCurrentStep.clear();
+        for(int id = 0; id < pendingActions.length(); id++){
+            ACTION action = pendingActions.getAndSet(id, null);
+            if(action != null){
+                actionsForCurrentStep.put(bodiesById[id], action);
+            }
         }
         synchronized(this){
-            Map<AgentBody, Double> result = nextStepInternal(actionsCopy);
+            Map<AgentBody, Double> result = nextStepInternal(actionsForCurrentStep);
             return result;
         }
     }
     
+    private void clearActionsForNextStep(){
+        AtomicReferenceArray<ACTION> pendingActions = actionsForNextStep;
+        for(int id = 0; id < pendingActions.length(); id++){
+            pendingActions.set(id, null);
+        }
+    }
+    
     /**
      * Intended especially for environments with straightforward implementation of simulability,
      * allowing for direct representation of {@link ISimulableEnvironment#simulateOneStep(java.util.Map) }
@@ -98,9 +137,12 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
         if(getRemovedBodies().contains(agentBody)){
             return false;
         }
-        synchronized(actionsMutex){
-            actionsForNextStep.put(agentBody, action);
+        AtomicReferenceArray<ACTION> pendingActions = actionsForNextStep;
+        if(agentBody.getId() < 0 || agentBody.getId() >= pendingActions.length() || bodiesById[agentBody.getId()] == null){
+            logger.warn("Action for unregistered body " + agentBody + " ignored.");
+            return false;
         }
+        pendingActions.set(agentBody.getId(), action);
         return true;
     }
 
@@ -108,17 +150,14 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
     public void init() {
         super.init();
         lastAgentActionFailure  = new HashMap<AgentBody, Long>();
-        synchronized(actionsMutex){
-            actionsForNextStep = new HashMap<AgentBody, ACTION>();
-        }        
+        bodiesById = new AgentBody[0];
+        actionsForNextStep = new AtomicReferenceArray<ACTION>(0);
     }
 
     @Override
     public void stop() {
         super.stop();
-        synchronized(actionsMutex){
-            actionsForNextStep.clear();
-        }
+        clearActionsForNextStep();
     }
 
     
@@ -158,6 +197,12 @@ public abstract class AbstractSynchronizedEnvironment<ACTION extends IAction> ex
         super.afterAgentBodyCreated(body);
         //initialize the value, so that I do not need modify the map during executin, which is not thread safe
         lastAgentActionFailure.put(body, -1L);
+        //bodies are created only before the simulation starts, so there are no concurrent calls to act()
+        if(body.getId() >= bodiesById.length){
+            bodiesById = Arrays.copyOf(bodiesById, body.getId() + 1);
+            actionsForNextStep = new AtomicReferenceArray<ACTION>(body.getId() + 1);
+        }
+        bodiesById[body.getId()] = body;
     }
     
     
@@ -22,6 +22,7 @@ import cz.cuni.amis.aiste.environment.*;
 import cz.cuni.amis.experiments.ILoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeadersConcatenation;
+import cz.cuni.amis.experiments.impl.metrics.IntegerAverageMetric;
 import cz.cuni.amis.utils.collections.ListConcatenation;
 import cz.cuni.amis.utils.future.FutureStatus;
 import cz.cuni.amis.utils.future.FutureWithListeners;
@@ -31,16 +32,43 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.log4j.Logger;
 
 /**
- *
+ * A controller that plans with JSHOP2.
+ * <p>
+ * Planning processes of all JSHOP2 controllers run on a shared executor with a bounded number of threads
+ * (see {@link #setSharedPlannerExecutorSize(int) }). Planning requests that exceed the number of threads
+ * wait in a queue, the time spent waiting is measured in the avgPlannerQueueWaitTime metric.
+ * Alternatively, a controller may be given its own executor with {@link #setPlannerExecutor(java.util.concurrent.ExecutorService) }.
+ * </p>
  * @author Martin Cerny
  */
 public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2Problem, Predicate, Plan, IJShop2Representation<IAction, IPlanningGoal>> {
 
+    private static final Logger logger = Logger.getLogger(JShop2Controller.class);
+
+    /**
+     * Executor shared by all controllers that were not given their own executor. Created lazily.
+     */
+    private static ThreadPoolExecutor sharedPlannerExecutor = null;
+    
+    private static int sharedPlannerExecutorSize = Runtime.getRuntime().availableProcessors();
+    
     private JSHOP2 jshop;
     
+    /**
+     * Executor to run planning processes of this controller, null for the shared executor.
+     */
+    private ExecutorService plannerExecutor = null;
+    
     /**
      * Maximum number of succesively improving plans to evaluate before returning from
      * JSHOP algorithm. 0 for no limit.
@@ -54,6 +82,11 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
     
     private PlannerInterruptTest plannerInterruptTest;
     
+    /**
+     * Time (in ms) the planning requests spent in the executor queue before the planner started.
+     */
+    protected IntegerAverageMetric averagePlannerQueueWaitTime;
+    
     public JShop2Controller(ValidationMethod validationMethod) {
         this(validationMethod, 0);    
     }
@@ -65,6 +98,59 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
         super(validationMethod, new LoggingHeaders("maxEvaluatedPlans", "interruptTest"), new Object[] {maxEvaluatedPlans, plannerInterruptTest == null ? "None" : plannerInterruptTest.getLoggableRepresentation()});
         this.maxEvaluatedPlans = maxEvaluatedPlans;
         this.plannerInterruptTest = plannerInterruptTest;
+        
+        averagePlannerQueueWaitTime = new IntegerAverageMetric("avgPlannerQueueWaitTime");
+        metrics.addMetric(averagePlannerQueueWaitTime);
+    }
+
+    /**
+     * Sets the maximal number of planning processes that run simultaneously on the shared executor.
+     * Defaults to the number of available processors. May be changed at any time, 
+     * already queued planning requests are not affected.
+     * @param size 
+     */
+    public static synchronized void setSharedPlannerExecutorSize(int size){
+        if(size <= 0){
+            throw new IllegalArgumentException("Planner executor size must be positive");
+        }
+        if(sharedPlannerExecutor != null){
+            if(size > sharedPlannerExecutorSize){
+                sharedPlannerExecutor.setMaximumPoolSize(size);
+                sharedPlannerExecutor.setCorePoolSize(size);
+            } else {
+                sharedPlannerExecutor.setCorePoolSize(size);
+                sharedPlannerExecutor.setMaximumPoolSize(size);
+            }
+        }
+        sharedPlannerExecutorSize = size;
+    }
+
+    public static synchronized int getSharedPlannerExecutorSize() {
+        return sharedPlannerExecutorSize;
+    }
+    
+    protected static synchronized ExecutorService getSharedPlannerExecutor(){
+        if(sharedPlannerExecutor == null){
+            sharedPlannerExecutor = new ThreadPoolExecutor(sharedPlannerExecutorSize, sharedPlannerExecutorSize, 
+                    0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), new PlannerThreadFactory());
+            if(logger.isDebugEnabled()){
+                logger.debug("Created shared planner executor with " + sharedPlannerExecutorSize + " threads.");
+            }
+        }
+        return sharedPlannerExecutor;
+    }
+
+    /**
+     * Sets the executor to run planning processes of this controller. 
+     * The executor is not shut down by the controller.
+     * @param plannerExecutor the executor or null to use the shared executor
+     */
+    public void setPlannerExecutor(ExecutorService plannerExecutor) {
+        this.plannerExecutor = plannerExecutor;
+    }
+
+    public ExecutorService getPlannerExecutor() {
+        return plannerExecutor;
     }
 
     @Override
@@ -140,10 +226,20 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
         currentBestPlanCost = Double.POSITIVE_INFINITY;
         lastBestPlanCost = Double.POSITIVE_INFINITY;
         stepsSinceFirstPlanFound = -1;
-        new Thread(new Runnable() {
+        final long submitTime = System.currentTimeMillis();
+        ExecutorService executor = plannerExecutor;
+        if(executor == null){
+            executor = getSharedPlannerExecutor();
+        }
+        future.task = executor.submit(new Runnable() {
 
             @Override
             public void run() {
+                boolean started = future.markStarted();
+                averagePlannerQueueWaitTime.addSample(System.currentTimeMillis() - submitTime);
+                if(!started){
+                    return;
+                }
                 try {
                     Plan planningResult = planningProcess.execute();
                     synchronized (future) {
@@ -159,7 +255,7 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
                     }
                 }
             }
-        }).start();
+        });
         
         return future;
     }
@@ -196,13 +292,51 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
     private class JShop2PlanningFuture extends FutureWithListeners<Plan> {
 
         JShop2PlanningProcess process;
+        
+        /**
+         * The task running the process in planner executor.
+         */
+        volatile Future<?> task;
+
+        /**
+         * Set when the task starts running, guarded by this future.
+         */
+        private boolean started = false;
+
+        /**
+         * Set when the future is cancelled before the task started, guarded by this future.
+         */
+        private boolean cancelledBeforeStart = false;
 
         public JShop2PlanningFuture(JShop2PlanningProcess process) {
             this.process = process;
         }
+
+        /**
+         * Called by the task before it runs the planner.
+         * @return false if the future was cancelled and the planner must not be run
+         */
+        synchronized boolean markStarted(){
+            if(cancelledBeforeStart){
+                return false;
+            }
+            started = true;
+            return true;
+        }
                 
         @Override
         protected boolean cancelComputation(boolean mayInterruptIfRunning) {
+            synchronized(this){
+                if(!started){
+                    //the planning has not started yet and it never will, it is only removed from the queue
+                    cancelledBeforeStart = true;
+                    Future<?> taskCopy = task;
+                    if(taskCopy != null){
+                        taskCopy.cancel(false);
+                    }
+                    return true;
+                }
+            }
             if(!mayInterruptIfRunning){
                 return super.cancelComputation(mayInterruptIfRunning);
             } else {
@@ -246,6 +380,19 @@ public class JShop2Controller extends AbstractPlanningController<JSHOP2, IJShop2
         }
     }
     
+    private static class PlannerThreadFactory implements ThreadFactory {
+        private final AtomicInteger threadNumber = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "JShop2Planner-" + threadNumber.getAndIncrement());
+            //planner threads should not prevent JVM from exiting
+            t.setDaemon(true);
+            return t;
+        }
+        
+    }
+    
     public static interface PlannerInterruptTest {
         public boolean shouldInterruptPrematurely(IPlanningGoal goal, double lastBestPlanCost, int numStepsSinceFirstPlan, JSHOP2 jshop);
         public String getLoggableRepresentation();
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.environment.impl;
+
+import cz.cuni.amis.planning4j.pddl.PDDLObjectInstance;
+import cz.cuni.amis.planning4j.pddl.PDDLPredicate;
+
+/**
+ * Rendered literals of a single predicate, whose arguments are taken from fixed arrays of object instances.
+ * Literals are addressed by indices of the arguments in the arrays, each literal is rendered
+ * by PDDLPredicate.stringAfterSubstitution on first use
+ * and kept for the lifetime of the cache, so that problems generated repeatedly from the same objects
+ * share the strings.
+ * <p>
+ * The cache may be used from multiple threads without locking, concurrent callers may only render the same literal twice.
+ * </p>
+ * @author Martin Cerny
+ */
+public class PDDLFactCache {
+
+    private final PDDLPredicate predicate;
+
+    private final PDDLObjectInstance[][] argumentDomains;
+
+    /**
+     * Literal for arguments a_0 ... a_n-1 is stored at index sum(a_i * strides[i]).
+     */
+    private final int[] strides;
+
+    private final String[] facts;
+
+    /**
+     * Creates the cache.
+     * @param predicate the predicate
+     * @param argumentDomains for each parameter of the predicate the instances that may be substituted for it
+     */
+    public PDDLFactCache(PDDLPredicate predicate, PDDLObjectInstance[]... argumentDomains) {
+        this.predicate = predicate;
+        this.argumentDomains = argumentDomains;
+        strides = new int[argumentDomains.length];
+        long numFacts = 1;
+        for(int i = argumentDomains.length - 1; i >= 0; i--){
+            strides[i] = (int)numFacts;
+            numFacts *= argumentDomains[i].length;
+            if(numFacts > Integer.MAX_VALUE){
+                throw new IllegalArgumentException("Too many literals for predicate " + predicate);
+            }
+        }
+        facts = new String[(int)numFacts];
+    }
+
+    public String getFact(){
+        return getFactAtIndex(0);
+    }
+
+    public String getFact(int argument){
+        return getFactAtIndex(argument * strides[0]);
+    }
+
+    public String getFact(int argument0, int argument1){
+        return getFactAtIndex(argument0 * strides[0] + argument1 * strides[1]);
+    }
+
+    public String getFact(int argument0, int argument1, int argument2){
+        return getFactAtIndex(argument0 * strides[0] + argument1 * strides[1] + argument2 * strides[2]);
+    }
+
+    private String getFactAtIndex(int index){
+        String fact = facts[index];
+        if(fact == null){
+            PDDLObjectInstance[] arguments = new PDDLObjectInstance[argumentDomains.length];
+            int rest = index;
+            for(int i = 0; i < argumentDomains.length; i++){
+                arguments[i] = argumentDomains[i][rest / strides[i]];
+                rest %= strides[i];
+            }
+            fact = predicate.stringAfterSubstitution(arguments);
+            facts[index] = fact;
+        }
+        return fact;
+    }
+
+    public PDDLPredicate getPredicate() {
+        return predicate;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.environment.impl;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A size-bounded store of successful plans, indexed by problem fingerprints 
+ * (see {@link cz.cuni.amis.aiste.environment.IPlanCachingRepresentation}).
+ * When full, the least recently used plan is discarded.
+ * @author Martin Cerny
+ */
+public class PlanCache<PLANNER_ACTION> {
+
+    private final int maxSize;
+    
+    private final Map<Object, List<PLANNER_ACTION>> plans;
+
+    public PlanCache(int maxSize) {
+        if(maxSize <= 0){
+            throw new IllegalArgumentException("Plan cache size must be positive");
+        }
+        this.maxSize = maxSize;
+        plans = new LinkedHashMap<Object, List<PLANNER_ACTION>>(16, 0.75f, true){
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, List<PLANNER_ACTION>> eldest) {
+                return size() > PlanCache.this.maxSize;
+            }
+            
+        };
+    }
+    
+    /**
+     * Gets the plan stored for given fingerprint.
+     * @param fingerprint
+     * @return unmodifiable list of planner actions or null if there is no such plan
+     */
+    public synchronized List<PLANNER_ACTION> get(Object fingerprint){
+        return plans.get(fingerprint);
+    }
+    
+    public synchronized void put(Object fingerprint, List<PLANNER_ACTION> plan){
+        plans.put(fingerprint, Collections.unmodifiableList(new ArrayList<PLANNER_ACTION>(plan)));
+    }
+    
+    public synchronized void remove(Object fingerprint){
+        plans.remove(fingerprint);
+    }
+    
+    public synchronized void clear(){
+        plans.clear();
+    }
+    
+    public synchronized int size(){
+        return plans.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+        
+}
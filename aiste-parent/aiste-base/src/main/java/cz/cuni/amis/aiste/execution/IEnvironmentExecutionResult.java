@@ -29,5 +29,11 @@ public interface IEnvironmentExecutionResult {
     List<IAgentExecutionResult> getAgentResults();
     Map<IAgentController, IAgentExecutionResult> getPerAgentResults();
     long getNumberOfStepsElapsed();
+    
+    /**
+     * Average number of simulation steps performed per second of wall-clock time.
+     * @return steps per second or NaN if the executor did not measure it
+     */
+    double getStepsPerSecond();
     EExperimentRunResult getOverallResult();
 }
@@ -56,6 +56,13 @@ public abstract class AbstractEnvironmentExecutor implements IEnvironmentExecuto
     
     EExperimentRunResult overallResultSoFar;
     
+    /**
+     * Wall-clock time (in ms) when the step loop was started and finished, 
+     * used to compute steps per second. Negative if not marked.
+     */
+    private long executionStartTime = -1;
+    private long executionEndTime = -1;
+    
     public AbstractEnvironmentExecutor(long stepDelay) {
         this.stepDelay = stepDelay;
     }
@@ -132,6 +139,23 @@ public abstract class AbstractEnvironmentExecutor implements IEnvironmentExecuto
         }
     }
     
+    /**
+     * Descendants should call this method right before the first simulation step,
+     * so that steps per second can be reported in the execution result.
+     */
+    protected void markExecutionStart(){
+        executionStartTime = System.currentTimeMillis();
+        executionEndTime = -1;
+    }
+    
+    /**
+     * Descendants should call this method right after the last simulation step,
+     * so that steps per second can be reported in the execution result.
+     */
+    protected void markExecutionEnd(){
+        executionEndTime = System.currentTimeMillis();
+    }
+    
     /**
      * Descendants may call this method to perform a single simulation step. The method
      * is not thread safe.
@@ -229,10 +253,24 @@ public abstract class AbstractEnvironmentExecutor implements IEnvironmentExecuto
         for(IAgentController controller : controllers){
             agentResults.add(new AgentExecutionResult(controller.getBody().getType(), controller, environment.getTotalReward(controller.getBody())));
         }
-        EnvironmentExecutionResult result = new EnvironmentExecutionResult(overallResultSoFar, agentResults, environment.getTimeStep());
+        EnvironmentExecutionResult result = new EnvironmentExecutionResult(overallResultSoFar, agentResults, environment.getTimeStep(), computeStepsPerSecond());
         return result;
     }
     
+    /**
+     * Steps per second measured between {@link #markExecutionStart() } and {@link #markExecutionEnd() }
+     * (or now, if the end was not marked).
+     * @return steps per second or NaN if the start of execution was not marked
+     */
+    protected double computeStepsPerSecond(){
+        if(executionStartTime < 0){
+            return Double.NaN;
+        }
+        long endTime = executionEndTime >= 0 ? executionEndTime : System.currentTimeMillis();
+        long elapsed = Math.max(endTime - executionStartTime, 1);
+        return environment.getTimeStep() * 1000d / elapsed;
+    }
+    
     public IEnvironment getEnvironment() {
         return environment;
     }
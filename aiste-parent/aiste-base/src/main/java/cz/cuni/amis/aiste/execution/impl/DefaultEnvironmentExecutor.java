@@ -84,6 +84,7 @@ public class DefaultEnvironmentExecutor extends AbstractEnvironmentExecutor {
         
         overallResultSoFar = EExperimentRunResult.SUCCESS;
         
+        markExecutionStart();
         try {
             while (!getEnvironment().isFinished() && !cancelled) {
                 if((System.currentTimeMillis() - startTime) / getStepDelay() > stepsPerformed){
@@ -141,6 +142,7 @@ public class DefaultEnvironmentExecutor extends AbstractEnvironmentExecutor {
             onException(ex);
             logger.error("Exception during environment execution. ", ex);
         }
+        markExecutionEnd();
         
         /**
          * Wait for two simulation steps to avoid most of terrible concurrency issues when
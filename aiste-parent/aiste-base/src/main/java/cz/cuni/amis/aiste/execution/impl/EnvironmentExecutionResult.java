@@ -33,11 +33,17 @@ public class EnvironmentExecutionResult implements IEnvironmentExecutionResult {
     List<IAgentExecutionResult> agentResults;
     Map<IAgentController, IAgentExecutionResult> perAgentResults;
     long numberOfStepsElapsed;
+    double stepsPerSecond;
 
     public EnvironmentExecutionResult(EExperimentRunResult overallResult, List<IAgentExecutionResult> agentResults, long numberOfStepsElapsed) {
+        this(overallResult, agentResults, numberOfStepsElapsed, Double.NaN);
+    }
+    
+    public EnvironmentExecutionResult(EExperimentRunResult overallResult, List<IAgentExecutionResult> agentResults, long numberOfStepsElapsed, double stepsPerSecond) {
         this.overallResult = overallResult;
         this.agentResults = agentResults;
         this.numberOfStepsElapsed = numberOfStepsElapsed;
+        this.stepsPerSecond = stepsPerSecond;
         perAgentResults = new HashMap<IAgentController, IAgentExecutionResult>(agentResults.size());
         for(IAgentExecutionResult result : agentResults){
             perAgentResults.put(result.getController(), result);
@@ -54,6 +60,11 @@ public class EnvironmentExecutionResult implements IEnvironmentExecutionResult {
         return numberOfStepsElapsed;
     }
 
+    @Override
+    public double getStepsPerSecond() {
+        return stepsPerSecond;
+    }
+
     @Override
     public Map<IAgentController, IAgentExecutionResult> getPerAgentResults() {
         return perAgentResults;
@@ -0,0 +1,226 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.execution.impl;
+
+import cz.cuni.amis.aiste.environment.IAgentController;
+import cz.cuni.amis.aiste.execution.IEnvironmentExecutionResult;
+import cz.cuni.amis.experiments.EExperimentRunResult;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import org.apache.log4j.Logger;
+
+/**
+ * An executor that runs the simulation as fast as possible, without any wall-clock pacing.
+ * Controllers are notified of each step in parallel and the next step is performed as soon as
+ * all notifications have returned (or the optional step deadline has passed).
+ * Suitable for large batches of experiments, where {@link DefaultEnvironmentExecutor} would
+ * spend most of the time sleeping.
+ * <p>
+ * The step delay given in constructor is passed to the controllers only as a hint
+ * (e. g. for their internal timeouts), it does not influence the speed of the simulation.
+ * </p>
+ * @author Martin Cerny
+ */
+public class HeadlessEnvironmentExecutor extends AbstractEnvironmentExecutor {
+
+    private final Logger logger = Logger.getLogger(HeadlessEnvironmentExecutor.class);
+
+    private final ExecutorService agentStepNotificationExecutorService;
+
+    /**
+     * Maximum time (in ms) to wait for all controllers to process a single step.
+     * Zero means wait indefinitely.
+     */
+    private final long stepDeadline;
+
+    /**
+     * Notifications submitted in current step.
+     */
+    private final List<Future<?>> pendingNotifications = new ArrayList<Future<?>>();
+
+    /**
+     * Notifications that have not finished before the step deadline.
+     * A controller is not notified again until its previous notification finishes.
+     */
+    private final Map<IAgentController, Future<?>> overdueNotifications = new HashMap<IAgentController, Future<?>>();
+
+    private long numDeadlinesMissed;
+
+    private volatile boolean cancelled = false;
+
+    /**
+     * Creates an executor that waits for all controllers indefinitely.
+     * @param stepDelay the step delay reported to the controllers
+     */
+    public HeadlessEnvironmentExecutor(long stepDelay) {
+        this(stepDelay, 0);
+    }
+
+    /**
+     *
+     * @param stepDelay the step delay reported to the controllers
+     * @param stepDeadline maximum time (in ms) to wait for controllers to process a step, zero for no limit
+     */
+    public HeadlessEnvironmentExecutor(long stepDelay, long stepDeadline) {
+        super(stepDelay);
+        this.stepDeadline = stepDeadline;
+        agentStepNotificationExecutorService = Executors.newCachedThreadPool();
+    }
+
+    @Override
+    public IEnvironmentExecutionResult executeEnvironment(long maxSteps) {
+        cancelled = false;
+        numDeadlinesMissed = 0;
+        startSimulation();
+
+        overallResultSoFar = EExperimentRunResult.SUCCESS;
+
+        long stepsPerformed = 0;
+        markExecutionStart();
+        try {
+            while (!getEnvironment().isFinished() && !cancelled && (maxSteps == 0 || stepsPerformed < maxSteps)) {
+                synchronized (getEnvironment()) {
+                    if (getEnvironment().isFinished()) {
+                        break;
+                    }
+                    performSimulationStep();
+                }
+                stepsPerformed++;
+                waitForNotifications();
+            }
+        } catch (Exception ex) {
+            onException(ex);
+            logger.error("Exception during environment execution. ", ex);
+        }
+        markExecutionEnd();
+
+        if (numDeadlinesMissed > 0) {
+            logger.info("Controllers missed the step deadline " + numDeadlinesMissed + " times.");
+        }
+
+        IEnvironmentExecutionResult result = gatherExecutionResult();
+        if (logger.isDebugEnabled()) {
+            logger.debug("Performed " + stepsPerformed + " steps, " + result.getStepsPerSecond() + " steps per second.");
+        }
+        return result;
+    }
+
+    /**
+     * Blocks until all notifications issued in the last step have returned or until
+     * the step deadline has passed.
+     */
+    private void waitForNotifications() {
+        long deadlineTime = System.currentTimeMillis() + stepDeadline;
+        for (Future<?> notification : pendingNotifications) {
+            try {
+                if (stepDeadline <= 0) {
+                    notification.get();
+                } else {
+                    notification.get(Math.max(deadlineTime - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                }
+            } catch (TimeoutException ex) {
+                numDeadlinesMissed++;
+            } catch (InterruptedException ex) {
+                logger.warn("Waiting for controllers interrupted.", ex);
+                cancelled = true;
+                break;
+            } catch (ExecutionException ex) {
+                //exceptions are handled within the task itself
+                logger.warn("Unexpected exception in step notification.", ex);
+            }
+        }
+        pendingNotifications.clear();
+    }
+
+    @Override
+    protected void notifyControllerOfSimulationStep(IAgentController controller, double reward) {
+        Future<?> overdue = overdueNotifications.get(controller);
+        if (overdue != null) {
+            if (!overdue.isDone()) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Controller " + controller + " has not finished previous step. Notification skipped.");
+                }
+                return;
+            }
+            overdueNotifications.remove(controller);
+        }
+
+        Future<?> notification;
+        synchronized (agentStepNotificationExecutorService) {
+            if (agentStepNotificationExecutorService.isShutdown()) {
+                return;
+            }
+            notification = agentStepNotificationExecutorService.submit(new NotifyControllerOfSimulationStepTask(controller, reward));
+        }
+        pendingNotifications.add(notification);
+        if (stepDeadline > 0) {
+            overdueNotifications.put(controller, notification);
+        }
+    }
+
+    @Override
+    protected void stopSimulation() {
+        cancelled = true;
+        super.stopSimulation();
+        synchronized (agentStepNotificationExecutorService) {
+            agentStepNotificationExecutorService.shutdownNow();
+        }
+    }
+
+    /**
+     * Number of times a controller did not finish processing a step before the step deadline
+     * during the last execution.
+     * @return
+     */
+    public long getNumDeadlinesMissed() {
+        return numDeadlinesMissed;
+    }
+
+    public long getStepDeadline() {
+        return stepDeadline;
+    }
+
+    private class NotifyControllerOfSimulationStepTask implements Runnable {
+
+        private IAgentController controller;
+
+        private double reward;
+
+        public NotifyControllerOfSimulationStepTask(IAgentController controller, double reward) {
+            this.controller = controller;
+            this.reward = reward;
+        }
+
+        @Override
+        public void run() {
+            try {
+                controller.onSimulationStep(reward);
+            } catch (Exception ex) {
+                logger.error("Controller " + controller + " has raised exception during onSimulationStep(). It has been stopped.", ex);
+                controllerFailed(controller);
+            }
+        }
+    }
+}
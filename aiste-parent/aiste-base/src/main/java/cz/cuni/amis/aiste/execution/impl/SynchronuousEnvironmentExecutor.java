@@ -44,10 +44,12 @@ public class SynchronuousEnvironmentExecutor extends AbstractEnvironmentExecutor
         this.startSimulation();
         simulationStopped = false;
         long step = 0;
+        markExecutionStart();
         while (!getEnvironment().isFinished() && (maxSteps == 0 || step < maxSteps) && !simulationStopped) {
             performSimulationStep();
             step++;
         }
+        markExecutionEnd();
         IEnvironmentExecutionResult result = gatherExecutionResult();
         stopSimulation();
         return result;
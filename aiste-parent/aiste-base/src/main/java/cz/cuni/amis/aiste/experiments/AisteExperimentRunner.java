@@ -74,43 +74,85 @@ public class AisteExperimentRunner extends AbstractExperimentRunner<AisteExperim
     
     
 
+    /**
+     * Draws a seed for the next experiment from the random generator of this runner.
+     * @return 
+     */
+    protected long nextSeed() {
+        return rand.nextLong();
+    }
+
     @Override
     protected void prepareExperiment(AisteExperiment experiment) {
         super.prepareExperiment(experiment);
-        environmentExecutor = environmentExecutorFactory.createExecutor(experiment);        
-        if(environmentExecutor instanceof IRandomizable){
-            ((IRandomizable)environmentExecutor).setRandomSeed(rand.nextLong());
-        }        
-        environmentExecutor.setEnvironment(experiment.getEnvironment());
-        for(IAgentExecutionDescriptor descriptor : experiment.getDescriptors()){
-            environmentExecutor.addAgentController(descriptor);
-        }
+        prepareExecution(experiment);
         if(!rankLoggingProviders.containsKey(experiment.getEnvironment().getClass())){
             rankLoggingProviders.put(experiment.getEnvironment().getClass(), new RankLoggingProvider(experiment.getEnvironment()));
         }
     }
 
-    
+    /**
+     * Prepares the executor for the experiment that is about to be run.
+     * @param experiment 
+     */
+    protected void prepareExecution(AisteExperiment experiment) {
+        environmentExecutor = createExecutor(experiment, nextSeed());
+    }
 
+    /**
+     * Creates an executor for the experiment and registers the environment and all agents with it.
+     * @param experiment
+     * @param seed random seed for the executor
+     * @return 
+     */
+    protected IEnvironmentExecutor createExecutor(AisteExperiment experiment, long seed) {
+        IEnvironmentExecutor executor = environmentExecutorFactory.createExecutor(experiment);        
+        if(executor instanceof IRandomizable){
+            ((IRandomizable)executor).setRandomSeed(seed);
+        }        
+        executor.setEnvironment(experiment.getEnvironment());
+        for(IAgentExecutionDescriptor descriptor : experiment.getDescriptors()){
+            executor.addAgentController(descriptor);
+        }
+        return executor;
+    }
     
-    
-    @Override
-    protected EExperimentRunResult runExperimentInternal(AisteExperiment experiment) {
+    /**
+     * Runs the simulation of an experiment prepared with {@link #prepareExecution(cz.cuni.amis.aiste.experiments.AisteExperiment) }.
+     * @param experiment
+     * @return 
+     */
+    protected IEnvironmentExecutionResult executeExperiment(AisteExperiment experiment) {
         try {
-            lastExecutionResult = environmentExecutor.executeEnvironment(maxSteps);
-            rankLoggingProviders.get(experiment.environment.getClass()).logExperimentResults(lastExecutionResult);  
-            return lastExecutionResult.getOverallResult();
+            return environmentExecutor.executeEnvironment(maxSteps);
         } finally {
-            for(AgentBody body : (List<AgentBody>)experiment.environment.getAllBodies()){
-                logger.info("Total reward for " + body.getId() + " :" + experiment.environment.getTotalReward(body));
-            }
+            logTotalRewards(experiment);
             environmentExecutor.shutdown();            
         }
     }
+    
+    protected void logTotalRewards(AisteExperiment experiment) {
+        for(AgentBody body : (List<AgentBody>)experiment.environment.getAllBodies()){
+            logger.info("Total reward for " + body.getId() + " :" + experiment.environment.getTotalReward(body));
+        }
+    }
+    
+    @Override
+    protected EExperimentRunResult runExperimentInternal(AisteExperiment experiment) {
+        lastExecutionResult = executeExperiment(experiment);
+        rankLoggingProviders.get(experiment.environment.getClass()).logExperimentResults(lastExecutionResult);  
+        return lastExecutionResult.getOverallResult();
+    }
 
     @Override
     protected void cancelRunningExperiment() {
-        environmentExecutor.shutdown();
+        if(environmentExecutor != null){
+            environmentExecutor.shutdown();
+        }
+    }
+
+    public long getMaxSteps() {
+        return maxSteps;
     }
 
     @Override
@@ -130,7 +172,7 @@ public class AisteExperimentRunner extends AbstractExperimentRunner<AisteExperim
         if(! (provider instanceof IAgentController)){
             return super.getAdditionalLoggingHeaders(experiment, provider);
         } else {
-            return LoggingHeadersConcatenation.concatenate(super.getAdditionalLoggingHeaders(experiment, provider), new LoggingHeaders("reward", "stepsElapsed") );
+            return LoggingHeadersConcatenation.concatenate(super.getAdditionalLoggingHeaders(experiment, provider), new LoggingHeaders("reward", "stepsElapsed", "stepsPerSecond") );
         }
     }
 
@@ -148,7 +190,7 @@ public class AisteExperimentRunner extends AbstractExperimentRunner<AisteExperim
                 throw new ExperimentException("The environment has not provided reward for controller " + controller);
             }
             double reward = agentResult.getTotalReward();
-            List<Object> data = Arrays.asList(new Object[] {reward, lastExecutionResult.getNumberOfStepsElapsed()});
+            List<Object> data = Arrays.asList(new Object[] {reward, lastExecutionResult.getNumberOfStepsElapsed(), lastExecutionResult.getStepsPerSecond()});
             return ListConcatenation.concatenate(super.getAdditionalLoggingDataValues(experiment, provider), data);
         }
     }
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.cuni.amis.aiste.experiments;
+
+import cz.cuni.amis.aiste.AisteException;
+import cz.cuni.amis.aiste.execution.IAgentExecutionDescriptor;
+import cz.cuni.amis.aiste.execution.IEnvironmentExecutionResult;
+import cz.cuni.amis.aiste.execution.IEnvironmentExecutor;
+import cz.cuni.amis.aiste.execution.IEnvironmentExecutorFactory;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.apache.log4j.Logger;
+
+/**
+ * An experiment runner that simulates experiments concurrently on a pool of worker threads.
+ * <p>
+ * Experiments are first passed to {@link #scheduleExperiments(java.util.List) }, which
+ * starts their simulations in the background. The experiments are then run as usual
+ * (e. g. with ExperimentUtils.runSuiteSingleThreaded), in the same order they were scheduled.
+ * Running a scheduled experiment only waits for its simulation to finish and then logs its results
+ * in the calling thread, so the logs contain no interleaved rows and are in the same order as with sequential execution.
+ * </p>
+ * <p>
+ * Random seeds are drawn from the random generator of this runner in the order of scheduling, so each experiment gets the same
+ * seed it would get if the experiments were run sequentially, regardless of the number of workers.
+ * </p>
+ * <p>
+ * Environments and controllers are stateful, so experiments that share an environment or a controller
+ * instance are never simulated concurrently - they are run in the order of scheduling instead.
+ * To make full use of the workers, every experiment should have its own instances.
+ * </p>
+ * @author Martin Cerny
+ */
+public class ParallelAisteExperimentRunner extends AisteExperimentRunner {
+    private final Logger logger = Logger.getLogger(ParallelAisteExperimentRunner.class);
+
+    private final int numWorkers;
+
+    private ExecutorService workers = null;
+
+    private final Map<AisteExperiment, ScheduledRun> scheduledRuns = new IdentityHashMap<AisteExperiment, ScheduledRun>();
+
+    private final List<ScheduledRun> scheduledRunsInOrder = new ArrayList<ScheduledRun>();
+
+    /**
+     * Index (in {@link #scheduledRunsInOrder}) of the first run whose resources have not been released yet.
+     */
+    private int firstUnreleasedRun = 0;
+
+    private final ResourceScheduler resourceScheduler = new ResourceScheduler();
+
+    private ScheduledRun currentRun = null;
+
+    public ParallelAisteExperimentRunner(IEnvironmentExecutorFactory environmentExecutorFactory) {
+        this(environmentExecutorFactory, 0);
+    }
+
+    public ParallelAisteExperimentRunner(IEnvironmentExecutorFactory environmentExecutorFactory, long maxSteps) {
+        this(environmentExecutorFactory, maxSteps, Runtime.getRuntime().availableProcessors());
+    }
+
+    public ParallelAisteExperimentRunner(IEnvironmentExecutorFactory environmentExecutorFactory, long maxSteps, int numWorkers) {
+        super(environmentExecutorFactory, maxSteps);
+        if(numWorkers <= 0){
+            throw new IllegalArgumentException("Number of workers must be positive");
+        }
+        this.numWorkers = numWorkers;
+    }
+
+    /**
+     * Starts simulating given experiments in the background. The experiments then have to be run in the given order.
+     * @param experiments
+     */
+    public synchronized void scheduleExperiments(List<AisteExperiment> experiments){
+        if(workers == null){
+            workers = Executors.newFixedThreadPool(numWorkers);
+        }
+        for(AisteExperiment experiment : experiments){
+            if(scheduledRuns.containsKey(experiment)){
+                throw new AisteException("Experiment already scheduled: " + experiment.getDescription());
+            }
+            ScheduledRun run = new ScheduledRun(scheduledRunsInOrder.size(), experiment, nextSeed());
+            resourceScheduler.enqueue(run);
+            scheduledRuns.put(experiment, run);
+            scheduledRunsInOrder.add(run);
+            run.future = workers.submit(run);
+        }
+        if(logger.isDebugEnabled()){
+            logger.debug("Scheduled " + experiments.size() + " experiments on " + numWorkers + " workers.");
+        }
+    }
+
+    /**
+     * Once an experiment is about to be run, all previously scheduled experiments have been logged,
+     * so their environments and controllers may be used by other experiments.
+     * @param upToIndex
+     */
+    private void releaseRunsBefore(int upToIndex){
+        while(firstUnreleasedRun < upToIndex){
+            resourceScheduler.release(scheduledRunsInOrder.get(firstUnreleasedRun));
+            firstUnreleasedRun++;
+        }
+    }
+
+    @Override
+    protected void prepareExecution(AisteExperiment experiment) {
+        ScheduledRun run;
+        synchronized(this){
+            run = scheduledRuns.get(experiment);
+            if(run != null){
+                releaseRunsBefore(run.index);
+            }
+            currentRun = run;
+        }
+        if(run == null){
+            //not scheduled, run it the usual way
+            super.prepareExecution(experiment);
+        }
+    }
+
+    @Override
+    protected IEnvironmentExecutionResult executeExperiment(AisteExperiment experiment) {
+        ScheduledRun run = currentRun;
+        if(run == null || run.experiment != experiment){
+            return super.executeExperiment(experiment);
+        }
+        try {
+            return run.future.get();
+        } catch (InterruptedException ex){
+            throw new AisteException("Waiting for experiment simulation interrupted", ex);
+        } catch (ExecutionException ex){
+            throw new AisteException("Exception during experiment simulation", ex.getCause());
+        }
+    }
+
+    @Override
+    protected void cancelRunningExperiment() {
+        ScheduledRun run = currentRun;
+        if(run != null){
+            run.cancel();
+        } else {
+            super.cancelRunningExperiment();
+        }
+    }
+
+    @Override
+    public void shutdown() {
+        super.shutdown();
+        synchronized(this){
+            for(ScheduledRun run : scheduledRunsInOrder){
+                run.cancel();
+            }
+            if(workers != null){
+                workers.shutdownNow();
+            }
+            releaseRunsBefore(scheduledRunsInOrder.size());
+        }
+    }
+
+    public int getNumWorkers() {
+        return numWorkers;
+    }
+
+    private class ScheduledRun implements Callable<IEnvironmentExecutionResult> {
+        final int index;
+        final AisteExperiment experiment;
+        final long seed;
+        /**
+         * Environment and controllers of the experiment.
+         */
+        final List<Object> resources;
+
+        Future<IEnvironmentExecutionResult> future;
+
+        private IEnvironmentExecutor executor = null;
+        private boolean cancelled = false;
+
+        public ScheduledRun(int index, AisteExperiment experiment, long seed) {
+            this.index = index;
+            this.experiment = experiment;
+            this.seed = seed;
+            resources = new ArrayList<Object>(experiment.getDescriptors().size() + 1);
+            resources.add(experiment.getEnvironment());
+            for(IAgentExecutionDescriptor descriptor : experiment.getDescriptors()){
+                addResource(descriptor.getController());
+            }
+        }
+
+        private void addResource(Object resource){
+            for(Object existing : resources){
+                if(existing == resource){
+                    return;
+                }
+            }
+            resources.add(resource);
+        }
+
+        @Override
+        public IEnvironmentExecutionResult call() throws Exception {
+            resourceScheduler.acquire(this);
+            IEnvironmentExecutor runExecutor;
+            synchronized(this){
+                if(cancelled){
+                    throw new AisteException("Experiment cancelled before it was started.");
+                }
+                executor = createExecutor(experiment, seed);
+                runExecutor = executor;
+            }
+            try {
+                return runExecutor.executeEnvironment(getMaxSteps());
+            } finally {
+                logTotalRewards(experiment);
+                runExecutor.shutdown();
+            }
+        }
+
+        public void cancel(){
+            IEnvironmentExecutor executorToShutdown;
+            synchronized(this){
+                cancelled = true;
+                executorToShutdown = executor;
+            }
+            if(executorToShutdown != null){
+                executorToShutdown.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Grants access to environments and controllers in the order in which the runs were scheduled.
+     */
+    private static class ResourceScheduler {
+        private final Map<Object, Deque<ScheduledRun>> queues = new IdentityHashMap<Object, Deque<ScheduledRun>>();
+
+        public synchronized void enqueue(ScheduledRun run){
+            for(Object resource : run.resources){
+                Deque<ScheduledRun> queue = queues.get(resource);
+                if(queue == null){
+                    queue = new ArrayDeque<ScheduledRun>();
+                    queues.put(resource, queue);
+                }
+                queue.addLast(run);
+            }
+        }
+
+        private boolean isFirstInAllQueues(ScheduledRun run){
+            for(Object resource : run.resources){
+                if(queues.get(resource).peekFirst() != run){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        public synchronized void acquire(ScheduledRun run) throws InterruptedException{
+            while(!isFirstInAllQueues(run)){
+                wait();
+            }
+        }
+
+        public synchronized void release(ScheduledRun run){
+            for(Object resource : run.resources){
+                queues.get(resource).remove(run);
+            }
+            notifyAll();
+        }
+    }
+}
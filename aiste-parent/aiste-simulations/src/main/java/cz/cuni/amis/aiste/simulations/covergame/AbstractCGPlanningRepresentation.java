@@ -22,9 +22,13 @@ import cz.cuni.amis.aiste.environment.IActionFailureRepresentation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.ISimulablePlanningRepresentation;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyPair;
+import cz.cuni.amis.aiste.simulations.covergame.CoverGame.OpponentData;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
@@ -34,10 +38,88 @@ public abstract class AbstractCGPlanningRepresentation <DOMAIN, PROBLEM, PLANNER
 
     protected CoverGame env;
 
+    /**
+     * Maximal number of start nav points whose uncovered shots are kept in {@link #uncoveredShotsCache}.
+     */
+    private static final int MAX_UNCOVERED_SHOTS_CACHE_ROWS = 8;
+    
+    /**
+     * Opponent data the {@link #uncoveredShotsCache} was computed for
+     */
+    private OpponentData[] uncoveredShotsOpponentData;
+    
+    /**
+     * Memoised results of {@link #getPossibleUncoveredShots(int, int, cz.cuni.amis.aiste.simulations.covergame.CoverGame.OpponentData[]) }.
+     * Key is the start nav point, values are indexed by target nav point, -1 if not computed yet.
+     * When full, the least recently used row is discarded.
+     */
+    private final Map<Integer, int[]> uncoveredShotsCache = new LinkedHashMap<Integer, int[]>(16, 0.75f, true){
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, int[]> eldest) {
+            return size() > MAX_UNCOVERED_SHOTS_CACHE_ROWS;
+        }
+        
+    };
+    
+    /**
+     * The snapshot the last problem for each body was created from.
+     */
+    private final Map<AgentBody, CoverGame> problemSnapshots = new ConcurrentHashMap<AgentBody, CoverGame>();
+    
     public AbstractCGPlanningRepresentation(CoverGame env) {
         this.env = env;
     }
 
+    /**
+     * Gets the current state snapshot of the environment and remembers it as the source
+     * of the problem for given body. Problems should be created only from the returned snapshot.
+     * @param body
+     * @return 
+     */
+    protected CoverGame getSnapshotForProblem(AgentBody body){
+        CoverGame snapshot = env.getStateSnapshot();
+        problemSnapshots.put(body, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Gets the snapshot the last problem for given body was created from.
+     * @param body
+     * @return the snapshot, or current snapshot of the environment if no problem was created yet
+     */
+    protected CoverGame getLastProblemSnapshot(AgentBody body){
+        CoverGame snapshot = problemSnapshots.get(body);
+        if(snapshot == null){
+            snapshot = env.getStateSnapshot();
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Starts a problem fingerprint for plan caching with the body, the goal and locations of both
+     * the bodies of the pair and the opponents. The opponent data are derived from opponent locations only,
+     * so representations need to append only the remaining state they read.
+     * @param body
+     * @param goal
+     * @param snapshot the snapshot the problem was created from
+     * @return 
+     */
+    protected StringBuilder createLocationFingerprint(AgentBody body, CGPlanningGoal goal, CoverGame snapshot){
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(body.getId()).append(':').append(goal.getType());
+        CGBodyPair bodyPair = snapshot.bodyPairs.get(body.getId());
+        for(int i = 0; i < 2; i++){
+            Loc loc = bodyPair.getBodyInfo(i).getLoc();
+            fingerprint.append('|').append(loc.x).append(';').append(loc.y);
+        }
+        for(int opponentId : snapshot.getOpponentIds(body.getId())){
+            Loc loc = snapshot.bodyInfos.get(opponentId).getLoc();
+            fingerprint.append('#').append(loc.x).append(';').append(loc.y);
+        }
+        return fingerprint;
+    }
+
     @Override
     public boolean lastActionFailed(AgentBody body) {
         return env.lastActionFailed(body);                
@@ -51,7 +133,7 @@ public abstract class AbstractCGPlanningRepresentation <DOMAIN, PROBLEM, PLANNER
 /*        for(int bodyIndex = 0; bodyIndex < 2; bodyIndex++){
             double worstCaseShots = simulationEnv.getMarkerData(body).expectedWorstCaseShotsReceivedSinceMarker[bodyIndex];
             double expectedWorstCaseDamage = simulationEnv.defs.shootDamage * worstCaseShots;
-            if(expectedWorstCaseDamage > simulationEnv.bodyPairs.get(body.getId()).getBodyInfo(bodyIndex).health){
+            if(expectedWorstCaseDamage > simulationEnv.bodyPairs.get(body.getId()).getBodyInfo(bodyIndex).getHealth()){
                 return false;
             }
             if(simulationEnv.getMarkerData(body).maxShotProbabilitySinceMarker[bodyIndex] > 0.6){
@@ -102,5 +184,118 @@ public abstract class AbstractCGPlanningRepresentation <DOMAIN, PROBLEM, PLANNER
         return Arrays.asList(new CGRolePlan[] {new CGRoleDefensive(env, bodyId), new CGRoleOverWatch(env, bodyId, true)});
     }
 
+    /**
+     * Counts the nav points on the shortest path that are uncovered for each opponent. The path includes the target
+     * but not the starting nav point, the body is already there. If from == to, only the target is counted.
+     * Results are memoised as long as the same opponent data are passed, i.e. while the opponents
+     * do not move.
+     * @param from nav point index
+     * @param to nav point index
+     * @param opponentData
+     * @return 
+     */
+    protected int getPossibleUncoveredShots(int from, int to, OpponentData[] opponentData) {
+        synchronized(uncoveredShotsCache){
+            if(uncoveredShotsOpponentData != opponentData){
+                uncoveredShotsOpponentData = opponentData;
+                for(int[] row : uncoveredShotsCache.values()){
+                    Arrays.fill(row, -1);
+                }
+            }
+            int[] row = uncoveredShotsCache.get(from);
+            if(row == null){
+                row = new int[env.defs.compactNavGraph.getNumNavPoints()];
+                Arrays.fill(row, -1);
+                uncoveredShotsCache.put(from, row);
+            }
+            if(row[to] < 0){
+                row[to] = computePossibleUncoveredShots(from, to, opponentData);
+            }
+            return row[to];
+        }
+    }
+
+    private int computePossibleUncoveredShots(int from, int to, OpponentData[] opponentData) {
+        CGDistanceTable distanceTable = env.defs.getDistanceTable();
+        int possibleUncoveredShots = 0;
+        int firstNavPoint = (from == to) ? to : distanceTable.getNextHop(from, to);
+        for(int pathNavPoint = firstNavPoint; pathNavPoint >= 0; pathNavPoint = distanceTable.getNextHop(pathNavPoint, to)){
+            for(int opp = 0; opp < opponentData.length; opp++){
+                if(opponentData[opp].uncoveredNavpoints.containsNavPoint(pathNavPoint)){
+                    possibleUncoveredShots++;
+                }
+            }
+        }
+        return possibleUncoveredShots;
+    }
+
+    /**
+     * Finds nearest vantage points and attack point for a body. A vantage point is considered, if it is reachable
+     * by a path with at most 3 possible uncovered shots, it is safe, if there are none.
+     * An attack point is considered only if it is safe.
+     * Candidates are visited in the order of their distance, so the search stops at the nearest safe point.
+     * @param bodyLoc location of the body
+     * @param vantagePoints candidate vantage points
+     * @param attackPoints candidate attack points
+     * @param opponentData
+     * @return 
+     */
+    protected NearestNavPoints findNearestNavPoints(Loc bodyLoc, CGThreatIndex.NavPointSet vantagePoints, CGThreatIndex.NavPointSet attackPoints, OpponentData[] opponentData){
+        NearestNavPoints result = new NearestNavPoints();
+        CGDistanceTable distanceTable = env.defs.getDistanceTable();
+        int from = distanceTable.getNavGraph().getNavPointIndex(bodyLoc);
+        if(from < 0){
+            return result;
+        }
+        
+        for(int rank = 0; rank < distanceTable.getNumNavPoints(); rank++){
+            int vantagePoint = distanceTable.getNavPointByDistance(from, rank);
+            if(vantagePoint < 0){
+                break;
+            }
+            if(!vantagePoints.containsNavPoint(vantagePoint)){
+                continue;
+            }
+            int distance = distanceTable.getDistance(from, vantagePoint);
+            int possibleUncoveredShots = getPossibleUncoveredShots(from, vantagePoint, opponentData);
+            if(possibleUncoveredShots <= 3 && result.nearestVantage == null){
+                result.nearestVantageDistance = distance;
+                result.nearestVantage = distanceTable.getNavGraph().getNavPoint(vantagePoint);
+            }
+            if(possibleUncoveredShots == 0){
+                result.nearestSafeVantageDistance = distance;
+                result.nearestSafeVantage = distanceTable.getNavGraph().getNavPoint(vantagePoint);
+                //all remaining candidates are at least as far
+                break;
+            }
+        }
+        
+        for(int rank = 0; rank < distanceTable.getNumNavPoints(); rank++){
+            int attackPoint = distanceTable.getNavPointByDistance(from, rank);
+            if(attackPoint < 0){
+                break;
+            }
+            if(attackPoints.containsNavPoint(attackPoint) && getPossibleUncoveredShots(from, attackPoint, opponentData) == 0){
+                result.nearestAttackDistance = distanceTable.getDistance(from, attackPoint);
+                result.nearestAttackPoint = distanceTable.getNavGraph().getNavPoint(attackPoint);
+                break;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Result of {@link #findNearestNavPoints(cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.CGThreatIndex.NavPointSet, cz.cuni.amis.aiste.simulations.covergame.CGThreatIndex.NavPointSet, cz.cuni.amis.aiste.simulations.covergame.CoverGame.OpponentData[]) }.
+     * Points that were not found are null, their distances are Integer.MAX_VALUE.
+     */
+    protected static class NearestNavPoints {
+        Loc nearestSafeVantage = null;
+        int nearestSafeVantageDistance = Integer.MAX_VALUE;
+        Loc nearestVantage = null;
+        int nearestVantageDistance = Integer.MAX_VALUE;
+        Loc nearestAttackPoint = null;
+        int nearestAttackDistance = Integer.MAX_VALUE;
+    }
+
     
 }
@@ -0,0 +1,295 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shortest path distances between all pairs of nav points of a {@link CGNavGraph}, queried by nav point index.
+ * All arcs of the graph have cost 1, so the table is computed by a breadth-first search from every nav point,
+ * searches from different nav points run in parallel.
+ * <p>
+ * Distances are stored in a short matrix if they fit (i.e. there are at most {@link Short#MAX_VALUE} nav points),
+ * otherwise in an int matrix. Paths are not stored, they are reconstructed from the distances
+ * by walking to any neighbour that is one step closer to the target.
+ * </p>
+ * <p>
+ * For every nav point, the table also lists all reachable nav points ordered by their distance
+ * (the order in which the search discovered them), so that searches for the nearest nav point with some property
+ * may stop at the first match.
+ * </p>
+ * <p>
+ * The table is immutable once built and shared by all representations and plans of an environment.
+ * </p>
+ * @author Martin Cerny
+ */
+public class CGDistanceTable {
+
+    /**
+     * Distance returned for unreachable nav points, same as FloydWarshall uses.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final CGNavGraph navGraph;
+
+    private final int numNavPoints;
+
+    /**
+     * Distance from nav point i to nav point j at index i * numNavPoints + j, -1 if not reachable.
+     * Exactly one of shortDistances and intDistances is not null.
+     */
+    private final short[] shortDistances;
+
+    private final int[] intDistances;
+
+    /**
+     * Nav points reachable from nav point i ordered by distance at indices i * numNavPoints to (i + 1) * numNavPoints - 1,
+     * followed by -1 if not all nav points are reachable. Stored as short if possible, same as distances.
+     */
+    private final short[] shortNavPointsByDistance;
+
+    private final int[] intNavPointsByDistance;
+
+    private final long constructionTimeMillis;
+
+    /**
+     * Computes the table.
+     * @param navGraph
+     * @param numThreads number of threads to use
+     * @throws IllegalArgumentException if the graph has too many nav points for the matrices to be indexed by int
+     */
+    public CGDistanceTable(CGNavGraph navGraph, int numThreads) {
+        long startTime = System.currentTimeMillis();
+        this.navGraph = navGraph;
+        numNavPoints = navGraph.getNumNavPoints();
+        long numEntries = (long)numNavPoints * numNavPoints;
+        if(numEntries > Integer.MAX_VALUE){
+            throw new IllegalArgumentException("Too many nav points for a distance table: " + numNavPoints + ", at most " + (int)Math.sqrt(Integer.MAX_VALUE) + " are supported");
+        }
+        //the longest possible distance is numNavPoints - 1
+        if(numNavPoints <= Short.MAX_VALUE){
+            shortDistances = new short[(int)numEntries];
+            intDistances = null;
+            shortNavPointsByDistance = new short[(int)numEntries];
+            intNavPointsByDistance = null;
+        } else {
+            shortDistances = null;
+            intDistances = new int[(int)numEntries];
+            shortNavPointsByDistance = null;
+            intNavPointsByDistance = new int[(int)numEntries];
+        }
+        build(numThreads);
+        constructionTimeMillis = System.currentTimeMillis() - startTime;
+    }
+
+    private void build(int numThreads){
+        if(numThreads <= 1 || numNavPoints < numThreads){
+            searchFromNavPoints(0, 1);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+            for(int i = 0; i < numThreads; i++){
+                final int firstSource = i;
+                final int sourceStep = numThreads;
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        searchFromNavPoints(firstSource, sourceStep);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> future : futures){
+                future.get();
+            }
+        } catch (InterruptedException ex){
+            throw new AisteException("Interrupted while computing distances", ex);
+        } catch (ExecutionException ex){
+            throw new AisteException("Error computing distances", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void searchFromNavPoints(int firstSource, int sourceStep){
+        int[] queue = new int[numNavPoints];
+        int[] rowDistances = new int[numNavPoints];
+        for(int source = firstSource; source < numNavPoints; source += sourceStep){
+            int numReachable = searchFromNavPoint(source, queue, rowDistances);
+            for(int i = numReachable; i < numNavPoints; i++){
+                queue[i] = -1;
+            }
+            storeRow(source, rowDistances, queue);
+        }
+    }
+
+    /**
+     * Breadth-first search that fills distances from the source nav point.
+     * @return number of reachable nav points, the queue contains them ordered by distance
+     */
+    private int searchFromNavPoint(int source, int[] queue, int[] rowDistances){
+        for(int target = 0; target < numNavPoints; target++){
+            rowDistances[target] = -1;
+        }
+        rowDistances[source] = 0;
+        int queueHead = 0;
+        int queueTail = 0;
+        queue[queueTail++] = source;
+        while(queueHead < queueTail){
+            int navPoint = queue[queueHead++];
+            int nextDistance = rowDistances[navPoint] + 1;
+            for(int arc = navGraph.getArcsStart(navPoint); arc < navGraph.getArcsEnd(navPoint); arc++){
+                int neighbour = navGraph.getArcTarget(arc);
+                if(rowDistances[neighbour] >= 0){
+                    continue;
+                }
+                rowDistances[neighbour] = nextDistance;
+                queue[queueTail++] = neighbour;
+            }
+        }
+        return queueTail;
+    }
+
+    private void storeRow(int source, int[] rowDistances, int[] rowNavPointsByDistance){
+        int rowStart = source * numNavPoints;
+        if(shortDistances != null){
+            for(int target = 0; target < numNavPoints; target++){
+                shortDistances[rowStart + target] = (short)rowDistances[target];
+                shortNavPointsByDistance[rowStart + target] = (short)rowNavPointsByDistance[target];
+            }
+        } else {
+            System.arraycopy(rowDistances, 0, intDistances, rowStart, numNavPoints);
+            System.arraycopy(rowNavPointsByDistance, 0, intNavPointsByDistance, rowStart, numNavPoints);
+        }
+    }
+
+    public CGNavGraph getNavGraph() {
+        return navGraph;
+    }
+
+    public int getNumNavPoints() {
+        return numNavPoints;
+    }
+
+    /**
+     * Time it took to compute the table.
+     */
+    public long getConstructionTimeMillis() {
+        return constructionTimeMillis;
+    }
+
+    /**
+     * Length of the shortest path between the nav points.
+     * @return the distance or {@link #UNREACHABLE}
+     */
+    public int getDistance(int from, int to){
+        int index = from * numNavPoints + to;
+        int distance = shortDistances != null ? shortDistances[index] : intDistances[index];
+        if(distance < 0){
+            return UNREACHABLE;
+        }
+        return distance;
+    }
+
+    /**
+     * Length of the shortest path between the locations.
+     * @return the distance or {@link #UNREACHABLE}, if one of the locations is not a nav point or there is no path
+     */
+    public int getDistance(Loc from, Loc to){
+        int fromIndex = navGraph.getNavPointIndex(from);
+        int toIndex = navGraph.getNavPointIndex(to);
+        if(fromIndex < 0 || toIndex < 0){
+            return UNREACHABLE;
+        }
+        return getDistance(fromIndex, toIndex);
+    }
+
+    /**
+     * Nav points ordered by their distance from a nav point. The first one (rank 0) is the nav point itself.
+     * Nav points with the same distance are in no particular order.
+     * @param from
+     * @param rank between 0 and number of nav points - 1
+     * @return index of the nav point, -1 if there are less than rank + 1 nav points reachable from the nav point
+     */
+    public int getNavPointByDistance(int from, int rank){
+        int index = from * numNavPoints + rank;
+        return shortNavPointsByDistance != null ? shortNavPointsByDistance[index] : intNavPointsByDistance[index];
+    }
+
+    public boolean isReachable(int from, int to){
+        return getDistance(from, to) != UNREACHABLE;
+    }
+
+    /**
+     * Throws an exception, if there is a pair of nav points with no path between them.
+     */
+    public void checkAllReachable(){
+        for(int from = 0; from < numNavPoints; from++){
+            for(int to = 0; to < numNavPoints; to++){
+                if(!isReachable(from, to)){
+                    throw new AisteException("Unreachable pair of navpoints: " + navGraph.getNavPoint(from) + ", " + navGraph.getNavPoint(to));
+                }
+            }
+        }
+    }
+
+    /**
+     * The nav point to move to from nav point from in order to reach nav point to by a shortest path.
+     * @return the next nav point or -1 if from == to or to is not reachable
+     */
+    public int getNextHop(int from, int to){
+        int distance = getDistance(from, to);
+        if(distance == 0 || distance == UNREACHABLE){
+            return -1;
+        }
+        for(int arc = navGraph.getArcsStart(from); arc < navGraph.getArcsEnd(from); arc++){
+            int neighbour = navGraph.getArcTarget(arc);
+            if(getDistance(neighbour, to) == distance - 1){
+                return neighbour;
+            }
+        }
+        //cannot happen, the distances were computed over the same arcs
+        throw new AisteException("No neighbour of " + navGraph.getNavPoint(from) + " is closer to " + navGraph.getNavPoint(to));
+    }
+
+    /**
+     * Gets the shortest path, starting with the from location and ending with the to location.
+     * @return the path or null, if the target is not reachable or one of the locations is not a nav point
+     */
+    public List<Loc> getPath(Loc from, Loc to){
+        int fromIndex = navGraph.getNavPointIndex(from);
+        int toIndex = navGraph.getNavPointIndex(to);
+        if(fromIndex < 0 || toIndex < 0 || !isReachable(fromIndex, toIndex)){
+            return null;
+        }
+        List<Loc> path = new ArrayList<Loc>(getDistance(fromIndex, toIndex) + 1);
+        for(int navPoint = fromIndex; navPoint >= 0; navPoint = getNextHop(navPoint, toIndex)){
+            path.add(navGraph.getNavPoint(navPoint));
+        }
+        return path;
+    }
+}
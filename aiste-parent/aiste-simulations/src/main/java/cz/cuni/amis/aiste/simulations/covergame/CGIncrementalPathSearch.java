@@ -0,0 +1,390 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Path search in {@link CGNavGraph} that repairs its results when the start or the goal changes instead of
+ * searching from scratch. The search runs backwards from all goal nav points (Lifelong Planning A* / D* Lite)
+ * and keeps for every nav point the cost of the best path to the goal found so far (g) and the one-step
+ * lookahead value computed from its successors (rhs). Only nav points whose values are inconsistent are
+ * expanded in a subsequent search.
+ * <p>
+ * Heuristic of the goal is not used, which makes moving the start free - no key modifier is needed and
+ * the search tree stays valid for any start. Changes of goal nav points, opened nav points and extra costs
+ * are detected by re-evaluating the goal for all nav points whenever the goal state object passed to
+ * {@link #findPath(cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.CGNavGoal, java.lang.Object) }
+ * changes. The goal state must be an immutable object that determines the answers of the goal
+ * (e.g. {@link CoverGame.OpponentTeamData}), so that an identical goal state means nothing has changed.
+ * Negative extra costs are treated as zero.
+ * </p>
+ * <p>
+ * Copies created by {@link #copy() } share the search state with the original until one of them needs to modify it.
+ * </p>
+ * @author Martin Cerny
+ */
+public class CGIncrementalPathSearch {
+
+    private static final int INFINITE_COST = Integer.MAX_VALUE / 2;
+
+    private final CGNavGraph navGraph;
+
+    private final int numNavPoints;
+
+    private boolean initialized = false;
+
+    /**
+     * The goal state the arrays correspond to.
+     */
+    private Object lastGoalState = null;
+
+    /**
+     * True if the arrays may be shared with another search and must be copied before modification.
+     */
+    private boolean sharedState = false;
+
+    private int[] g;
+
+    private int[] rhs;
+
+    private boolean[] goalFlags;
+
+    /**
+     * Cost added to every arc entering the nav point or {@link #INFINITE_COST} for nav points that are not opened.
+     */
+    private int[] enterCosts;
+
+    /**
+     * Binary heap of inconsistent nav points, ordered by min(g, rhs).
+     */
+    private int[] heapNavPoints;
+
+    private int[] heapKeys;
+
+    /**
+     * Position of the nav point in the heap or -1 if it is not in the heap.
+     */
+    private int[] heapPositions;
+
+    private int heapSize;
+
+    public CGIncrementalPathSearch(CGNavGraph navGraph) {
+        this.navGraph = navGraph;
+        this.numNavPoints = navGraph.getNumNavPoints();
+    }
+
+    /**
+     * Creates a search that shares the current state with this one.
+     */
+    public synchronized CGIncrementalPathSearch copy(){
+        CGIncrementalPathSearch copy = new CGIncrementalPathSearch(navGraph);
+        if(initialized){
+            copy.initialized = true;
+            copy.lastGoalState = lastGoalState;
+            copy.g = g;
+            copy.rhs = rhs;
+            copy.goalFlags = goalFlags;
+            copy.enterCosts = enterCosts;
+            copy.heapNavPoints = heapNavPoints;
+            copy.heapKeys = heapKeys;
+            copy.heapPositions = heapPositions;
+            copy.heapSize = heapSize;
+            copy.sharedState = true;
+            sharedState = true;
+        }
+        return copy;
+    }
+
+    /**
+     * Finds a cheapest path from start to a goal nav point.
+     * @param start the start location
+     * @param goal the goal, the heuristic estimate is ignored
+     * @param goalState immutable object determining the answers of the goal, the goal is re-evaluated only if the goal state is not
+     * identical to the one from the previous call, null means the goal has to be re-evaluated every time
+     * @return the path including both the start and the goal or null, if there is none
+     */
+    public synchronized List<Loc> findPath(Loc start, CGNavGoal goal, Object goalState){
+        int startIndex = navGraph.getNavPointIndex(start);
+        if(startIndex < 0){
+            return null;
+        }
+        if(!initialized){
+            initialize(goal);
+        } else if(goalState == null || lastGoalState != goalState){
+            updateGoal(goal);
+        }
+        lastGoalState = goalState;
+
+        if(needsExpansion(startIndex)){
+            ensureOwnState();
+            computeShortestPath(startIndex);
+        }
+        return extractPath(startIndex);
+    }
+
+    private void initialize(CGNavGoal goal){
+        g = new int[numNavPoints];
+        rhs = new int[numNavPoints];
+        goalFlags = new boolean[numNavPoints];
+        enterCosts = new int[numNavPoints];
+        heapNavPoints = new int[numNavPoints];
+        heapKeys = new int[numNavPoints];
+        heapPositions = new int[numNavPoints];
+        heapSize = 0;
+        sharedState = false;
+        initialized = true;
+
+        Arrays.fill(g, INFINITE_COST);
+        Arrays.fill(rhs, INFINITE_COST);
+        Arrays.fill(heapPositions, -1);
+        for(int navPoint = 0; navPoint < numNavPoints; navPoint++){
+            enterCosts[navPoint] = evaluateEnterCost(goal, navPoint);
+            if(goal.isGoalReached(navPoint)){
+                goalFlags[navPoint] = true;
+                rhs[navPoint] = 0;
+                heapInsertOrUpdate(navPoint, 0);
+            }
+        }
+    }
+
+    /**
+     * Re-evaluates the goal for all nav points and marks nav points affected by the changes as inconsistent.
+     */
+    private void updateGoal(CGNavGoal goal){
+        int[] changedEnterCosts = null;
+        int numChangedEnterCosts = 0;
+        int[] changedGoalFlags = null;
+        int numChangedGoalFlags = 0;
+        for(int navPoint = 0; navPoint < numNavPoints; navPoint++){
+            int enterCost = evaluateEnterCost(goal, navPoint);
+            boolean goalFlag = goal.isGoalReached(navPoint);
+            if(enterCost == enterCosts[navPoint] && goalFlag == goalFlags[navPoint]){
+                continue;
+            }
+            ensureOwnState();
+            if(enterCost != enterCosts[navPoint]){
+                enterCosts[navPoint] = enterCost;
+                if(changedEnterCosts == null){
+                    changedEnterCosts = new int[numNavPoints];
+                }
+                changedEnterCosts[numChangedEnterCosts++] = navPoint;
+            }
+            if(goalFlag != goalFlags[navPoint]){
+                goalFlags[navPoint] = goalFlag;
+                if(changedGoalFlags == null){
+                    changedGoalFlags = new int[numNavPoints];
+                }
+                changedGoalFlags[numChangedGoalFlags++] = navPoint;
+            }
+        }
+        //all values have to be updated before rhs is recomputed
+        for(int i = 0; i < numChangedEnterCosts; i++){
+            int navPoint = changedEnterCosts[i];
+            for(int reverseArc = navGraph.getReverseArcsStart(navPoint); reverseArc < navGraph.getReverseArcsEnd(navPoint); reverseArc++){
+                updateNavPoint(navGraph.getReverseArcSource(reverseArc));
+            }
+        }
+        for(int i = 0; i < numChangedGoalFlags; i++){
+            updateNavPoint(changedGoalFlags[i]);
+        }
+    }
+
+    private int evaluateEnterCost(CGNavGoal goal, int navPoint){
+        if(!goal.isNavPointOpened(navPoint)){
+            return INFINITE_COST;
+        }
+        return Math.max(0, goal.getNavPointExtraCost(navPoint));
+    }
+
+    /**
+     * Cost of moving along the arc to its target and continuing along the best known path, {@link #INFINITE_COST}
+     * if the target is not opened or has no known path.
+     */
+    private int getCostThroughArc(int arc){
+        int target = navGraph.getArcTarget(arc);
+        if(enterCosts[target] >= INFINITE_COST || g[target] >= INFINITE_COST){
+            return INFINITE_COST;
+        }
+        return Math.min(INFINITE_COST, navGraph.getArcCost(arc) + enterCosts[target] + g[target]);
+    }
+
+    /**
+     * Recomputes rhs of the nav point and puts it to the heap or removes it from the heap according to its consistency.
+     */
+    private void updateNavPoint(int navPoint){
+        if(goalFlags[navPoint]){
+            rhs[navPoint] = 0;
+        } else {
+            int bestCost = INFINITE_COST;
+            for(int arc = navGraph.getArcsStart(navPoint); arc < navGraph.getArcsEnd(navPoint); arc++){
+                int cost = getCostThroughArc(arc);
+                if(cost < bestCost){
+                    bestCost = cost;
+                }
+            }
+            rhs[navPoint] = bestCost;
+        }
+        if(g[navPoint] != rhs[navPoint]){
+            heapInsertOrUpdate(navPoint, Math.min(g[navPoint], rhs[navPoint]));
+        } else {
+            heapRemove(navPoint);
+        }
+    }
+
+    private int getKey(int navPoint){
+        return Math.min(g[navPoint], rhs[navPoint]);
+    }
+
+    private boolean needsExpansion(int start){
+        return heapSize > 0 && (heapKeys[0] < getKey(start) || g[start] != rhs[start]);
+    }
+
+    private void computeShortestPath(int start){
+        while(needsExpansion(start)){
+            int navPoint = heapNavPoints[0];
+            heapRemove(navPoint);
+            if(g[navPoint] > rhs[navPoint]){
+                g[navPoint] = rhs[navPoint];
+            } else {
+                g[navPoint] = INFINITE_COST;
+                updateNavPoint(navPoint);
+            }
+            for(int reverseArc = navGraph.getReverseArcsStart(navPoint); reverseArc < navGraph.getReverseArcsEnd(navPoint); reverseArc++){
+                updateNavPoint(navGraph.getReverseArcSource(reverseArc));
+            }
+        }
+    }
+
+    private List<Loc> extractPath(int start){
+        if(g[start] >= INFINITE_COST){
+            return null;
+        }
+        List<Loc> path = new ArrayList<Loc>();
+        int navPoint = start;
+        path.add(navGraph.getNavPoint(navPoint));
+        while(!goalFlags[navPoint]){
+            int bestTarget = -1;
+            int bestCost = INFINITE_COST;
+            for(int arc = navGraph.getArcsStart(navPoint); arc < navGraph.getArcsEnd(navPoint); arc++){
+                int cost = getCostThroughArc(arc);
+                if(cost < bestCost){
+                    bestCost = cost;
+                    bestTarget = navGraph.getArcTarget(arc);
+                }
+            }
+            if(bestTarget < 0 || path.size() > numNavPoints){
+                return null;
+            }
+            navPoint = bestTarget;
+            path.add(navGraph.getNavPoint(navPoint));
+        }
+        return path;
+    }
+
+    private void ensureOwnState(){
+        if(!sharedState){
+            return;
+        }
+        g = g.clone();
+        rhs = rhs.clone();
+        goalFlags = goalFlags.clone();
+        enterCosts = enterCosts.clone();
+        heapNavPoints = heapNavPoints.clone();
+        heapKeys = heapKeys.clone();
+        heapPositions = heapPositions.clone();
+        sharedState = false;
+    }
+
+    private void heapInsertOrUpdate(int navPoint, int key){
+        int position = heapPositions[navPoint];
+        if(position < 0){
+            position = heapSize++;
+        } else if(key > heapKeys[position]){
+            heapKeys[position] = key;
+            siftDown(position);
+            return;
+        }
+        heapNavPoints[position] = navPoint;
+        heapKeys[position] = key;
+        heapPositions[navPoint] = position;
+        siftUp(position);
+    }
+
+    private void heapRemove(int navPoint){
+        int position = heapPositions[navPoint];
+        if(position < 0){
+            return;
+        }
+        heapPositions[navPoint] = -1;
+        heapSize--;
+        if(position == heapSize){
+            return;
+        }
+        int lastNavPoint = heapNavPoints[heapSize];
+        int lastKey = heapKeys[heapSize];
+        heapNavPoints[position] = lastNavPoint;
+        heapKeys[position] = lastKey;
+        heapPositions[lastNavPoint] = position;
+        siftUp(position);
+        siftDown(heapPositions[lastNavPoint]);
+    }
+
+    private void siftUp(int position){
+        int navPoint = heapNavPoints[position];
+        int key = heapKeys[position];
+        while(position > 0){
+            int parent = (position - 1) >>> 1;
+            if(heapKeys[parent] <= key){
+                break;
+            }
+            heapNavPoints[position] = heapNavPoints[parent];
+            heapKeys[position] = heapKeys[parent];
+            heapPositions[heapNavPoints[position]] = position;
+            position = parent;
+        }
+        heapNavPoints[position] = navPoint;
+        heapKeys[position] = key;
+        heapPositions[navPoint] = position;
+    }
+
+    private void siftDown(int position){
+        int navPoint = heapNavPoints[position];
+        int key = heapKeys[position];
+        while(true){
+            int child = 2 * position + 1;
+            if(child >= heapSize){
+                break;
+            }
+            if(child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]){
+                child++;
+            }
+            if(heapKeys[child] >= key){
+                break;
+            }
+            heapNavPoints[position] = heapNavPoints[child];
+            heapKeys[position] = heapKeys[child];
+            heapPositions[heapNavPoints[position]] = position;
+            position = child;
+        }
+        heapNavPoints[position] = navPoint;
+        heapKeys[position] = key;
+        heapPositions[navPoint] = position;
+    }
+}
@@ -32,7 +32,6 @@ import cz.cuni.amis.aiste.environment.IJShop2Problem;
 import cz.cuni.amis.aiste.environment.IJShop2Representation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.impl.JShop2Problem;
-import cz.cuni.amis.pathfinding.alg.floydwarshall.FloydWarshall;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
@@ -50,7 +49,7 @@ public class CGJSHOPRepresentation extends AbstractCGPlanningRepresentation<JSHO
     implements IJShop2Representation<CGPairAction, CGPlanningGoal>
 {
 
-    FloydWarshall<Loc> fixedMapFloydWarshall;
+    CGDistanceTable distanceTable;
     
     private final Logger logger = Logger.getLogger(CGJSHOPRepresentation.class);
 
@@ -69,7 +68,7 @@ public class CGJSHOPRepresentation extends AbstractCGPlanningRepresentation<JSHO
     
     public CGJSHOPRepresentation(CoverGame env) {
         super(env);
-        fixedMapFloydWarshall = new FloydWarshall<Loc>(env.defs.navGraphMap);
+        distanceTable = env.defs.getDistanceTable();
         
         additionalConstantNames = new String[getNumAdditionalConstants()];
         final int problemConstantOffset = CoverGameJSHOP2.NUM_CONSTANTS;
@@ -149,7 +148,7 @@ public class CGJSHOPRepresentation extends AbstractCGPlanningRepresentation<JSHO
                     continue;
                 }
                 final Integer otherNodeConstantId = locationsToConstants.get(otherNode);
-                final int pathCost = fixedMapFloydWarshall.getPathCost(node, otherNode);
+                final int pathCost = distanceTable.getDistance(node, otherNode);
                 if(pathCost < Integer.MAX_VALUE){
                     staticDomainInfo.add(new Predicate(CoverGameJSHOP2.CONST_DISTANCE, createTermList(jshop, new TermNumber(pathCost) ,nodeConstantId, otherNodeConstantId)));
                 }
@@ -185,18 +184,20 @@ public class CGJSHOPRepresentation extends AbstractCGPlanningRepresentation<JSHO
         }
         
         
-        CoverGame.CGBodyPair bodyPair = env.bodyPairs.get(body.getId());
+        //read from the snapshot, so that the simulation is not blocked
+        CoverGame state = env.getStateSnapshot();
+        CoverGame.CGBodyPair bodyPair = state.bodyPairs.get(body.getId());
 
-        int ids[] = env.getOpponentIds(body.getId());
-        OpponentData oponentData[] = env.getOpponentTeamData(body.getId()).opponentData;
+        int ids[] = state.getOpponentIds(body.getId());
+        OpponentData oponentData[] = state.getOpponentTeamData(body.getId()).opponentData;
         
         // body - related state
         for (int i = 0; i < 2; i++) {
-            initialState.add(new Predicate(CoverGameJSHOP2.CONST_AT, createTermList(jshop, bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).loc))));
+            initialState.add(new Predicate(CoverGameJSHOP2.CONST_AT, createTermList(jshop, bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).getLoc()))));
 /*            CoverGame.CGBodyInfo bodyInfo = bodyPair.getBodyInfo(i);
             for(int op = 0; op < 2; op++){                
-                CoverGame.CGBodyInfo oponentInfo = env.bodyInfos.get(ids[op]);
-                if(!env.isVisible(oponentInfo.loc, bodyInfo.loc) || env.isCovered(oponentInfo.loc, bodyInfo.loc)){
+                CoverGame.CGBodyInfo oponentInfo = state.bodyInfos.get(ids[op]);
+                if(!env.isVisible(oponentInfo.getLoc(), bodyInfo.getLoc()) || env.isCovered(oponentInfo.getLoc(), bodyInfo.getLoc())){
                     initialState.add(new Predicate(CoverGameJSHOP2.CONST_PARTIAL_COVER, goal));
                 }
             }*/
@@ -30,7 +30,6 @@ import cz.cuni.amis.aiste.environment.IJShop2Problem;
 import cz.cuni.amis.aiste.environment.IJShop2Representation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.impl.JShop2Problem;
-import cz.cuni.amis.pathfinding.alg.floydwarshall.FloydWarshall;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
@@ -50,7 +49,7 @@ public class CGJSHOPRepresentationWithRoles extends AbstractCGPlanningRepresenta
     implements IJShop2Representation<CGPairAction, CGPlanningGoal>
 {
 
-    FloydWarshall<Loc> fixedMapFloydWarshall;
+    CGDistanceTable distanceTable;
     
     private final Logger logger = Logger.getLogger(CGJSHOPRepresentationWithRoles.class);
 
@@ -69,15 +68,9 @@ public class CGJSHOPRepresentationWithRoles extends AbstractCGPlanningRepresenta
     
     public CGJSHOPRepresentationWithRoles(CoverGame env) {
         super(env);
-        fixedMapFloydWarshall = new FloydWarshall<Loc>(env.defs.navGraphMap);
+        distanceTable = env.defs.getDistanceTable();
         
-        for(Loc l1 : env.defs.navGraph.keySet()){
-            for(Loc l2 : env.defs.navGraph.keySet()){
-                if(fixedMapFloydWarshall.getPathCost(l1, l2) >= Integer.MAX_VALUE){
-                    throw new AisteException("Unreachable pair of navpoints: " + l1 + ", " + l2);
-                }
-            }
-        }
+        distanceTable.checkAllReachable();
         
         additionalConstantNames = new String[getNumAdditionalConstants()];
         final int problemConstantOffset = CoverGameWithRolesJSHOP2.NUM_CONSTANTS;
@@ -179,24 +172,26 @@ public class CGJSHOPRepresentationWithRoles extends AbstractCGPlanningRepresenta
         }
         
         
-        CoverGame.CGBodyPair bodyPair = env.bodyPairs.get(body.getId());
+        //read from the snapshot, so that the simulation is not blocked
+        CoverGame state = env.getStateSnapshot();
+        CoverGame.CGBodyPair bodyPair = state.bodyPairs.get(body.getId());
 
-        int opponentIds[] = env.getOpponentIds(body.getId());
-        OpponentData opponentData[] = env.getOpponentTeamData(body.getId()).opponentData;
+        int opponentIds[] = state.getOpponentIds(body.getId());
+        OpponentData opponentData[] = state.getOpponentTeamData(body.getId()).opponentData;
 
         
         
         // body - related state
         for (int i = 0; i < 2; i++) {
-            initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_AT, createTermList(jshop, bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).loc))));
+            initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_AT, createTermList(jshop, bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).getLoc()))));
             //High health -> I should withstand two shots
-            if(bodyPair.getBodyInfo(i).health >= env.defs.shootDamage * 2) {
+            if(bodyPair.getBodyInfo(i).getHealth() >= env.defs.shootDamage * 2) {
                 initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_HIGH_HEALTH, createTermList(jshop, bodyConstants[i])));                
             }
 /*            CoverGame.CGBodyInfo bodyInfo = bodyPair.getBodyInfo(i);
             for(int op = 0; op < 2; op++){                
-                CoverGame.CGBodyInfo oponentInfo = env.bodyInfos.get(ids[op]);
-                if(!env.isVisible(oponentInfo.loc, bodyInfo.loc) || env.isCovered(oponentInfo.loc, bodyInfo.loc)){
+                CoverGame.CGBodyInfo oponentInfo = state.bodyInfos.get(ids[op]);
+                if(!env.isVisible(oponentInfo.getLoc(), bodyInfo.getLoc()) || env.isCovered(oponentInfo.getLoc(), bodyInfo.getLoc())){
                     initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_PARTIAL_COVER, goal));
                 }
             }*/
@@ -209,43 +204,19 @@ public class CGJSHOPRepresentationWithRoles extends AbstractCGPlanningRepresenta
                 initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_UNCOVERED_BY_OPPONENT, createTermList(jshop, locationsToConstants.get(uncoveredLoc), opponentConstants[opp])));
             }
             //Low health -> I expect them to fall for a single shot, even if they heal a little
-            if(env.bodyInfos.get(opponentIds[opp]).health < env.defs.shootDamage - env.defs.healPerRound){
+            if(state.bodyInfos.get(opponentIds[opp]).getHealth() < env.defs.shootDamage - env.defs.healPerRound){
                 initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_LOW_HEALTH, createTermList(jshop, opponentConstants[opp])));                                
             }
             
             for (int bodyId = 0; bodyId < 2; bodyId++) {
-                Loc nearestSafeVantage = null; 
-                int nearestSafeVantageDistance = Integer.MAX_VALUE;
-                Loc nearestVantage = null;
-                int nearestVantageDistance = Integer.MAX_VALUE;
-
                 Loc bodyLoc = bodyPair.getBodyInfo(bodyId).getLoc();
-                for(Loc vantage_point : opponentData[opp].navpointsInvalidatingCover){
-                    int distance = fixedMapFloydWarshall.getPathCost(bodyLoc, vantage_point);
-                    if(distance < nearestSafeVantageDistance){
-                        int possibleUncoveredShots = getPossibleUncoveredShots(bodyLoc, vantage_point, opponentData);
-                        if(possibleUncoveredShots <= 3 && distance < nearestVantageDistance){
-                            nearestVantageDistance = distance;
-                            nearestVantage = vantage_point;
-                        }                    
-                        
-                        if(possibleUncoveredShots == 0){
-                            nearestSafeVantageDistance = distance;
-                            nearestSafeVantage = vantage_point;
-                        }
-                    }
-                }
-                
-                
-                Loc nearestAttackPoint = null;
-                int nearestAttackDistance = Integer.MAX_VALUE;                
-                for(Loc attackPoint : opponentData[opp].shootableNavpoints){
-                    int distance = fixedMapFloydWarshall.getPathCost(bodyLoc, attackPoint);
-                    if(distance < nearestAttackDistance && getPossibleUncoveredShots(bodyLoc, attackPoint, opponentData) == 0){
-                        nearestAttackPoint = attackPoint;
-                        nearestAttackDistance = distance;
-                    }
-                }
+                NearestNavPoints nearest = findNearestNavPoints(bodyLoc, opponentData[opp].navpointsInvalidatingCover, opponentData[opp].shootableNavpoints, opponentData);
+                Loc nearestSafeVantage = nearest.nearestSafeVantage;
+                int nearestSafeVantageDistance = nearest.nearestSafeVantageDistance;
+                Loc nearestVantage = nearest.nearestVantage;
+                int nearestVantageDistance = nearest.nearestVantageDistance;
+                Loc nearestAttackPoint = nearest.nearestAttackPoint;
+                int nearestAttackDistance = nearest.nearestAttackDistance;
                 
                 if(nearestAttackPoint != null){
                     initialState.add(new Predicate(CoverGameWithRolesJSHOP2.CONST_ATTACK_POINT, createTermList(jshop, locationsToConstants.get(nearestAttackPoint), bodyConstants[bodyId], opponentConstants[opp])));                    
@@ -382,20 +353,6 @@ public class CGJSHOPRepresentationWithRoles extends AbstractCGPlanningRepresenta
         
         return true;
     }
-    
-    protected int getPossibleUncoveredShots(Loc bodyLoc, Loc vantage_point, OpponentData[] opponentData) {
-        int possibleUncoveredShots = 0;
-        List<Loc> path = fixedMapFloydWarshall.getPath(bodyLoc, vantage_point);
-        path.add(vantage_point);
-        for(Loc pathLoc : path){
-            for(int opp2 = 0; opp2 < 2; opp2++){
-                if(opponentData[opp2].uncoveredNavpoints.contains(pathLoc)){
-                    possibleUncoveredShots++;
-                }
-            }
-        }
-        return possibleUncoveredShots;
-    }
 
     @Override
     public String getLoggableRepresentation() {
@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.log4j.Logger;
+
+/**
+ * A disk cache of data precomputed for CoverGame maps - the visibility index and the navigation graph.
+ * <p>
+ * Every map is stored in a separate binary file, named after a hash of the map source
+ * and of all parameters that affect the precomputation. The file is read through memory-mapped I/O.
+ * Files that cannot be read, have a different format version or do not match the map are
+ * ignored and overwritten with freshly computed data.
+ * </p>
+ * @author Martin Cerny
+ */
+public class CGMapCache {
+
+    private static final Logger logger = Logger.getLogger(CGMapCache.class);
+
+    /**
+     * Increase whenever the file format or the precomputation changes.
+     */
+    private static final int FORMAT_VERSION = 1;
+
+    private static final int MAGIC = 0x43474d43; //"CGMC"
+
+    private static final String FILE_SUFFIX = ".cgcache";
+
+    private final File cacheDirectory;
+
+    public CGMapCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * Computes the cache key of a map.
+     * @param mapSource the map file contents
+     * @param defs definitions with parameters already set
+     * @return
+     */
+    public static byte[] computeKey(byte[] mapSource, CoverGame.StaticDefs defs) {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            ByteBuffer parameters = ByteBuffer.allocate(12);
+            parameters.putInt(FORMAT_VERSION);
+            parameters.putLong(Double.doubleToLongBits(defs.maxDistancePerTurn));
+            digest.update(parameters.array());
+            digest.update(mapSource);
+            return digest.digest();
+        } catch(NoSuchAlgorithmException ex){
+            throw new AisteException("Could not compute map hash", ex);
+        }
+    }
+
+    protected File getCacheFile(byte[] key) {
+        StringBuilder name = new StringBuilder("cg_");
+        for(byte b : key){
+            name.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        name.append(FILE_SUFFIX);
+        return new File(cacheDirectory, name.toString());
+    }
+
+    /**
+     * Tries to fill the visibility index and the navigation graph from the cache.
+     * Squares of the map must already be read.
+     * @param key
+     * @param defs
+     * @return true if the data were loaded, false if the cache does not contain valid data for the map
+     */
+    public boolean load(byte[] key, CoverGame.StaticDefs defs) {
+        File cacheFile = getCacheFile(key);
+        if(!cacheFile.isFile()){
+            return false;
+        }
+        try {
+            ByteBuffer buffer;
+            FileInputStream fis = new FileInputStream(cacheFile);
+            try {
+                FileChannel channel = fis.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                fis.close();
+            }
+
+            if(!readData(buffer, key, defs)){
+                logger.info("Stale map cache file " + cacheFile + ", the data will be recomputed.");
+                return false;
+            }
+            logger.info("Map data loaded from cache " + cacheFile);
+            return true;
+        } catch(IOException ex){
+            logger.warn("Could not read map cache file " + cacheFile + ", the data will be recomputed.", ex);
+            return false;
+        } catch(BufferUnderflowException ex){
+            logger.warn("Map cache file " + cacheFile + " is truncated, the data will be recomputed.");
+            return false;
+        }
+    }
+
+    private boolean readData(ByteBuffer buffer, byte[] key, CoverGame.StaticDefs defs) {
+        if(buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION){
+            return false;
+        }
+        byte[] storedKey = new byte[buffer.getInt()];
+        buffer.get(storedKey);
+        if(!Arrays.equals(key, storedKey)){
+            return false;
+        }
+
+        CGVisibilityIndex visibility = new CGVisibilityIndex(defs);
+        if(buffer.getInt() != defs.levelWidth || buffer.getInt() != defs.levelHeight || buffer.getInt() != visibility.getNumPassable()){
+            return false;
+        }
+
+        LongBuffer rowData = buffer.asLongBuffer();
+        for(int i = 0; i < visibility.getNumPassable(); i++){
+            long[] row = new long[visibility.getRowLength()];
+            rowData.get(row);
+            visibility.setRow(i, row);
+        }
+        buffer.position(buffer.position() + rowData.position() * 8);
+
+        int numNavPoints = buffer.getInt();
+        if(numNavPoints < 0){
+            return false;
+        }
+        List<Loc> navPoints = new ArrayList<Loc>(numNavPoints);
+        for(int i = 0; i < numNavPoints; i++){
+            int x = buffer.getInt();
+            int y = buffer.getInt();
+            if(x < 0 || y < 0 || x >= defs.levelWidth || y >= defs.levelHeight){
+                return false;
+            }
+            navPoints.add(new Loc(x, y));
+        }
+
+        Map<Loc, List<Loc>> navGraph = new HashMap<Loc, List<Loc>>(numNavPoints * 2);
+        for(Loc navPoint : navPoints){
+            int numNeighbours = buffer.getInt();
+            if(numNeighbours < 0 || numNeighbours > numNavPoints){
+                return false;
+            }
+            List<Loc> neighbours = new ArrayList<Loc>(numNeighbours);
+            for(int i = 0; i < numNeighbours; i++){
+                int neighbourIndex = buffer.getInt();
+                if(neighbourIndex < 0 || neighbourIndex >= numNavPoints){
+                    return false;
+                }
+                neighbours.add(navPoints.get(neighbourIndex));
+            }
+            navGraph.put(navPoint, neighbours);
+        }
+
+        for(Loc navPoint : navPoints){
+            defs.squares[navPoint.x][navPoint.y].isNavPoint = true;
+        }
+        defs.navGraph.clear();
+        defs.navGraph.putAll(navGraph);
+        defs.visibility = visibility;
+        return true;
+    }
+
+    /**
+     * Stores the precomputed data of the map. Failures are only logged.
+     * @param key
+     * @param defs
+     */
+    public void store(byte[] key, CoverGame.StaticDefs defs) {
+        File cacheFile = getCacheFile(key);
+        File tempFile = new File(cacheDirectory, cacheFile.getName() + ".tmp");
+        try {
+            if(!cacheDirectory.isDirectory() && !cacheDirectory.mkdirs()){
+                throw new IOException("Could not create cache directory " + cacheDirectory);
+            }
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+            try {
+                writeData(out, key, defs);
+            } finally {
+                out.close();
+            }
+            //the old file may be mapped by another process, so it cannot be simply overwritten
+            if(!tempFile.renameTo(cacheFile)){
+                cacheFile.delete();
+                if(!tempFile.renameTo(cacheFile)){
+                    throw new IOException("Could not replace " + cacheFile);
+                }
+            }
+            logger.info("Map data stored in cache " + cacheFile);
+        } catch(IOException ex){
+            tempFile.delete();
+            logger.warn("Could not store map data in cache " + cacheFile, ex);
+        }
+    }
+
+    private void writeData(DataOutputStream out, byte[] key, CoverGame.StaticDefs defs) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(key.length);
+        out.write(key);
+
+        CGVisibilityIndex visibility = defs.visibility;
+        out.writeInt(defs.levelWidth);
+        out.writeInt(defs.levelHeight);
+        out.writeInt(visibility.getNumPassable());
+        for(int i = 0; i < visibility.getNumPassable(); i++){
+            for(long bits : visibility.getComputedRow(i)){
+                out.writeLong(bits);
+            }
+        }
+
+        List<Loc> navPoints = new ArrayList<Loc>(defs.navGraph.keySet());
+        Map<Loc, Integer> navPointIndices = new HashMap<Loc, Integer>(navPoints.size() * 2);
+        out.writeInt(navPoints.size());
+        for(int i = 0; i < navPoints.size(); i++){
+            Loc navPoint = navPoints.get(i);
+            navPointIndices.put(navPoint, i);
+            out.writeInt(navPoint.x);
+            out.writeInt(navPoint.y);
+        }
+        for(Loc navPoint : navPoints){
+            List<Loc> neighbours = defs.navGraph.get(navPoint);
+            out.writeInt(neighbours.size());
+            for(Loc neighbour : neighbours){
+                out.writeInt(navPointIndices.get(neighbour));
+            }
+        }
+    }
+}
@@ -17,6 +17,9 @@
 
 package cz.cuni.amis.aiste.simulations.covergame;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
@@ -35,9 +38,72 @@ public class CGMapReader {
     
     private static final Logger logger = Logger.getLogger(CGMapReader.class);
     
+    /**
+     * Reads the map and computes the whole visibility index in parallel.
+     */
     public static CoverGame.StaticDefs readMap(InputStream is) throws IOException {
+        return readMap(is, false);
+    }
+    
+    /**
+     * Reads the map.
+     * @param is
+     * @param lazyVisibility if true, visibility is computed only when queried, otherwise it is computed for whole map at once
+     * @return
+     * @throws IOException 
+     */
+    public static CoverGame.StaticDefs readMap(InputStream is, boolean lazyVisibility) throws IOException {
+        CoverGame.StaticDefs defs = new CoverGame.StaticDefs();
+        Set<Loc> navPoints = readSquares(is, defs);
+        computeVisibility(defs, lazyVisibility);
+        generateNavGraph(defs, navPoints);
+        defs.compactNavGraph = new CGNavGraph(defs.levelWidth, defs.levelHeight, defs.navGraph);
+        defs.threatIndex = new CGThreatIndex(defs);
+        logger.info("Map succesfully read.");
+        return defs;
+    }
+    
+    /**
+     * Reads the map, using precomputed data from given cache directory if available.
+     * If the cache does not contain valid data for the map, all data is computed and stored in the cache.
+     * @param is
+     * @param cacheDirectory
+     * @return
+     * @throws IOException 
+     */
+    public static CoverGame.StaticDefs readMap(InputStream is, File cacheDirectory) throws IOException {
+        byte[] mapSource = readFully(is);
         CoverGame.StaticDefs defs = new CoverGame.StaticDefs();
+        Set<Loc> navPoints = readSquares(new ByteArrayInputStream(mapSource), defs);
         
+        CGMapCache cache = new CGMapCache(cacheDirectory);
+        byte[] key = CGMapCache.computeKey(mapSource, defs);
+        if(!cache.load(key, defs)){
+            computeVisibility(defs, false);
+            generateNavGraph(defs, navPoints);
+            cache.store(key, defs);
+        }
+        defs.compactNavGraph = new CGNavGraph(defs.levelWidth, defs.levelHeight, defs.navGraph);
+        defs.threatIndex = new CGThreatIndex(defs);
+        logger.info("Map succesfully read.");
+        return defs;
+    }
+    
+    private static byte[] readFully(InputStream is) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int read;
+        while((read = is.read(buffer)) >= 0){
+            bos.write(buffer, 0, read);
+        }
+        return bos.toByteArray();
+    }
+    
+    /**
+     * Reads the squares and spawning locations of the map.
+     * @return all nav points of the map
+     */
+    private static Set<Loc> readSquares(InputStream is, CoverGame.StaticDefs defs){
         Scanner sc = new Scanner(is);
         defs.levelName = sc.nextLine();
         defs.levelWidth = sc.nextInt();
@@ -125,23 +191,18 @@ public class CGMapReader {
             }
         }
 
-        logger.info("Calculating visibility matrix");
-        defs.visibilityMatrix = new boolean[defs.levelWidth][defs.levelHeight][defs.levelWidth][defs.levelHeight];
-        //compute visibility matrix
-        for(int fromX = 0; fromX < defs.levelWidth; fromX++){
-            for(int fromY = 0; fromY < defs.levelHeight; fromY++){
-                for(int toX = 0; toX < defs.levelWidth; toX++){
-                    for(int toY = 0; toY < defs.levelHeight;toY++){
-                        if(defs.squares[fromX][fromY].passable && defs.squares[toX][toY].passable){
-                            defs.visibilityMatrix[fromX][fromY][toX][toY] = CGUtils.isVisible(new Loc(fromX,fromY), new Loc(toX,toY), defs);
-                        } else {
-                            defs.visibilityMatrix[fromX][fromY][toX][toY] = false;
-                        }
-                    }
-                }
-            }
-        }        
-        
+        return navPoints;
+    }
+    
+    private static void computeVisibility(CoverGame.StaticDefs defs, boolean lazyVisibility){
+        defs.visibility = new CGVisibilityIndex(defs);
+        if(!lazyVisibility){
+            logger.info("Calculating visibility index");
+            defs.visibility.buildAll(Runtime.getRuntime().availableProcessors());
+        }
+    }
+    
+    private static void generateNavGraph(CoverGame.StaticDefs defs, Set<Loc> navPoints){
         logger.info("Generating navigation graph");
         //generate nav graph - which pairs are reachable by single movement
         for(Loc np1 : navPoints){
@@ -150,15 +211,11 @@ public class CGMapReader {
             
             List<Loc> neighbours = new ArrayList<Loc>();
             for(Loc np2: navPoints){
-                if(!np1.equals(np2) && CGUtils.distance(np1, np2) <= defs.maxDistancePerTurn && defs.visibilityMatrix[np1.x][np1.y][np2.x][np2.y]){
+                if(!np1.equals(np2) && CGUtils.distance(np1, np2) <= defs.maxDistancePerTurn && defs.visibility.isVisible(np1, np2)){
                     neighbours.add(np2);
                 }
             }
             defs.navGraph.put(np1, neighbours);
         }
-        
-        logger.info("Map succesfully read.");
-                
-        return defs;
     }
 }
@@ -16,36 +16,33 @@
  */
 package cz.cuni.amis.aiste.simulations.covergame;
 
-import cz.cuni.amis.pathfinding.map.IPFGoal;
-import cz.cuni.amis.utils.heap.IHeap;
-import java.util.Set;
-
 /**
- *
+ * Goal and map view of a search in {@link CGNavGraph}. All nav points are given by their index.
+ * By default, all nav points are opened, there are no extra costs and the heuristic is zero.
  * @author Martin Cerny
  */
-public abstract class CGAStarGoal implements IPFGoal<Loc> {
-    protected CoverGame env;
-    private Loc start;
+public abstract class CGNavGoal {
 
-    public CGAStarGoal(CoverGame env, Loc start) {
-        this.env = env;
-        this.start = start;
-    }
+    public abstract boolean isGoalReached(int navPoint);
 
-    @Override
-    public Loc getStart() {
-        return start;
+    /**
+     * Heuristic estimate of the cost, must not overestimate.
+     */
+    public int getEstimatedCostToGoal(int navPoint){
+        return 0;
     }
 
-    @Override
-    public void setOpenList(IHeap<Loc> openList) {
+    /**
+     * If false, the search never enters the nav point.
+     */
+    public boolean isNavPointOpened(int navPoint){
+        return true;
     }
 
-    @Override
-    public void setCloseList(Set<Loc> closedList) {
+    /**
+     * Cost added to every path entering the nav point.
+     */
+    public int getNavPointExtraCost(int navPoint){
+        return 0;
     }
-    
-    
-    
 }
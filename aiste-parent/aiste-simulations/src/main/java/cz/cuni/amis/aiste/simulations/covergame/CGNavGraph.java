@@ -0,0 +1,397 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Navigation graph of a map with nav points numbered densely from 0. Neighbours are stored
+ * in compressed sparse row form - the arcs leaving nav point i are at indices
+ * arcOffsets[i] to arcOffsets[i + 1] - 1 of arcTargets and arcCosts. Arcs entering a nav point are stored
+ * the same way in reverseArcOffsets, reverseArcSources and reverseArcCosts, for searches that run backwards from the goal.
+ * <p>
+ * Nav points are numbered in the order of their squares (x major), so the numbering
+ * does not depend on the order of the map the graph was created from.
+ * The graph is immutable and shared by all environments using the same map.
+ * Searches use buffers private to the searching thread, which are reused by subsequent searches
+ * of that thread, so a search does not allocate once the buffers have grown large enough.
+ * </p>
+ * @author Martin Cerny
+ */
+public class CGNavGraph {
+
+    private final int levelHeight;
+
+    private final int levelWidth;
+
+    /**
+     * Nav points, indexed by nav point index.
+     */
+    private final List<Loc> navPoints;
+
+    /**
+     * Nav point index of a square, indexed by x * levelHeight + y. -1 for squares that are not nav points.
+     */
+    private final int[] navPointIndices;
+
+    private final int[] arcOffsets;
+
+    private final int[] arcTargets;
+
+    private final int[] arcCosts;
+
+    private final int[] reverseArcOffsets;
+
+    private final int[] reverseArcSources;
+
+    private final int[] reverseArcCosts;
+
+    private final ThreadLocal<SearchBuffers> searchBuffers = new ThreadLocal<SearchBuffers>() {
+
+        @Override
+        protected SearchBuffers initialValue() {
+            return new SearchBuffers(navPoints.size());
+        }
+    };
+
+    /**
+     * Creates the graph.
+     * @param levelWidth
+     * @param levelHeight
+     * @param navGraph neighbours of all nav points, all arcs have cost 1
+     */
+    public CGNavGraph(int levelWidth, int levelHeight, Map<Loc, List<Loc>> navGraph) {
+        this.levelWidth = levelWidth;
+        this.levelHeight = levelHeight;
+
+        navPointIndices = new int[levelWidth * levelHeight];
+        Arrays.fill(navPointIndices, -1);
+        for(Loc navPoint : navGraph.keySet()){
+            navPointIndices[navPoint.x * levelHeight + navPoint.y] = 0;
+        }
+
+        List<Loc> navPointList = new ArrayList<Loc>(navGraph.size());
+        int numArcs = 0;
+        for(int x = 0; x < levelWidth; x++){
+            for(int y = 0; y < levelHeight; y++){
+                int squareIndex = x * levelHeight + y;
+                if(navPointIndices[squareIndex] < 0){
+                    continue;
+                }
+                navPointIndices[squareIndex] = navPointList.size();
+                Loc navPoint = new Loc(x, y);
+                navPointList.add(navPoint);
+                numArcs += navGraph.get(navPoint).size();
+            }
+        }
+        navPoints = Collections.unmodifiableList(navPointList);
+
+        arcOffsets = new int[navPoints.size() + 1];
+        arcTargets = new int[numArcs];
+        arcCosts = new int[numArcs];
+        int arc = 0;
+        for(int i = 0; i < navPoints.size(); i++){
+            arcOffsets[i] = arc;
+            for(Loc neighbour : navGraph.get(navPoints.get(i))){
+                arcTargets[arc] = getNavPointIndex(neighbour);
+                arcCosts[arc] = 1;
+                arc++;
+            }
+        }
+        arcOffsets[navPoints.size()] = arc;
+
+        reverseArcOffsets = new int[navPoints.size() + 1];
+        reverseArcSources = new int[numArcs];
+        reverseArcCosts = new int[numArcs];
+        for(int i = 0; i < numArcs; i++){
+            reverseArcOffsets[arcTargets[i] + 1]++;
+        }
+        for(int i = 0; i < navPoints.size(); i++){
+            reverseArcOffsets[i + 1] += reverseArcOffsets[i];
+        }
+        int[] nextReverseArc = Arrays.copyOf(reverseArcOffsets, navPoints.size());
+        for(int source = 0; source < navPoints.size(); source++){
+            for(arc = arcOffsets[source]; arc < arcOffsets[source + 1]; arc++){
+                int reverseArc = nextReverseArc[arcTargets[arc]]++;
+                reverseArcSources[reverseArc] = source;
+                reverseArcCosts[reverseArc] = arcCosts[arc];
+            }
+        }
+    }
+
+    /**
+     * Index of a nav point.
+     * @param loc
+     * @return the index, or -1 if the location is not a nav point
+     */
+    public int getNavPointIndex(Loc loc){
+        return getNavPointIndex(loc.x, loc.y);
+    }
+
+    /**
+     * Index of a nav point.
+     * @return the index, or -1 if the location is not a nav point
+     */
+    public int getNavPointIndex(int x, int y){
+        if(x < 0 || y < 0 || x >= levelWidth || y >= levelHeight){
+            return -1;
+        }
+        return navPointIndices[x * levelHeight + y];
+    }
+
+    public Loc getNavPoint(int index){
+        return navPoints.get(index);
+    }
+
+    /**
+     * All nav points, indexed by nav point index.
+     * @return an unmodifiable list
+     */
+    public List<Loc> getNavPoints() {
+        return navPoints;
+    }
+
+    public int getNumNavPoints(){
+        return navPoints.size();
+    }
+
+    public int getNumArcs(){
+        return arcTargets.length;
+    }
+
+    /**
+     * Index of the first arc leaving a nav point, arcs of the nav point end before {@link #getArcsEnd(int) }.
+     */
+    public int getArcsStart(int navPoint){
+        return arcOffsets[navPoint];
+    }
+
+    public int getArcsEnd(int navPoint){
+        return arcOffsets[navPoint + 1];
+    }
+
+    public int getArcTarget(int arc){
+        return arcTargets[arc];
+    }
+
+    public int getArcCost(int arc){
+        return arcCosts[arc];
+    }
+
+    /**
+     * Index of the first arc entering a nav point, arcs entering the nav point end before {@link #getReverseArcsEnd(int) }.
+     */
+    public int getReverseArcsStart(int navPoint){
+        return reverseArcOffsets[navPoint];
+    }
+
+    public int getReverseArcsEnd(int navPoint){
+        return reverseArcOffsets[navPoint + 1];
+    }
+
+    /**
+     * The nav point the reverse arc leaves from.
+     */
+    public int getReverseArcSource(int reverseArc){
+        return reverseArcSources[reverseArc];
+    }
+
+    public int getReverseArcCost(int reverseArc){
+        return reverseArcCosts[reverseArc];
+    }
+
+    /**
+     * Finds the cheapest path from given location to a nav point satisfying the goal by A*.
+     * Cost of a path is the sum of costs of its arcs plus extra costs of all its nav points except the start.
+     * The start is never checked for being opened.
+     * @param start
+     * @param goal
+     * @return the path starting with start and ending with a goal nav point, or null if there is no such path
+     * or start is not a nav point
+     */
+    public List<Loc> findPath(Loc start, CGNavGoal goal){
+        int startIndex = getNavPointIndex(start);
+        if(startIndex < 0){
+            return null;
+        }
+        SearchBuffers buffers = searchBuffers.get();
+        int pathLength = buffers.search(startIndex, goal);
+        if(pathLength < 0){
+            return null;
+        }
+        List<Loc> path = new ArrayList<Loc>(pathLength);
+        for(int i = 0; i < pathLength; i++){
+            path.add(navPoints.get(buffers.path[i]));
+        }
+        return path;
+    }
+
+    /**
+     * Buffers of a single thread. Costs and parents are valid only for nav points whose stamp equals
+     * the stamp of the current search, so the buffers need not be cleared between searches.
+     */
+    private class SearchBuffers {
+
+        private int currentStamp = 0;
+
+        private final int[] openStamps;
+
+        private final int[] closedStamps;
+
+        private final int[] costs;
+
+        private final int[] parents;
+
+        /**
+         * Binary heap of nav points ordered by estimated total cost. A nav point may be in the heap multiple times,
+         * entries with an outdated cost are skipped when removed.
+         */
+        private int[] heapNavPoints;
+
+        private int[] heapKeys;
+
+        private int heapSize;
+
+        private int[] path;
+
+        SearchBuffers(int numNavPoints) {
+            openStamps = new int[numNavPoints];
+            closedStamps = new int[numNavPoints];
+            costs = new int[numNavPoints];
+            parents = new int[numNavPoints];
+            heapNavPoints = new int[Math.max(16, numNavPoints)];
+            heapKeys = new int[heapNavPoints.length];
+            path = new int[16];
+        }
+
+        /**
+         * @return length of the path in {@link #path} or -1, if no path was found
+         */
+        int search(int start, CGNavGoal goal){
+            nextStamp();
+            heapSize = 0;
+
+            openStamps[start] = currentStamp;
+            costs[start] = 0;
+            parents[start] = -1;
+            heapPush(start, goal.getEstimatedCostToGoal(start));
+
+            while(heapSize > 0){
+                int navPoint = heapPop();
+                if(closedStamps[navPoint] == currentStamp){
+                    //outdated entry, the nav point was already expanded with a lower cost
+                    continue;
+                }
+                if(goal.isGoalReached(navPoint)){
+                    return fillPath(navPoint);
+                }
+                closedStamps[navPoint] = currentStamp;
+
+                int cost = costs[navPoint];
+                for(int arc = arcOffsets[navPoint]; arc < arcOffsets[navPoint + 1]; arc++){
+                    int target = arcTargets[arc];
+                    if(closedStamps[target] == currentStamp || !goal.isNavPointOpened(target)){
+                        continue;
+                    }
+                    int targetCost = cost + arcCosts[arc] + goal.getNavPointExtraCost(target);
+                    if(openStamps[target] != currentStamp || targetCost < costs[target]){
+                        openStamps[target] = currentStamp;
+                        costs[target] = targetCost;
+                        parents[target] = navPoint;
+                        heapPush(target, targetCost + goal.getEstimatedCostToGoal(target));
+                    }
+                }
+            }
+            return -1;
+        }
+
+        private void nextStamp(){
+            if(currentStamp == Integer.MAX_VALUE){
+                Arrays.fill(openStamps, 0);
+                Arrays.fill(closedStamps, 0);
+                currentStamp = 0;
+            }
+            currentStamp++;
+        }
+
+        private int fillPath(int end){
+            int length = 0;
+            for(int navPoint = end; navPoint >= 0; navPoint = parents[navPoint]){
+                length++;
+            }
+            if(path.length < length){
+                path = new int[Math.max(length, path.length * 2)];
+            }
+            int index = length - 1;
+            for(int navPoint = end; navPoint >= 0; navPoint = parents[navPoint]){
+                path[index--] = navPoint;
+            }
+            return length;
+        }
+
+        private void heapPush(int navPoint, int key){
+            if(heapSize == heapNavPoints.length){
+                heapNavPoints = Arrays.copyOf(heapNavPoints, heapSize * 2);
+                heapKeys = Arrays.copyOf(heapKeys, heapSize * 2);
+            }
+            int index = heapSize++;
+            while(index > 0){
+                int parent = (index - 1) >>> 1;
+                if(heapKeys[parent] <= key){
+                    break;
+                }
+                heapNavPoints[index] = heapNavPoints[parent];
+                heapKeys[index] = heapKeys[parent];
+                index = parent;
+            }
+            heapNavPoints[index] = navPoint;
+            heapKeys[index] = key;
+        }
+
+        private int heapPop(){
+            int result = heapNavPoints[0];
+            heapSize--;
+            if(heapSize > 0){
+                int navPoint = heapNavPoints[heapSize];
+                int key = heapKeys[heapSize];
+                int index = 0;
+                while(true){
+                    int child = 2 * index + 1;
+                    if(child >= heapSize){
+                        break;
+                    }
+                    if(child + 1 < heapSize && heapKeys[child + 1] < heapKeys[child]){
+                        child++;
+                    }
+                    if(heapKeys[child] >= key){
+                        break;
+                    }
+                    heapNavPoints[index] = heapNavPoints[child];
+                    heapKeys[index] = heapKeys[child];
+                    index = child;
+                }
+                heapNavPoints[index] = navPoint;
+                heapKeys[index] = key;
+            }
+            return result;
+        }
+    }
+}
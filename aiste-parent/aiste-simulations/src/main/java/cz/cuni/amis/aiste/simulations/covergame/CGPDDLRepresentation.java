@@ -17,8 +17,10 @@
 package cz.cuni.amis.aiste.simulations.covergame;
 
 import cz.cuni.amis.aiste.environment.AgentBody;
+import cz.cuni.amis.aiste.environment.IPlanCachingRepresentation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.ISimulablePDDLRepresentation;
+import cz.cuni.amis.aiste.environment.impl.PDDLFactCache;
 import cz.cuni.amis.aiste.environment.impl.SequencePlan;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyPair;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.OpponentData;
@@ -48,10 +50,14 @@ import java.util.Queue;
  * @author Martin Cerny
  */
 public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLDomain, PDDLProblem, ActionDescription>
-        implements ISimulablePDDLRepresentation<CGPairAction, CoverGame, CGPlanningGoal> {
+        implements ISimulablePDDLRepresentation<CGPairAction, CoverGame, CGPlanningGoal>, IPlanCachingRepresentation<PDDLProblem, CGPlanningGoal> {
 
     PDDLType navPointType;
     Map<Loc, PDDLObjectInstance> navPointInstances;
+    /**
+     * Nav point instances indexed by nav point indices of {@link StaticDefs#compactNavGraph}
+     */
+    PDDLObjectInstance[] navPointInstancesByIndex;
     Map<String, Loc> navPointNamesToLocations;
     
     PDDLPredicate adjacentPredicate;
@@ -71,6 +77,14 @@ public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLD
         
     PDDLPredicate opponentAtPredicate;
     
+    /*
+     * Rendered literals of predicates that change between problems, indexed by opponent, body and nav point indices
+     */
+    PDDLFactCache[] bodyAtFacts;
+    PDDLFactCache uncoveredByOpponentFacts;
+    PDDLFactCache opponentVisibleFacts;
+    PDDLFactCache vantagePointFacts;
+    
     //joint actions
     PDDLSimpleAction attackCrossfireAction;
     PDDLSimpleAction holdPositionAction;
@@ -125,6 +139,15 @@ public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLD
         bodyPDDLs = new OneBodyPDDL[]{new OneBodyPDDL(0, env), new OneBodyPDDL(1, env)};
         bodyPDDLs[0].createJointActions(bodyPDDLs[1]);
         bodyPDDLs[1].createJointActions(bodyPDDLs[0]);
+        
+        navPointInstancesByIndex = new PDDLObjectInstance[env.defs.compactNavGraph.getNumNavPoints()];
+        for(int i = 0; i < navPointInstancesByIndex.length; i++){
+            navPointInstancesByIndex[i] = navPointInstances.get(env.defs.compactNavGraph.getNavPoint(i));
+        }
+        bodyAtFacts = new PDDLFactCache[] { new PDDLFactCache(bodyPDDLs[0].bodyAtPredicate, navPointInstancesByIndex), new PDDLFactCache(bodyPDDLs[1].bodyAtPredicate, navPointInstancesByIndex)};
+        uncoveredByOpponentFacts = new PDDLFactCache(uncoveredByOpponentPredicate, opponentInstances, navPointInstancesByIndex);
+        opponentVisibleFacts = new PDDLFactCache(opponentVisiblePredicate, opponentInstances, navPointInstancesByIndex);
+        vantagePointFacts = new PDDLFactCache(vantagePointPredicate, opponentInstances, navPointInstancesByIndex);
 
         /* Joint actions */
         globalJointActions = new ArrayList<PDDLSimpleAction>();
@@ -204,26 +227,33 @@ public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLD
     @Override
     public PDDLProblem getProblem(AgentBody body, CGPlanningGoal goal) {
         PDDLProblem problem = new PDDLProblem("cover_problem", "cover_game");
-        List<String> initialState = new ArrayList<String>();
-        initialState.addAll(adjacencyPredicates);
 
         for (PDDLObjectInstance navPointInstance : navPointInstances.values()) {
             problem.addObject(navPointInstance);
         }
 
-        CoverGame.CGBodyPair bodyPair = env.bodyPairs.get(body.getId());
+        //read from the snapshot, so that the simulation is not blocked
+        CoverGame state = getSnapshotForProblem(body);
+        CoverGame.CGBodyPair bodyPair = state.bodyPairs.get(body.getId());
+
+        int ids[] = state.getOpponentIds(body.getId());
+        OpponentData opponentData[] = state.getOpponentTeamData(body.getId()).opponentData;
 
-        int ids[] = env.getOpponentIds(body.getId());
-        OpponentData opponentData[] = env.getOpponentTeamData(body.getId()).opponentData;
+        int maxInitialStateSize = adjacencyPredicates.size() + 5;
+        for(int i = 0; i < 2; i++){
+            maxInitialStateSize += opponentData[i].uncoveredNavpoints.size() + opponentData[i].possibleAttackNavpoints.size() + opponentData[i].navpointsInvalidatingCover.size();
+        }
+        List<String> initialState = new ArrayList<String>(maxInitialStateSize);
+        initialState.addAll(adjacencyPredicates);
 
         // body - related state
         for (int i = 0; i < 2; i++) {
-            initialState.add(bodyPDDLs[i].bodyAtPredicate.stringAfterSubstitution(navPointInstances.get(bodyPair.getBodyInfo(i).loc)));
+            initialState.add(bodyAtFacts[i].getFact(env.defs.compactNavGraph.getNavPointIndex(bodyPair.getBodyInfo(i).getLoc())));
             CoverGame.CGBodyInfo bodyInfo = bodyPair.getBodyInfo(i);
             boolean coveredFromAll = true;
             for(int op = 0; op < 2; op++){                
-                CoverGame.CGBodyInfo opponentInfo = env.bodyInfos.get(ids[op]);
-                if(env.isVisible(opponentInfo.loc, bodyInfo.loc) && !env.isCovered(opponentInfo.loc, bodyInfo.loc)){
+                CoverGame.CGBodyInfo opponentInfo = state.bodyInfos.get(ids[op]);
+                if(env.isVisible(opponentInfo.getLoc(), bodyInfo.getLoc()) && !env.isCovered(opponentInfo.getLoc(), bodyInfo.getLoc())){
                     coveredFromAll = false;
                 }
             }
@@ -239,15 +269,9 @@ public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLD
         /* Opponent - related state*/
         for(int i = 0; i < 2; i++){
             problem.addObject(opponentInstances[i]);
-            for(Loc uncoveredLoc : opponentData[i].uncoveredNavpoints){
-                initialState.add(uncoveredByOpponentPredicate.stringAfterSubstitution(opponentInstances[i], navPointInstances.get(uncoveredLoc)));
-            }
-            for(Loc visibleLoc : opponentData[i].possibleAttackNavpoints){
-                initialState.add(opponentVisiblePredicate.stringAfterSubstitution(opponentInstances[i], navPointInstances.get(visibleLoc)));
-            }
-            for(Loc vantageLoc : opponentData[i].navpointsInvalidatingCover){
-                initialState.add(vantagePointPredicate.stringAfterSubstitution(opponentInstances[i], navPointInstances.get(vantageLoc)));
-            }
+            addNavPointFacts(initialState, uncoveredByOpponentFacts, i, opponentData[i].uncoveredNavpoints);
+            addNavPointFacts(initialState, opponentVisibleFacts, i, opponentData[i].possibleAttackNavpoints);
+            addNavPointFacts(initialState, vantagePointFacts, i, opponentData[i].navpointsInvalidatingCover);
         }
         
         problem.setInitialLiterals(initialState);
@@ -278,6 +302,24 @@ public class CGPDDLRepresentation extends AbstractCGPlanningRepresentation<PDDLD
         return problem;
     }
 
+    /**
+     * Cover, visibility and opponent facts are all derived from the locations of the bodies and the opponents,
+     * health is not used, so the fingerprint consists of locations only.
+     */
+    @Override
+    public Object getProblemFingerprint(AgentBody body, CGPlanningGoal goal, PDDLProblem problem) {
+        return createLocationFingerprint(body, goal, getLastProblemSnapshot(body)).toString();
+    }
+
+    /**
+     * Adds opponent-related facts for all nav points in the set.
+     */
+    private void addNavPointFacts(List<String> initialState, PDDLFactCache facts, int opponentIndex, CGThreatIndex.NavPointSet navPoints){
+        for(int navPoint = navPoints.nextNavPoint(0); navPoint >= 0; navPoint = navPoints.nextNavPoint(navPoint + 1)){
+            initialState.add(facts.getFact(opponentIndex, navPoint));
+        }
+    }
+
     @Override
     public IReactivePlan<? extends CGPairAction> translateAction(Queue<ActionDescription> actionsFromPlanner, AgentBody body) {
         return translateActionForSimulation(env, actionsFromPlanner, body);
@@ -19,13 +19,14 @@ package cz.cuni.amis.aiste.simulations.covergame;
 import java.util.ArrayList;
 import cz.cuni.amis.aiste.AisteException;
 import cz.cuni.amis.aiste.environment.AgentBody;
+import cz.cuni.amis.aiste.environment.IPlanCachingRepresentation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.ISimulablePDDLRepresentation;
-import cz.cuni.amis.pathfinding.alg.floydwarshall.FloydWarshall;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Queue;
 import org.apache.log4j.Logger;
+import cz.cuni.amis.aiste.environment.impl.PDDLFactCache;
 import cz.cuni.amis.aiste.environment.impl.SequencePlan;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyPair;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.OpponentData;
@@ -54,9 +55,9 @@ import java.util.Set;
  * @author Martin
  */
 public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentation<PDDLDomain, PDDLProblem, ActionDescription>
-        implements ISimulablePDDLRepresentation<CGPairAction, CoverGame, CGPlanningGoal> {
+        implements ISimulablePDDLRepresentation<CGPairAction, CoverGame, CGPlanningGoal>, IPlanCachingRepresentation<PDDLProblem, CGPlanningGoal> {
 
-    FloydWarshall<Loc> fixedMapFloydWarshall;
+    CGDistanceTable distanceTable;
 
     private final Logger logger = Logger.getLogger(CGPDDLRepresentationWithRoles.class);
 
@@ -72,6 +73,11 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
     Map<String, Loc> constantsToLocations;
 
+    /**
+     * Location constants indexed by nav point indices of {@link StaticDefs#compactNavGraph}
+     */
+    PDDLObjectInstance locationConstantsByIndex[];
+
     PDDLObjectInstance bodyConstants[];
 
     PDDLObjectInstance opponentConstants[];
@@ -95,6 +101,19 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
     PDDLPredicate opponentLowHealthPredicate;
 
+    /*
+     * Rendered literals of the predicates used in problems, indexed by location, body and opponent indices
+     */
+    PDDLFactCache atFacts;
+    PDDLFactCache locationAccessibleFacts;
+    PDDLFactCache highHealthFacts;
+    PDDLFactCache vantagePointFacts;
+    PDDLFactCache vantagePointSafeFacts;
+    PDDLFactCache attackPointFacts;
+    PDDLFactCache uncoveredByOpponentFacts;
+    PDDLFactCache opponentLowHealthFacts;
+    String winFact;
+
     /*
     PDDLSimpleAction aggressiveAction;
 
@@ -114,15 +133,9 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
     public CGPDDLRepresentationWithRoles(CoverGame env) {
         super(env);
-        fixedMapFloydWarshall = new FloydWarshall<Loc>(env.defs.navGraphMap);
+        distanceTable = env.defs.getDistanceTable();
 
-        for (Loc l1 : env.defs.navGraph.keySet()) {
-            for (Loc l2 : env.defs.navGraph.keySet()) {
-                if (fixedMapFloydWarshall.getPathCost(l1, l2) >= Integer.MAX_VALUE) {
-                    throw new AisteException("Unreachable pair of navpoints: " + l1 + ", " + l2);
-                }
-            }
-        }
+        distanceTable.checkAllReachable();
 
         locationType = new PDDLType("location");
         agentType = new PDDLType("agent");
@@ -155,6 +168,20 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
         uncoveredByOpponentPredicate = new PDDLPredicate("uncovered_by_opponent", new PDDLParameter("loc", locationType), new PDDLParameter("op", opponentType));
         opponentLowHealthPredicate = new PDDLPredicate("opponent_low_health", new PDDLParameter("op", opponentType));
 
+        locationConstantsByIndex = new PDDLObjectInstance[env.defs.compactNavGraph.getNumNavPoints()];
+        for (int i = 0; i < locationConstantsByIndex.length; i++) {
+            locationConstantsByIndex[i] = locationsToConstants.get(env.defs.compactNavGraph.getNavPoint(i));
+        }
+        atFacts = new PDDLFactCache(atPredicate, bodyConstants, locationConstantsByIndex);
+        locationAccessibleFacts = new PDDLFactCache(locationAccessiblePredicate, bodyConstants, locationConstantsByIndex);
+        highHealthFacts = new PDDLFactCache(highHealthPredicate, bodyConstants);
+        vantagePointFacts = new PDDLFactCache(vantagePointPredicate, locationConstantsByIndex, bodyConstants, opponentConstants);
+        vantagePointSafeFacts = new PDDLFactCache(vantagePointSafePredicate, locationConstantsByIndex, bodyConstants, opponentConstants);
+        attackPointFacts = new PDDLFactCache(attackPointPredicate, locationConstantsByIndex, bodyConstants, opponentConstants);
+        uncoveredByOpponentFacts = new PDDLFactCache(uncoveredByOpponentPredicate, locationConstantsByIndex, opponentConstants);
+        opponentLowHealthFacts = new PDDLFactCache(opponentLowHealthPredicate, opponentConstants);
+        winFact = winPredicate.stringAfterSubstitution();
+
         moveSafeAction = new PDDLSimpleAction("move_safe", 
                 new PDDLParameter("b1", bodyType), 
                 new PDDLParameter("target_loc", locationType),
@@ -341,11 +368,15 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
 
 
-        CoverGame.CGBodyPair bodyPair = env.bodyPairs.get(body.getId());
+        //read from the snapshot, so that the simulation is not blocked
+        CoverGame state = getSnapshotForProblem(body);
+        CoverGame.CGBodyPair bodyPair = state.bodyPairs.get(body.getId());
+
+        int opponentIds[] = state.getOpponentIds(body.getId());
+        OpponentData opponentData[] = state.getOpponentTeamData(body.getId()).opponentData;
 
-        int opponentIds[] = env.getOpponentIds(body.getId());
-        OpponentData opponentData[] = env.getOpponentTeamData(body.getId()).opponentData;
 
+        CGNavGraph navGraph = env.defs.compactNavGraph;
 
         List<String> initialLiterals = new ArrayList<String>();
 
@@ -356,13 +387,14 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
             problem.addObject(bodyConstants[i]);
                     
-            initialLiterals.add(atPredicate.stringAfterSubstitution(bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).loc)));
-            initialLiterals.add(locationAccessiblePredicate.stringAfterSubstitution(bodyConstants[i], locationsToConstants.get(bodyPair.getBodyInfo(i).loc)));
+            int bodyNavPoint = navGraph.getNavPointIndex(bodyPair.getBodyInfo(i).getLoc());
+            initialLiterals.add(atFacts.getFact(i, bodyNavPoint));
+            initialLiterals.add(locationAccessibleFacts.getFact(i, bodyNavPoint));
             
-            usefulLocations.add(bodyPair.getBodyInfo(i).loc);
+            usefulLocations.add(bodyPair.getBodyInfo(i).getLoc());
             //High health -> I should withstand two shots
-            if (bodyPair.getBodyInfo(i).health >= env.defs.shootDamage * 2) {
-                initialLiterals.add(highHealthPredicate.stringAfterSubstitution(bodyConstants[i]));
+            if (bodyPair.getBodyInfo(i).getHealth() >= env.defs.shootDamage * 2) {
+                initialLiterals.add(highHealthFacts.getFact(i));
             }
 
         }
@@ -373,66 +405,45 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
             problem.addObject(opponentConstants[opp]);            
             
             //Low health -> I expect them to fall for a single shot, even if they heal a little
-            if (env.bodyInfos.get(opponentIds[opp]).health < env.defs.shootDamage - env.defs.healPerRound) {
-                initialLiterals.add(opponentLowHealthPredicate.stringAfterSubstitution(opponentConstants[opp]));
+            if (state.bodyInfos.get(opponentIds[opp]).getHealth() < env.defs.shootDamage - env.defs.healPerRound) {
+                initialLiterals.add(opponentLowHealthFacts.getFact(opp));
             }
 
             for (int bodyId = 0; bodyId < 2; bodyId++) {
-                Loc nearestSafeVantage = null;
-                int nearestSafeVantageDistance = Integer.MAX_VALUE;
-                Loc nearestVantage = null;
-                int nearestVantageDistance = Integer.MAX_VALUE;
-
                 Loc bodyLoc = bodyPair.getBodyInfo(bodyId).getLoc();
-                for (Loc vantage_point : opponentData[opp].navpointsInvalidatingCover) {
-                    int distance = fixedMapFloydWarshall.getPathCost(bodyLoc, vantage_point);
-                    if (distance < nearestSafeVantageDistance) {
-                        int possibleUncoveredShots = getPossibleUncoveredShots(bodyLoc, vantage_point, opponentData);
-                        if (possibleUncoveredShots <= 3 && distance < nearestVantageDistance) {
-                            nearestVantageDistance = distance;
-                            nearestVantage = vantage_point;
-                        }
-
-                        if (possibleUncoveredShots == 0) {
-                            nearestSafeVantageDistance = distance;
-                            nearestSafeVantage = vantage_point;
-                        }
-                    }
-                }
-
-
-                Loc nearestAttackPoint = null;
-                int nearestAttackDistance = Integer.MAX_VALUE;
-                for (Loc attackPoint : opponentData[opp].possibleAttackNavpoints) {
-                    int distance = fixedMapFloydWarshall.getPathCost(bodyLoc, attackPoint);
-                    if (distance < nearestAttackDistance && getPossibleUncoveredShots(bodyLoc, attackPoint, opponentData) == 0) {
-                        nearestAttackPoint = attackPoint;
-                        nearestAttackDistance = distance;
-                    }
-                }
+                NearestNavPoints nearest = findNearestNavPoints(bodyLoc, opponentData[opp].navpointsInvalidatingCover, opponentData[opp].possibleAttackNavpoints, opponentData);
+                Loc nearestSafeVantage = nearest.nearestSafeVantage;
+                int nearestSafeVantageDistance = nearest.nearestSafeVantageDistance;
+                Loc nearestVantage = nearest.nearestVantage;
+                int nearestVantageDistance = nearest.nearestVantageDistance;
+                Loc nearestAttackPoint = nearest.nearestAttackPoint;
+                int nearestAttackDistance = nearest.nearestAttackDistance;
 
                 if (nearestAttackPoint != null) {
-                    initialLiterals.add(attackPointPredicate.stringAfterSubstitution(locationsToConstants.get(nearestAttackPoint), bodyConstants[bodyId], opponentConstants[opp]));
-                    initialLiterals.add(locationAccessiblePredicate.stringAfterSubstitution(bodyConstants[bodyId], locationsToConstants.get(nearestAttackPoint)));
+                    int attackNavPoint = navGraph.getNavPointIndex(nearestAttackPoint);
+                    initialLiterals.add(attackPointFacts.getFact(attackNavPoint, bodyId, opp));
+                    initialLiterals.add(locationAccessibleFacts.getFact(bodyId, attackNavPoint));
                     usefulLocations.add(nearestAttackPoint);
                 }
                 if (nearestVantage != null) {
+                    int vantageNavPoint = navGraph.getNavPointIndex(nearestVantage);
                     if(!nearestVantage.equals(nearestAttackPoint)){
-                        initialLiterals.add(attackPointPredicate.stringAfterSubstitution(locationsToConstants.get(nearestVantage), bodyConstants[bodyId], opponentConstants[opp]));                        
+                        initialLiterals.add(attackPointFacts.getFact(vantageNavPoint, bodyId, opp));                        
                     }
-                    initialLiterals.add(vantagePointPredicate.stringAfterSubstitution(locationsToConstants.get(nearestVantage), bodyConstants[bodyId], opponentConstants[opp]));
-                    initialLiterals.add(locationAccessiblePredicate.stringAfterSubstitution(bodyConstants[bodyId], locationsToConstants.get(nearestVantage)));
+                    initialLiterals.add(vantagePointFacts.getFact(vantageNavPoint, bodyId, opp));
+                    initialLiterals.add(locationAccessibleFacts.getFact(bodyId, vantageNavPoint));
                     usefulLocations.add(nearestVantage);
                 }
                 if (nearestSafeVantage != null) {
+                    int safeVantageNavPoint = navGraph.getNavPointIndex(nearestSafeVantage);
                     if(!nearestAttackPoint.equals(nearestAttackPoint)){
-                        initialLiterals.add(attackPointPredicate.stringAfterSubstitution(locationsToConstants.get(nearestSafeVantage), bodyConstants[bodyId], opponentConstants[opp]));                        
+                        initialLiterals.add(attackPointFacts.getFact(safeVantageNavPoint, bodyId, opp));                        
                     }
                     if(!nearestSafeVantage.equals(nearestVantage)){                        
-                        initialLiterals.add(vantagePointPredicate.stringAfterSubstitution(locationsToConstants.get(nearestSafeVantage), bodyConstants[bodyId], opponentConstants[opp]));
+                        initialLiterals.add(vantagePointFacts.getFact(safeVantageNavPoint, bodyId, opp));
                     }
-                    initialLiterals.add(vantagePointSafePredicate.stringAfterSubstitution(locationsToConstants.get(nearestSafeVantage), bodyConstants[bodyId], opponentConstants[opp]));
-                    initialLiterals.add(locationAccessiblePredicate.stringAfterSubstitution(bodyConstants[bodyId], locationsToConstants.get(nearestSafeVantage)));
+                    initialLiterals.add(vantagePointSafeFacts.getFact(safeVantageNavPoint, bodyId, opp));
+                    initialLiterals.add(locationAccessibleFacts.getFact(bodyId, safeVantageNavPoint));
                     usefulLocations.add(nearestSafeVantage);
                 }
                 
@@ -447,11 +458,11 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
         }
 
         for (Loc usefulLocation : usefulLocations) {
-            PDDLObjectInstance locationConstant = locationsToConstants.get(usefulLocation);
-            problem.addObject(locationConstant);
+            int usefulNavPoint = navGraph.getNavPointIndex(usefulLocation);
+            problem.addObject(locationConstantsByIndex[usefulNavPoint]);
             for (int opp = 0; opp < 2; opp++) {
-                if(opponentData[opp].uncoveredNavpoints.contains(usefulLocation)){
-                    initialLiterals.add(uncoveredByOpponentPredicate.stringAfterSubstitution(locationConstant, opponentConstants[opp]));
+                if(opponentData[opp].uncoveredNavpoints.containsNavPoint(usefulNavPoint)){
+                    initialLiterals.add(uncoveredByOpponentFacts.getFact(usefulNavPoint, opp));
                 }                            
                 
             }
@@ -467,7 +478,7 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
         problem.setInitialLiterals(initialLiterals);
 
-        problem.setGoalCondition(winPredicate.stringAfterSubstitution());
+        problem.setGoalCondition(winFact);
 
         problem.setMinimizeActionCosts(true);
         
@@ -475,6 +486,24 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
 
     }
 
+    /**
+     * Apart from locations, the problem depends only on the health bands used for
+     * the high health and opponent low health facts, so the exact health values are not part of the fingerprint.
+     */
+    @Override
+    public Object getProblemFingerprint(AgentBody body, CGPlanningGoal goal, PDDLProblem problem) {
+        CoverGame snapshot = getLastProblemSnapshot(body);
+        StringBuilder fingerprint = createLocationFingerprint(body, goal, snapshot);
+        CoverGame.CGBodyPair bodyPair = snapshot.bodyPairs.get(body.getId());
+        for (int i = 0; i < 2; i++) {
+            fingerprint.append(bodyPair.getBodyInfo(i).getHealth() >= env.defs.shootDamage * 2 ? 'H' : 'L');
+        }
+        for (int opponentId : snapshot.getOpponentIds(body.getId())) {
+            fingerprint.append(snapshot.bodyInfos.get(opponentId).getHealth() < env.defs.shootDamage - env.defs.healPerRound ? 'L' : 'H');
+        }
+        return fingerprint.toString();
+    }
+
     @Override
     public IReactivePlan<? extends CGPairAction> translateAction(Queue<ActionDescription> actionsFromPlanner, AgentBody body) {
         return translateActionForSimulation(env, actionsFromPlanner, body);
@@ -578,20 +607,6 @@ public class CGPDDLRepresentationWithRoles extends AbstractCGPlanningRepresentat
         return true;
     }
 
-    protected int getPossibleUncoveredShots(Loc bodyLoc, Loc vantage_point, OpponentData[] opponentData) {
-        int possibleUncoveredShots = 0;
-        List<Loc> path = fixedMapFloydWarshall.getPath(bodyLoc, vantage_point);
-        path.add(vantage_point);
-        for (Loc pathLoc : path) {
-            for (int opp2 = 0; opp2 < 2; opp2++) {
-                if (opponentData[opp2].uncoveredNavpoints.contains(pathLoc)) {
-                    possibleUncoveredShots++;
-                }
-            }
-        }
-        return possibleUncoveredShots;
-    }
-
     @Override
     public String getLoggableRepresentation() {
         return "PDDL_With_Roles";
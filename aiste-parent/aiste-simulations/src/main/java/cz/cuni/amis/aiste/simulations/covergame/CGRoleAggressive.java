@@ -18,10 +18,6 @@ package cz.cuni.amis.aiste.simulations.covergame;
 
 import cz.cuni.amis.aiste.environment.ReactivePlanStatus;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyInfo;
-import cz.cuni.amis.pathfinding.alg.astar.AStarResult;
-import cz.cuni.amis.pathfinding.map.IPFMapView;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -80,7 +76,7 @@ public class CGRoleAggressive extends CGRolePlan {
         
         if(enemyKilledLastRound) {
             return ReactivePlanStatus.COMPLETED;            
-        } else if(env.getNumThreats(bodyId, bodyInfo.loc) > maxThreatsToAdvance){
+        } else if(env.getNumThreats(bodyId, bodyInfo.getLoc()) > maxThreatsToAdvance){
             return ReactivePlanStatus.FAILED;
         } else if(env.getBestTarget(bodyId) < 0 && !hasPath()){
             return ReactivePlanStatus.FAILED;
@@ -95,57 +91,30 @@ public class CGRoleAggressive extends CGRolePlan {
      */
     @Override
     protected List<Loc> computePath() {
-        final CGBodyInfo bodyInfo = getBodyInfo();
-        AStarResult<Loc> result = astar.findPath(new CGAStarGoal(env, bodyInfo.loc) {
+        CoverGame.OpponentTeamData opponentTeamData = env.getOpponentTeamData(getBodyInfo().getTeamId());
+        final CGThreatIndex.NavPointSet goalNavPoints = opponentTeamData.allPossibleAttackNavPoints;
+        return findPath(new CGNavGoal() {
 
             @Override
-            public boolean isGoalReached(Loc actualNode) {
-                return env.getOpponentTeamData(bodyInfo.getTeamId()).allPossibleAttackNavPoints.contains(actualNode);
+            public boolean isGoalReached(int navPoint) {
+                return goalNavPoints.containsNavPoint(navPoint);
             }
 
             @Override
-            public int getEstimatedCostToGoal(Loc node) {
-                if(isGoalReached(node)){
+            public int getEstimatedCostToGoal(int navPoint) {
+                if(isGoalReached(navPoint)){
                     return 0;
                 } else {
                     return 1;
                 }
             }
-                        
-        }, new IPFMapView<Loc>() {
 
             @Override
-            public Collection<Loc> getExtraNeighbors(Loc node, Collection<Loc> mapNeighbors) {
-                return Collections.EMPTY_LIST;
-            }
-
-            @Override
-            public int getNodeExtraCost(Loc node, int mapCost) {
-                return 0;
-            }
-
-            @Override
-            public int getArcExtraCost(Loc nodeFrom, Loc nodeTo, int mapCost) {
-                return 0;
-            }
-
-            @Override
-            public boolean isNodeOpened(Loc node) {
-                return env.getNumThreats(bodyId, node) < maxThreatsToAdvance;
-            }
-
-            @Override
-            public boolean isArcOpened(Loc nodeFrom, Loc nodeTo) {
-                return true;
+            public boolean isNavPointOpened(int navPoint) {
+                return env.getNumThreats(bodyId, navPoint) < maxThreatsToAdvance;
             }
             
-        });
-        
-        if(result.isSuccess()){
-            return result.getPath();
-        } else {
-            return null;
-        }
+        }, opponentTeamData);
     }
 
     @Override
@@ -155,7 +124,7 @@ public class CGRoleAggressive extends CGRolePlan {
 
     @Override
     protected CGRolePlan cloneForSimulation(CoverGame cgCopy) {
-        return new CGRoleAggressive(cgCopy, bodyId, preferredTargetIndex, maxThreatsToAdvance);
+        return sharePathSearch(new CGRoleAggressive(cgCopy, bodyId, preferredTargetIndex, maxThreatsToAdvance));
     }
 
 
@@ -19,11 +19,6 @@ package cz.cuni.amis.aiste.simulations.covergame;
 import cz.cuni.amis.aiste.environment.ReactivePlanStatus;
 import cz.cuni.amis.aiste.environment.impl.AbstractReactivePlan;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyInfo;
-import cz.cuni.amis.pathfinding.alg.astar.AStarResult;
-import cz.cuni.amis.pathfinding.map.IPFMapView;
-import cz.cuni.amis.utils.astar.AStarGoal;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -55,7 +50,7 @@ public class CGRoleDefensive extends CGRolePlan {
 
     protected boolean isSafe() {
         CGBodyInfo bodyInfo = getBodyInfo();
-        return !env.getOpponentTeamData(bodyInfo.team.getId()).allUncoveredNavPoints.contains(bodyInfo.loc);
+        return !env.getOpponentTeamData(bodyInfo.team.getId()).allUncoveredNavPoints.contains(bodyInfo.getLoc());
     }
 
     
@@ -75,57 +70,30 @@ public class CGRoleDefensive extends CGRolePlan {
 
     @Override
     protected List<Loc> computePath() {
-        final CGBodyInfo bodyInfo = getBodyInfo();
-        AStarResult<Loc> result = astar.findPath(new CGAStarGoal(env, bodyInfo.loc) {
+        CoverGame.OpponentTeamData opponentTeamData = env.getOpponentTeamData(getBodyInfo().getTeamId());
+        final CGThreatIndex.NavPointSet uncoveredNavPoints = opponentTeamData.allUncoveredNavPoints;
+        return findPath(new CGNavGoal() {
 
             @Override
-            public boolean isGoalReached(Loc actualNode) {
-                return !env.getOpponentTeamData(bodyInfo.getTeamId()).allUncoveredNavPoints.contains(actualNode);
+            public boolean isGoalReached(int navPoint) {
+                return !uncoveredNavPoints.containsNavPoint(navPoint);
             }
 
             @Override
-            public int getEstimatedCostToGoal(Loc node) {
-                if(isGoalReached(node)){
+            public int getEstimatedCostToGoal(int navPoint) {
+                if(isGoalReached(navPoint)){
                     return 0;
                 } else {
                     return 1;
                 }
             }
-                        
-        }, new IPFMapView<Loc>() {
 
             @Override
-            public Collection<Loc> getExtraNeighbors(Loc node, Collection<Loc> mapNeighbors) {
-                return Collections.EMPTY_LIST;
-            }
-
-            @Override
-            public int getNodeExtraCost(Loc node, int mapCost) {
-                return env.getNumThreats(bodyId, node) -1; //subtract 1 since unthreatened points are never searched (they are goal) 
-            }
-
-            @Override
-            public int getArcExtraCost(Loc nodeFrom, Loc nodeTo, int mapCost) {
-                return 0;
-            }
-
-            @Override
-            public boolean isNodeOpened(Loc node) {
-                return true;
-            }
-
-            @Override
-            public boolean isArcOpened(Loc nodeFrom, Loc nodeTo) {
-                return true;
+            public int getNavPointExtraCost(int navPoint) {
+                return env.getNumThreats(bodyId, navPoint) -1; //subtract 1 since unthreatened points are never searched (they are goal) 
             }
             
-        });
-        
-        if(result.isSuccess()){
-            return result.getPath();
-        } else {
-            return null;
-        }
+        }, opponentTeamData);
     }
 
     @Override
@@ -135,7 +103,7 @@ public class CGRoleDefensive extends CGRolePlan {
 
     @Override
     protected CGRolePlan cloneForSimulation(CoverGame cgCopy) {
-        return new CGRoleDefensive(cgCopy, bodyId);
+        return sharePathSearch(new CGRoleDefensive(cgCopy, bodyId));
     }
 
     
@@ -19,10 +19,6 @@ package cz.cuni.amis.aiste.simulations.covergame;
 import cz.cuni.amis.aiste.environment.ReactivePlanStatus;
 import cz.cuni.amis.aiste.environment.impl.AbstractReactivePlan;
 import cz.cuni.amis.aiste.simulations.covergame.CoverGame.CGBodyInfo;
-import cz.cuni.amis.pathfinding.alg.astar.AStarResult;
-import cz.cuni.amis.pathfinding.map.IPFMapView;
-import java.util.Collection;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -67,7 +63,7 @@ public class CGRoleMove extends CGRolePlan {
         CGBodyInfo bodyInfo = getBodyInfo();
         if(getPath() == null){
             return ReactivePlanStatus.FAILED;
-        } else if(bodyInfo.loc.equals(target)) {
+        } else if(bodyInfo.getLoc().equals(target)) {
             return ReactivePlanStatus.COMPLETED;
         } else {
             return ReactivePlanStatus.EXECUTING;
@@ -79,53 +75,30 @@ public class CGRoleMove extends CGRolePlan {
      */
     @Override
     protected List<Loc> computePath() {
-        final CGBodyInfo bodyInfo = getBodyInfo();
-        AStarResult<Loc> result = astar.findPath(new CGAStarGoal(env, bodyInfo.loc) {
-
-            @Override
-            public boolean isGoalReached(Loc actualNode) {
-                return target.equals(actualNode);
-            }
-
-            @Override
-            public int getEstimatedCostToGoal(Loc node) {
-                return (int)(CGUtils.distance(target, node) / env.defs.maxDistancePerTurn);
-            }
-                        
-        }, new IPFMapView<Loc>() {
-
-            @Override
-            public Collection<Loc> getExtraNeighbors(Loc node, Collection<Loc> mapNeighbors) {
-                return Collections.EMPTY_LIST;
-            }
-
-            @Override
-            public int getNodeExtraCost(Loc node, int mapCost) {
-                return 0;
-            }
+        final CGNavGraph navGraph = env.defs.compactNavGraph;
+        final int targetIndex = navGraph.getNavPointIndex(target);
+        if(targetIndex < 0){
+            return null;
+        }
+        CoverGame.OpponentTeamData opponentTeamData = env.getOpponentTeamData(getBodyInfo().getTeamId());
+        return findPath(new CGNavGoal() {
 
             @Override
-            public int getArcExtraCost(Loc nodeFrom, Loc nodeTo, int mapCost) {
-                return 0;
+            public boolean isGoalReached(int navPoint) {
+                return navPoint == targetIndex;
             }
 
             @Override
-            public boolean isNodeOpened(Loc node) {
-                return env.getNumThreats(bodyId, node) <= maxThreats;
+            public int getEstimatedCostToGoal(int navPoint) {
+                return (int)(CGUtils.distance(target, navGraph.getNavPoint(navPoint)) / env.defs.maxDistancePerTurn);
             }
 
             @Override
-            public boolean isArcOpened(Loc nodeFrom, Loc nodeTo) {
-                return true;
+            public boolean isNavPointOpened(int navPoint) {
+                return env.getNumThreats(bodyId, navPoint) <= maxThreats;
             }
             
-        });
-        
-        if(result.isSuccess()){
-            return result.getPath();
-        } else {
-            return null;
-        }
+        }, opponentTeamData);
     }
 
     @Override
@@ -135,7 +108,7 @@ public class CGRoleMove extends CGRolePlan {
 
     @Override
     protected CGRolePlan cloneForSimulation(CoverGame cgCopy) {
-        return new CGRoleMove(cgCopy, bodyId, target, maxThreats);
+        return sharePathSearch(new CGRoleMove(cgCopy, bodyId, target, maxThreats));
     }
 
     
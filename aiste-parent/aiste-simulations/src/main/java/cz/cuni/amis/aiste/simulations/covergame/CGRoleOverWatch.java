@@ -49,13 +49,13 @@ public class CGRoleOverWatch extends CGRolePlan {
     @Override
     public CGAction peek() {
         CGBodyInfo bodyInfo = getBodyInfo();
-        if(preferSuppression && bodyInfo.suppressCooldown <= 1){
+        if(preferSuppression && bodyInfo.getSuppressCooldown() <= 1){
             CGBodyInfo partnerInfo = env.bodyPairs.get(bodyInfo.getTeamId()).getOtherInfo(bodyInfo);
             int largestThreat = -1;
             double largestThreatAim = 0;            
             for(int opp : env.getOpponentIds(bodyInfo.getTeamId())){
                 CGBodyInfo opponentInfo = env.bodyInfos.get(opp);
-                if(env.isVisible(partnerInfo.loc, opponentInfo.loc) && env.isVisible(bodyInfo.loc, opponentInfo.loc)) {
+                if(env.isVisible(partnerInfo.getLoc(), opponentInfo.getLoc()) && env.isVisible(bodyInfo.getLoc(), opponentInfo.getLoc())) {
                     double aim = env.getHitProbability(opponentInfo, partnerInfo);
                     if(aim > largestThreatAim){
                         largestThreat = opp;
@@ -80,7 +80,7 @@ public class CGRoleOverWatch extends CGRolePlan {
     @Override
     protected ReactivePlanStatus getStatusInternal() {
         CGBodyInfo bodyInfo = getBodyInfo();
-        if(env.getNumThreats(bodyId, bodyInfo.loc) > 0){
+        if(env.getNumThreats(bodyId, bodyInfo.getLoc()) > 0){
             return ReactivePlanStatus.FAILED;
         } else { 
             //overwatch is always completed - only waits for the other action to complete
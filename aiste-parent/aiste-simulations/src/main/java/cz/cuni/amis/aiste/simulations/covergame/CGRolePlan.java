@@ -18,7 +18,6 @@ package cz.cuni.amis.aiste.simulations.covergame;
 
 import cz.cuni.amis.aiste.environment.ReactivePlanStatus;
 import cz.cuni.amis.aiste.environment.impl.AbstractReactivePlan;
-import cz.cuni.amis.pathfinding.alg.astar.AStar;
 import java.util.List;
 
 /**
@@ -36,13 +35,14 @@ public abstract class CGRolePlan extends AbstractReactivePlan<CGAction> {
     private ReactivePlanStatus status;
     private long lastStatusRefresh = -1;
     
-    protected AStar<Loc> astar;
-
+    /**
+     * Search state kept between path computations, created lazily
+     */
+    private CGIncrementalPathSearch pathSearch = null;
     
     public CGRolePlan(CoverGame env, int bodyId) {
         this.env = env;
         this.bodyId = bodyId;
-        astar = new AStar<Loc>(env.defs.navGraphMap);
     }        
     
     
@@ -54,7 +54,7 @@ public abstract class CGRolePlan extends AbstractReactivePlan<CGAction> {
         int bestTarget = env.getBestTarget(bodyId);
         if(bestTarget >= 0){
             return new CGAction(CGAction.Action.SHOOT, bestTarget);
-        } else if(env.isThereNeighbouringCover(getBodyInfo().loc)) {
+        } else if(env.isThereNeighbouringCover(getBodyInfo().getLoc())) {
             return CGAction.TAKE_FULL_COVER_ACTION;
         } else {
             return CGAction.NO_OP_ACTION;
@@ -86,6 +86,33 @@ public abstract class CGRolePlan extends AbstractReactivePlan<CGAction> {
         return null;
     }
     
+    /**
+     * Finds path from the current location of the body in the nav graph. The search is repaired
+     * from the previous call of this method, the goal is re-evaluated only if the goal state has changed.
+     * The goal must not change for the lifetime of the plan except for changes determined by the goal state.
+     * @param goal
+     * @param goalState immutable object that determines the answers of the goal, see {@link CGIncrementalPathSearch}
+     * @return the path or null, if there is none
+     */
+    protected List<Loc> findPath(CGNavGoal goal, Object goalState){
+        if(pathSearch == null){
+            pathSearch = new CGIncrementalPathSearch(env.defs.compactNavGraph);
+        }
+        return pathSearch.findPath(getBodyInfo().getLoc(), goal, goalState);
+    }
+    
+    /**
+     * Lets a copy of this plan created by {@link #cloneForSimulation(cz.cuni.amis.aiste.simulations.covergame.CoverGame) }
+     * start with the search state of this plan. The state is copied only when one of the plans needs to modify it.
+     * @return the copy
+     */
+    protected CGRolePlan sharePathSearch(CGRolePlan copy){
+        if(pathSearch != null){
+            copy.pathSearch = pathSearch.copy();
+        }
+        return copy;
+    }
+    
     protected void resetPath(){
         path = null;
         lastPathRefresh = -1;
@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Precomputed threat information for a map - for every location, the sets of nav points
+ * an opponent standing at the location can shoot at (with or without cover) and can be shot from.
+ * The sets are bitsets over nav points, so membership tests are O(1) and do not allocate.
+ * Data for a location is computed on first request and then shared - all the sets are immutable.
+ * @author Martin Cerny
+ */
+public class CGThreatIndex {
+
+    private final CoverGame.StaticDefs defs;
+
+    /**
+     * Nav points, indexed by nav point index of {@link CoverGame.StaticDefs#compactNavGraph}.
+     */
+    private final List<Loc> navPoints;
+
+    private final int numWords;
+
+    /**
+     * Opponent data per location, indexed by x * levelHeight + y
+     */
+    private final AtomicReferenceArray<CoverGame.OpponentData> opponentData;
+
+    /**
+     * Creates the index. Visibility and compact nav graph of the map must already be computed.
+     * @param defs 
+     */
+    public CGThreatIndex(CoverGame.StaticDefs defs) {
+        this.defs = defs;
+        navPoints = defs.compactNavGraph.getNavPoints();
+        numWords = (navPoints.size() + 63) >>> 6;
+        opponentData = new AtomicReferenceArray<CoverGame.OpponentData>(defs.levelWidth * defs.levelHeight);
+    }
+
+    /**
+     * Gets threat information for an opponent at given location.
+     * @param opponentLocation
+     * @return 
+     */
+    public CoverGame.OpponentData getOpponentData(Loc opponentLocation){
+        int squareIndex = opponentLocation.x * defs.levelHeight + opponentLocation.y;
+        CoverGame.OpponentData data = opponentData.get(squareIndex);
+        if(data == null){
+            data = computeOpponentData(opponentLocation);
+            //if another thread computed the data in the meantime, the results are identical
+            opponentData.set(squareIndex, data);
+        }
+        return data;
+    }
+
+    private CoverGame.OpponentData computeOpponentData(Loc opponentLocation){
+        long[] uncovered = new long[numWords];
+        long[] shootable = new long[numWords];
+        long[] possibleAttack = new long[numWords];
+        long[] invalidatingCover = new long[numWords];
+        for(int i = 0; i < navPoints.size(); i++){
+            Loc navPoint = navPoints.get(i);
+            int word = i >>> 6;
+            long bit = 1L << (i & 63);
+            if(defs.visibility.isVisible(navPoint, opponentLocation)){
+                possibleAttack[word] |= bit;
+                if(!CGUtils.isCovered(navPoint, opponentLocation, defs)){
+                    invalidatingCover[word] |= bit;
+                }
+            }
+            if(defs.visibility.isVisible(opponentLocation, navPoint)){
+                shootable[word] |= bit;
+                if(!CGUtils.isCovered(opponentLocation, navPoint, defs)){
+                    uncovered[word] |= bit;
+                }
+            }
+        }
+        return new CoverGame.OpponentData(new NavPointSet(uncovered), new NavPointSet(shootable),
+                new NavPointSet(possibleAttack), new NavPointSet(invalidatingCover));
+    }
+
+    /**
+     * Creates a set containing nav points of all given sets.
+     * @param sets sets created by this index
+     * @return 
+     */
+    public NavPointSet union(NavPointSet... sets){
+        long[] bits = new long[numWords];
+        for(NavPointSet set : sets){
+            for(int i = 0; i < numWords; i++){
+                bits[i] |= set.bits[i];
+            }
+        }
+        return new NavPointSet(bits);
+    }
+
+    /**
+     * Index of a nav point.
+     * @param loc
+     * @return the index, or -1 if the location is not a nav point
+     */
+    public int getNavPointIndex(Loc loc){
+        return defs.compactNavGraph.getNavPointIndex(loc);
+    }
+
+    public Loc getNavPoint(int index){
+        return navPoints.get(index);
+    }
+
+    public int getNumNavPoints(){
+        return navPoints.size();
+    }
+
+    /**
+     * An immutable set of nav points, backed by a bitset.
+     */
+    public class NavPointSet extends AbstractSet<Loc> {
+
+        private final long[] bits;
+
+        private final int size;
+
+        NavPointSet(long[] bits) {
+            this.bits = bits;
+            int count = 0;
+            for(long word : bits){
+                count += Long.bitCount(word);
+            }
+            this.size = count;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if(!(o instanceof Loc)){
+                return false;
+            }
+            int index = getNavPointIndex((Loc)o);
+            if(index < 0){
+                return false;
+            }
+            return containsNavPoint(index);
+        }
+
+        /**
+         * Membership test by nav point index.
+         */
+        public boolean containsNavPoint(int index){
+            return (bits[index >>> 6] & (1L << (index & 63))) != 0;
+        }
+
+        /**
+         * Index of the first nav point in the set that is not lower than fromIndex, allows iterating
+         * over the set by indices.
+         * @return the index or -1 if there is no such nav point
+         */
+        public int nextNavPoint(int fromIndex){
+            return findNext(fromIndex);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
+
+        @Override
+        public Iterator<Loc> iterator() {
+            return new Iterator<Loc>() {
+                int nextIndex = findNext(0);
+
+                @Override
+                public boolean hasNext() {
+                    return nextIndex >= 0;
+                }
+
+                @Override
+                public Loc next() {
+                    if(nextIndex < 0){
+                        throw new NoSuchElementException();
+                    }
+                    Loc result = navPoints.get(nextIndex);
+                    nextIndex = findNext(nextIndex + 1);
+                    return result;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException("Nav point sets are immutable.");
+                }
+            };
+        }
+
+        private int findNext(int fromIndex){
+            int word = fromIndex >>> 6;
+            if(word >= bits.length){
+                return -1;
+            }
+            long remaining = bits[word] & (-1L << (fromIndex & 63));
+            while(true){
+                if(remaining != 0){
+                    return (word << 6) + Long.numberOfTrailingZeros(remaining);
+                }
+                word++;
+                if(word >= bits.length){
+                    return -1;
+                }
+                remaining = bits[word];
+            }
+        }
+    }
+}
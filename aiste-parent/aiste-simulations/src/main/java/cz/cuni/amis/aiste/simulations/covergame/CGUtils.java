@@ -113,10 +113,61 @@ public class CGUtils {
      * @return 
      */
     public static boolean isDirectlyVisible(Loc from, Loc to, CGSquare[][] squares){
-        for(Loc pointOnLine : getPointsOnLine(from, to)){
-            if(!squares[pointOnLine.x][pointOnLine.y].passable){
+        return isDirectlyVisible(from.x, from.y, to.x, to.y, squares);
+    }    
+
+    /**
+     * Same as {@link #isDirectlyVisible(cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.CGSquare[][]) },
+     * but walks the line in place, without creating the list of points.
+     */
+    public static boolean isDirectlyVisible(int fromX, int fromY, int toX, int toY, CGSquare[][] squares){
+        int x = fromX;
+        int y = fromY;
+        
+        int w = toX - x;
+        int h = toY - y;
+        int dx1 = 0, dy1 = 0, dx2 = 0, dy2 = 0;
+        if (w < 0) {
+            dx1 = -1;
+        } else if (w > 0) {
+            dx1 = 1;
+        }
+        if (h < 0) {
+            dy1 = -1;
+        } else if (h > 0) {
+            dy1 = 1;
+        }
+        if (w < 0) {
+            dx2 = -1;
+        } else if (w > 0) {
+            dx2 = 1;
+        }
+        int longest = Math.abs(w);
+        int shortest = Math.abs(h);
+        if (!(longest > shortest)) {
+            longest = Math.abs(h);
+            shortest = Math.abs(w);
+            if (h < 0) {
+                dy2 = -1;
+            } else if (h > 0) {
+                dy2 = 1;
+            }
+            dx2 = 0;
+        }
+        int numerator = longest >> 1;
+        for (int i = 0; i <= longest; i++) {
+            if(!squares[x][y].passable){
                 return false;
-            }             
+            }
+            numerator += shortest;
+            if (!(numerator < longest)) {
+                numerator -= longest;
+                x += dx1;
+                y += dy1;
+            } else {
+                x += dx2;
+                y += dy2;
+            }
         }
         return true;
     }    
@@ -130,19 +181,63 @@ public class CGUtils {
      * @return 
      */
     public static boolean isVisible(Loc from, Loc to, CoverGame.StaticDefs defs){
-        if(isDirectlyVisible(from, to, defs.squares)){
+        return isVisible(from.x, from.y, to.x, to.y, defs);
+    }    
+
+    /**
+     * Allocation-free version of {@link #isVisible(cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.Loc, cz.cuni.amis.aiste.simulations.covergame.CoverGame.StaticDefs) }.
+     */
+    public static boolean isVisible(int fromX, int fromY, int toX, int toY, CoverGame.StaticDefs defs){
+        CGSquare[][] squares = defs.squares;
+        if(isDirectlyVisible(fromX, fromY, toX, toY, squares)){
             return true;
         }
         
-        for(CGSquare sq: getNeighbouringSquares(from, defs)){
-            if(sq.passable && isDirectlyVisible(sq.loc, to, defs.squares)){
-                return true;
-            }
+        //the same neighbours as in getNeighbouringSquares
+        if(fromX > 0 && squares[fromX - 1][fromY].passable && isDirectlyVisible(fromX - 1, fromY, toX, toY, squares)){
+            return true;
+        }
+        if(fromY > 0 && squares[fromX][fromY - 1].passable && isDirectlyVisible(fromX, fromY - 1, toX, toY, squares)){
+            return true;
+        }
+        if(fromX < defs.levelWidth - 1 && squares[fromX + 1][fromY].passable && isDirectlyVisible(fromX + 1, fromY, toX, toY, squares)){
+            return true;
+        }
+        if(fromY < defs.levelHeight - 1 && squares[fromX][fromY + 1].passable && isDirectlyVisible(fromX, fromY + 1, toX, toY, squares)){
+            return true;
         }
         
         return false;
     }    
     
+    /**
+     * Checks whether location to is covered if shooting from location from.
+     * Does not check visibility!
+     * @param from
+     * @param to
+     * @param defs
+     * @return 
+     */
+    public static boolean isCovered(Loc from, Loc to, CoverGame.StaticDefs defs){
+        if(distance(from,to) < 2){
+            //at close combat distance, there is no cover
+            return false;
+        }
+        if(from.x < to.x - 1  && defs.squares[to.x - 1][to.y].verticalCover){
+            return true;
+        }
+        if(from.x > to.x + 1  && defs.squares[to.x + 1][to.y].verticalCover){
+            return true;
+        }
+        if(from.y < to.y - 1  && defs.squares[to.x][to.y - 1].horizontalCover){
+            return true;
+        }
+        if(from.y > to.y + 1  && defs.squares[to.x][to.y + 1].horizontalCover){
+            return true;
+        }
+        return false;
+    }
+    
     public static List<CGSquare> getNeighbouringSquares(Loc l, CoverGame.StaticDefs defs){
         List<CGSquare> neighbours = new ArrayList<CGSquare>(4);
         if(l.x > 0 && defs.squares[l.x - 1][l.y].passable){
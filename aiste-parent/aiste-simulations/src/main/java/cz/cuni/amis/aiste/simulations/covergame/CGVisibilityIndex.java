@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Precomputed visibility between all pairs of passable squares of a map.
+ * Visibility is stored as a bitset - one row per passable source square, with one bit per passable target square,
+ * squares that are not passable are not visible from anywhere and see nothing.
+ * <p>
+ * The index is either built completely at once (in parallel), or lazily: a row is computed on
+ * the first query from the corresponding square and cached. The index is thread-safe
+ * in both modes.
+ * </p>
+ * @author Martin Cerny
+ */
+public class CGVisibilityIndex {
+
+    private final CoverGame.StaticDefs defs;
+    
+    /**
+     * Index of the square among passable squares, indexed by x * levelHeight + y. -1 for impassable squares.
+     */
+    private final int[] passableIndices;
+    
+    /**
+     * Locations of passable squares, indexed by passable index.
+     */
+    private final int[] passableX;
+    private final int[] passableY;
+    
+    private final int numPassable;
+    
+    private final int rowLength;
+    
+    private final AtomicReferenceArray<long[]> rows;
+
+    /**
+     * Creates an empty index. Rows are computed on demand, unless {@link #buildAll(int) } is called.
+     * The squares of the map have to be already read.
+     * @param defs 
+     */
+    public CGVisibilityIndex(CoverGame.StaticDefs defs) {
+        this.defs = defs;
+        passableIndices = new int[defs.levelWidth * defs.levelHeight];
+        int passableCount = 0;
+        for(int x = 0; x < defs.levelWidth; x++){
+            for(int y = 0; y < defs.levelHeight; y++){
+                if(defs.squares[x][y].passable){
+                    passableIndices[x * defs.levelHeight + y] = passableCount;
+                    passableCount++;
+                } else {
+                    passableIndices[x * defs.levelHeight + y] = -1;
+                }
+            }
+        }
+        numPassable = passableCount;
+        passableX = new int[numPassable];
+        passableY = new int[numPassable];
+        for(int x = 0; x < defs.levelWidth; x++){
+            for(int y = 0; y < defs.levelHeight; y++){
+                int index = passableIndices[x * defs.levelHeight + y];
+                if(index >= 0){
+                    passableX[index] = x;
+                    passableY[index] = y;
+                }
+            }
+        }
+        rowLength = (numPassable + 63) >>> 6;
+        rows = new AtomicReferenceArray<long[]>(numPassable);
+    }
+    
+    /**
+     * Computes all rows that have not been computed yet.
+     * @param numThreads number of threads to use, rows are evenly distributed among them
+     */
+    public void buildAll(int numThreads){
+        if(numThreads <= 1 || numPassable < numThreads){
+            buildRows(0, 1);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+            for(int i = 0; i < numThreads; i++){
+                final int firstRow = i;
+                final int rowStep = numThreads;
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        buildRows(firstRow, rowStep);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> future : futures){
+                future.get();
+            }
+        } catch (InterruptedException ex){
+            throw new AisteException("Interrupted while computing visibility", ex);
+        } catch (ExecutionException ex){
+            throw new AisteException("Error computing visibility", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+    
+    private void buildRows(int firstRow, int rowStep){
+        //rows are interleaved among threads, so that every thread gets similar amount of walls and open space
+        for(int row = firstRow; row < numPassable; row += rowStep){
+            getRow(row);
+        }
+    }
+    
+    private long[] getRow(int fromIndex){
+        long[] row = rows.get(fromIndex);
+        if(row == null){
+            row = computeRow(fromIndex);
+            //if another thread computed the row in the meantime, the results are identical
+            rows.set(fromIndex, row);
+        }
+        return row;
+    }
+    
+    private long[] computeRow(int fromIndex){
+        long[] row = new long[rowLength];
+        int fromX = passableX[fromIndex];
+        int fromY = passableY[fromIndex];
+        for(int toIndex = 0; toIndex < numPassable; toIndex++){
+            if(CGUtils.isVisible(fromX, fromY, passableX[toIndex], passableY[toIndex], defs)){
+                row[toIndex >>> 6] |= 1L << (toIndex & 63);
+            }
+        }
+        return row;
+    }
+    
+    public boolean isVisible(int fromX, int fromY, int toX, int toY){
+        int fromIndex = passableIndices[fromX * defs.levelHeight + fromY];
+        int toIndex = passableIndices[toX * defs.levelHeight + toY];
+        if(fromIndex < 0 || toIndex < 0){
+            return false;
+        }
+        return (getRow(fromIndex)[toIndex >>> 6] & (1L << (toIndex & 63))) != 0;
+    }
+    
+    public boolean isVisible(Loc from, Loc to){
+        return isVisible(from.x, from.y, to.x, to.y);
+    }
+
+    /**
+     * Returns given row, computing it if necessary. Rows are indexed by passable index.
+     * The returned array must not be modified.
+     */
+    long[] getComputedRow(int fromIndex){
+        return getRow(fromIndex);
+    }
+    
+    /**
+     * Sets a row with data computed elsewhere (e.g. loaded from cache).
+     */
+    void setRow(int fromIndex, long[] row){
+        if(row.length != rowLength){
+            throw new IllegalArgumentException("Invalid row length: " + row.length + ", expected: " + rowLength);
+        }
+        rows.set(fromIndex, row);
+    }
+
+    /**
+     * Number of longs in every row.
+     */
+    int getRowLength() {
+        return rowLength;
+    }
+    
+    public int getNumPassable() {
+        return numPassable;
+    }
+    
+    /**
+     * Number of rows computed so far.
+     * @return 
+     */
+    public int getNumComputedRows(){
+        int computed = 0;
+        for(int i = 0; i < numPassable; i++){
+            if(rows.get(i) != null){
+                computed++;
+            }
+        }
+        return computed;
+    }
+}
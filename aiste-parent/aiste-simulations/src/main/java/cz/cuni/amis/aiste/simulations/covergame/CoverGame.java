@@ -16,16 +16,12 @@
  */
 package cz.cuni.amis.aiste.simulations.covergame;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
 import cz.cuni.amis.aiste.environment.*;
 import cz.cuni.amis.aiste.environment.impl.AbstractSynchronizedEnvironment;
 import cz.cuni.amis.aiste.environment.impl.AgentInstantiationDescriptor;
-import cz.cuni.amis.aiste.simulations.utils.RandomUtils;
 import cz.cuni.amis.experiments.ILoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeadersConcatenation;
-import cz.cuni.amis.pathfinding.map.IPFKnownMap;
 import cz.cuni.amis.utils.collections.ListConcatenation;
 import java.util.*;
 import java.util.concurrent.CopyOnWriteArrayList;
@@ -37,7 +33,7 @@ import org.apache.log4j.Logger;
  */
 public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> implements 
         IEnvironmentRepresentation, //it is a represenation of itself for reactive controller
-        ISimulableEnvironment<CGPairAction> 
+        IReusableSimulableEnvironment<CGPairAction> 
 {
 
 
@@ -55,9 +51,13 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
     List<CGBodyPair> bodyPairs;
     
     /**
-     * Cache for opponent data.
+     * State of all bodies, indexed by body id. {@link CGBodyInfo} objects are only views of this state.
+     */
+    BodyState bodyState;
+    
+    /**
+     * Cache for opponent data, valid as long as the opponents do not move.
      * */
-    List<Long> lastOpponentTeamDataEvalStep;
     List<OpponentTeamData> lastOpponentTeamData;
     
     List<MarkerData> markerData;
@@ -66,8 +66,54 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
      */
     boolean isSimulation;    
     
+    /**
+     * Read-only copy of the state after the last step, see {@link #getStateSnapshot() }.
+     * Simulation copies do not publish snapshots.
+     */
+    private volatile CoverGame stateSnapshot;
+    
     List<CGBodyInfo> agentsKilledLastRound = new CopyOnWriteArrayList<CGBodyInfo>();
     
+    /**
+     * Maximum number of unused simulation copies kept for reuse.
+     */
+    private static final int MAX_POOLED_SIMULATION_COPIES = 16;
+    
+    /**
+     * Simulation copies that are no longer used. Shared by the original environment and all of its copies.
+     */
+    private final Deque<CoverGame> simulationCopyPool;
+    
+    /**
+     * Buffers reused by every step, so that a simulation step does not allocate. All are indexed by body id.
+     */
+    private CGAction[] stepActions = new CGAction[0];
+    private boolean[] stepNotHit = new boolean[0];
+    private boolean[] stepUncover = new boolean[0];
+    private final int[] stepOpponentIds = new int[2];
+    
+    /**
+     * Rewards indexed by team id
+     */
+    private double[] stepRewards = new double[2];
+    
+    /**
+     * Rewards map returned from simulation steps. Reused, since the caller of simulateOneStep does not keep it.
+     */
+    private final Map<AgentBody, Double> simulationRewardsMap = new HashMap<AgentBody, Double>();
+    
+    private static final int MIN_CACHED_REWARD = -4;
+    
+    /**
+     * Boxed integer rewards, to avoid boxing in every step.
+     */
+    private static final Double[] CACHED_REWARDS = new Double[9];
+    static {
+        for(int i = 0; i < CACHED_REWARDS.length; i++){
+            CACHED_REWARDS[i] = Double.valueOf(i + MIN_CACHED_REWARD);
+        }
+    }
+    
     /**
      * Create a duplicate of the environment. (defs are linked directly, rest of the data is copied).
      * @param original 
@@ -75,7 +121,7 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
     private CoverGame(CoverGame original){
         super(original);
         defs = original.defs;
-        isSimulation = original.isSimulation;
+        simulationCopyPool = original.simulationCopyPool;
         
         bodyInfos = new ArrayList<CGBodyInfo>();
         //prefill the array so that I can call set on correct locations
@@ -83,36 +129,63 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
             bodyInfos.add(null);
         }
         bodyPairs = new ArrayList<CGBodyPair>();
+        bodyState = new BodyState(original.bodyInfos.size());
         lastOpponentTeamData = new ArrayList<OpponentTeamData>();
-        lastOpponentTeamDataEvalStep = new ArrayList<Long>();
         markerData = new ArrayList<MarkerData>();
         
-        agentsKilledLastRound = new CopyOnWriteArrayList<CGBodyInfo>(original.agentsKilledLastRound);
+        agentsKilledLastRound = new CopyOnWriteArrayList<CGBodyInfo>();
         
         for(CGBodyPair originalPair : original.bodyPairs ){
             CGBodyPair copyPair = new CGBodyPair(originalPair.body);
             
-            CGBodyInfo body0 = new CGBodyInfo(originalPair.bodyInfo0, copyPair);            
-            CGBodyInfo body1 = new CGBodyInfo(originalPair.bodyInfo1, copyPair);
+            CGBodyInfo body0 = new CGBodyInfo(originalPair.bodyInfo0.id, copyPair, bodyState);            
+            CGBodyInfo body1 = new CGBodyInfo(originalPair.bodyInfo1.id, copyPair, bodyState);
             
             bodyInfos.set(body0.id, body0);
             bodyInfos.set(body1.id, body1);
                     
             copyPair.bodyInfo0 = body0;
             copyPair.bodyInfo1 = body1;
-            copyPair.copyStatisticsFromOriginal(originalPair);            
             
             bodyPairs.add(copyPair);            
             lastOpponentTeamData.add(null);
-            lastOpponentTeamDataEvalStep.add(-1L);
-            markerData.add(new MarkerData(original.markerData.get(originalPair.getId())));
+            markerData.add(new MarkerData());
         }
         
+        copyStateFrom(original);
+    }
+    
+    /**
+     * Overwrites all per-agent data of this copy with the data of the original.
+     * The records of this copy are reused, so no new objects are created when the copy
+     * is recycled for another simulation.
+     * @param original 
+     */
+    private void copyStateFrom(CoverGame original){
+        isSimulation = original.isSimulation;
+        bodyState.copyFrom(original.bodyState, original.bodyInfos.size());
+        for(CGBodyPair originalPair : original.bodyPairs ){
+            int pairId = originalPair.getId();
+            CGBodyPair copyPair = bodyPairs.get(pairId);
+            copyPair.copyStatisticsFromOriginal(originalPair);
+            
+            markerData.get(pairId).copyStateFrom(original.markerData.get(pairId));
+            
+            //opponent data are never modified once computed and are checked against current opponent locations,
+            //so the cache is shared
+            lastOpponentTeamData.set(pairId, original.lastOpponentTeamData.get(pairId));
+        }
+        
+        agentsKilledLastRound.clear();
+        for(CGBodyInfo killedInfo : original.agentsKilledLastRound){
+            agentsKilledLastRound.add(bodyInfos.get(killedInfo.id));
+        }        
     }
     
     public CoverGame(StaticDefs defs) {
         super(CGPairAction.class);
         this.defs = defs;
+        this.simulationCopyPool = new ArrayDeque<CoverGame>(MAX_POOLED_SIMULATION_COPIES);
         
         
         
@@ -159,14 +232,49 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         /* Create empty agent data*/
         bodyInfos = new ArrayList<CGBodyInfo>();
         bodyPairs = new ArrayList<CGBodyPair>();
+        bodyState = new BodyState(4);
         lastOpponentTeamData = new ArrayList<OpponentTeamData>();
-        lastOpponentTeamDataEvalStep = new ArrayList<Long>();
 
         isSimulation = false;
 
         markerData = new ArrayList<MarkerData>();
+        
+        stateSnapshot = null;
+        
+        //copies of the previous run are bound to its bodies
+        synchronized(simulationCopyPool){
+            simulationCopyPool.clear();
+        }
     }
 
+    /**
+     * Makes sure step buffers are large enough and clears them.
+     */
+    private void prepareStepBuffers(int numBodies){
+        if(stepActions.length != numBodies){
+            stepActions = new CGAction[numBodies];
+            stepNotHit = new boolean[numBodies];
+            stepUncover = new boolean[numBodies];
+        } else {
+            Arrays.fill(stepActions, null);
+            Arrays.fill(stepNotHit, false);
+            Arrays.fill(stepUncover, false);
+        }
+        if(stepRewards.length < bodyPairs.size()){
+            stepRewards = new double[bodyPairs.size()];
+        } else {
+            Arrays.fill(stepRewards, 0d);
+        }
+    }
+    
+    private static Double boxReward(double reward){
+        int index = (int)reward - MIN_CACHED_REWARD;
+        if(reward == (int)reward && index >= 0 && index < CACHED_REWARDS.length){
+            return CACHED_REWARDS[index];
+        }
+        return reward;
+    }
+    
     @Override
     protected Map<AgentBody, Double> nextStepInternal(Map<AgentBody, CGPairAction> actionsToPerform) {
         
@@ -174,128 +282,145 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
             logger.debug("\n==== Step " + getTimeStep() + " ======");
         }
         
-        agentsKilledLastRound.clear();
+        if(!agentsKilledLastRound.isEmpty()){
+            agentsKilledLastRound.clear();
+        }
         
-        Map<CGBodyInfo, CGAction> individualActionsToPerform = new HashMap<CGBodyInfo, CGAction>();
+        int numBodies = bodyInfos.size();
+        prepareStepBuffers(numBodies);
+        BodyState state = bodyState;
+        List<AgentBody> activeBodies = getActiveBodies();
         
         //calculate possible threats for simulation
-        for(AgentBody body : getActiveBodies()){
+        for(int activeIndex = 0; activeIndex < activeBodies.size(); activeIndex++){
+            int teamId = activeBodies.get(activeIndex).getId();
+            CGBodyPair bodyPair = bodyPairs.get(teamId);
+            MarkerData marker = markerData.get(teamId);
+            fillOpponentIds(teamId, stepOpponentIds);
             for(int bodyIndex = 0; bodyIndex < 2; bodyIndex++){
                 for(int opponentIndex = 0; opponentIndex < 2; opponentIndex++){
-                    double hitProbability = getHitProbability(bodyPairs.get(body.getId()).getBodyInfo(bodyIndex), bodyInfos.get(getOpponentIds(body.getId())[opponentIndex]));
-                    markerData.get(body.getId()).expectedWorstCaseShotsReceivedSinceMarker[bodyIndex] += hitProbability;                               
-                    if(hitProbability > markerData.get(body.getId()).maxShotProbabilitySinceMarker[bodyIndex]){
-                        markerData.get(body.getId()).maxShotProbabilitySinceMarker[bodyIndex] = hitProbability;
+                    double hitProbability = getHitProbability(bodyPair.getBodyInfo(bodyIndex), bodyInfos.get(stepOpponentIds[opponentIndex]));
+                    marker.expectedWorstCaseShotsReceivedSinceMarker[bodyIndex] += hitProbability;                               
+                    if(hitProbability > marker.maxShotProbabilitySinceMarker[bodyIndex]){
+                        marker.maxShotProbabilitySinceMarker[bodyIndex] = hitProbability;
                     }
                 }
             }
         }
         
-        for(AgentBody body: actionsToPerform.keySet()){
-            CGBodyPair bodyPair = bodyPairs.get(body.getId());
-            individualActionsToPerform.put(bodyPair.bodyInfo0, actionsToPerform.get(body).getAction1());
-            individualActionsToPerform.put(bodyPair.bodyInfo1, actionsToPerform.get(body).getAction2());
+        //individual actions, indexed by body id, null if body does not act
+        CGAction[] actions = stepActions;
+        for(Map.Entry<AgentBody, CGPairAction> actionEntry : actionsToPerform.entrySet()){
+            CGBodyPair bodyPair = bodyPairs.get(actionEntry.getKey().getId());
+            actions[bodyPair.bodyInfo0.id] = actionEntry.getValue().getAction1();
+            actions[bodyPair.bodyInfo1.id] = actionEntry.getValue().getAction2();
         }
     
         
         
-        double [] rewards = new double[] { 0d, 0d}; //indexed by team id - the same rewards are given to all agents in the team
+        double [] rewards = stepRewards; //indexed by team id - the same rewards are given to all agents in the team
 
         //agents that are not hit this round heal
-        Set<Integer> agentsNotHit = new HashSet<Integer>();
-        for(AgentBody body : getActiveBodies()){
-            agentsNotHit.add(body.getId());
+        //the flags are initialized by ids of active agent bodies and cleared by ids of hit bodies, as they always were
+        boolean[] notHit = stepNotHit;
+        for(int activeIndex = 0; activeIndex < activeBodies.size(); activeIndex++){
+            notHit[activeBodies.get(activeIndex).getId()] = true;
         }
         
         //first come supress actions. The suppressed flag is cleared each round and cooldown is lowered
-        for(CGBodyInfo bodyInfo : bodyInfos){
-            bodyInfo.suppressed = false;
-            if(bodyInfo.suppressCooldown > 0){
-                bodyInfo.suppressCooldown--;
+        for(int id = 0; id < numBodies; id++){
+            state.suppressed[id] = false;
+            if(state.suppressCooldown[id] > 0){
+                state.suppressCooldown[id]--;
             }
         }
         
-        for(CGBodyInfo bodyInfo : individualActionsToPerform.keySet()){
-            CGAction action = individualActionsToPerform.get(bodyInfo);
-            if(action.act == CGAction.Action.SUPPRESS){                
-                CGBodyInfo targetInfo = bodyInfos.get((Integer)action.target);                
-                if(bodyInfo.suppressCooldown > 0){
+        for(int id = 0; id < numBodies; id++){
+            CGAction action = actions[id];
+            if(action != null && action.act == CGAction.Action.SUPPRESS){                
+                int targetId = (Integer)action.target;
+                AgentBody agentBody = bodyInfos.get(id).team.body;
+                if(state.suppressCooldown[id] > 0){
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid supress. Cooldown not zero: " + bodyInfo.suppressCooldown);
+                        logger.info(id + ": Invalid supress. Cooldown not zero: " + state.suppressCooldown[id]);
                     }
-                    agentFailedAction(bodyInfo.team.body);                    
+                    agentFailedAction(agentBody);                    
                 }
-                else if(!isVisible(bodyInfo.loc, targetInfo.loc)){
+                else if(!isVisible(state.loc[id], state.loc[targetId])){
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid supress. Target not visible. From: " + bodyInfo.getLoc() + " to: " + targetInfo.getLoc());                    
+                        logger.info(id + ": Invalid supress. Target not visible. From: " + state.loc[id] + " to: " + state.loc[targetId]);                    
                     }
-                    agentFailedAction(bodyInfo.team.body);                    
+                    agentFailedAction(agentBody);                    
                 } else {
-                    targetInfo.suppressed = true;
+                    state.suppressed[targetId] = true;
                     if(logger.isDebugEnabled()  && !isSimulation){
-                        logger.debug(bodyInfo.id + ": Succesful suppress on: " + targetInfo.id);                            
+                        logger.debug(id + ": Succesful suppress on: " + targetId);                            
                     }   
-                    bodyInfo.suppressCooldown = defs.supressCooldown;
+                    state.suppressCooldown[id] = defs.supressCooldown;
                 }
             }
         }
         
         //Uncovering due to shooting is evaluated AFTER all shots (i.e. is effective for next round)
-        List<CGBodyInfo> agentsToUncover = new ArrayList<CGBodyInfo>();
+        boolean[] agentsToUncover = stepUncover;
         
         //evaluate attack actions, movement is updated after that
-        for(CGBodyInfo bodyInfo : individualActionsToPerform.keySet()){
-            CGAction action = individualActionsToPerform.get(bodyInfo);
-            if(action.act == CGAction.Action.SHOOT){
-                CGBodyInfo targetInfo = bodyInfos.get((Integer) action.target);
-                agentsToUncover.add(bodyInfo);
-                if (!isVisible(bodyInfo.getLoc(), targetInfo.getLoc())) {
+        for(int id = 0; id < numBodies; id++){
+            CGAction action = actions[id];
+            if(action != null && action.act == CGAction.Action.SHOOT){
+                int targetId = (Integer) action.target;
+                CGBodyInfo bodyInfo = bodyInfos.get(id);
+                agentsToUncover[id] = true;
+                if (!isVisible(state.loc[id], state.loc[targetId])) {
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid ranged attack. Target not visible. From: " + bodyInfo.getLoc() + " to: " + targetInfo.getLoc());
+                        logger.info(id + ": Invalid ranged attack. Target not visible. From: " + state.loc[id] + " to: " + state.loc[targetId]);
                     }
                     agentFailedAction(bodyInfo.team.body);                    
                 } else {
                     bodyInfo.team.numShots++;
-                    double hitProbability = getHitProbability(bodyInfo, targetInfo);
+                    double hitProbability = getHitProbability(bodyInfo, bodyInfos.get(targetId));
                     if (rand.nextDouble() <= hitProbability || isSimulation) {
                         //In simulation, I always hit
                         int damage = rand.nextInt(defs.shootDamageVariability * 2) + defs.shootDamage - defs.shootDamageVariability;
-                        targetInfo.health -= damage;
-                        targetInfo.numTurnsNotHit = 0;
-                        agentsNotHit.remove(targetInfo.id);                        
+                        state.health[targetId] -= damage;
+                        state.numTurnsNotHit[targetId] = 0;
+                        notHit[targetId] = false;                        
                         bodyInfo.team.numShotsHit++;
                         if(logger.isDebugEnabled()  && !isSimulation){
-                            logger.debug(bodyInfo.id + ": Succesful ranged attack on:" + targetInfo.id + " damage: " + damage);                            
+                            logger.debug(id + ": Succesful ranged attack on:" + targetId + " damage: " + damage);                            
                         }
                     } else {
                         if(logger.isDebugEnabled()  && !isSimulation){
-                            logger.debug(bodyInfo.id + ": Ranged attack on:" + targetInfo.id + " missed.");                            
+                            logger.debug(id + ": Ranged attack on:" + targetId + " missed.");                            
                         }                        
                     }
                 }
             }
         }
         
-        for(CGBodyInfo agentToUncover : agentsToUncover){
-            agentToUncover.takingFullCover = false;
+        for(int id = 0; id < numBodies; id++){
+            if(agentsToUncover[id]){
+                state.takingFullCover[id] = false;
+            }
         }
         
         //evaluate deaths, assess rewards and respawn agents               
-        for(CGBodyInfo bodyInfo : bodyInfos){
-            int id = bodyInfo.id;
-            if(bodyInfo.health <= 0){
+        for(int id = 0; id < numBodies; id++){
+            if(state.health[id] <= 0){
+                CGBodyInfo bodyInfo = bodyInfos.get(id);
+                int teamId = bodyInfo.getTeamId();
                 //assess -1 reward for getting killed
-                rewards[bodyInfo.team.body.getId()] -= 1; 
+                rewards[teamId] -= 1; 
                 bodyInfo.team.deaths++;
                 //the +1 reward to the other team
-                rewards[1 - bodyInfo.team.body.getId()] += 1;
-                bodyPairs.get(1 - bodyInfo.team.body.getId()).kills++;
+                rewards[1 - teamId] += 1;
+                bodyPairs.get(1 - teamId).kills++;
                 
                 //update markers
-                markerData.get(bodyInfo.getTeamId()).diedSinceMarker = true;
+                markerData.get(teamId).diedSinceMarker = true;
                 
                 //clear agent action for this round
-                individualActionsToPerform.put(bodyInfo, new CGAction(CGAction.Action.NO_OP, null));
+                actions[id] = CGAction.NO_OP_ACTION;
                                 
                 //the agent has failed any action it wanted to do
                 agentFailedAction(bodyInfo.team.body);                
@@ -308,61 +433,74 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         }
 
         //evaluate movement and cover        
-        for(CGBodyInfo bodyInfo : individualActionsToPerform.keySet()){
-            CGAction action = individualActionsToPerform.get(bodyInfo);
+        for(int id = 0; id < numBodies; id++){
+            CGAction action = actions[id];
+            if(action == null){
+                continue;
+            }
             if(action.act == CGAction.Action.MOVE){
+                AgentBody agentBody = bodyInfos.get(id).team.body;
                 Loc targetLocation = (Loc)action.target;
-                bodyInfo.takingFullCover = false;
-                if(bodyInfo.getLoc().distanceTo(targetLocation) > defs.maxDistancePerTurn){
+                state.takingFullCover[id] = false;
+                if(state.loc[id].distanceTo(targetLocation) > defs.maxDistancePerTurn){
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid movement - to far. From: " + bodyInfo.getLoc() + " To:" + targetLocation);
+                        logger.info(id + ": Invalid movement - to far. From: " + state.loc[id] + " To:" + targetLocation);
                     }
-                    agentFailedAction(bodyInfo.team.body);                    
-                } else if(!isVisible(bodyInfo.getLoc(), targetLocation)) {
+                    agentFailedAction(agentBody);                    
+                } else if(!isVisible(state.loc[id], targetLocation)) {
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid movement - impassable terrain. To:" + targetLocation);
+                        logger.info(id + ": Invalid movement - impassable terrain. To:" + targetLocation);
                     }
-                    agentFailedAction(bodyInfo.team.body);                    
+                    agentFailedAction(agentBody);                    
                 }
                 else {
-                    bodyInfo.loc = targetLocation;
+                    state.loc[id] = targetLocation;
                     if(logger.isDebugEnabled()  && !isSimulation){
-                        logger.debug(bodyInfo.id + ": Succesful move to:" + targetLocation);                            
+                        logger.debug(id + ": Succesful move to:" + targetLocation);                            
                     }
                 }
             } else if(action.act == CGAction.Action.TAKE_FULL_COVER){
-                if(!isThereNeighbouringCover(bodyInfo.loc)){
+                if(!isThereNeighbouringCover(state.loc[id])){
                     if(!isSimulation){
-                        logger.info(bodyInfo.id + ": Invalid full cover - no cover near " + bodyInfo.loc);                    
+                        logger.info(id + ": Invalid full cover - no cover near " + state.loc[id]);                    
                     }
-                    agentFailedAction(bodyInfo.team.body);                    
+                    agentFailedAction(bodyInfos.get(id).team.body);                    
                 } else {
-                    bodyInfo.takingFullCover = true;
+                    state.takingFullCover[id] = true;
                     if(logger.isDebugEnabled() && !isSimulation){
-                        logger.debug(bodyInfo.id + ": Succesful full cover");                            
+                        logger.debug(id + ": Succesful full cover");                            
                     }
                 }
             }
         }
         
         //evaluate healing
-        for(int agentNotHit : agentsNotHit){
-            CGBodyInfo notHitInfo = bodyInfos.get(agentNotHit);
-            notHitInfo.numTurnsNotHit++;
-            if(notHitInfo.numTurnsNotHit >= defs.healHeatup){
-                notHitInfo.health += defs.healPerRound;
-                if(notHitInfo.health > defs.maxHealth){
-                    notHitInfo.health = defs.maxHealth;
+        for(int id = 0; id < numBodies; id++){
+            if(!notHit[id]){
+                continue;
+            }
+            state.numTurnsNotHit[id]++;
+            if(state.numTurnsNotHit[id] >= defs.healHeatup){
+                state.health[id] += defs.healPerRound;
+                if(state.health[id] > defs.maxHealth){
+                    state.health[id] = defs.maxHealth;
                 }
             }
         }
         
         
-        Map<AgentBody, Double> rewardsMap = new HashMap<AgentBody, Double>(getActiveBodies().size());
-        for(CGBodyPair bodypair : bodyPairs){
-            rewardsMap.put(bodypair.body, rewards[bodypair.body.getId()]);
+        Map<AgentBody, Double> rewardsMap;
+        if(isSimulation){
+            //the keys are always the same, so values are only replaced
+            rewardsMap = simulationRewardsMap;
+        } else {
+            rewardsMap = new HashMap<AgentBody, Double>(activeBodies.size());
+        }
+        for(int pairIndex = 0; pairIndex < bodyPairs.size(); pairIndex++){
+            AgentBody pairBody = bodyPairs.get(pairIndex).body;
+            rewardsMap.put(pairBody, boxReward(rewards[pairBody.getId()]));
             if(logger.isDebugEnabled() && !isSimulation){
-                logger.debug("Reward " + bodypair.body.getId() + ": " + rewards[bodypair.body.getId()]);
+                logger.debug("Reward " + pairBody.getId() + ": " + rewards[pairBody.getId()]);
             }
         }
         
@@ -370,9 +508,44 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
             outputEnvironmentStateToLogger();            
         }
         
+        if(!isSimulation){
+            stateSnapshot = createStateSnapshot();
+        }
+        
         return rewardsMap;
     }
     
+    /**
+     * Creates a copy of current state that is never stepped. Opponent data for all teams 
+     * are computed in advance, so that the snapshot is not modified by its readers.
+     * @return 
+     */
+    private CoverGame createStateSnapshot(){
+        CoverGame snapshot = new CoverGame(this);
+        snapshot.isSimulation = true;
+        for(int teamNo = 0; teamNo < snapshot.bodyPairs.size(); teamNo++){
+            snapshot.getOpponentTeamData(teamNo);
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Gets a read-only copy of the environment state after the last step. Representations
+     * read the snapshot instead of the live environment, so they do not need to synchronize
+     * with the simulation. The snapshot must not be stepped or modified.
+     * @return 
+     */
+    CoverGame getStateSnapshot(){
+        CoverGame snapshot = stateSnapshot;
+        if(snapshot == null){
+            //simulation copies do not publish snapshots, take one on demand
+            synchronized(this){
+                snapshot = createStateSnapshot();
+            }
+        }
+        return snapshot;
+    }
+    
     public List<CGSquare> getNeighbouringSquares(Loc l){
         return CGUtils.getNeighbouringSquares(l, defs);
     }
@@ -384,14 +557,14 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
 
     
     /**
-     * Return cached visibility from visibility matrix.
+     * Return cached visibility from visibility index.
      * Visibility is checked by Bresenham's algorithm, taken from http://tech-algorithm.com/articles/drawing-line-using-bresenham-algorithm/
      * @param from
      * @param to
      * @return 
      */
     public boolean isVisible(Loc from, Loc to){
-        return defs.visibilityMatrix[from.x][from.y][to.x][to.y];
+        return defs.visibility.isVisible(from, to);
        // return CGUtils.isVisible(from, to, defs);
     }
     
@@ -403,46 +576,45 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
      * @return 
      */
     public boolean isCovered(Loc from, Loc to){
-        if(CGUtils.distance(from,to) < 2){
-            //at close combat distance, there is no cover
-            return false;
-        }
-        if(from.x < to.x - 1  && defs.squares[to.x - 1][to.y].verticalCover){
-            return true;
-        }
-        if(from.x > to.x + 1  && defs.squares[to.x + 1][to.y].verticalCover){
-            return true;
-        }
-        if(from.y < to.y - 1  && defs.squares[to.x][to.y - 1].horizontalCover){
-            return true;
-        }
-        if(from.y > to.y + 1  && defs.squares[to.x][to.y + 1].horizontalCover){
-            return true;
+        return CGUtils.isCovered(from, to, defs);
+    }
+    
+    private boolean isSpawningLocationFree(Loc location){
+        for(int id = 0; id < bodyInfos.size(); id++){
+            if(location.equals(bodyState.loc[id])){
+                return false;
+            }
         }
-        return false;
+        return true;
     }
     
     private void respawnAgent(CGBodyInfo bodyInfo) {
-        Collection<Loc> freeSpawningPoints = Collections2.filter(defs.playerSpawningLocations, new Predicate<Loc>(){
-
-            @Override
-            public boolean apply(Loc t) {
-                for(CGBodyInfo bodyInfo: bodyInfos){
-                    if(t.equals(bodyInfo.loc)){
-                        return false;
-                    }
+        List<Loc> spawningLocations = defs.playerSpawningLocations;
+        int numFreeSpawningPoints = 0;
+        for(int i = 0; i < spawningLocations.size(); i++){
+            if(isSpawningLocationFree(spawningLocations.get(i))){
+                numFreeSpawningPoints++;
+            }
+        }
+        //chooses the same point as RandomUtils.randomElementLinearAccess on the free points would
+        int spawningPointIndex = rand.nextInt(numFreeSpawningPoints);
+        Loc spawningPoint = null;
+        for(int i = 0; i < spawningLocations.size(); i++){
+            if(isSpawningLocationFree(spawningLocations.get(i))){
+                if(spawningPointIndex == 0){
+                    spawningPoint = spawningLocations.get(i);
+                    break;
                 }
-                return true;
+                spawningPointIndex--;
             }
-
-        });
-        Loc spawningPoint = RandomUtils.randomElementLinearAccess(freeSpawningPoints, rand);
-        bodyInfo.loc = spawningPoint;                
-        bodyInfo.health = defs.maxHealth;
-        bodyInfo.suppressed = false;
-        bodyInfo.takingFullCover = false;
-        bodyInfo.suppressCooldown = 0;
-        bodyInfo.numTurnsNotHit = 0;
+        }
+        int id = bodyInfo.id;
+        bodyState.loc[id] = spawningPoint;                
+        bodyState.health[id] = defs.maxHealth;
+        bodyState.suppressed[id] = false;
+        bodyState.takingFullCover[id] = false;
+        bodyState.suppressCooldown[id] = 0;
+        bodyState.numTurnsNotHit[id] = 0;
     }
     
     @Override
@@ -457,21 +629,25 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         bodyPairs.add(newPair);
         
         int newBodyId = bodyInfos.size();
-        CGBodyInfo newBodyInfo0 = new CGBodyInfo(newBodyId, newPair);
+        bodyState.ensureCapacity(newBodyId + 2);
+        CGBodyInfo newBodyInfo0 = new CGBodyInfo(newBodyId, newPair, bodyState);
         bodyInfos.add(newBodyInfo0);
         newPair.bodyInfo0 = newBodyInfo0;
         respawnAgent(newBodyInfo0);        
 
-        CGBodyInfo newBodyInfo1 = new CGBodyInfo(newBodyId + 1, newPair);
+        CGBodyInfo newBodyInfo1 = new CGBodyInfo(newBodyId + 1, newPair, bodyState);
         bodyInfos.add(newBodyInfo1);
         newPair.bodyInfo1 = newBodyInfo1;
         respawnAgent(newBodyInfo1);        
         
         lastOpponentTeamData.add(null);
-        lastOpponentTeamDataEvalStep.add(-1L);
         
         markerData.add(createMarkerData(newBody));        
         
+        if(!isSimulation){
+            stateSnapshot = createStateSnapshot();
+        }
+        
         return newBody;
     }
 
@@ -484,15 +660,46 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
 
     @Override
     public ISimulableEnvironment<CGPairAction> cloneForSimulation() {
-        CoverGame clone = new CoverGame(this);
+        CoverGame clone;
+        synchronized(simulationCopyPool){
+            clone = simulationCopyPool.pollFirst();
+        }
+        if(clone == null){
+            clone = new CoverGame(this);
+        } else {
+            clone.resetToCopyOf(this);
+            clone.copyStateFrom(this);
+        }
         clone.isSimulation = true;
         //reset marker so that I can count possible risks
         for(AgentBody body : getActiveBodies()){
-            clone.setMarker(body);
+            clone.markerData.get(body.getId()).reset(clone.getOpponentIds(body.getId()), clone.bodyInfos);
         }
         return clone;
     }
 
+    @Override
+    public void releaseSimulationCopy(ISimulableEnvironment<CGPairAction> simulationCopy) {
+        if(!(simulationCopy instanceof CoverGame)){
+            return;
+        }
+        CoverGame copy = (CoverGame)simulationCopy;
+        if(!copy.isSimulation || copy.simulationCopyPool != simulationCopyPool || copy.bodyPairs.size() != bodyPairs.size()){
+            return;
+        }
+        for(int i = 0; i < bodyPairs.size(); i++){
+            if(copy.bodyPairs.get(i).body != bodyPairs.get(i).body){
+                //the copy was created before the environment was reinitialized
+                return;
+            }
+        }
+        synchronized(simulationCopyPool){
+            if(simulationCopyPool.size() < MAX_POOLED_SIMULATION_COPIES && !simulationCopyPool.contains(copy)){
+                simulationCopyPool.addFirst(copy);
+            }
+        }
+    }
+
     @Override
     public Map<AgentBody, Double> simulateOneStep(Map<AgentBody, CGPairAction> actions) {
         return nextStepWithGivenActions(actions);
@@ -500,9 +707,7 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
     
     protected MarkerData createMarkerData(AgentBody body){
         MarkerData data = new MarkerData();
-        for(int oppId : getOpponentIds(body.getId())){
-            data.opponentLocationsAtMarker.add(bodyInfos.get(oppId).loc);
-        }
+        data.reset(getOpponentIds(body.getId()), bodyInfos);
         return data;
     }
     
@@ -520,9 +725,13 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
      * @return 
      */
     int[] getOpponentIds(int teamNo){
-        int[] ids = new int[2];
+        return fillOpponentIds(teamNo, new int[2]);
+    }
+    
+    private int[] fillOpponentIds(int teamNo, int[] ids){
         int idIndex = 0;
-        for(CoverGame.CGBodyInfo bodyInfo : bodyInfos){
+        for(int id = 0; id < bodyInfos.size(); id++){
+            CGBodyInfo bodyInfo = bodyInfos.get(id);
             if(bodyInfo.getTeamId() != teamNo){
                 ids[idIndex] = bodyInfo.id;
                 idIndex++;
@@ -555,39 +764,20 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
      * @return 
      */
     OpponentTeamData getOpponentTeamData(int teamNo){
-        if(lastOpponentTeamDataEvalStep.get(teamNo) == getTimeStep()){
-            return lastOpponentTeamData.get(teamNo);
+        OpponentTeamData cachedData = lastOpponentTeamData.get(teamNo);
+        if(cachedData != null && cachedData.isValid(bodyInfos)){
+            return cachedData;
         }
+        
         int [] ids = getOpponentIds(teamNo);
+        Loc[] opponentLocations = new Loc[ids.length];
         OpponentData[] opponentData = new OpponentData[ids.length];
-        OpponentTeamData data = new OpponentTeamData();
-        
         for(int i = 0; i < ids.length; i++){
-            opponentData[i] = new OpponentData();
-            Loc opponentLocation = bodyInfos.get(ids[i]).loc;
-            for(Loc navPoint : defs.navGraph.keySet()){
-                if( isVisible(navPoint, opponentLocation)){
-                    opponentData[i].possibleAttackNavpoints.add(navPoint);
-                    if(!isCovered(navPoint, opponentLocation)){
-                        opponentData[i].navpointsInvalidatingCover.add(navPoint);
-                    }
-                }
-                if (isVisible(opponentLocation, navPoint)){
-                    opponentData[i].shootableNavpoints.add(navPoint);
-                    if(!isCovered(opponentLocation, navPoint)){
-                        opponentData[i].uncoveredNavpoints.add(navPoint);
-                    }
-                }
-            }
-            data.allUncoveredNavPoints.addAll(opponentData[i].uncoveredNavpoints);            
-            data.allShootableNavPoints.addAll(opponentData[i].shootableNavpoints);            
-            data.allPossibleAttackNavPoints.addAll(opponentData[i].possibleAttackNavpoints);            
+            opponentLocations[i] = bodyInfos.get(ids[i]).getLoc();
+            opponentData[i] = defs.threatIndex.getOpponentData(opponentLocations[i]);
         }
         
-        lastOpponentTeamDataEvalStep.set(teamNo, getTimeStep());
-        
-        data.opponentData = opponentData;
-        
+        OpponentTeamData data = new OpponentTeamData(ids, opponentLocations, opponentData, defs.threatIndex);
         lastOpponentTeamData.set(teamNo, data);
         return data;
         
@@ -605,12 +795,12 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         CGBodyInfo bodyInfo = bodyInfos.get(bodyId);
         for(int oppId : getOpponentIds(bodyInfo.team.getId())){
             CGBodyInfo oppInfo = bodyInfos.get(oppId);
-            if(!isVisible(bodyInfo.loc, oppInfo.loc)){
+            if(!isVisible(bodyInfo.getLoc(), oppInfo.getLoc())){
                 continue;
             } else {
                 int coverLevel;
-                if(isCovered(bodyInfo.loc, oppInfo.loc)){
-                    if(oppInfo.takingFullCover){
+                if(isCovered(bodyInfo.getLoc(), oppInfo.getLoc())){
+                    if(oppInfo.isTakingFullCover()){
                         coverLevel = 2;
                     } else {
                         coverLevel = 1;
@@ -644,8 +834,23 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         return threats;
     }
 
+    /**
+     * Same as {@link #getNumThreats(int, cz.cuni.amis.aiste.simulations.covergame.Loc) }, for nav point index
+     * of {@link StaticDefs#compactNavGraph}.
+     */
+    int getNumThreats(int bodyId, int navPointIndex) {
+        int threats = 0;
+        CGBodyInfo info = bodyInfos.get(bodyId);
+        for (OpponentData oppData : getOpponentTeamData(info.getTeamId()).opponentData) {
+            if (oppData.uncoveredNavpoints.containsNavPoint(navPointIndex)) {
+                threats++;
+            }
+        }
+        return threats;
+    }
+
     double getHitProbability(CGBodyInfo bodyInfo, CGBodyInfo targetInfo) {
-        if(!isVisible(bodyInfo.loc, targetInfo.loc)){
+        if(!isVisible(bodyInfo.getLoc(), targetInfo.getLoc())){
             return 0;
         }
         double distance = bodyInfo.getLoc().distanceTo(targetInfo.getLoc());
@@ -654,8 +859,8 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         }
         double hitProbability = defs.basicAim * (1 / (0.1 * distance + 0.9));
         boolean covered = isCovered(bodyInfo.getLoc(), targetInfo.getLoc());
-        boolean fullCover = covered && targetInfo.takingFullCover;
-        boolean supressed = bodyInfo.suppressed;
+        boolean fullCover = covered && targetInfo.isTakingFullCover();
+        boolean supressed = bodyInfo.isSuppressed();
         double multiplier = 1;
         if(covered){
             if(fullCover){
@@ -700,7 +905,7 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
             }
         }
         for(CGBodyInfo bodyInfo : bodyInfos){
-            display[bodyInfo.loc.x][bodyInfo.loc.y] = Integer.toString(bodyInfo.id).charAt(0);                
+            display[bodyInfo.getLoc().x][bodyInfo.getLoc().y] = Integer.toString(bodyInfo.id).charAt(0);                
         }
         
         StringBuilder infoBuilder = new StringBuilder("Environment state:\n");
@@ -737,50 +942,51 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
     
     
     
+    /**
+     * A view of a single body. The data itself is stored in {@link BodyState}.
+     */
     static class CGBodyInfo {
         final int id;
         
         final CGBodyPair team;
         
-        Loc loc;
+        private final BodyState state;
         
-        int health;
-        boolean takingFullCover;
-        boolean suppressed;
-        
-        /**
-         * Number of turns before the agent can supress again
-         */
-        int suppressCooldown;
-        
-        int numTurnsNotHit;
-        
-        /**
-         * A copy constructor
-         * @param original
-         * @param copiedPair 
-         */
-        protected CGBodyInfo(CGBodyInfo original, CGBodyPair copiedPair){
-            this(original.id, copiedPair);
-            this.loc = original.loc;
-            this.health = original.health;
-            this.takingFullCover = original.takingFullCover;
-            this.suppressed = original.suppressed;
-            this.suppressCooldown = original.suppressCooldown;
-            this.numTurnsNotHit = original.numTurnsNotHit;
-        }
-        
-        public CGBodyInfo(int id, CGBodyPair team) {
+        public CGBodyInfo(int id, CGBodyPair team, BodyState state) {
             this.id = id;
             this.team = team;
+            this.state = state;
         }
 
         public Loc getLoc() {
-            return loc;
+            return state.loc[id];
         }
 
         public void setLoc(Loc loc) {
-            this.loc = loc;
+            state.loc[id] = loc;
+        }
+
+        public int getHealth() {
+            return state.health[id];
+        }
+
+        public boolean isTakingFullCover() {
+            return state.takingFullCover[id];
+        }
+
+        public boolean isSuppressed() {
+            return state.suppressed[id];
+        }
+
+        /**
+         * Number of turns before the agent can supress again
+         */
+        public int getSuppressCooldown() {
+            return state.suppressCooldown[id];
+        }
+
+        public int getNumTurnsNotHit() {
+            return state.numTurnsNotHit[id];
         }
 
         public int getTeamId(){
@@ -789,7 +995,53 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
        
         @Override
         public String toString() {
-            return "CGBodyInfo{" + "id=" + id + ", team=" + team.body.getId() + ", loc=" + loc + ", health=" + health + ", takingFullCover=" + takingFullCover + ", suppressed=" + suppressed + ", suppressCooldown=" + suppressCooldown + ", numTurnsNotHit=" + numTurnsNotHit + '}';
+            return "CGBodyInfo{" + "id=" + id + ", team=" + team.body.getId() + ", loc=" + getLoc() + ", health=" + getHealth() + ", takingFullCover=" + isTakingFullCover() + ", suppressed=" + isSuppressed() + ", suppressCooldown=" + getSuppressCooldown() + ", numTurnsNotHit=" + getNumTurnsNotHit() + '}';
+        }
+    }
+    
+    /**
+     * Changing data of all bodies, indexed by body id.
+     */
+    static class BodyState {
+        Loc[] loc;
+        int[] health;
+        boolean[] takingFullCover;
+        boolean[] suppressed;
+        int[] suppressCooldown;
+        int[] numTurnsNotHit;
+
+        BodyState(int capacity) {
+            loc = new Loc[capacity];
+            health = new int[capacity];
+            takingFullCover = new boolean[capacity];
+            suppressed = new boolean[capacity];
+            suppressCooldown = new int[capacity];
+            numTurnsNotHit = new int[capacity];
+        }
+        
+        void ensureCapacity(int capacity){
+            if(loc.length >= capacity){
+                return;
+            }
+            loc = Arrays.copyOf(loc, capacity);
+            health = Arrays.copyOf(health, capacity);
+            takingFullCover = Arrays.copyOf(takingFullCover, capacity);
+            suppressed = Arrays.copyOf(suppressed, capacity);
+            suppressCooldown = Arrays.copyOf(suppressCooldown, capacity);
+            numTurnsNotHit = Arrays.copyOf(numTurnsNotHit, capacity);
+        }
+        
+        /**
+         * Copies data of first numBodies bodies.
+         */
+        void copyFrom(BodyState original, int numBodies){
+            ensureCapacity(numBodies);
+            System.arraycopy(original.loc, 0, loc, 0, numBodies);
+            System.arraycopy(original.health, 0, health, 0, numBodies);
+            System.arraycopy(original.takingFullCover, 0, takingFullCover, 0, numBodies);
+            System.arraycopy(original.suppressed, 0, suppressed, 0, numBodies);
+            System.arraycopy(original.suppressCooldown, 0, suppressCooldown, 0, numBodies);
+            System.arraycopy(original.numTurnsNotHit, 0, numTurnsNotHit, 0, numBodies);
         }
     }
     
@@ -864,14 +1116,26 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
         CGSquare[][] squares;
         
         /**
-         * Visibility matrix. Keys are (in this order): fromX, fromY, toX, toY
+         * Visibility between passable squares.
          */
-        boolean [][][][] visibilityMatrix;
+        CGVisibilityIndex visibility;
+        
+        /**
+         * Threats from individual locations.
+         */
+        CGThreatIndex threatIndex;
         
         List<Loc> playerSpawningLocations;
         
         Map<Loc,List<Loc>> navGraph;
         
+        /**
+         * The nav graph with nav points numbered, used for path finding.
+         */
+        CGNavGraph compactNavGraph;
+        
+        private volatile CGDistanceTable distanceTable;
+        
         double maxDistancePerTurn = 3.5;
         
         int maxHealth = 100;
@@ -922,58 +1186,100 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
          */
         double supressedAimPenalty = 0.2;
         
-        IPFKnownMap<Loc> navGraphMap = new IPFKnownMap<Loc>() {
-
-            @Override
-            public Collection<Loc> getNodes() {
-                return navGraph.keySet();
-            }
-
-            @Override
-            public Collection<Loc> getNeighbors(Loc node) {
-                return navGraph.get(node);
-            }
-
-            @Override
-            public int getNodeCost(Loc node) {
-                return 0;
-            }
-
-            @Override
-            public int getArcCost(Loc node, Loc node1) {
-                return 1;
-                //return (int)Math.ceil(CGUtils.distance(node1, node));
+        /**
+         * Gets the distances between all nav points. The table is computed on first call 
+         * and then shared by all copies of the environment.
+         * @return 
+         */
+        CGDistanceTable getDistanceTable(){
+            CGDistanceTable table = distanceTable;
+            if(table == null){
+                synchronized(this){
+                    table = distanceTable;
+                    if(table == null){
+                        table = new CGDistanceTable(compactNavGraph, Runtime.getRuntime().availableProcessors());
+                        Logger.getLogger(CoverGame.class).info("Distance table for " + compactNavGraph.getNumNavPoints() + " nav points of " + levelName 
+                                + " computed in " + table.getConstructionTimeMillis() + " ms");
+                        distanceTable = table;
+                    }
+                }
             }
-        };
+            return table;
+        }
     }
         
+    /**
+     * Threats posed by the whole opposing team. Immutable.
+     */
     protected static class OpponentTeamData {
-        OpponentData [] opponentData;
-        Set<Loc> allUncoveredNavPoints = new HashSet<Loc>();        
-        Set<Loc> allShootableNavPoints = new HashSet<Loc>();        
-        Set<Loc> allPossibleAttackNavPoints = new HashSet<Loc>();        
+        final int[] opponentIds;
+        final Loc[] opponentLocations;
+        final OpponentData [] opponentData;
+        final CGThreatIndex.NavPointSet allUncoveredNavPoints;        
+        final CGThreatIndex.NavPointSet allShootableNavPoints;        
+        final CGThreatIndex.NavPointSet allPossibleAttackNavPoints;        
+
+        OpponentTeamData(int[] opponentIds, Loc[] opponentLocations, OpponentData[] opponentData, CGThreatIndex threatIndex) {
+            this.opponentIds = opponentIds;
+            this.opponentLocations = opponentLocations;
+            this.opponentData = opponentData;
+            CGThreatIndex.NavPointSet[] uncovered = new CGThreatIndex.NavPointSet[opponentData.length];
+            CGThreatIndex.NavPointSet[] shootable = new CGThreatIndex.NavPointSet[opponentData.length];
+            CGThreatIndex.NavPointSet[] possibleAttack = new CGThreatIndex.NavPointSet[opponentData.length];
+            for(int i = 0; i < opponentData.length; i++){
+                uncovered[i] = opponentData[i].uncoveredNavpoints;
+                shootable[i] = opponentData[i].shootableNavpoints;
+                possibleAttack[i] = opponentData[i].possibleAttackNavpoints;
+            }
+            allUncoveredNavPoints = threatIndex.union(uncovered);
+            allShootableNavPoints = threatIndex.union(shootable);
+            allPossibleAttackNavPoints = threatIndex.union(possibleAttack);
+        }
+        
+        /**
+         * Checks whether the data still correspond to the opponent locations.
+         */
+        boolean isValid(List<CGBodyInfo> bodyInfos){
+            for(int i = 0; i < opponentIds.length; i++){
+                if(!opponentLocations[i].equals(bodyInfos.get(opponentIds[i]).getLoc())){
+                    return false;
+                }
+            }
+            return true;
+        }
     }
         
+    /**
+     * Threats posed by a single opponent at a location. Shared among all agents at the location, immutable.
+     * Created by {@link CGThreatIndex}.
+     */
     protected static class OpponentData {
         /**
          * Navpoints that are not covered when oponent attacks
          */
-        Set<Loc> uncoveredNavpoints = new HashSet<Loc>();
+        final CGThreatIndex.NavPointSet uncoveredNavpoints;
         
         /**
          * Navpoints the opponent can shoot at
          */
-        List<Loc> shootableNavpoints = new ArrayList<Loc>();
+        final CGThreatIndex.NavPointSet shootableNavpoints;
 
         /**
          * Navpoints the opponent can be shot from
          */
-        List<Loc> possibleAttackNavpoints = new ArrayList<Loc>();
+        final CGThreatIndex.NavPointSet possibleAttackNavpoints;
         
         /**
          * Navpoints from which the oponent has no cover
          */
-        List<Loc> navpointsInvalidatingCover = new ArrayList<Loc>();
+        final CGThreatIndex.NavPointSet navpointsInvalidatingCover;
+
+        OpponentData(CGThreatIndex.NavPointSet uncoveredNavpoints, CGThreatIndex.NavPointSet shootableNavpoints, CGThreatIndex.NavPointSet possibleAttackNavpoints, CGThreatIndex.NavPointSet navpointsInvalidatingCover) {
+            this.uncoveredNavpoints = uncoveredNavpoints;
+            this.shootableNavpoints = shootableNavpoints;
+            this.possibleAttackNavpoints = possibleAttackNavpoints;
+            this.navpointsInvalidatingCover = navpointsInvalidatingCover;
+        }
     }
         
     static class MarkerData {
@@ -991,8 +1297,18 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
          * @param original 
          */
         public MarkerData(MarkerData original){
+            opponentLocationsAtMarker = new ArrayList<Loc>(original.opponentLocationsAtMarker.size());
+            copyStateFrom(original);
+        }
+        
+        /**
+         * Overwrites this marker with the data of the original, reusing the existing containers.
+         * @param original 
+         */
+        final void copyStateFrom(MarkerData original){
             diedSinceMarker = original.diedSinceMarker;
-            opponentLocationsAtMarker = new ArrayList<Loc>(original.opponentLocationsAtMarker);
+            opponentLocationsAtMarker.clear();
+            opponentLocationsAtMarker.addAll(original.opponentLocationsAtMarker);
             for(int i = 0; i < original.expectedWorstCaseShotsReceivedSinceMarker.length;i++){
                 expectedWorstCaseShotsReceivedSinceMarker[i] = original.expectedWorstCaseShotsReceivedSinceMarker[i];
             }
@@ -1000,5 +1316,24 @@ public class CoverGame extends AbstractSynchronizedEnvironment<CGPairAction> imp
                 maxShotProbabilitySinceMarker[i] = original.maxShotProbabilitySinceMarker[i];
             }
         }
+        
+        /**
+         * Sets the marker to the current state - no deaths, no risks and given opponent locations.
+         * @param opponentIds
+         * @param bodyInfos 
+         */
+        final void reset(int[] opponentIds, List<CGBodyInfo> bodyInfos){
+            diedSinceMarker = false;
+            opponentLocationsAtMarker.clear();
+            for(int oppId : opponentIds){
+                opponentLocationsAtMarker.add(bodyInfos.get(oppId).getLoc());
+            }
+            for(int i = 0; i < expectedWorstCaseShotsReceivedSinceMarker.length;i++){
+                expectedWorstCaseShotsReceivedSinceMarker[i] = 0;
+            }
+            for(int i = 0; i < maxShotProbabilitySinceMarker.length;i++){
+                maxShotProbabilitySinceMarker[i] = 0;
+            }
+        }
     }
 }
@@ -92,9 +92,11 @@ public class Experiments {
         
         List<IEnvironment> environments = new ArrayList<IEnvironment>();
 
-        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_simple.txt"))));
-        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_irregular.txt"))));
-        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_security.txt"))));
+        //precomputed map data is reused by subsequent launches
+        File mapCacheDirectory = new File("cg_map_cache");
+        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_simple.txt"), mapCacheDirectory)));
+        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_irregular.txt"), mapCacheDirectory)));
+        environments.add(new CoverGame(CGMapReader.readMap(Test.class.getResourceAsStream("/cg_map_security.txt"), mapCacheDirectory)));
 
 
         List<Long> stepDelays = Arrays.asList(new Long[]{100L, 500L, 1000L, 2000L});        
@@ -49,7 +49,7 @@ public class FindPathCalculate implements Calculate {
         Loc fromLoc = representation.constantsToLocations.get(fromTerm.getIndex());
         Loc toLoc = representation.constantsToLocations.get(toTerm.getIndex());
         
-        java.util.List<Loc> path = representation.fixedMapFloydWarshall.getPath(fromLoc, toLoc);        
+        java.util.List<Loc> path = representation.distanceTable.getPath(fromLoc, toLoc);        
         TermList pathTerm;
         //TODO: blocking by the other body???
         if(path == null){
@@ -59,15 +59,16 @@ public class FindPathCalculate implements Calculate {
             pathTerm = TermList.NIL;
         } else {
             if(logger.isDebugEnabled()){
-                logger.debug(body.getId() + ": Found path from " + fromLoc + " to " + toLoc + " with cost " + representation.fixedMapFloydWarshall.getPathCost(fromLoc, toLoc));
+                logger.debug(body.getId() + ": Found path from " + fromLoc + " to " + toLoc + " with cost " + representation.distanceTable.getDistance(fromLoc, toLoc));
             }
             
-            path.add(toLoc); //the final location is not a part of the path returned from FloydWarshall
-            
             pathTerm = TermList.NIL;
             
+            //the path starts with fromLoc, where the body already is - skip it unless it is also the target
+            int firstIndex = path.size() > 1 ? 1 : 0;
+            
             //Construct the list term
-            for(int i = path.size() - 1; i >= 0; i--){ 
+            for(int i = path.size() - 1; i >= firstIndex; i--){ 
                 pathTerm = new TermList(representation.jshops.get(body).getConstant(representation.locationsToConstants.get(path.get(i))), pathTerm);
             }
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.covergame;
+
+import cz.cuni.amis.aiste.environment.AgentBody;
+import cz.cuni.amis.aiste.environment.ISimulableEnvironment;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Measures the cost of plan validation by simulation - cloning the environment and simulating a few steps.
+ * Compares fresh copies for every validation (the behaviour prior to simulation copy reuse) with
+ * copies that are released back to the environment after each validation.
+ * <p>
+ * Arguments (all optional): map name, number of validations, number of simulated steps per validation.
+ * </p>
+ * @author Martin Cerny
+ */
+public class SimulationCopyBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        String mapName = args.length > 0 ? args[0] : "cg_map_simple";
+        int numValidations = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+        int stepsPerValidation = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+        CoverGame.StaticDefs defs = CGMapReader.readMap(SimulationCopyBenchmark.class.getResourceAsStream("/" + mapName + ".txt"));
+        CoverGame env = new CoverGame(defs);
+        env.init();
+        env.setRandomSeed(548742L);
+        env.createAgentBody(CGAgentType.getInstance());
+        env.createAgentBody(CGAgentType.getInstance());
+
+        Map<AgentBody, CGPairAction> actions = new HashMap<AgentBody, CGPairAction>();
+        for(AgentBody body : env.getActiveBodies()) {
+            actions.put(body, new CGPairAction(new CGAction(CGAction.Action.NO_OP, null), new CGAction(CGAction.Action.NO_OP, null)));
+        }
+
+        //warm up
+        runValidations(env, actions, numValidations / 10, stepsPerValidation, false);
+        runValidations(env, actions, numValidations / 10, stepsPerValidation, true);
+
+        report("Fresh copies", env, actions, numValidations, stepsPerValidation, false);
+        report("Reused copies", env, actions, numValidations, stepsPerValidation, true);
+    }
+
+    private static void report(String name, CoverGame env, Map<AgentBody, CGPairAction> actions, int numValidations, int stepsPerValidation, boolean reuseCopies) {
+        System.gc();
+        long collectionsBefore = getNumCollections();
+        long start = System.nanoTime();
+        runValidations(env, actions, numValidations, stepsPerValidation, reuseCopies);
+        long time = System.nanoTime() - start;
+        long collections = getNumCollections() - collectionsBefore;
+        System.out.println(name + ": " + numValidations + " validations of " + stepsPerValidation + " steps in " + (time / 1000000) + "ms, "
+                + (time / numValidations) + "ns per validation, " + collections + " garbage collections.");
+    }
+
+    private static void runValidations(CoverGame env, Map<AgentBody, CGPairAction> actions, int numValidations, int stepsPerValidation, boolean reuseCopies) {
+        for(int i = 0; i < numValidations; i++) {
+            ISimulableEnvironment<CGPairAction> copy = env.cloneForSimulation();
+            for(int step = 0; step < stepsPerValidation; step++) {
+                copy.simulateOneStep(actions);
+            }
+            if(reuseCopies) {
+                env.releaseSimulationCopy(copy);
+            }
+        }
+    }
+
+    private static long getNumCollections() {
+        long total = 0;
+        for(GarbageCollectorMXBean gcBean : ManagementFactory.getGarbageCollectorMXBeans()) {
+            total += Math.max(gcBean.getCollectionCount(), 0);
+        }
+        return total;
+    }
+}
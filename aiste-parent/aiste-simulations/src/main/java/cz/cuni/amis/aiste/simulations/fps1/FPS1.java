@@ -16,12 +16,10 @@
  */
 package cz.cuni.amis.aiste.simulations.fps1;
 
-import com.google.common.base.Predicate;
-import com.google.common.collect.Collections2;
+import cz.cuni.amis.aiste.AisteException;
 import cz.cuni.amis.aiste.environment.*;
 import cz.cuni.amis.aiste.environment.impl.AbstractSynchronizedEnvironment;
 import cz.cuni.amis.aiste.environment.impl.AgentInstantiationDescriptor;
-import cz.cuni.amis.aiste.simulations.utils.RandomUtils;
 import java.util.*;
 import org.apache.log4j.Logger;
 
@@ -52,6 +50,23 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
     private FPS1SquareState[][] squareStates;
     
     private PriorityQueue<ScheduledRespawn> scheduledRespawns;
+    
+    /**
+     * Bodies at individual squares, kept in sync with positions in {@link #bodyInfos}.
+     */
+    private FPS1OccupancyGrid occupancy;
+    
+    /**
+     * Buffers reused by every step. All are indexed by body id.
+     */
+    private double[] stepRewards = new double[0];
+    private Loc[] stepMoveTargets = new Loc[0];
+    
+    /**
+     * First index is who was attacked. At each slot, list of agents that dealt demage to this agent is kept.
+     * Reused by every step.
+     */
+    private final List<List<Integer>> stepSuccesfulAttackers = new ArrayList<List<Integer>>();
         
     public FPS1(StaticDefs defs) {
         super(FPS1Action.class);
@@ -63,6 +78,9 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
         
         copySquareStates(defs.initialSquareStates);        
         
+        scheduledRespawns = new PriorityQueue<ScheduledRespawn>();
+        occupancy = new FPS1OccupancyGrid(defs.levelWidth, defs.levelHeight, defs.playerSpawningLocations);
+        
         registerRepresentation(this);
     }
 
@@ -78,10 +96,44 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
         
     }
     
+    /**
+     * Makes sure step buffers are large enough and clears them.
+     */
+    private void prepareStepBuffers(int numBodies){
+        if(stepRewards.length != numBodies){
+            stepRewards = new double[numBodies];
+            stepMoveTargets = new Loc[numBodies];
+        } else {
+            Arrays.fill(stepRewards, 0); //zero is the default reward
+            Arrays.fill(stepMoveTargets, null);
+        }
+        while(stepSuccesfulAttackers.size() < numBodies){
+            stepSuccesfulAttackers.add(new ArrayList<Integer>());
+        }
+        for(int i = 0; i < numBodies; i++){
+            stepSuccesfulAttackers.get(i).clear();
+        }
+    }
+    
+    /**
+     * Puts back items whose respawn time has come. Respawns are ordered by time,
+     * so only the respawns that actually happen are visited.
+     */
+    private void performScheduledRespawns(){
+        while(!scheduledRespawns.isEmpty() && scheduledRespawns.peek().getTimeStep() <= getTimeStep()){
+            FPS1Square square = scheduledRespawns.poll().getSquare();
+            squareStates[square.location.x][square.location.y].items.add(square.spawnedItem);
+            if(logger.isTraceEnabled()){
+                logger.trace("Item respawned: " + square.spawnedItem + " at " + square.location);
+            }
+        }
+    }
     
     @Override
     protected Map<AgentBody, Double> nextStepInternal(Map<AgentBody, FPS1Action> actionsToPerform) {
     
+        performScheduledRespawns();
+        
         if(logger.isDebugEnabled()){
             //Draw the playground
             char[][] display = new char[defs.levelWidth][defs.levelHeight];
@@ -124,16 +176,9 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
         }
         
         
-        double [] rewards = new double[getAllBodies().size()]; //indexed by agent id
-        
-        //first index is who was attacked. At each slot, list of agents that dealt demage to this agent is kept        
-        List<List<Integer>> succesfulAttackers = new ArrayList<List<Integer>>(getAllBodies().size()); 
-        
-        
-        for(int i = 0; i < getAllBodies().size(); i++){
-            rewards[i] = 0; //zero is the default reward
-            succesfulAttackers.add(new ArrayList<Integer>()); //add empty attackers
-        }
+        prepareStepBuffers(getAllBodies().size());
+        double [] rewards = stepRewards; //indexed by agent id
+        List<List<Integer>> succesfulAttackers = stepSuccesfulAttackers;
 
         //evaluate attack actions first, movement is updated after that
         for(Map.Entry<AgentBody, FPS1Action> actionEntry : actionsToPerform.entrySet()){
@@ -201,88 +246,92 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
 
         //evaluate movement        
         //first check all moves validity and clear invalid. Only after alter all locations of succesfully moving agents
-        Map<FPS1BodyInfo, Loc> validMoves = new HashMap<FPS1BodyInfo, Loc>();
-        for(AgentBody body : actionsToPerform.keySet()){
-            FPS1Action action = actionsToPerform.get(body);
+        //the target of a valid move is occupied right away, so that no other agent may move there. 
+        //The squares left by moving agents stay occupied until all moves are checked.
+        Loc[] validMoves = stepMoveTargets;
+        for(Map.Entry<AgentBody, FPS1Action> actionEntry : actionsToPerform.entrySet()){
+            AgentBody body = actionEntry.getKey();
+            FPS1Action action = actionEntry.getValue();
             FPS1BodyInfo bodyInfo = bodyInfos.get(body.getId());
             if(action.act == FPS1Action.Action.MOVE){
                 Loc targetLocation = (Loc)action.target;
                 boolean moveValid = true;
-                if(bodyInfo.getLoc().distanceTo(targetLocation) > 1){
+                if(FPS1Utils.distance(bodyInfo.x, bodyInfo.y, targetLocation.x, targetLocation.y) > 1){
                     logger.info(body.getId() + ": Invalid movement - to far. From: " + bodyInfo.getLoc() + " To:" + targetLocation);
                     moveValid = false;
                 } else if(defs.squares[targetLocation.x][targetLocation.y] == null){
                     logger.info(body.getId() + ": Invalid movement - unpassable terrain. To:" + targetLocation);
                     moveValid = false;                    
-                } else {
-                    for(FPS1BodyInfo otherAgent : bodyInfos){
-                        if(otherAgent == bodyInfo){
-                            continue;
-                        } else if(bodyInfo.getLoc().equals(targetLocation)){
-                            logger.info(body.getId() + ": Invalid movement - occuppied by agent " + otherAgent.body.getId() + ". To:" + targetLocation);                            
-                            moveValid = false;
-                        }
+                } else if(occupancy.isOccupied(targetLocation.x, targetLocation.y)){
+                    if(occupancy.getOccupant(targetLocation.x, targetLocation.y) != body.getId()){
+                        logger.info(body.getId() + ": Invalid movement - occuppied by agent " + occupancy.getOccupant(targetLocation.x, targetLocation.y) + ". To:" + targetLocation);                            
                     }
+                    moveValid = false;
                 }
                 
                 if(moveValid){
                     if(logger.isDebugEnabled()){
                         logger.debug(body.getId() + ": Succesful move to:" + targetLocation);                            
                     }
-                    validMoves.put(bodyInfo, targetLocation);
+                    occupancy.setOccupant(targetLocation.x, targetLocation.y, body.getId());
+                    validMoves[body.getId()] = targetLocation;
                 }
             }
         }
         
         //update position of agents by all valid moves
-        for(FPS1BodyInfo bodyInfo : validMoves.keySet()){
-            bodyInfo.setLoc(validMoves.get(bodyInfo));            
+        for(FPS1BodyInfo bodyInfo : bodyInfos){
+            Loc targetLocation = validMoves[bodyInfo.body.getId()];
+            if(targetLocation != null){
+                occupancy.clearOccupant(bodyInfo.x, bodyInfo.y);
+                bodyInfo.setLoc(targetLocation);            
+            }
         }
         
         //agents automatically gather items that are at their locations, if they can (are not over limits)
         for(FPS1BodyInfo bodyInfo : bodyInfos){
-            Set<ItemType> itemsNotTaken = EnumSet.noneOf(ItemType.class);
             FPS1Square currentSquare = defs.squares[bodyInfo.x][bodyInfo.y];
             FPS1SquareState currentSquareState = squareStates[bodyInfo.x][bodyInfo.y];
-            for(ItemType item: currentSquareState.items){
+            if(currentSquareState.items.isEmpty()){
+                continue;
+            }
+            for(Iterator<ItemType> itemIterator = currentSquareState.items.iterator(); itemIterator.hasNext(); ){
+                ItemType item = itemIterator.next();
+                boolean taken = false;
                 switch(item){
                     case MEDIKIT: {
-                        if(bodyInfo.health >= defs.maxHealth){
-                            itemsNotTaken.add(item);
-                        } else {
+                        if(bodyInfo.health < defs.maxHealth){
                             bodyInfo.health = Math.max(defs.maxHealth, bodyInfo.health + defs.healthRestoredByHealthPack);
-                            afterItemTaken(bodyInfo, currentSquare, item);
+                            taken = true;
                         }
                         break;
                     }
                     case MEELEE_WEAPON:{
-                        if(bodyInfo.hasMeleeWeapon){
-                            itemsNotTaken.add(item);
-                        } else {
+                        if(!bodyInfo.hasMeleeWeapon){
                             bodyInfo.hasMeleeWeapon = true;
-                            afterItemTaken(bodyInfo,currentSquare, item);
+                            taken = true;
                         }
                         break;
                     }
                     case RANGED_WEAPON : {
-                        if(bodyInfo.hasRangedWeapon && bodyInfo.ammo >= defs.maximumAmmo){
-                            itemsNotTaken.add(item);
-                        } else {
+                        if(!bodyInfo.hasRangedWeapon || bodyInfo.ammo < defs.maximumAmmo){
                             bodyInfo.ammo = Math.max(defs.maximumAmmo, bodyInfo.ammo + defs.ammoInWeapon);
-                            afterItemTaken(bodyInfo,currentSquare, item);
+                            taken = true;
                         }     
                         break;
                     }
                     case RANGED_AMMO : {
-                        if(bodyInfo.ammo >= defs.maximumAmmo){
-                            itemsNotTaken.add(item);
-                        } else {
+                        if(bodyInfo.ammo < defs.maximumAmmo){
                             bodyInfo.ammo = Math.max(defs.maximumAmmo, bodyInfo.ammo + defs.ammoInAmmoPack);
-                            afterItemTaken(bodyInfo,currentSquare, item);
+                            taken = true;
                         }
                         break;
                     }
                 }
+                if(taken){
+                    itemIterator.remove();
+                    afterItemTaken(bodyInfo, currentSquare, item);
+                }
             }
         }
         
@@ -365,21 +414,16 @@ public class FPS1 extends AbstractSynchronizedEnvironment<FPS1Action> implements
     }
     
     private void respawnAgent(FPS1BodyInfo bodyInfo) {
-        Collection<Loc> freeSpawningPoints = Collections2.filter(defs.playerSpawningLocations, new Predicate<Loc>(){
-
-            @Override
-            public boolean apply(Loc t) {
-                for(FPS1BodyInfo bodyInfo: bodyInfos){
-                    if(bodyInfo.getLoc().equals(t)){
-                        return false;
-                    }
-                }
-                return true;
-            }
-
-        });
-        Loc spawningPoint = RandomUtils.randomElementLinearAccess(freeSpawningPoints, rand);
+        //the point is chosen before the agent leaves its current square, so that it is not respawned in place
+        Loc spawningPoint = occupancy.randomFreeSpawningLocation(rand);
+        if(spawningPoint == null){
+            throw new AisteException("No free spawning point for agent " + bodyInfo.body.getId());
+        }
+        if(bodyInfo.x >= 0){
+            occupancy.clearOccupant(bodyInfo.x, bodyInfo.y);
+        }
         bodyInfo.setLoc(spawningPoint);                
+        occupancy.setOccupant(spawningPoint.x, spawningPoint.y, bodyInfo.body.getId());
         bodyInfo.ammo = 0;
         bodyInfo.hasMeleeWeapon = false;
         bodyInfo.hasRangedWeapon = false;
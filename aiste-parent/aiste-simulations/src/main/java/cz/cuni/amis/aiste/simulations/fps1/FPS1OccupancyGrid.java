@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.fps1;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Bodies standing on individual squares of FPS1 map together with the set of
+ * spawning locations that are not occupied. Both are updated incrementally
+ * as the bodies move, so that neither checking a move nor choosing a spawning
+ * location needs to look at all bodies.
+ * <p>
+ * The free spawning locations are kept in a dense array, a location is removed
+ * by swapping it with the last one, so a random free location is picked in constant time.
+ * </p>
+ * @author Martin Cerny
+ */
+class FPS1OccupancyGrid {
+
+    /**
+     * Occupant of squares with no body on them.
+     */
+    public static final int NO_BODY = -1;
+
+    private final int[][] occupants;
+
+    private final List<Loc> spawningLocations;
+
+    /**
+     * Index into {@link #spawningLocations} for every square, -1 if the square is not a spawning location.
+     */
+    private final int[][] spawningLocationIndices;
+
+    /**
+     * Indices of free spawning locations, only first {@link #numFreeSpawningLocations} are valid.
+     */
+    private final int[] freeSpawningLocations;
+
+    /**
+     * Position of every spawning location in {@link #freeSpawningLocations}, -1 if it is occupied.
+     */
+    private final int[] freeSpawningLocationPositions;
+
+    private int numFreeSpawningLocations;
+
+    public FPS1OccupancyGrid(int levelWidth, int levelHeight, List<Loc> spawningLocations) {
+        this.spawningLocations = spawningLocations;
+        occupants = new int[levelWidth][levelHeight];
+        spawningLocationIndices = new int[levelWidth][levelHeight];
+        for(int x = 0; x < levelWidth; x++){
+            Arrays.fill(occupants[x], NO_BODY);
+            Arrays.fill(spawningLocationIndices[x], -1);
+        }
+
+        freeSpawningLocations = new int[spawningLocations.size()];
+        freeSpawningLocationPositions = new int[spawningLocations.size()];
+        for(int i = 0; i < spawningLocations.size(); i++){
+            Loc location = spawningLocations.get(i);
+            spawningLocationIndices[location.x][location.y] = i;
+            freeSpawningLocations[i] = i;
+            freeSpawningLocationPositions[i] = i;
+        }
+        numFreeSpawningLocations = spawningLocations.size();
+    }
+
+    /**
+     * Id of the body at given square.
+     * @return the id or {@link #NO_BODY}
+     */
+    public int getOccupant(int x, int y){
+        return occupants[x][y];
+    }
+
+    public boolean isOccupied(int x, int y){
+        return occupants[x][y] != NO_BODY;
+    }
+
+    /**
+     * Places a body at given square. The square must not be occupied.
+     */
+    public void setOccupant(int x, int y, int bodyId){
+        if(occupants[x][y] != NO_BODY){
+            throw new IllegalStateException("Square [" + x + ", " + y + "] is already occupied by " + occupants[x][y]);
+        }
+        occupants[x][y] = bodyId;
+        int spawningLocationIndex = spawningLocationIndices[x][y];
+        if(spawningLocationIndex >= 0){
+            removeFreeSpawningLocation(spawningLocationIndex);
+        }
+    }
+
+    /**
+     * Removes the body at given square, if any.
+     */
+    public void clearOccupant(int x, int y){
+        if(occupants[x][y] == NO_BODY){
+            return;
+        }
+        occupants[x][y] = NO_BODY;
+        int spawningLocationIndex = spawningLocationIndices[x][y];
+        if(spawningLocationIndex >= 0){
+            addFreeSpawningLocation(spawningLocationIndex);
+        }
+    }
+
+    private void removeFreeSpawningLocation(int spawningLocationIndex){
+        int position = freeSpawningLocationPositions[spawningLocationIndex];
+        int lastIndex = freeSpawningLocations[numFreeSpawningLocations - 1];
+        freeSpawningLocations[position] = lastIndex;
+        freeSpawningLocationPositions[lastIndex] = position;
+        freeSpawningLocationPositions[spawningLocationIndex] = -1;
+        numFreeSpawningLocations--;
+    }
+
+    private void addFreeSpawningLocation(int spawningLocationIndex){
+        freeSpawningLocations[numFreeSpawningLocations] = spawningLocationIndex;
+        freeSpawningLocationPositions[spawningLocationIndex] = numFreeSpawningLocations;
+        numFreeSpawningLocations++;
+    }
+
+    public int getNumFreeSpawningLocations() {
+        return numFreeSpawningLocations;
+    }
+
+    /**
+     * Picks a spawning location with no body on it uniformly at random.
+     * @return the location or null if all spawning locations are occupied
+     */
+    public Loc randomFreeSpawningLocation(Random random){
+        if(numFreeSpawningLocations == 0){
+            return null;
+        }
+        return spawningLocations.get(freeSpawningLocations[random.nextInt(numFreeSpawningLocations)]);
+    }
+}
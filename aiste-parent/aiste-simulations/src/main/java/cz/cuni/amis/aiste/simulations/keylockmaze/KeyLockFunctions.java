@@ -16,6 +16,11 @@
  */
 package cz.cuni.amis.aiste.simulations.keylockmaze;
 
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusEntry;
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusReader;
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusWriter;
+import java.io.File;
+import java.io.IOException;
 import java.util.Random;
 
 /**
@@ -181,6 +186,32 @@ public class KeyLockFunctions {
 		return map;
 	}
 	
+	/**
+	 * <p>Generates a batch of levels and writes them to a corpus. Seeds of the levels are drawn from the given generator.
+	 * The levels are not tested for solvability.</p>
+	 * @param options Options of the mazes (the random seed is ignored)
+	 * @param numLevels How many levels to generate
+	 * @param rand Random generator for the seeds of the levels
+	 * @param writer The corpus to write to, it is not closed by this method
+	 * @throws IOException 
+	 */
+	public static void generateLevelCorpus(KeyLockOptions options, int numLevels, Random rand, LevelCorpusWriter<KeyLockLevel> writer) throws IOException {
+		for (int i = 0; i < numLevels; i++) {
+			long seed = rand.nextLong();
+			writer.write(seed, LevelCorpusEntry.Solvability.NOT_TESTED, KeyLockLevel.generate(options, seed));
+		}
+	}
+	
+	/**
+	 * <p>Opens a corpus of levels for lazy reading. Mazes are created from the levels by {@link KeyLockLevel#createMaze()}.</p>
+	 * @param corpusFile File with the corpus
+	 * @return The reader
+	 * @throws IOException 
+	 */
+	public static LevelCorpusReader<KeyLockLevel> openLevelCorpus(File corpusFile) throws IOException {
+		return new LevelCorpusReader<KeyLockLevel>(corpusFile, KeyLockLevelCodec.getInstance());
+	}
+	
 	/**
 	 * Gives true if <code>min &lt;= value &lt= max</code>
 	 * @param value Value to examine.
@@ -0,0 +1,182 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.keylockmaze;
+
+import java.util.Arrays;
+
+/**
+ * <p>Dense representation of all steps of a {@link KeyLockMaze} in flat arrays.</p>
+ * <p>Step on coordinates (x, y) of the full map has index <code>y * width + x</code>, the index of its neighbour
+ * in given direction is obtained by adding a precomputed offset. For every step the grid holds the kind of the step,
+ * id of the key laying on it and for every direction a passage flag and id of the door in the passage (if any).
+ * Doors lay between two steps, the finish door leads out of the grid.</p>
+ * @author Martin Cerny
+ */
+public class KeyLockGrid {
+	
+	public static final byte CELL_EMPTY = 0;
+	
+	public static final byte CELL_KEY = 1;
+	
+	public static final byte CELL_KEY_PICKED_UP = 2;
+	
+	public static final byte CELL_START = 3;
+	
+	/**
+	 * <p>Door or key id of passages without doors and steps without keys.</p>
+	 */
+	public static final int NONE = -1;
+	
+	private static final int NUM_DIRECTIONS = 4;
+	
+	private final int width;
+	
+	private final int height;
+	
+	/**
+	 * <p>Offsets of neighbour steps, indexed by direction code.</p>
+	 */
+	private final int[] neighbourOffsets = new int[NUM_DIRECTIONS];
+	
+	/**
+	 * <p>Bit <code>1 &lt;&lt; direction code</code> is set if the step is connected in that direction.</p>
+	 */
+	private final byte[] passages;
+	
+	private final byte[] cellKinds;
+	
+	private final int[] keyIds;
+	
+	/**
+	 * <p>Door in the passage from step i in direction d is at index <code>i * 4 + d</code>.</p>
+	 */
+	private final int[] doorIds;
+	
+	private final boolean[] doorLocked;
+	
+	private int finishDoorId = NONE;
+
+	KeyLockGrid(int width, int height, int numDoors) {
+		this.width = width;
+		this.height = height;
+		for (KeyLockDirection direction : KeyLockDirection.values()) {
+			neighbourOffsets[direction.getCode()] = direction.getDiffY() * width + direction.getDiffX();
+		}
+		int numCells = width * height;
+		passages = new byte[numCells];
+		cellKinds = new byte[numCells];
+		keyIds = new int[numCells];
+		Arrays.fill(keyIds, NONE);
+		doorIds = new int[numCells * NUM_DIRECTIONS];
+		Arrays.fill(doorIds, NONE);
+		doorLocked = new boolean[numDoors];
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+	
+	public int getNumCells() {
+		return passages.length;
+	}
+	
+	public int getNumDoors() {
+		return doorLocked.length;
+	}
+	
+	public boolean isInside(int x, int y) {
+		return x >= 0 && x < width && y >= 0 && y < height;
+	}
+	
+	public int getCellIndex(int x, int y) {
+		return y * width + x;
+	}
+	
+	public int getX(int cell) {
+		return cell % width;
+	}
+	
+	public int getY(int cell) {
+		return cell / width;
+	}
+	
+	/**
+	 * <p>Index of the neighbouring step. The result is valid only if the neighbour is inside the grid.</p>
+	 */
+	public int getNeighbourCell(int cell, KeyLockDirection direction) {
+		return cell + neighbourOffsets[direction.getCode()];
+	}
+	
+	public boolean hasPassage(int cell, KeyLockDirection direction) {
+		return (passages[cell] & (1 << direction.getCode())) != 0;
+	}
+	
+	/**
+	 * <p>Id of the door in the passage in given direction.</p>
+	 * @return The door id or {@link #NONE}
+	 */
+	public int getDoorId(int cell, KeyLockDirection direction) {
+		return doorIds[cell * NUM_DIRECTIONS + direction.getCode()];
+	}
+	
+	public boolean isDoorLocked(int doorId) {
+		return doorLocked[doorId];
+	}
+	
+	public int getFinishDoorId() {
+		return finishDoorId;
+	}
+	
+	public byte getCellKind(int cell) {
+		return cellKinds[cell];
+	}
+	
+	/**
+	 * <p>Id of the key laying on the step (also for key already picked up).</p>
+	 * @return The key id or {@link #NONE}
+	 */
+	public int getKeyId(int cell) {
+		return keyIds[cell];
+	}
+	
+	void setPassage(int cell, KeyLockDirection direction, int doorId) {
+		passages[cell] |= (1 << direction.getCode());
+		doorIds[cell * NUM_DIRECTIONS + direction.getCode()] = doorId;
+	}
+	
+	void setCellKind(int cell, byte kind) {
+		cellKinds[cell] = kind;
+	}
+	
+	void setKey(int cell, int keyId) {
+		cellKinds[cell] = CELL_KEY;
+		keyIds[cell] = keyId;
+	}
+	
+	void setDoorLocked(int doorId, boolean locked) {
+		doorLocked[doorId] = locked;
+	}
+	
+	void setFinishDoorId(int finishDoorId) {
+		this.finishDoorId = finishDoorId;
+	}
+	
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.keylockmaze;
+
+import java.util.Random;
+
+/**
+ * <p>A generated {@link KeyLockMaze} level in a compact form - the maze options, the random seed
+ * and the connections between rooms. The rest of the maze is generated deterministically from the seed, 
+ * so {@link #createMaze()} creates the same maze on any machine.</p>
+ * @author Martin Cerny
+ */
+public class KeyLockLevel {
+	
+	/**
+	 * <p>Bit of {@link #roomConnections} set when the room is connected to its northern neighbour</p>
+	 */
+	static final byte CONNECTED_NORTH = 1;
+	
+	/**
+	 * <p>Bit of {@link #roomConnections} set when the room is connected to its eastern neighbour</p>
+	 */
+	static final byte CONNECTED_EAST = 2;
+	
+	final int roomsWide;
+	
+	final int roomsHigh;
+	
+	final int roomWidth;
+	
+	final int roomHeight;
+	
+	final int lockedRatio;
+	
+	final int lockedRatioMax;
+	
+	final long seed;
+	
+	/**
+	 * <p>Connections of the room on (x, y) are stored at index <code>x * roomsHigh + y</code>.</p>
+	 */
+	final byte[] roomConnections;
+
+	KeyLockLevel(int roomsWide, int roomsHigh, int roomWidth, int roomHeight, int lockedRatio, int lockedRatioMax, long seed, byte[] roomConnections) {
+		this.roomsWide = roomsWide;
+		this.roomsHigh = roomsHigh;
+		this.roomWidth = roomWidth;
+		this.roomHeight = roomHeight;
+		this.lockedRatio = lockedRatio;
+		this.lockedRatioMax = lockedRatioMax;
+		this.seed = seed;
+		this.roomConnections = roomConnections;
+	}
+	
+	/**
+	 * <p>Generates a level with given options and seed. The random seed in the options is ignored.</p>
+	 * @param options Options of the maze
+	 * @param seed Seed of the level
+	 * @return The level
+	 */
+	public static KeyLockLevel generate(KeyLockOptions options, long seed) {
+		KeyLockFourWayPoint[][] map = KeyLockFunctions.generateMazeMap(options.roomsWide, options.roomsHigh, new Random(seed));
+		byte[] roomConnections = new byte[options.roomsWide * options.roomsHigh];
+		for (int x = 0; x < options.roomsWide; x++) {
+			for (int y = 0; y < options.roomsHigh; y++) {
+				byte connections = 0;
+				if (map[x][y].north != null) {
+					connections |= CONNECTED_NORTH;
+				}
+				if (map[x][y].east != null) {
+					connections |= CONNECTED_EAST;
+				}
+				roomConnections[x * options.roomsHigh + y] = connections;
+			}
+		}
+		return new KeyLockLevel(options.roomsWide, options.roomsHigh, options.roomWidth, options.roomHeight, options.lockedRatio, options.lockedRatioMax, seed, roomConnections);
+	}
+	
+	/**
+	 * <p>Creates options of the maze, with the random seed set to the seed of this level.
+	 * The options alone do not reproduce the level - generating a maze without the map draws the rooms
+	 * from the same random generator as the rest of the maze - use {@link #createMaze()} instead.</p>
+	 * @return New instance of options
+	 */
+	KeyLockOptions createOptions() {
+		KeyLockOptions options = new KeyLockOptions();
+		options.roomsWide = roomsWide;
+		options.roomsHigh = roomsHigh;
+		options.roomWidth = roomWidth;
+		options.roomHeight = roomHeight;
+		options.lockedRatio = lockedRatio;
+		options.lockedRatioMax = lockedRatioMax;
+		options.randomSeed = seed;
+		return options;
+	}
+	
+	/**
+	 * <p>Creates the map of rooms, identical to the map generated by {@link KeyLockFunctions#generateMazeMap(int, int, java.util.Random)}.</p>
+	 * @return New instance of the map
+	 */
+	public KeyLockFourWayPoint[][] createMap() {
+		KeyLockFourWayPoint[][] map = new KeyLockFourWayPoint[roomsWide][roomsHigh];
+		for (int i = 0; i < map.length; i++) {
+			for (int j = 0; j < map[i].length; j++) {
+				map[i][j] = new KeyLockFourWayPoint((i * map.length) + j);
+			}
+		}
+		for (int x = 0; x < roomsWide; x++) {
+			for (int y = 0; y < roomsHigh; y++) {
+				byte connections = roomConnections[x * roomsHigh + y];
+				if ((connections & CONNECTED_NORTH) != 0) {
+					map[x][y].setNeighbour(map[x][y + 1], KeyLockDirection.NORTH);
+				}
+				if ((connections & CONNECTED_EAST) != 0) {
+					map[x][y].setNeighbour(map[x + 1][y], KeyLockDirection.EAST);
+				}
+			}
+		}
+		return map;
+	}
+	
+	/**
+	 * <p>Creates the maze of this level.</p>
+	 * @return New instance of the maze, with generated maze
+	 */
+	public KeyLockMaze createMaze() {
+		KeyLockMaze maze = new KeyLockMaze(createOptions());
+		maze.generateMaze(createMap());
+		return maze;
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+	
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.keylockmaze;
+
+import cz.cuni.amis.aiste.simulations.utils.ILevelCodec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * <p>Binary form of {@link KeyLockLevel} for level corpora.</p>
+ * @author Martin Cerny
+ */
+public class KeyLockLevelCodec implements ILevelCodec<KeyLockLevel> {
+	
+	private static final KeyLockLevelCodec instance = new KeyLockLevelCodec();
+
+	public static KeyLockLevelCodec getInstance() {
+		return instance;
+	}
+
+	@Override
+	public String getLevelType() {
+		return "KeyLockMaze";
+	}
+
+	@Override
+	public int getFormatVersion() {
+		return 1;
+	}
+
+	@Override
+	public void writeLevel(KeyLockLevel level, DataOutput out) throws IOException {
+		out.writeInt(level.roomsWide);
+		out.writeInt(level.roomsHigh);
+		out.writeInt(level.roomWidth);
+		out.writeInt(level.roomHeight);
+		out.writeInt(level.lockedRatio);
+		out.writeInt(level.lockedRatioMax);
+		out.writeLong(level.seed);
+		out.write(level.roomConnections);
+	}
+
+	@Override
+	public KeyLockLevel readLevel(DataInput in) throws IOException {
+		int roomsWide = in.readInt();
+		int roomsHigh = in.readInt();
+		if (roomsWide < 0 || roomsHigh < 0) {
+			throw new IOException("Invalid KeyLockMaze level data, negative size " + roomsWide + "x" + roomsHigh);
+		}
+		int roomWidth = in.readInt();
+		int roomHeight = in.readInt();
+		int lockedRatio = in.readInt();
+		int lockedRatioMax = in.readInt();
+		long seed = in.readLong();
+		byte[] roomConnections = new byte[roomsWide * roomsHigh];
+		in.readFully(roomConnections);
+		return new KeyLockLevel(roomsWide, roomsHigh, roomWidth, roomHeight, lockedRatio, lockedRatioMax, seed, roomConnections);
+	}
+	
+}
@@ -275,36 +275,6 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 			// Set key
 			this.key = k;
 		}
-
-		/**
-		 * <p>Determines whether this door can be unlocked by any item in the inventory</p>
-		 * @param inventory {@link List}&lt;{@link MazeKey}&gt; representing inventory
-		 * @return True if this door is already unlocked or if there is at least 
-		 * one key in the inventory that is able to unlock this door. Otherwise false.
-		 */
-		public boolean canBeUnlocked(List<MazeKey> inventory) {
-			if (this.state == DoorState.UNLOCKED) {
-				return true;
-			}
-			
-			ListIterator<MazeKey> iterator = inventory.listIterator();
-			while(iterator.hasNext()) {
-				int keyID = iterator.next().id;
-				if (keyID == this.key.id) {
-					return true;
-				}
-			}
-
-			return false;
-		}
-
-		/**
-		 * <p>Performs necessary actions when unlocking this door.</p>
-		 */
-		public void unlock() {
-			this.state = DoorState.UNLOCKED;
-			this.setRole(MazeStepRole.DOOR_UNLOCKED);
-		}
 	}
 
 	/**
@@ -518,8 +488,8 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		 */
 		public MazeStep getStepOn(int coordX, int coordY) {
 			// Check coords
-			if (!KeyLockFunctions.isBetweenOrEqual(coordX, 0, this.width - 1)) { coordX = 0; }
-			if (!KeyLockFunctions.isBetweenOrEqual(coordY, 0, this.height - 1)) { coordY = 0; }
+			if (coordX < 0 || coordX > this.width - 1) { coordX = 0; }
+			if (coordY < 0 || coordY > this.height - 1) { coordY = 0; }
 			// Return the step
 			return this.steps[coordX][coordY];
 		}
@@ -640,6 +610,24 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	 */
 	private EnumStateVariable[] doorsVariable;
 	
+	/**
+	 * <p>Indices of the state variables, used for fast access to their values during simulation</p>
+	 */
+	private int playerPositionIndexX;
+	private int playerPositionIndexY;
+	private int[] playerInventoryIndices;
+	private int[] doorsIndices;
+	
+	/**
+	 * <p>Reward returned when the spy has not moved.</p>
+	 */
+	private static final Double NO_REWARD = 0.0;
+	
+	/**
+	 * <p>Result of the simulation step, reused among steps.</p>
+	 */
+	private final Map<AgentBody, Double> stepResult = new HashMap<AgentBody, Double>(2);
+	
 	/**
 	 * <p>List of doors in this maze</p>
 	 */
@@ -651,9 +639,9 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	private List<MazeKey> keys;
 	
 	/**
-	 * <p>List of keys that player has in his inventory</p>
+	 * <p>Keys that player has in his inventory, indexed by key id</p>
 	 */
-	private List<MazeKey> keysInInventory;
+	private boolean[] keysInInventory;
 	
 	/**
 	 * <p>Grid of maze rooms = actual maze</p>
@@ -666,10 +654,15 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	private KeyLockFourWayPoint[][] map;
 	
 	/**
-	 * <p>Complete map of this maze (map of all steps of all rooms)</p>
+	 * <p>Complete map of this maze (map of all steps of all rooms), created on demand from {@link #grid}</p>
 	 */
 	private KeyLockFourWayPoint[][] mapCompleteWithoutDoors;
 	
+	/**
+	 * <p>All steps of all rooms in flat arrays, used for simulation</p>
+	 */
+	private KeyLockGrid grid;
+	
 	/**
 	 * <p>Start step</p>
 	 */
@@ -760,98 +753,97 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		// Initialize door and key lists
 		this.doors = new ArrayList<MazeDoor>(this.options.roomsWide * this.options.roomsHigh);
 		this.keys = new ArrayList<MazeKey>(this.options.roomsWide * this.options.roomsHigh);
-		this.keysInInventory = new ArrayList<MazeKey>(this.options.roomsWide * this.options.roomsHigh);
 	}
 
 	@Override
 	protected Map<AgentBody, Double> nextStepInternal(Map<AgentBody, KeyLockAction> actionsToPerform) {
 		//krok simulace vraci reward, ktery dostali agenti za provedene akce
 		//v nasem pripade je reward +100 za dojiti do cile oponenta, jinak -1 za kazdy krok (aby to motivovalo k rychlemu reseni)
-		Map<AgentBody, Double> result = new HashMap<AgentBody, Double>();
+		// The map is reused among steps, the rewards are processed before the next step
+		Map<AgentBody, Double> result = this.stepResult;
+		
+		KeyLockAction action = actionsToPerform.get(theBody);
 		
 		// If there is no action for current body...
-		if (!actionsToPerform.containsKey(theBody)) {
-			result.put(theBody, 0.0);
+		if (action == null) {
+			result.put(theBody, NO_REWARD);
 			return result;
 		}
 		
-		KeyLockFunctions.printDebugMsg("## Spy is performing the action... ##");
-		
-		KeyLockAction action = actionsToPerform.get(theBody);
-		Double reward = 0.0;
+		if (KeyLockOptions.debug) {
+			KeyLockFunctions.printDebugMsg("## Spy is performing the action... ##");
+		}
 		
+		Double reward = NO_REWARD;
 		
-		Integer x = (Integer)getStateVariableValue(playerPositionVariableX);
-		Integer y = (Integer)getStateVariableValue(playerPositionVariableY);
+		int x = getIntStateVariableValue(playerPositionIndexX);
+		int y = getIntStateVariableValue(playerPositionIndexY);
 		KeyLockDirection direction = action.getDirection();
+		int cell = grid.getCellIndex(x, y);
 		
-		TupleInt roomCoord = new TupleInt(
-				x / this.options.roomWidth, 
-				y / this.options.roomHeight
-				);
-		TupleInt stepCoord = new TupleInt(
-				x % this.options.roomWidth, 
-				y % this.options.roomHeight
-				);
-		
-		MazeStep step = 
-				this.maze[roomCoord.x()][roomCoord.y()]
-				.getStepOn(stepCoord.x(), stepCoord.y())
-				.getNeighbour(direction);
-		
-		if (this.canAccess(direction)) {
+		if (this.canAccess(cell, direction)) {
 			// Let the spy go to next step
-			TupleInt coords = new TupleInt(
-					x + direction.getDiffX(), 
-					y + direction.getDiffY()
-					);
-			
-			setStateVariableValue(playerPositionVariableX, coords.x());
-			setStateVariableValue(playerPositionVariableY, coords.y());
+			int newX = x + direction.getDiffX();
+			int newY = y + direction.getDiffY();
 			
-			KeyLockFunctions.printDebugMsg("Gone to: (" + coords.x() + ", " + coords.y() + ")");
+			setIntStateVariableValue(playerPositionIndexX, newX);
+			setIntStateVariableValue(playerPositionIndexY, newY);
 			
-			MazeStepRole role = step.getRole();
-			
-			// Get the reward
-			reward = role.GetReward();
-			
-			// Unlock the door (if any)
-			if (role == MazeStepRole.DOOR_LOCKED) {
-				MazeDoor door = (MazeDoor) step;
-				// If the spy has the key to this door...
-				if (door.canBeUnlocked(this.keysInInventory)) {
-					door.unlock();
-					setStateVariableValue(doorsVariable[door.getId()], DoorState.UNLOCKED);
-					// Review the reward
-					reward = door.getRole().GetReward();
-					KeyLockFunctions.printDebugMsg("\tUnlocked door id=" + door.getId());
-				} else {
-					KeyLockFunctions.printDebugMsg("\tUnable to unlock door id=" + door.getId());
-				}
+			if (KeyLockOptions.debug) {
+				KeyLockFunctions.printDebugMsg("Gone to: (" + newX + ", " + newY + ")");
 			}
 			
-			if (role == MazeStepRole.DOOR_UNLOCKED) {
-				KeyLockFunctions.printDebugMsg("\tDoor id=" + step.getId() + " already unlocked");
-			}
-
-			// Pick up the key (if any)
-			if (role == MazeStepRole.KEY) {
-				MazeKey key = step.pickUpKey();
-				this.keysInInventory.add(key);
-				setStateVariableValue(playerInventoryVariable[key.id], InventoryItemState.HAVE);
-				KeyLockFunctions.printDebugMsg("\tPicked up key id=" + key.id);
-			}
-			// Check finish
-			if (role == MazeStepRole.FINISH) {
+			int doorId = grid.getDoorId(cell, direction);
+			if (doorId == grid.getFinishDoorId()) {
+				// Check finish
+				reward = MazeStepRole.FINISH.GetReward();
 				setFinished(true);
-				KeyLockFunctions.printDebugMsg("\tFINISH");
+				if (KeyLockOptions.debug) {
+					KeyLockFunctions.printDebugMsg("\tFINISH");
+				}
+			} else if (doorId != KeyLockGrid.NONE) {
+				// Unlock the door (if locked, the spy has the key to it, otherwise the door could not be accessed)
+				if (grid.isDoorLocked(doorId)) {
+					grid.setDoorLocked(doorId, false);
+					setIntStateVariableValue(doorsIndices[doorId], DoorState.UNLOCKED.ordinal());
+					if (KeyLockOptions.debug) {
+						KeyLockFunctions.printDebugMsg("\tUnlocked door id=" + doorId);
+					}
+				} else if (KeyLockOptions.debug) {
+					KeyLockFunctions.printDebugMsg("\tDoor id=" + doorId + " already unlocked");
+				}
+				reward = MazeStepRole.DOOR_UNLOCKED.GetReward();
+			} else {
+				int nextCell = grid.getNeighbourCell(cell, direction);
+				switch (grid.getCellKind(nextCell)) {
+					case KeyLockGrid.CELL_KEY:
+						// Pick up the key
+						reward = MazeStepRole.KEY.GetReward();
+						int keyId = grid.getKeyId(nextCell);
+						grid.setCellKind(nextCell, KeyLockGrid.CELL_KEY_PICKED_UP);
+						this.keysInInventory[keyId] = true;
+						setIntStateVariableValue(playerInventoryIndices[keyId], InventoryItemState.HAVE.ordinal());
+						if (KeyLockOptions.debug) {
+							KeyLockFunctions.printDebugMsg("\tPicked up key id=" + keyId);
+						}
+						break;
+					case KeyLockGrid.CELL_START:
+						reward = MazeStepRole.START.GetReward();
+						break;
+					case KeyLockGrid.CELL_KEY_PICKED_UP:
+						reward = MazeStepRole.KEY_PICKED_UP.GetReward();
+						break;
+					default:
+						reward = MazeStepRole.EMPTY.GetReward();
+				}
 			}
 		}
 		
 		result.put(theBody, reward);
-		KeyLockFunctions.printDebugMsg("\tGot reward " + reward);
-		KeyLockFunctions.printDebugMsg("");
+		if (KeyLockOptions.debug) {
+			KeyLockFunctions.printDebugMsg("\tGot reward " + reward);
+			KeyLockFunctions.printDebugMsg("");
+		}
 		return result;
 	}
 
@@ -870,21 +862,31 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	}
 	
 	/**
-	 * <p>Full map getter.</p>
+	 * <p>Full map getter. The map is created from the grid on first call.</p>
 	 * @return Grid of {@link KeyLockFourWayPoint} representing map of all steps in the maze
+	 * @see #getGrid() 
 	 */
 	public KeyLockFourWayPoint[][] getMap() {
+		if (this.mapCompleteWithoutDoors == null) {
+			this.mapCompleteWithoutDoors = createCompleteMap();
+		}
 		return this.mapCompleteWithoutDoors;
 	}
 	
+	/**
+	 * <p>Grid getter.</p>
+	 * @return Flat representation of all steps in the maze
+	 */
+	public KeyLockGrid getGrid() {
+		return this.grid;
+	}
+	
 	/**
 	 * <p>Player position getter</p>
 	 * @return Returns {@link TupleInt} representing coords of the player on the full map
 	 */
 	public TupleInt getPosition() {
-		Integer x = (Integer)getStateVariableValue(playerPositionVariableX);
-		Integer y = (Integer)getStateVariableValue(playerPositionVariableY);
-		return new TupleInt(x, y);
+		return new TupleInt(getIntStateVariableValue(playerPositionIndexX), getIntStateVariableValue(playerPositionIndexY));
 	}
 	
 	/**
@@ -893,49 +895,42 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	 * @return True if the requested step is empty step, unlocked door or locked door to which the player has key
 	 */
 	public boolean canAccess(KeyLockDirection direction) {
-		// Get actual position
-		Integer x = (Integer)getStateVariableValue(playerPositionVariableX);
-		Integer y = (Integer)getStateVariableValue(playerPositionVariableY);
-		
-		// Convert position to room and step coordinates
-		TupleInt fromRoom = new TupleInt(
-				x / this.options.roomWidth, 
-				y / this.options.roomHeight
-				);
-		TupleInt fromStep = new TupleInt(
-				x % this.options.roomWidth, 
-				y % this.options.roomHeight
-				);
-		
-		// Get steps
-		MazeStep from = this.maze[fromRoom.x()][fromRoom.y()].getStepOn(fromStep.x(), fromStep.y());
-		MazeStep to = from.getNeighbour(direction);
-		
+		return canAccess(grid.getCellIndex(getIntStateVariableValue(playerPositionIndexX), getIntStateVariableValue(playerPositionIndexY)), direction);
+	}
+	
+	/**
+	 * <p>Determines whether the player is able to access step laying in given direction from given step.</p>
+	 * @param cell Index of the step in the grid
+	 * @param direction Direction code of direction to access
+	 * @return True if the requested step is empty step, unlocked door or locked door to which the player has key
+	 */
+	private boolean canAccess(int cell, KeyLockDirection direction) {
 		// If there is no neighbour in specified direction, return false.
-		if (to == null) {
+		if (!grid.hasPassage(cell, direction)) {
 			return false;
 		}
 		
-		KeyLockFunctions.printDebugMsg("\tTrying to access direction '" + direction + "'");
+		if (KeyLockOptions.debug) {
+			KeyLockFunctions.printDebugMsg("\tTrying to access direction '" + direction + "'");
+		}
 		
-		// If the step is "locked door"...
-		if (to.getRole() == MazeStepRole.DOOR_LOCKED) {
-			MazeDoor door = (MazeDoor) to;
-			KeyLockFunctions.printDebugMsg("\t\t=> Locked door id=" + door.getId());
+		// If the step is "locked door"... (the finish door is always accessible)
+		int doorId = grid.getDoorId(cell, direction);
+		if (doorId != KeyLockGrid.NONE && doorId != grid.getFinishDoorId() && grid.isDoorLocked(doorId)) {
 			// If the spy has the key to this door...
-			if (door.canBeUnlocked(this.keysInInventory)) {
-				KeyLockFunctions.printDebugMsg("\t\t\tCan be unlocked");
+			boolean canBeUnlocked = this.keysInInventory[doorId];
+			if (KeyLockOptions.debug) {
+				KeyLockFunctions.printDebugMsg("\t\t=> Locked door id=" + doorId);
+				KeyLockFunctions.printDebugMsg(canBeUnlocked ? "\t\t\tCan be unlocked" : "\t\t\tCan NOT be unlocked");
 				KeyLockFunctions.printDebugMsg("");
-				return true;
-			} else {
-				KeyLockFunctions.printDebugMsg("\t\t\tCan NOT be unlocked");
-				KeyLockFunctions.printDebugMsg("");
-				return false;
 			}
+			return canBeUnlocked;
 		}
 		
-		KeyLockFunctions.printDebugMsg("\t=> Direction can be accessed");
-		KeyLockFunctions.printDebugMsg("");
+		if (KeyLockOptions.debug) {
+			KeyLockFunctions.printDebugMsg("\t=> Direction can be accessed");
+			KeyLockFunctions.printDebugMsg("");
+		}
 		return true;
 	}
 	
@@ -966,9 +961,11 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		}
 		
 		KeyLockFunctions.printDebugMsg("");
-		KeyLockFunctions.printDebugMsg("Creating maze full map...");
+		KeyLockFunctions.printDebugMsg("Creating maze grid...");
 		
-		generateCompleteMap();
+		generateGrid();
+		this.mapCompleteWithoutDoors = null;
+		this.keysInInventory = new boolean[this.numDoors];
 		
 		KeyLockFunctions.printDebugMsg("");
 		KeyLockFunctions.printDebugMsg("Initializing state variables...");
@@ -976,12 +973,14 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		// Init state variables
 		playerInventoryVariable = new EnumStateVariable[this.numDoors];
 		doorsVariable = new EnumStateVariable[this.numDoors];
+		playerInventoryIndices = new int[this.numDoors];
+		doorsIndices = new int[this.numDoors];
 		
 		// Put all keys to the player's inventory with state "dont't have"
 		for (int i = 0; i < playerInventoryVariable.length; i++) {
 			MazeKey key = keys.get(i);
 			playerInventoryVariable[key.id] = new EnumStateVariable("key:" + key.id, InventoryItemState.class);
-			addStateVariable(playerInventoryVariable[key.id]);
+			playerInventoryIndices[key.id] = addStateVariable(playerInventoryVariable[key.id]);
 			setStateVariableValue(playerInventoryVariable[key.id], InventoryItemState.DONT_HAVE);
 		}
 		
@@ -989,20 +988,20 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		for (int i = 0; i < doorsVariable.length; i++) {
 			MazeDoor d = doors.get(i);
 			doorsVariable[d.id] = new EnumStateVariable("door:" + d.id, DoorState.class);
-			addStateVariable(doorsVariable[d.id]);
+			doorsIndices[d.id] = addStateVariable(doorsVariable[d.id]);
 			setStateVariableValue(doorsVariable[d.id], d.state);
 		}
 		
 		// Register player's position
 		playerPositionVariableX = new IntegerStateVariable("playerPosition", 0, this.options.roomsWide * this.options.roomWidth);
-		addStateVariable(playerPositionVariableX);
+		playerPositionIndexX = addStateVariable(playerPositionVariableX);
 		setStateVariableValue(
 				playerPositionVariableX, 
 				this.startRoomCoords.x() * this.options.roomWidth + this.startStepCoords.x()
 				);
 
 		playerPositionVariableY = new IntegerStateVariable("playerPosition", 0, this.options.roomsHigh * this.options.roomHeight);
-		addStateVariable(playerPositionVariableY);
+		playerPositionIndexY = addStateVariable(playerPositionVariableY);
 		setStateVariableValue(
 				playerPositionVariableY, 
 				this.startRoomCoords.y() * this.options.roomHeight + this.startStepCoords.y()
@@ -1249,30 +1248,18 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 	}
 	
 	/**
-	 * <p>Generates map of all steps of all rooms in this maze</p>
+	 * <p>Generates grid of all steps of all rooms in this maze</p>
 	 */
-	private void generateCompleteMap() {
-		this.mapCompleteWithoutDoors = 
-				new KeyLockFourWayPoint
-						[this.options.roomsWide * this.options.roomWidth]
-						[this.options.roomsHigh * this.options.roomHeight];
-		
-		
-		int id = 0;
-		// For all rooms in maze...
-		for (int xRoom = 0; xRoom < this.options.roomsWide; xRoom++) {
-			for (int yRoom = 0; yRoom < this.options.roomsHigh; yRoom++) {
-				// For all steps in each room...
-				for (int xStep = 0; xStep < this.options.roomWidth; xStep++) {
-					for (int yStep = 0; yStep < this.options.roomHeight; yStep++) {
-						int x = xRoom * this.options.roomWidth + xStep;
-						int y = yRoom * this.options.roomHeight + yStep;
-						this.mapCompleteWithoutDoors[x][y] = new KeyLockFourWayPoint(id);
-						id++;
-					}
-				}
-			}
+	private void generateGrid() {
+		this.grid = new KeyLockGrid(
+				this.options.roomsWide * this.options.roomWidth, 
+				this.options.roomsHigh * this.options.roomHeight, 
+				this.numDoors);
+		
+		for (MazeDoor door : this.doors) {
+			this.grid.setDoorLocked(door.getId(), door.state == DoorState.LOCKED);
 		}
+		this.grid.setFinishDoorId(this.finish.getId());
 		
 		// For all rooms in maze...
 		for (int xRoom = 0; xRoom < this.options.roomsWide; xRoom++) {
@@ -1280,27 +1267,30 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 				// For all steps in each room...
 				for (int xStep = 0; xStep < this.options.roomWidth; xStep++) {
 					for (int yStep = 0; yStep < this.options.roomHeight; yStep++) {
-						// Count coords
-						int x = xRoom * this.options.roomWidth + xStep;
-						int y = yRoom * this.options.roomHeight + yStep;
+						MazeStep step = this.maze[xRoom][yRoom].steps[xStep][yStep];
+						int cell = this.grid.getCellIndex(
+								xRoom * this.options.roomWidth + xStep, 
+								yRoom * this.options.roomHeight + yStep);
+						
+						switch (step.getRole()) {
+							case KEY:
+								this.grid.setKey(cell, step.key.id);
+								break;
+							case START:
+								this.grid.setCellKind(cell, KeyLockGrid.CELL_START);
+								break;
+							default:
+								this.grid.setCellKind(cell, KeyLockGrid.CELL_EMPTY);
+						}
 						
 						// For all directions of that step...
 						for (KeyLockDirection direction : directions) {
-							// If the step does'n have neighbour in current direction => continue
-							if (this.maze[xRoom][yRoom]  // Room in maze
-									.steps[xStep][yStep] // Step in room
-									.isNeighbourSlotFree(direction)
-									) {
+							MazeStep neighbour = step.getNeighbour(direction);
+							if (neighbour == null) {
 								continue;
 							}
-							
-							// Otherwise => 
-							KeyLockFourWayPoint neighbour = 
-									this.maze[xRoom][yRoom]  // Room in maze
-									.steps[xStep][yStep] // Step in room
-									.getNeighbour(direction);
-							
-							this.mapCompleteWithoutDoors[x][y].setNeighbour(neighbour, direction);
+							int doorId = (neighbour instanceof MazeDoor) ? neighbour.getId() : KeyLockGrid.NONE;
+							this.grid.setPassage(cell, direction, doorId);
 						}
 					}
 				}
@@ -1308,6 +1298,37 @@ public class KeyLockMaze extends AbstractStateVariableRepresentableSynchronizedE
 		}
 	}
 	
+	/**
+	 * <p>Creates map of all steps of all rooms in this maze from the grid.</p>
+	 * @return The map
+	 */
+	private KeyLockFourWayPoint[][] createCompleteMap() {
+		KeyLockFourWayPoint[][] completeMap = new KeyLockFourWayPoint[this.grid.getWidth()][this.grid.getHeight()];
+		for (int x = 0; x < this.grid.getWidth(); x++) {
+			for (int y = 0; y < this.grid.getHeight(); y++) {
+				completeMap[x][y] = new KeyLockFourWayPoint(this.grid.getCellIndex(x, y));
+			}
+		}
+		
+		// The finish door leads out of the map
+		KeyLockFourWayPoint outside = new KeyLockFourWayPoint(this.grid.getNumCells());
+		for (int x = 0; x < this.grid.getWidth(); x++) {
+			for (int y = 0; y < this.grid.getHeight(); y++) {
+				int cell = this.grid.getCellIndex(x, y);
+				for (KeyLockDirection direction : directions) {
+					if (!this.grid.hasPassage(cell, direction)) {
+						continue;
+					}
+					int nextX = x + direction.getDiffX();
+					int nextY = y + direction.getDiffY();
+					KeyLockFourWayPoint neighbour = this.grid.isInside(nextX, nextY) ? completeMap[nextX][nextY] : outside;
+					completeMap[x][y].setNeighbour(neighbour, direction);
+				}
+			}
+		}
+		return completeMap;
+	}
+	
 	/**
 	 * <p>Prints string representation of this maze to the 'OutFile.txt'.</p>
 	 */
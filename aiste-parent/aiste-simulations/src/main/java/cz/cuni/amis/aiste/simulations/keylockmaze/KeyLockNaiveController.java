@@ -30,14 +30,14 @@ import java.util.Stack;
 public class KeyLockNaiveController extends AbstractAgentController<KeyLockAction, KeyLockMaze> {
 
 	/**
-	 * <p>Map of the maze that the spy is in</p>
+	 * <p>Grid of the maze that the spy is in</p>
 	 */
-	private KeyLockFourWayPoint[][] map;
+	private KeyLockGrid grid;
 	
 	/**
-	 * <p>Array that holds number of visits for each step</p>
+	 * <p>Array that holds number of visits for each step, indexed by grid cell</p>
 	 */
-	private int[][] visitCounter;
+	private int[] visitCounter;
 	
 	/**
 	 * <p>Property that holds the shortest way from start to actual position</p>
@@ -69,8 +69,8 @@ public class KeyLockNaiveController extends AbstractAgentController<KeyLockActio
     public void init(IEnvironment<KeyLockAction> environment, KeyLockMaze representation, AgentBody body, long stepDelay) {
         super.init(environment, representation, body, stepDelay);
         
-		this.map = this.representation.getMap();
-		this.visitCounter = new int[this.map.length][this.map[0].length];
+		this.grid = this.representation.getGrid();
+		this.visitCounter = new int[this.grid.getNumCells()];
 		this.way = new Stack<TupleInt>();
 		this.position = this.representation.getPosition();
 		this.previousStep = new TupleInt(this.position.x(), this.position.y());
@@ -91,7 +91,7 @@ public class KeyLockNaiveController extends AbstractAgentController<KeyLockActio
 		KeyLockFunctions.printDebugMsg("## Spy is thinking... ##");
 		
 		// Increase visit counter
-		visitCounter[position.x()][position.y()]++;
+		visitCounter[grid.getCellIndex(position.x(), position.y())]++;
 		
 		// Get next step direction
 		KeyLockDirection nextStepDirection = getNextStepDirection();
@@ -127,12 +127,14 @@ public class KeyLockNaiveController extends AbstractAgentController<KeyLockActio
 		// Prepare list of neighbours
 		List<TupleInt> neighbourCoords = new ArrayList<TupleInt>(4);
 		
+		int cell = grid.getCellIndex(position.x(), position.y());
+		
 		// For all directions... (<=> for all neighbours...)
 		for (int i = 0; i < directions.length; i++) {
 			KeyLockDirection direction = directions[i];
 			
 			// If there is no neighbour in that direction... check another one
-			if (map[position.x()][position.y()].isNeighbourSlotFree(direction)) {
+			if ( ! grid.hasPassage(cell, direction)) {
 				continue;
 			}
 			
@@ -143,11 +145,7 @@ public class KeyLockNaiveController extends AbstractAgentController<KeyLockActio
 					);
 			
 			// If coords are not valid on current map... (<= the neighbour is final step)
-			if (
-					! KeyLockFunctions.isBetweenOrEqual(neighbour.x(), 0, map.length - 1) 
-					||
-					! KeyLockFunctions.isBetweenOrEqual(neighbour.y(), 0, map[neighbour.x()].length - 1)
-				) {
+			if ( ! grid.isInside(neighbour.x(), neighbour.y())) {
 				
 				// If the agent can access the finish...
 				if (this.representation.canAccess(direction)) {
@@ -184,7 +182,7 @@ public class KeyLockNaiveController extends AbstractAgentController<KeyLockActio
 				// Get neighbour with index 'index'
 				TupleInt tmp = neighbourCoords.get(index);
 				// If the tmp neighbour was visited more times than the current one...
-				if (visitCounter[tmp.x()][tmp.y()] > visitCounter[neighbour.x()][neighbour.y()]) {
+				if (visitCounter[grid.getCellIndex(tmp.x(), tmp.y())] > visitCounter[grid.getCellIndex(neighbour.x(), neighbour.y())]) {
 					// Inser the current before tmp
 					neighbourCoords.add(index, neighbour);
 					break;
@@ -70,6 +70,8 @@ public class KeyLockOptions {
 	
 	/**
 	 * <p>Flag that means: "Should the program print debug messages to stdout?"</p>
+	 * <p>Enabled by default, may be disabled by setting system property <code>keylockmaze.debug</code> to false.
+	 * Debug messages are built only if the flag is set.</p>
 	 */
-	public static final boolean debug = true;
+	public static final boolean debug = Boolean.parseBoolean(System.getProperty("keylockmaze.debug", "true"));
 }
@@ -17,21 +17,55 @@
 package cz.cuni.amis.aiste.simulations.spyvsspy;
 
 import cz.cuni.amis.aiste.environment.AgentBody;
+import cz.cuni.amis.aiste.environment.IPlanCachingRepresentation;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.ISimulablePlanningRepresentation;
 import cz.cuni.amis.aiste.environment.impl.SequencePlan;
 import cz.cuni.amis.aiste.simulations.utils.RandomUtils;
 import cz.cuni.amis.planning4j.ActionDescription;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  *
  * @author Martin Cerny
  */
-public abstract class AbstractSpyVsSpyPlanningRepresentation<DOMAIN, PROBLEM, PLANNER_ACTION> extends AbstractSpyVsSpyRepresentation implements ISimulablePlanningRepresentation<DOMAIN, PROBLEM, PLANNER_ACTION, SpyVsSpyAction, SpyVsSpy, SpyVsSpyPlanningGoal> 
+public abstract class AbstractSpyVsSpyPlanningRepresentation<DOMAIN, PROBLEM, PLANNER_ACTION> extends AbstractSpyVsSpyRepresentation implements ISimulablePlanningRepresentation<DOMAIN, PROBLEM, PLANNER_ACTION, SpyVsSpyAction, SpyVsSpy, SpyVsSpyPlanningGoal>, IPlanCachingRepresentation<PROBLEM, SpyVsSpyPlanningGoal> 
 {
 
+    /**
+     * The snapshot the last problem for each body was created from.
+     */
+    private final Map<AgentBody, SpyVsSpyStateSnapshot> problemSnapshots = new ConcurrentHashMap<AgentBody, SpyVsSpyStateSnapshot>();
+
+    /**
+     * Gets the current state snapshot of the environment and remembers it as the source
+     * of the problem for given body. Problems should be created only from the returned snapshot.
+     * @param body
+     * @return 
+     */
+    protected SpyVsSpyStateSnapshot getSnapshotForProblem(AgentBody body){
+        SpyVsSpyStateSnapshot snapshot = environment.getStateSnapshot();
+        problemSnapshots.put(body, snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Gets the snapshot the last problem for given body was created from.
+     * @param body
+     * @return the snapshot, or current snapshot of the environment if no problem was created yet
+     */
+    SpyVsSpyStateSnapshot getLastProblemSnapshot(AgentBody body){
+        SpyVsSpyStateSnapshot snapshot = problemSnapshots.get(body);
+        if(snapshot == null){
+            snapshot = environment.getStateSnapshot();
+        }
+        return snapshot;
+    }
+
     @Override
     public void setMarker(AgentBody body) {
         environment.setMarker(body);
@@ -83,6 +117,28 @@ public abstract class AbstractSpyVsSpyPlanningRepresentation<DOMAIN, PROBLEM, PL
     }
     
     
+    /**
+     * The problems are fully determined by the goal and by the contents of the nodes and the agents' inventories,
+     * so the fingerprint is a string describing those. It is taken from the same snapshot the problem was created from.
+     */
+    @Override
+    public Object getProblemFingerprint(AgentBody body, SpyVsSpyPlanningGoal goal, PROBLEM problem) {
+        SpyVsSpyStateSnapshot snapshot = getLastProblemSnapshot(body);
+        StringBuilder fingerprint = new StringBuilder();
+        fingerprint.append(body.getId()).append(':').append(goal.getType()).append(':').append(goal.getParameter());
+        for(SpyVsSpyMapNode node : snapshot.nodes){
+            fingerprint.append('|').append(node.items).append(';').append(node.traps)
+                    .append(';').append(Arrays.toString(node.numTrapRemovers)).append(';').append(node.numWeapons);
+        }
+        for(SpyVsSpyBodyInfo bodyInfo : snapshot.bodyInfos){
+            fingerprint.append('#').append(bodyInfo.locationIndex).append(';').append(bodyInfo.itemsCarried)
+                    .append(';').append(Arrays.toString(bodyInfo.numTrapsCarried))
+                    .append(';').append(Arrays.toString(bodyInfo.numTrapRemoversCarried))
+                    .append(';').append(bodyInfo.numWeapons);
+        }
+        return fingerprint.toString();
+    }
+    
     @Override
     public IReactivePlan<? extends SpyVsSpyAction> translateActionForSimulation(SpyVsSpy environment, Queue<PLANNER_ACTION> actionsFromPlanner, AgentBody body) {
         //In this representation, action translation is not connected to particular environment instance
@@ -39,20 +39,15 @@ public abstract class AbstractSpyVsSpyRepresentation implements IActionFailureRe
 
     protected boolean agentUnableToReachGoal(AgentBody body) {
         SpyVsSpyBodyInfo info = environment.bodyInfos.get(body.getId());
+        //items I have or that are "laying" somewhere
+        long availableItems = info.itemsCarried;
+        for(SpyVsSpyMapNode node : environment.nodes){
+            availableItems |= node.items;
+        }
         for(int itemType = 0; itemType < environment.defs.numItemTypes; itemType++){
-            //If there is an item that I do not have and it is not "laying" somewhere, I am unable to reach the goal
-            if(!info.itemsCarried.contains(itemType)){
-                boolean itemFoundInEnvironment = false;
-                for(SpyVsSpyMapNode node : environment.nodes){
-                    if(node.items.contains(itemType)){
-                        //the item can be found
-                        itemFoundInEnvironment = true;
-                        break;
-                    }
-                }
-                if(!itemFoundInEnvironment){
-                    return true;
-                }
+            //If there is an item that is not available, I am unable to reach the goal
+            if(!SpyVsSpyBitSets.contains(availableItems, itemType)){
+                return true;
             }
         }
         return false;
@@ -105,7 +100,7 @@ public abstract class AbstractSpyVsSpyRepresentation implements IActionFailureRe
                 if (info.locationIndex != simulationEnv.defs.destination) {
                     return false;
                 }
-                if (info.itemsCarried.size() != simulationEnv.defs.numItemTypes) {
+                if (info.getNumItemsCarried() != simulationEnv.defs.numItemTypes) {
                     return false;
                 }
                 return true;
@@ -23,8 +23,6 @@ import JSHOP2.TermConstant;
 import JSHOP2.TermList;
 import JSHOP2.TermNumber;
 import cz.cuni.amis.aiste.environment.AgentBody;
-import cz.cuni.amis.pathfinding.alg.astar.AStar;
-import cz.cuni.amis.pathfinding.alg.astar.AStarResult;
 import cz.cuni.amis.pathfinding.map.IPFGoal;
 import cz.cuni.amis.utils.heap.IHeap;
 import java.util.HashMap;
@@ -40,7 +38,12 @@ import org.omg.CORBA.Environment;
 public class FindPathCalculate extends BodySpecificCalculate{
     private final Logger logger = Logger.getLogger(FindPathCalculate.class);
 
-    AStar<Integer> astar;
+    SpyVsSpyDistanceTable distanceTable;
+
+    /**
+     * Buffer for the paths found
+     */
+    int[] pathBuffer;
 
     Map<SearchRequest, TermList> cache;
     
@@ -48,7 +51,8 @@ public class FindPathCalculate extends BodySpecificCalculate{
     public FindPathCalculate(SpyVsSpyJShop2Representation representation, AgentBody body) {
         super(representation,body);
         cache = new HashMap<SearchRequest, TermList>();
-        astar =  new AStar<Integer>(representation.environment.defs.mapForPathFinding);
+        distanceTable = representation.environment.defs.getDistanceTable();
+        pathBuffer = new int[distanceTable.getNumNodes()];
     }
 
     
@@ -73,24 +77,23 @@ public class FindPathCalculate extends BodySpecificCalculate{
         if(logger.isDebugEnabled()){
             logger.debug(body.getId() + ": Searching for path from " + fromId + " to " + toId);
         }
-        AStarResult<Integer> result = astar.findPath(new SpyVsSpyAStarGoal(fromId, toId, representation.environment));
+        int pathLength = distanceTable.fillPath(fromId, toId, pathBuffer);
 
         TermList pathTerm;
-        if(!result.isSuccess()){
+        if(pathLength < 0){
             if(logger.isDebugEnabled()){
                 logger.debug(body.getId() + ": Path not found");
             }
             pathTerm = TermList.NIL;
         } else {
-            java.util.List<Integer> path = result.getPath();
             if(logger.isDebugEnabled()){
-                logger.debug(body.getId() + ": Found path with cost " + result.getCostToNode(toId));
+                logger.debug(body.getId() + ": Found path with cost " + distanceTable.getDistance(fromId, toId));
             }
             pathTerm = TermList.NIL;
             
             //Construct the list term
-            for(int i = path.size() - 1; i >= 1; i--){ //the first path element is ignored, as it is the agent's current location
-                pathTerm = new TermList(representation.jshops.get(body).getConstant(representation.locationIdToConstants[path.get(i)]), pathTerm);
+            for(int i = pathLength - 1; i >= 1; i--){ //the first path element is ignored, as it is the agent's current location
+                pathTerm = new TermList(representation.jshops.get(body).getConstant(representation.locationIdToConstants[pathBuffer[i]]), pathTerm);
             }
 
         }
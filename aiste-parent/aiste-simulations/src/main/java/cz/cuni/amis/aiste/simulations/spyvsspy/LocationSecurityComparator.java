@@ -21,8 +21,6 @@ import JSHOP2.Term;
 import JSHOP2.TermConstant;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Set;
 
 /**
  *
@@ -38,18 +36,18 @@ public class LocationSecurityComparator implements Comparator<Term> {
         this.body = body;
     }
 
-    protected int numHardTrapsAtLocation(SpyVsSpyMapNode node){
-        Set<Integer> traps = new HashSet<Integer>(node.traps);
-        int[] removersCarried = representation.environment.bodyInfos.get(body.getId()).numTrapRemoversCarried;
+    protected int numHardTrapsAtLocation(SpyVsSpyStateSnapshot snapshot, SpyVsSpyMapNode node){
+        long traps = node.traps;
+        int[] removersCarried = snapshot.bodyInfos.get(body.getId()).numTrapRemoversCarried;
         for(int trapType = 0; trapType < representation.environment.defs.numTrapTypes; trapType++){
-            if(traps.isEmpty()){
+            if(traps == 0){
                 return 0;
             }
             if(removersCarried[trapType] > 0){
-                traps.remove(trapType);
+                traps = SpyVsSpyBitSets.remove(traps, trapType);
             }
         }
-        return traps.size();
+        return SpyVsSpyBitSets.size(traps);
     }
     
     @Override
@@ -58,14 +56,16 @@ public class LocationSecurityComparator implements Comparator<Term> {
             //cannot compare terms that are not constants - I cannot map those to locations
             return 0;
         }
-        SpyVsSpyMapNode n1 = representation.environment.nodes.get(representation.constantsToLocationId.get(((TermConstant)o1).getIndex()));
-        SpyVsSpyMapNode n2 = representation.environment.nodes.get(representation.constantsToLocationId.get(((TermConstant)o2).getIndex()));
-        int hardTrapsDiff = numHardTrapsAtLocation(n1) - numHardTrapsAtLocation(n2);
+        //compare according to the state the problem was created from
+        SpyVsSpyStateSnapshot snapshot = representation.getLastProblemSnapshot(body);
+        SpyVsSpyMapNode n1 = snapshot.nodes.get(representation.constantsToLocationId.get(((TermConstant)o1).getIndex()));
+        SpyVsSpyMapNode n2 = snapshot.nodes.get(representation.constantsToLocationId.get(((TermConstant)o2).getIndex()));
+        int hardTrapsDiff = numHardTrapsAtLocation(snapshot, n1) - numHardTrapsAtLocation(snapshot, n2);
         if(hardTrapsDiff != 0){
             return hardTrapsDiff;
         }
         
-        return n1.traps.size() - n2.traps.size();
+        return SpyVsSpyBitSets.size(n1.traps) - SpyVsSpyBitSets.size(n2.traps);
     }
 
     
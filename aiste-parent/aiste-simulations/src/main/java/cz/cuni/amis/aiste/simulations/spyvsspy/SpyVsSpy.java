@@ -30,8 +30,6 @@ import cz.cuni.amis.aiste.environment.impl.AgentInstantiationDescriptor;
 import cz.cuni.amis.experiments.ILoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeaders;
 import cz.cuni.amis.experiments.impl.LoggingHeadersConcatenation;
-import cz.cuni.amis.pathfinding.alg.astar.AStar;
-import cz.cuni.amis.pathfinding.alg.astar.AStarResult;
 import cz.cuni.amis.pathfinding.map.IPFKnownMap;
 import cz.cuni.amis.pathfinding.map.IPFMap;
 import cz.cuni.amis.utils.collections.ListConcatenation;
@@ -70,6 +68,30 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
      */
     boolean isSimulation;
 
+    /**
+     * State published at the end of last step, read by the representations without locking.
+     * Simulation copies do not publish snapshots.
+     */
+    private volatile SpyVsSpyStateSnapshot stateSnapshot;
+    
+    /**
+     * Actions and bodies of the current step, indexed by body id. Reused by every step.
+     * Actions of killed agents are replaced by {@link SpyVsSpyAction#NO_OP_ACTION}.
+     */
+    private SpyVsSpyAction[] stepActions = new SpyVsSpyAction[0];
+    private AgentBody[] stepBodies = new AgentBody[0];
+    
+    /**
+     * Ids of bodies performing an action of given type in current step (in ascending order), indexed by the ordinal of action type.
+     */
+    private int[][] stepActionBuckets = new int[SpyVsSpyAction.ActionType.values().length][0];
+    private final int[] stepActionBucketSizes = new int[SpyVsSpyAction.ActionType.values().length];
+    
+    /**
+     * Rewards map returned from simulation steps. Reused, since the caller of simulateOneStep does not keep it.
+     */
+    private final Map<AgentBody, Double> simulationRewardsMap = new HashMap<AgentBody, Double>();
+
     /**
      * Create a shallow copy of the environment with the same defs
      * @param original 
@@ -134,6 +156,7 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
         markerData = new HashMap<AgentBody, ChangesSinceMarker>();
         agentsKilledThisRound = new HashSet<AgentBody>();
         
+        stateSnapshot = SpyVsSpyStateSnapshot.createFull(getTimeStep(), nodes, bodyInfos);
     }
     
     
@@ -148,17 +171,15 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
      * of its items, assigns a reward and clears its action for this round.
      *
      * @param killedAgent
-     * @param actionsToPerform
+     * @param reward
      */
-    protected void killAgent(AgentBody killedAgent, Map<AgentBody, SpyVsSpyAction> actionsToPerform, Map<AgentBody, Double> reward) {
+    protected void killAgent(AgentBody killedAgent, Map<AgentBody, Double> reward) {
         //drop all items
         SpyVsSpyBodyInfo killedAgentInfo = bodyInfos.get(killedAgent.getId());
 
         SpyVsSpyMapNode currentNode = nodes.get(killedAgentInfo.locationIndex);
-        for (int itemIndex : killedAgentInfo.itemsCarried) {
-            currentNode.items.add(itemIndex);
-        }
-        killedAgentInfo.itemsCarried.clear();
+        currentNode.items |= killedAgentInfo.itemsCarried;
+        killedAgentInfo.itemsCarried = 0;
         for (int trapRemoverIndex = 0; trapRemoverIndex < defs.numTrapTypes ; trapRemoverIndex++) {
             currentNode.numTrapRemovers[trapRemoverIndex] += killedAgentInfo.numTrapRemoversCarried[trapRemoverIndex];
             killedAgentInfo.numTrapRemoversCarried[trapRemoverIndex] = 0;
@@ -171,7 +192,7 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
 
         //set reward, clear action
         reward.put(killedAgent, defs.rewardDeath);
-        actionsToPerform.put(killedAgent, SpyVsSpyAction.NO_OP_ACTION);
+        stepActions[killedAgent.getId()] = SpyVsSpyAction.NO_OP_ACTION;
 
         //move to a random location
         int randomStartLocation = rand.nextInt(defs.startingLocations.size());
@@ -202,29 +223,77 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
      * trigger traps (item pickups). If a trap was set, the agent si killed
      *
      * @param agent
-     * @param actionsToPerform
      * @param reward
      * @return true, if the agent survived, false otherwise
      */
-    protected boolean checkTrapSet(AgentBody agent, Map<AgentBody, SpyVsSpyAction> actionsToPerform, Map<AgentBody, Double> reward) {
+    protected boolean checkTrapSet(AgentBody agent, Map<AgentBody, Double> reward) {
         SpyVsSpyBodyInfo agentInfo = bodyInfos.get(agent.getId());
         SpyVsSpyMapNode location = nodes.get(agentInfo.locationIndex);
-        if (!location.traps.isEmpty()) {
-            killAgent(agent, actionsToPerform, reward);
-            //remove a trap (due to hashing this is reasonably random)
-            location.traps.remove(location.traps.iterator().next());
+        if (location.hasAnyTrap()) {
+            killAgent(agent, reward);
+            //remove the trap with the lowest type
+            location.removeTrap(SpyVsSpyBitSets.first(location.traps));
             return false;
         } else {
             return true;
         }
     }
 
+    /**
+     * Copies the actions to step buffers and sorts them to buckets by action type. 
+     */
+    private void prepareStepActions(Map<AgentBody, SpyVsSpyAction> actionsToPerform, int numBodies){
+        if(stepActions.length != numBodies){
+            stepActions = new SpyVsSpyAction[numBodies];
+            stepBodies = new AgentBody[numBodies];
+            for(int type = 0; type < stepActionBuckets.length; type++){
+                stepActionBuckets[type] = new int[numBodies];
+            }
+        } else {
+            Arrays.fill(stepActions, null);
+            Arrays.fill(stepBodies, null);
+        }
+        Arrays.fill(stepActionBucketSizes, 0);
+        
+        for(Map.Entry<AgentBody, SpyVsSpyAction> actionEntry : actionsToPerform.entrySet()){
+            int agentId = actionEntry.getKey().getId();
+            stepActions[agentId] = actionEntry.getValue();
+            stepBodies[agentId] = actionEntry.getKey();
+        }
+        
+        //buckets are filled in the order of ids, so that random numbers are drawn in a deterministic order
+        for(int agentId = 0; agentId < numBodies; agentId++){
+            if(stepActions[agentId] != null){
+                int type = stepActions[agentId].getType().ordinal();
+                stepActionBuckets[type][stepActionBucketSizes[type]] = agentId;
+                stepActionBucketSizes[type]++;
+            }
+        }
+    }
+    
     @Override
     protected Map<AgentBody, Double> nextStepInternal(Map<AgentBody, SpyVsSpyAction> actionsToPerform) {
-        Map<AgentBody, Double> reward = new HashMap<AgentBody, Double>();
+        Map<AgentBody, Double> reward;
+        if(isSimulation){
+            //the caller of simulateOneStep does not keep the map
+            reward = simulationRewardsMap;
+            reward.clear();
+        } else {
+            reward = new HashMap<AgentBody, Double>();
+        }
 
-        //When an agent gets killed, I overwrite its actions, so I need a copy of the actions.
-        Map<AgentBody, SpyVsSpyAction> actionsToPerformCopy = new HashMap<AgentBody, SpyVsSpyAction>(actionsToPerform);        
+        //When an agent gets killed, I overwrite its action in stepActions, actionsToPerform is left intact.
+        int numBodies = bodyInfos.size();
+        prepareStepActions(actionsToPerform, numBodies);
+        
+        //nodes are changed only at the locations of the agents before they move
+        int[] locationsBeforeStep = null;
+        if(!isSimulation){
+            locationsBeforeStep = new int[bodyInfos.size()];
+            for(int i = 0; i < locationsBeforeStep.length; i++){
+                locationsBeforeStep[i] = bodyInfos.get(i).locationIndex;
+            }
+        }
         
 /*        if (logger.isDebugEnabled() && !isSimulation) {
             logger.debug("============ Map State: ================");
@@ -240,224 +309,260 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
         //evaluate attack actions
         //agents killed by attack are first gathered and then all killed instantly, to properly resolve mutual attacks
         agentsKilledThisRound.clear();
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.ATTACK_AGENT) {
-                if (bodyInfo.numWeapons <= 0 || action.getActionTarget() > getAllBodies().size()
-                        || bodyInfo.locationIndex != bodyInfos.get(action.getActionTarget()).locationIndex) {
-                    //I am attacking an invalid agent or agent at different location or I do not have weapons
-                    logger.info(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    agentFailedAction(agentBody);
-                    continue;
+        int[] attackAgentBucket = stepActionBuckets[SpyVsSpyAction.ActionType.ATTACK_AGENT.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.ATTACK_AGENT.ordinal()]; i++) {
+            int agentId = attackAgentBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.ATTACK_AGENT) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            if (bodyInfo.numWeapons <= 0 || action.getActionTarget() > getAllBodies().size()
+                    || bodyInfo.locationIndex != bodyInfos.get(action.getActionTarget()).locationIndex) {
+                //I am attacking an invalid agent or agent at different location or I do not have weapons
+                logger.info(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                agentFailedAction(agentBody);
+                continue;
+            }
+            bodyInfo.numWeapons--; //weapon is for one use only
+            if (rand.nextDouble() < defs.attackSuccessProbability) {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Succesful attack: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                 }
-                bodyInfo.numWeapons--; //weapon is for one use only
-                if (rand.nextDouble() < defs.attackSuccessProbability) {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Succesful attack: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    
-                    AgentBody targetBody = getAllBodies().get(action.getActionTarget());                    
-                    agentsKilledThisRound.add(targetBody);
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Unsuccesful attack: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
+                
+                AgentBody targetBody = getAllBodies().get(action.getActionTarget());                    
+                agentsKilledThisRound.add(targetBody);
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Unsuccesful attack: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                 }
+                agentFailedAction(agentBody);
             }
         }
         
         for(AgentBody bodyToKill : agentsKilledThisRound){
-            killAgent(bodyToKill, actionsToPerformCopy, reward);
+            killAgent(bodyToKill, reward);
         }
 
         //evaluate remove trap actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.REMOVE_TRAP) {
-                int targetTrap = action.getActionTarget();
-                SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
-                if (targetTrap < defs.numTrapTypes
-                        && bodyInfo.numTrapRemoversCarried[targetTrap] > 0
-                        && location.traps.contains(targetTrap)) {
-                    location.traps.remove(targetTrap);
-                    bodyInfo.numTrapRemoversCarried[targetTrap]--;
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
+        int[] removeTrapBucket = stepActionBuckets[SpyVsSpyAction.ActionType.REMOVE_TRAP.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.REMOVE_TRAP.ordinal()]; i++) {
+            int agentId = removeTrapBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.REMOVE_TRAP) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            int targetTrap = action.getActionTarget();
+            SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
+            if (targetTrap < defs.numTrapTypes
+                    && bodyInfo.numTrapRemoversCarried[targetTrap] > 0
+                    && location.hasTrap(targetTrap)) {
+                location.removeTrap(targetTrap);
+                bodyInfo.numTrapRemoversCarried[targetTrap]--;
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                 }
-
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+                agentFailedAction(agentBody);
             }
         }
 
         //evaluate set trap actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.SET_TRAP) {
-                int targetTrap = action.getActionTarget();
-                SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
-                if (targetTrap < defs.numTrapTypes
-                        && bodyInfo.numTrapsCarried[targetTrap] > 0) {
-                    location.traps.add(targetTrap);
-                    bodyInfo.numTrapsCarried[targetTrap]--;
+        int[] setTrapBucket = stepActionBuckets[SpyVsSpyAction.ActionType.SET_TRAP.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.SET_TRAP.ordinal()]; i++) {
+            int agentId = setTrapBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.SET_TRAP) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            int targetTrap = action.getActionTarget();
+            SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
+            if (targetTrap < defs.numTrapTypes
+                    && bodyInfo.numTrapsCarried[targetTrap] > 0) {
+                location.addTrap(targetTrap);
+                bodyInfo.numTrapsCarried[targetTrap]--;
+                
+                //update marker data
+                if(!isSimulation){
+                    for(ChangesSinceMarker changes : markerData.values()){
+                        changes.numTrapsSet++;
+                    }
+                }
+                
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+                agentFailedAction(agentBody);
+            }
+        }
+
+        //evaluate pickup trap remover actions
+        int[] pickupTrapRemoverBucket = stepActionBuckets[SpyVsSpyAction.ActionType.PICKUP_TRAP_REMOVER.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.PICKUP_TRAP_REMOVER.ordinal()]; i++) {
+            int agentId = pickupTrapRemoverBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.PICKUP_TRAP_REMOVER) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            int targetTrap = action.getActionTarget();
+            SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
+            if (targetTrap < defs.numTrapTypes && location.numTrapRemovers[targetTrap] > 0) {
+                if (checkTrapSet(agentBody, reward)) {
+                    bodyInfo.numTrapRemoversCarried[targetTrap]++;
+                    location.numTrapRemovers[targetTrap]--;
                     
                     //update marker data
                     if(!isSimulation){
                         for(ChangesSinceMarker changes : markerData.values()){
-                            changes.numTrapsSet++;
+                            changes.numRemoversTaken++;
                         }
                     }
                     
                     if (logger.isDebugEnabled() && !isSimulation) {
                         logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                     }
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
                 }
-
-            }
-        }
-
-        //evaluate pickup trap remover actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.PICKUP_TRAP_REMOVER) {
-                int targetTrap = action.getActionTarget();
-                SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
-                if (targetTrap < defs.numTrapTypes && location.numTrapRemovers[targetTrap] > 0) {
-                    if (checkTrapSet(agentBody, actionsToPerformCopy, reward)) {
-                        bodyInfo.numTrapRemoversCarried[targetTrap]++;
-                        location.numTrapRemovers[targetTrap]--;
-                        
-                        //update marker data
-                        if(!isSimulation){
-                            for(ChangesSinceMarker changes : markerData.values()){
-                                changes.numRemoversTaken++;
-                            }
-                        }
-                        
-                        if (logger.isDebugEnabled() && !isSimulation) {
-                            logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                        }
-                    }
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                 }
-
+                agentFailedAction(agentBody);
             }
         }
 
         //evaluate pickup item actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.PICKUP_ITEM) {
-                int targetItem = action.getActionTarget();
-                SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
-                if (targetItem < defs.numItemTypes
-                        && location.items.contains(targetItem)) {
-                    if (checkTrapSet(agentBody, actionsToPerformCopy, reward)) {
-                        bodyInfo.itemsCarried.add(targetItem);
-                        location.items.remove(targetItem);
-                        
-                        //update marker data
-                        if(!isSimulation){
-                            for(ChangesSinceMarker changes : markerData.values()){
-                                changes.numItemsTaken++;
-                            }
-                        }
-                        
-                        if (logger.isDebugEnabled() && !isSimulation) {
-                            logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+        int[] pickupItemBucket = stepActionBuckets[SpyVsSpyAction.ActionType.PICKUP_ITEM.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.PICKUP_ITEM.ordinal()]; i++) {
+            int agentId = pickupItemBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.PICKUP_ITEM) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            int targetItem = action.getActionTarget();
+            SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
+            if (targetItem < defs.numItemTypes
+                    && location.hasItem(targetItem)) {
+                if (checkTrapSet(agentBody, reward)) {
+                    bodyInfo.itemsCarried = SpyVsSpyBitSets.add(bodyInfo.itemsCarried, targetItem);
+                    location.removeItem(targetItem);
+                    
+                    //update marker data
+                    if(!isSimulation){
+                        for(ChangesSinceMarker changes : markerData.values()){
+                            changes.numItemsTaken++;
                         }
                     }
-                } else {
+                    
                     if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                        logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                     }
-                    agentFailedAction(agentBody);
                 }
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+                agentFailedAction(agentBody);
             }
         }
         
         //evaluate pickup weapon actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.PICKUP_WEAPON) {
-                SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
-                if (location.numWeapons > 0) {
-                    if (checkTrapSet(agentBody, actionsToPerformCopy, reward)) {
-                        bodyInfo.numWeapons++;
-                        location.numWeapons--;
-                        
-                        //update marker data
-                        if(!isSimulation){
-                            for(ChangesSinceMarker changes : markerData.values()){
-                                changes.numWeaponsTaken++;
-                            }
-                        }
-
-                        if (logger.isDebugEnabled() && !isSimulation) {
-                            logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                        }
-                    }
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
-                }
+        int[] pickupWeaponBucket = stepActionBuckets[SpyVsSpyAction.ActionType.PICKUP_WEAPON.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.PICKUP_WEAPON.ordinal()]; i++) {
+            int agentId = pickupWeaponBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.PICKUP_WEAPON) {
+                //the agent has been killed in this step
+                continue;
             }
-        }
-
-        //evaluate move actions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyAction action = actionsToPerformCopy.get(agentBody);
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (action.getType() == SpyVsSpyAction.ActionType.MOVE) {
-                if (defs.neighbours.get(bodyInfo.locationIndex).contains(action.getActionTarget())) {
-                    bodyInfo.locationIndex = action.getActionTarget();
-
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            SpyVsSpyMapNode location = nodes.get(bodyInfo.locationIndex);
+            if (location.numWeapons > 0) {
+                if (checkTrapSet(agentBody, reward)) {
+                    bodyInfo.numWeapons++;
+                    location.numWeapons--;
+                    
                     //update marker data
                     if(!isSimulation){
                         for(ChangesSinceMarker changes : markerData.values()){
-                            changes.numAgentMoves++;
+                            changes.numWeaponsTaken++;
                         }
                     }
-                    
+
                     if (logger.isDebugEnabled() && !isSimulation) {
                         logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
                     }
-                } else {
-                    if (logger.isDebugEnabled() && !isSimulation) {
-                        logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
-                    }
-                    agentFailedAction(agentBody);
                 }
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+                agentFailedAction(agentBody);
+            }
+        }
 
+        //evaluate move actions
+        int[] moveBucket = stepActionBuckets[SpyVsSpyAction.ActionType.MOVE.ordinal()];
+        for (int i = 0; i < stepActionBucketSizes[SpyVsSpyAction.ActionType.MOVE.ordinal()]; i++) {
+            int agentId = moveBucket[i];
+            SpyVsSpyAction action = stepActions[agentId];
+            if (action.getType() != SpyVsSpyAction.ActionType.MOVE) {
+                //the agent has been killed in this step
+                continue;
+            }
+            AgentBody agentBody = stepBodies[agentId];
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            if (defs.neighbours.get(bodyInfo.locationIndex).contains(action.getActionTarget())) {
+                bodyInfo.locationIndex = action.getActionTarget();
+
+                //update marker data
+                if(!isSimulation){
+                    for(ChangesSinceMarker changes : markerData.values()){
+                        changes.numAgentMoves++;
+                    }
+                }
+                
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Succesful action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+            } else {
+                if (logger.isDebugEnabled() && !isSimulation) {
+                    logger.debug(agentBody.getId() + ": Invalid action: " + action.getLoggableRepresentation() + " from: " + bodyInfo);
+                }
+                agentFailedAction(agentBody);
             }
         }
 
         //check for goal conditions
-        for (AgentBody agentBody : actionsToPerformCopy.keySet()) {
-            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentBody.getId());
-            if (bodyInfo.locationIndex == defs.destination && bodyInfo.itemsCarried.size() == defs.numItemTypes) {
+        for (int agentId = 0; agentId < numBodies; agentId++) {
+            AgentBody agentBody = stepBodies[agentId];
+            if (agentBody == null) {
+                //no action this step
+                continue;
+            }
+            SpyVsSpyBodyInfo bodyInfo = bodyInfos.get(agentId);
+            if (bodyInfo.locationIndex == defs.destination && bodyInfo.getNumItemsCarried() == defs.numItemTypes) {
                 //agent has reached the destination with all neccessary items, let's finish this
                 reward.put(agentBody, defs.rewardReachGoal);
                 this.setFinished(true);
@@ -476,9 +581,48 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
                 reward.put(body, defs.rewardNothing);
             }
         }
+        
+        if(!isSimulation){
+            publishStateSnapshot(locationsBeforeStep);
+        }
         return reward;
     }
 
+    /**
+     * Publishes a snapshot of current state, copying only the nodes that might have changed in this step.
+     * @param locationsBeforeStep 
+     */
+    protected void publishStateSnapshot(int[] locationsBeforeStep){
+        SpyVsSpyStateSnapshot previousSnapshot = stateSnapshot;
+        if(previousSnapshot == null || previousSnapshot.bodyInfos.size() != locationsBeforeStep.length){
+            stateSnapshot = SpyVsSpyStateSnapshot.createFull(getTimeStep(), nodes, bodyInfos);
+            return;
+        }
+        int[] changedNodes = new int[locationsBeforeStep.length * 2];
+        for(int i = 0; i < locationsBeforeStep.length; i++){
+            changedNodes[2 * i] = locationsBeforeStep[i];
+            //killed agents are respawned elsewhere
+            changedNodes[2 * i + 1] = bodyInfos.get(i).locationIndex;
+        }
+        stateSnapshot = SpyVsSpyStateSnapshot.createIncremental(previousSnapshot, getTimeStep(), nodes, bodyInfos, changedNodes);
+    }
+
+    /**
+     * Gets the state of the environment after the last step. The snapshot is consistent
+     * and may be read without synchronizing on the environment.
+     * @return 
+     */
+    public SpyVsSpyStateSnapshot getStateSnapshot(){
+        SpyVsSpyStateSnapshot snapshot = stateSnapshot;
+        if(snapshot == null){
+            //simulation copies do not publish snapshots, take one on demand
+            synchronized(this){
+                snapshot = SpyVsSpyStateSnapshot.createFull(getTimeStep(), nodes, bodyInfos);
+            }
+        }
+        return snapshot;
+    }
+
     @Override
     protected AgentBody createAgentBodyInternal(IAgentType type) {
         if (type != SpyVsSpyAgentType.getInstance()) {
@@ -492,6 +636,9 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
         AgentBody body = new AgentBody(nextAgentIndex, type);
         SpyVsSpyBodyInfo bodyInfo = new SpyVsSpyBodyInfo(body, startingLocation, defs.numTrapTypes, defs.trapCounts);
         bodyInfos.add(bodyInfo);
+        if(!isSimulation){
+            stateSnapshot = SpyVsSpyStateSnapshot.createFull(getTimeStep(), nodes, bodyInfos);
+        }
         return body;
     }
 
@@ -616,6 +763,11 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
         Map<Integer, List<Integer>> neighbours;
         
         IPFKnownMap<Integer> mapForPathFinding;
+        
+        /**
+         * Distances between all pairs of nodes, computed on first use
+         */
+        private volatile SpyVsSpyDistanceTable distanceTable;
 
         /**
         * "Original" for all the map nodes - every time the environment is reused,
@@ -625,6 +777,9 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
 
         
         public StaticDefs(int maxPlayers, int numTrapTypes, int[] trapCounts, int numItemTypes, double rewardDeath, double rewardReachGoal, double rewardNothing, double attackSuccessProbability, int destination, List<Integer> startingLocations, List<SpyVsSpyMapNode> nodesInStartingPosition, Map<Integer, List<Integer>> neighbours) {
+            //traps and items are stored as bitmasks
+            SpyVsSpyBitSets.checkNumTypes(numTrapTypes, "trap types");
+            SpyVsSpyBitSets.checkNumTypes(numItemTypes, "item types");
             this.maxPlayers = maxPlayers;
             this.numTrapTypes = numTrapTypes;
             this.trapCounts = trapCounts;
@@ -665,6 +820,25 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
             };
             
         }
+        
+        /**
+         * Gets the distance table for the map. The table is computed on first call 
+         * and then shared by all copies of the environment.
+         * @return 
+         */
+        SpyVsSpyDistanceTable getDistanceTable(){
+            SpyVsSpyDistanceTable table = distanceTable;
+            if(table == null){
+                synchronized(this){
+                    table = distanceTable;
+                    if(table == null){
+                        table = new SpyVsSpyDistanceTable(nodesInStartingPosition.size(), neighbours, Runtime.getRuntime().availableProcessors());
+                        distanceTable = table;
+                    }
+                }
+            }
+            return table;
+        }
     }
     
     public abstract static class AbstractPathFindingPlan extends AbstractReactivePlan<SpyVsSpyAction> {
@@ -672,10 +846,12 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
         
         private int lastPathFindingTarget;
         private boolean lastPathFindingSuccess = false;
-        private List<Integer> foundPath;
+        /**
+         * The path found, including the start location
+         */
+        private int[] foundPath;
+        private int foundPathLength;
         private int foundPathIndex;
-        
-        private AStar<Integer> astar;
 
         final SpyVsSpy env;
         
@@ -687,10 +863,6 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
 
         protected abstract int getTargetLocationId();
         
-        protected AStar<Integer> createAStar(){
-            return new AStar<Integer>(env.defs.mapForPathFinding);            
-        }
-        
         @Override
         protected void updateStepForNextAction() {
             foundPathIndex++;
@@ -702,10 +874,10 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
             if(!lastPathFindingSuccess){
                 throw new IllegalStateException(agentId + ": Path finding was not succesful, no actions available");
             }
-            if(foundPathIndex >= foundPath.size()){
+            if(foundPathIndex >= foundPathLength){
                 throw new IllegalStateException(agentId + ": There are no more path elements available");
             }
-            return new SpyVsSpyAction(SpyVsSpyAction.ActionType.MOVE, foundPath.get(foundPathIndex));
+            return new SpyVsSpyAction(SpyVsSpyAction.ActionType.MOVE, foundPath[foundPathIndex]);
         }
 
         @Override
@@ -719,9 +891,9 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
                 return ReactivePlanStatus.FAILED;
             } 
             /*  The check does not work very well...
-            else if(foundPath.get(foundPathIndex - 1) != currentLocationIndex && foundPathIndex >= 2 && foundPath.get(foundPathIndex - 2) != currentLocationIndex){                
+            else if(foundPath[foundPathIndex - 1] != currentLocationIndex && foundPathIndex >= 2 && foundPath[foundPathIndex - 2] != currentLocationIndex){                
                 //I do not know, whether last action I sent was acutally performed or not, so I rather check both variants and report failure only if both of them are wrong
-                env.logger.info(agentId + ": Path following failed - location not properly updated. Expected: " + foundPath.get(foundPathIndex - 1) + " or " +  foundPath.get(foundPathIndex - 2) + " got: " + currentLocationIndex);
+                env.logger.info(agentId + ": Path following failed - location not properly updated. Expected: " + foundPath[foundPathIndex - 1] + " or " +  foundPath[foundPathIndex - 2] + " got: " + currentLocationIndex);
                  return ReactivePlanStatus.FAILED;
             }*/
             else {
@@ -731,18 +903,13 @@ public class SpyVsSpy extends AbstractSynchronizedEnvironment<SpyVsSpyAction>
 
         protected void refreshPathIfNeccessary() {
             int newPathFindingTarget = getTargetLocationId();
-            if(newPathFindingTarget != lastPathFindingTarget || foundPath == null){
-                if(astar == null){
-                    astar =  createAStar();
-                }
-                AStarResult<Integer> result = astar.findPath(new SpyVsSpyAStarGoal(env.bodyInfos.get(agentId).locationIndex, newPathFindingTarget, env));
-                if(result.isSuccess()){
-                    lastPathFindingSuccess = true;
-                    foundPath = result.getPath();
-                } else {
-                    lastPathFindingSuccess = false;
-                    foundPath = null;
+            if(newPathFindingTarget != lastPathFindingTarget || !lastPathFindingSuccess){
+                SpyVsSpyDistanceTable distanceTable = env.defs.getDistanceTable();
+                if(foundPath == null){
+                    foundPath = new int[distanceTable.getNumNodes()];
                 }
+                foundPathLength = distanceTable.fillPath(env.bodyInfos.get(agentId).locationIndex, newPathFindingTarget, foundPath);
+                lastPathFindingSuccess = foundPathLength >= 0;
                 //the first element is always the agent's current location, so we skip it
                 foundPathIndex = 1;
                 lastPathFindingTarget = newPathFindingTarget;
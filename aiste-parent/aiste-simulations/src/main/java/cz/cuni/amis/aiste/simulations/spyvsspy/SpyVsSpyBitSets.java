@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.spyvsspy;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Helpers for sets of trap and item types stored as a long bitmask - bit i is set, if type i is in the set.
+ * Iterating over a set is done as
+ * <pre>
+ * for(long rest = set; rest != 0; rest &amp;= rest - 1){
+ *     int type = Long.numberOfTrailingZeros(rest);
+ * }
+ * </pre>
+ * which visits the types in ascending order.
+ * @author Martin Cerny
+ */
+public final class SpyVsSpyBitSets {
+
+    /**
+     * Maximal number of types that may be stored in a set
+     */
+    public static final int MAX_TYPES = 64;
+
+    private SpyVsSpyBitSets() {
+    }
+
+    public static boolean contains(long set, int type){
+        return type >= 0 && type < MAX_TYPES && (set & (1L << type)) != 0;
+    }
+
+    public static long add(long set, int type){
+        return set | (1L << type);
+    }
+
+    public static long remove(long set, int type){
+        return set & ~(1L << type);
+    }
+
+    public static int size(long set){
+        return Long.bitCount(set);
+    }
+
+    /**
+     * The smallest type in the set
+     * @return the type or -1 for an empty set
+     */
+    public static int first(long set){
+        if(set == 0){
+            return -1;
+        }
+        return Long.numberOfTrailingZeros(set);
+    }
+
+    public static long fromCollection(Collection<Integer> types){
+        long set = 0;
+        for(int type : types){
+            if(type < 0 || type >= MAX_TYPES){
+                throw new IllegalArgumentException("Type out of range: " + type);
+            }
+            set = add(set, type);
+        }
+        return set;
+    }
+
+    public static Set<Integer> toSet(long set){
+        Set<Integer> result = new TreeSet<Integer>();
+        for(long rest = set; rest != 0; rest &= rest - 1){
+            result.add(Long.numberOfTrailingZeros(rest));
+        }
+        return result;
+    }
+
+    public static String toString(long set){
+        return toSet(set).toString();
+    }
+
+    /**
+     * Checks that the given number of types fits into a set.
+     */
+    public static void checkNumTypes(int numTypes, String description){
+        if(numTypes > MAX_TYPES){
+            throw new AisteException("At most " + MAX_TYPES + " " + description + " are supported, got " + numTypes);
+        }
+    }
+}
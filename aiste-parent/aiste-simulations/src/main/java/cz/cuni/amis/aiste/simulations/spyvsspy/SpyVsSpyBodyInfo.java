@@ -19,9 +19,7 @@ package cz.cuni.amis.aiste.simulations.spyvsspy;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /**
  * A class that describes an agent body in SpyVsSpy.
@@ -37,7 +35,10 @@ public class SpyVsSpyBodyInfo  {
     
     int[] numTrapsCarried;
     
-    Set<Integer> itemsCarried;
+    /**
+     * Bitmask of carried item types (see {@link SpyVsSpyBitSets})
+     */
+    long itemsCarried;
     
     int[] numTrapRemoversCarried;
     
@@ -48,7 +49,7 @@ public class SpyVsSpyBodyInfo  {
         this.locationIndex = original.locationIndex;
         this.numTrapsCarried = Arrays.copyOf(original.numTrapsCarried, original.numTrapsCarried.length);
         this.numTrapRemoversCarried = Arrays.copyOf(original.numTrapRemoversCarried, original.numTrapRemoversCarried.length);
-        this.itemsCarried = new HashSet<Integer>(original.itemsCarried);        
+        this.itemsCarried = original.itemsCarried;
         this.numWeapons = original.numWeapons;
     }
     
@@ -59,14 +60,22 @@ public class SpyVsSpyBodyInfo  {
         locationIndex = initialLocation;
         this.numTrapsCarried = Arrays.copyOf(numTrapsCarried, numTrapsCarried.length);
         numTrapRemoversCarried = new int[numTraps];
-        itemsCarried = new HashSet<Integer>();
+        itemsCarried = 0;
         numWeapons = 0;
     }
 
+    boolean isCarryingItem(int itemType) {
+        return SpyVsSpyBitSets.contains(itemsCarried, itemType);
+    }
+
+    int getNumItemsCarried() {
+        return SpyVsSpyBitSets.size(itemsCarried);
+    }
+
     @Override
     public String toString() {
         
-        return "SpyVsSpyBodyInfo id: " + body.getId() + ", locationIndex: " + locationIndex + ", numTrapsCarried: " + Arrays.toString(numTrapsCarried) + ", itemsCarried: " + itemsCarried + ", numTrapRemoversCarried: " + Arrays.toString(numTrapRemoversCarried) + ", numWeapons:" + numWeapons;
+        return "SpyVsSpyBodyInfo id: " + body.getId() + ", locationIndex: " + locationIndex + ", numTrapsCarried: " + Arrays.toString(numTrapsCarried) + ", itemsCarried: " + SpyVsSpyBitSets.toString(itemsCarried) + ", numTrapRemoversCarried: " + Arrays.toString(numTrapRemoversCarried) + ", numWeapons:" + numWeapons;
     }
 
     
@@ -59,7 +59,7 @@ public class SpyVsSpyControllerHelper {
         
         //rule 3: weapons are useful, if there is an unguarded weapon, lets pick it up
         SpyVsSpyMapNode node = environment.nodes.get(info.locationIndex);
-        if(node.numWeapons > 0 && node.traps.isEmpty()){
+        if(node.numWeapons > 0 && !node.hasAnyTrap()){
             return new SpyVsSpyAction(SpyVsSpyAction.ActionType.PICKUP_WEAPON, -1);            
         }
         
@@ -0,0 +1,214 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.spyvsspy;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Shortest path distances and next hops between all pairs of nodes of a SpyVsSpy map.
+ * All arcs have cost 1, so the table is computed by a breadth-first search from every node,
+ * searches from different nodes run in parallel.
+ * <p>
+ * The table is immutable once built and shared by all representations and plans of an environment.
+ * </p>
+ * @author Martin Cerny
+ */
+public class SpyVsSpyDistanceTable {
+
+    /**
+     * Distance returned for unreachable nodes, same as FloydWarshall uses.
+     */
+    public static final int UNREACHABLE = Integer.MAX_VALUE;
+
+    private final int numNodes;
+
+    /**
+     * Neighbours of individual nodes, indexed by node index.
+     */
+    private final int[][] neighbours;
+
+    /**
+     * Distance from node i to node j at index i * numNodes + j.
+     */
+    private final int[] distances;
+
+    /**
+     * First node on the shortest path from node i to node j at index i * numNodes + j.
+     * -1 if j is not reachable from i or if i == j.
+     */
+    private final int[] nextHops;
+
+    /**
+     * Computes the table.
+     * @param numNodes number of nodes, nodes are indexed 0 to numNodes - 1
+     * @param neighbours neighbour lists of the nodes
+     * @param numThreads number of threads to use
+     */
+    public SpyVsSpyDistanceTable(int numNodes, Map<Integer, List<Integer>> neighbours, int numThreads) {
+        this.numNodes = numNodes;
+        this.neighbours = new int[numNodes][];
+        for(int node = 0; node < numNodes; node++){
+            List<Integer> nodeNeighbours = neighbours.get(node);
+            if(nodeNeighbours == null){
+                this.neighbours[node] = new int[0];
+            } else {
+                this.neighbours[node] = new int[nodeNeighbours.size()];
+                for(int i = 0; i < nodeNeighbours.size(); i++){
+                    this.neighbours[node][i] = nodeNeighbours.get(i);
+                }
+            }
+        }
+        distances = new int[numNodes * numNodes];
+        nextHops = new int[numNodes * numNodes];
+        build(numThreads);
+    }
+
+    private void build(int numThreads){
+        if(numThreads <= 1 || numNodes < numThreads){
+            searchFromNodes(0, 1);
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>(numThreads);
+            for(int i = 0; i < numThreads; i++){
+                final int firstSource = i;
+                final int sourceStep = numThreads;
+                futures.add(executor.submit(new Callable<Object>() {
+
+                    @Override
+                    public Object call() throws Exception {
+                        searchFromNodes(firstSource, sourceStep);
+                        return null;
+                    }
+                }));
+            }
+            for(Future<?> future : futures){
+                future.get();
+            }
+        } catch (InterruptedException ex){
+            throw new AisteException("Interrupted while computing distances", ex);
+        } catch (ExecutionException ex){
+            throw new AisteException("Error computing distances", ex.getCause());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void searchFromNodes(int firstSource, int sourceStep){
+        int[] queue = new int[numNodes];
+        for(int source = firstSource; source < numNodes; source += sourceStep){
+            searchFromNode(source, queue);
+        }
+    }
+
+    /**
+     * Breadth-first search that fills the row of the source node. The next hop of every node
+     * is inherited from the node it was discovered from.
+     */
+    private void searchFromNode(int source, int[] queue){
+        int rowStart = source * numNodes;
+        for(int target = 0; target < numNodes; target++){
+            distances[rowStart + target] = UNREACHABLE;
+            nextHops[rowStart + target] = -1;
+        }
+        distances[rowStart + source] = 0;
+        int queueHead = 0;
+        int queueTail = 0;
+        queue[queueTail++] = source;
+        while(queueHead < queueTail){
+            int node = queue[queueHead++];
+            int nextDistance = distances[rowStart + node] + 1;
+            for(int neighbour : neighbours[node]){
+                if(distances[rowStart + neighbour] != UNREACHABLE){
+                    continue;
+                }
+                distances[rowStart + neighbour] = nextDistance;
+                if(node == source){
+                    nextHops[rowStart + neighbour] = neighbour;
+                } else {
+                    nextHops[rowStart + neighbour] = nextHops[rowStart + node];
+                }
+                queue[queueTail++] = neighbour;
+            }
+        }
+    }
+
+    public int getNumNodes() {
+        return numNodes;
+    }
+
+    /**
+     * Length of the shortest path between the nodes.
+     * @return the distance or {@link #UNREACHABLE}
+     */
+    public int getDistance(int from, int to){
+        return distances[from * numNodes + to];
+    }
+
+    public boolean isReachable(int from, int to){
+        return distances[from * numNodes + to] != UNREACHABLE;
+    }
+
+    /**
+     * The node to move to from node from in order to reach node to.
+     * @return the next node or -1 if from == to or to is not reachable
+     */
+    public int getNextHop(int from, int to){
+        return nextHops[from * numNodes + to];
+    }
+
+    /**
+     * Writes the shortest path to given buffer. The path starts with the from node and ends with the to node.
+     * @param buffer the buffer, must have at least {@link #getDistance(int, int) } + 1 elements
+     * @return number of nodes written or -1 if the target is not reachable
+     */
+    public int fillPath(int from, int to, int[] buffer){
+        if(!isReachable(from, to)){
+            return -1;
+        }
+        int length = 0;
+        int node = from;
+        buffer[length++] = node;
+        while(node != to){
+            node = getNextHop(node, to);
+            buffer[length++] = node;
+        }
+        return length;
+    }
+
+    /**
+     * Gets the shortest path, starting with the from node and ending with the to node.
+     * @return the path or null, if the target is not reachable
+     */
+    public int[] getPath(int from, int to){
+        if(!isReachable(from, to)){
+            return null;
+        }
+        int[] path = new int[getDistance(from, to) + 1];
+        fillPath(from, to, path);
+        return path;
+    }
+}
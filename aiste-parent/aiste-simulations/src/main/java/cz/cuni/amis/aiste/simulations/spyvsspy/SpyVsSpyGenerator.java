@@ -19,6 +19,9 @@ package cz.cuni.amis.aiste.simulations.spyvsspy;
 import cz.cuni.amis.aiste.AisteException;
 import cz.cuni.amis.aiste.IRandomizable;
 import cz.cuni.amis.aiste.environment.AgentBody;
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusEntry;
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusReader;
+import cz.cuni.amis.aiste.simulations.utils.LevelCorpusWriter;
 import cz.cuni.amis.aiste.simulations.utils.RandomUtils;
 import cz.cuni.amis.planning4j.ActionDescription;
 import cz.cuni.amis.planning4j.IPlanner;
@@ -27,14 +30,31 @@ import cz.cuni.amis.planning4j.PlanningException;
 import cz.cuni.amis.planning4j.pddl.PDDLDomain;
 import cz.cuni.amis.planning4j.pddl.PDDLProblem;
 import cz.cuni.amis.planning4j.utils.Planning4JUtils;
+import java.io.File;
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import org.apache.log4j.Logger;
 import umontreal.iro.lecuyer.probdist.BinomialDist;
 import umontreal.iro.lecuyer.probdist.DiscreteDistributionInt;
 import umontreal.iro.lecuyer.probdist.NegativeBinomialDist;
 
 /**
- *
+ * Generates random SpyVsSpy levels. If a planner is given, every candidate level is tested
+ * to be solvable for all players and unsolvable candidates are discarded.
+ * <p>
+ * Candidates are generated from seeds derived from the seed of the generator, so the
+ * result is reproducible. Players of a candidate are checked concurrently and several
+ * candidates may be tested speculatively in parallel, the first solvable candidate
+ * (in the order of the derived seeds) is returned. To test in parallel, the generator needs a planner factory,
+ * every testing thread gets its own planner. If a single planner instance is given,
+ * the candidates are tested in one thread, unless {@link #setNumThreads(int) } is called.
+ * </p>
  * @author Martin Cerny
  */
 public class SpyVsSpyGenerator implements IRandomizable{
@@ -55,7 +75,10 @@ public class SpyVsSpyGenerator implements IRandomizable{
 
     private double itemTrappedProbability;
 
-    private IPlanner plannerToTestDomain;
+    /**
+     * Creates planners for testing threads, null if levels are not tested.
+     */
+    private Callable<? extends IPlanner> plannerFactory;
     /**
      * Maximum number of random generator trials, before giving up, if all
      * created levels are unsolvable
@@ -64,251 +87,536 @@ public class SpyVsSpyGenerator implements IRandomizable{
 
     private Random rand;
     
-    public SpyVsSpyGenerator(int maxPlayers, int numNodes, double meanNodeDegree, int numItemTypes, int numTrapTypes, double itemTrappedProbability, int numWeapons, IPlanner plannerToTestDomain) {
+    /**
+     * Number of threads used to test candidate levels.
+     */
+    private int numThreads;
+    
+    /**
+     * Number of candidate levels tested at the same time, if not positive, it is derived from the number of threads.
+     */
+    private int numParallelCandidates = 0;
+    
+    /**
+     * Seed of the candidate returned by last call to {@link #generateEnvironment() }
+     */
+    private long lastCandidateSeed;
+    
+    /**
+     * Creates a generator that tests levels with a single planner in one thread.
+     * @param plannerToTestDomain the planner, if null, levels are not tested
+     */
+    public SpyVsSpyGenerator(int maxPlayers, int numNodes, double meanNodeDegree, int numItemTypes, int numTrapTypes, double itemTrappedProbability, int numWeapons, final IPlanner plannerToTestDomain) {
+        this(maxPlayers, numNodes, meanNodeDegree, numItemTypes, numTrapTypes, itemTrappedProbability, numWeapons, singlePlannerFactory(plannerToTestDomain));
+        //the planner is not known to support concurrent calls
+        numThreads = 1;
+    }
+
+    /**
+     * Creates a generator that tests levels in parallel.
+     * @param plannerFactory creates a planner for each testing thread, if null, levels are not tested
+     */
+    public SpyVsSpyGenerator(int maxPlayers, int numNodes, double meanNodeDegree, int numItemTypes, int numTrapTypes, double itemTrappedProbability, int numWeapons, Callable<? extends IPlanner> plannerFactory) {
         this.maxPlayers = maxPlayers;
         this.numNodes = numNodes;
         this.meanNodeDegree = meanNodeDegree;
         this.numItemTypes = numItemTypes;
         this.numTrapTypes = numTrapTypes;
         this.itemTrappedProbability = itemTrappedProbability;
-        this.plannerToTestDomain = plannerToTestDomain;
+        this.plannerFactory = plannerFactory;
         this.numWeapons = numWeapons;
         rand = new Random();
+        numThreads = Runtime.getRuntime().availableProcessors();
+    }
+
+    private static Callable<IPlanner> singlePlannerFactory(final IPlanner planner){
+        if(planner == null){
+            return null;
+        }
+        return new Callable<IPlanner>() {
+
+            @Override
+            public IPlanner call() {
+                return planner;
+            }
+
+            @Override
+            public String toString() {
+                return planner.toString();
+            }
+        };
     }
 
     @Override
     public void setRandomSeed(long seed) {
         rand = new Random(seed);
     }
-    
-    
+
+    public int getNumThreads() {
+        return numThreads;
+    }
+
+    public void setNumThreads(int numThreads) {
+        this.numThreads = numThreads;
+    }
+
+    /**
+     * Number of candidate levels tested at the same time. Unless set explicitly, enough candidates
+     * to keep all threads busy.
+     */
+    public int getNumParallelCandidates() {
+        if(numParallelCandidates > 0){
+            return numParallelCandidates;
+        }
+        return Math.max(1, numThreads / maxPlayers);
+    }
+
+    /**
+     * Sets the number of candidate levels tested at the same time, non-positive value restores the default.
+     */
+    public void setNumParallelCandidates(int numParallelCandidates) {
+        this.numParallelCandidates = numParallelCandidates;
+    }
+
+    /**
+     * The seed of the last environment returned by {@link #generateEnvironment() }. 
+     * The same environment is created by {@link #generateCandidate(long) } with this seed.
+     * @return 
+     */
+    public long getLastCandidateSeed() {
+        return lastCandidateSeed;
+    }
 
     public SpyVsSpyEnvironmentDefinition generateEnvironment() {
+        //seeds are drawn in advance, so that the result does not depend on the order in which the candidates are tested
+        long[] candidateSeeds = new long[MAX_GENERATOR_ROUNDS];
+        for(int trial = 0; trial < MAX_GENERATOR_ROUNDS; trial++){
+            candidateSeeds[trial] = rand.nextLong();
+        }
 
-        generateCycle: for (int trial = 0; trial < MAX_GENERATOR_ROUNDS; trial++) {
+        if(plannerFactory == null){
+            SpyVsSpyEnvironmentDefinition envDef = generateCandidate(candidateSeeds[0]);
+            lastCandidateSeed = candidateSeeds[0];
+            logMap(envDef);
+            return envDef;
+        }
 
-            //create nodes on a grid
-            final List<SpyVsSpyMapNode> nodes = new ArrayList<SpyVsSpyMapNode>();
-            Map<Integer, List<Integer>> neighbours = new HashMap<Integer, List<Integer>>();
-            
-            int gridSize = (int) (Math.sqrt(numNodes) + 1 );
-            
-            SpyVsSpyMapNode nodesOnGrid[][] = new SpyVsSpyMapNode[gridSize][gridSize];
-            
+        logger.info("Testing domain with planner: " + plannerFactory);
+        int maxCandidatesInProgress = getNumParallelCandidates();
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        final ThreadLocal<IPlanner> planners = new ThreadLocal<IPlanner>(){
+
+            @Override
+            protected IPlanner initialValue() {
+                try {
+                    return plannerFactory.call();
+                } catch (Exception ex){
+                    throw new AisteException("Could not create planner to test domain", ex);
+                }
+            }
             
-            for(int i = 0; i < numNodes; i++){
-                int emptySquares = (gridSize * gridSize) - i;
-                int nextSquare = rand.nextInt(emptySquares);
-                int squareNo = 0;
-                
-                searchForEmptyCycle:
-                for(int x = 0; x < gridSize; x++){
-                    for(int y = 0; y < gridSize; y++){
-                        if(nodesOnGrid[x][y] == null){
-                            if(squareNo == nextSquare){
-                                SpyVsSpyMapNode newNode = new SpyVsSpyMapNode(i, numTrapTypes, x, y);
-                                nodesOnGrid[x][y] = newNode;
-                                nodes.add(newNode);
-                                break searchForEmptyCycle;
-                            }
-                            squareNo++;
-                        }
+        };
+        LinkedList<CandidateCheck> candidatesInProgress = new LinkedList<CandidateCheck>();
+        try {
+            int nextTrial = 0;
+            while(nextTrial < MAX_GENERATOR_ROUNDS && candidatesInProgress.size() < maxCandidatesInProgress){
+                candidatesInProgress.add(new CandidateCheck(nextTrial, candidateSeeds[nextTrial], executor, planners));
+                nextTrial++;
+            }
+
+            while(!candidatesInProgress.isEmpty()){
+                CandidateCheck candidate = candidatesInProgress.removeFirst();
+                if(candidate.waitForResult()){
+                    for(CandidateCheck otherCandidate : candidatesInProgress){
+                        otherCandidate.cancel();
                     }
+                    logger.info("Domain succesfully tested");
+                    lastCandidateSeed = candidate.seed;
+                    logMap(candidate.envDef);
+                    return candidate.envDef;
                 }
+                logger.info("Candidate " + candidate.trial + " is not solvable for all players, generating new one.");
+                if(nextTrial < MAX_GENERATOR_ROUNDS){
+                    candidatesInProgress.add(new CandidateCheck(nextTrial, candidateSeeds[nextTrial], executor, planners));
+                    nextTrial++;
+                }
+            }
+        } catch (InterruptedException ex){
+            throw new AisteException("Interrupted while testing domain", ex);
+        } catch (ExecutionException ex){
+            throw new AisteException("Error testing domain", ex.getCause());
+        } finally {
+            //interrupt checks of speculative candidates that are still running
+            for(CandidateCheck candidate : candidatesInProgress){
+                candidate.cancel();
             }
+            executor.shutdownNow();
+        }
+        
+        throw new AisteException("After " + MAX_GENERATOR_ROUNDS + " trials, no environment created that would be solvable from all starting positions. Bad parameters?");
+    }
+    
+    /**
+     * Generates a level without testing it.
+     * @param candidateSeed seed for the random generator used to create the level
+     * @return 
+     */
+    public SpyVsSpyEnvironmentDefinition generateCandidate(long candidateSeed) {
+        Random rand = new Random(candidateSeed);
+        
+        //create nodes on a grid
+        final List<SpyVsSpyMapNode> nodes = new ArrayList<SpyVsSpyMapNode>();
+        Map<Integer, List<Integer>> neighbours = new HashMap<Integer, List<Integer>>();
+        
+        int gridSize = (int) (Math.sqrt(numNodes) + 1 );
+        
+        SpyVsSpyMapNode nodesOnGrid[][] = new SpyVsSpyMapNode[gridSize][gridSize];
+        
+        
+        for(int i = 0; i < numNodes; i++){
+            int emptySquares = (gridSize * gridSize) - i;
+            int nextSquare = rand.nextInt(emptySquares);
+            int squareNo = 0;
             
-            //generate neighbours
+            searchForEmptyCycle:
             for(int x = 0; x < gridSize; x++){
                 for(int y = 0; y < gridSize; y++){
-                    if(nodesOnGrid[x][y] != null){
-                        SpyVsSpyMapNode currentNode = nodesOnGrid[x][y];
-                        List<Integer> nodeNeighbours = new ArrayList<Integer>();
-                        for(int distance = 1; distance < 3; distance++){
-                            boolean foundNeighbour = false;
-                            if(x - distance >= 0 && nodesOnGrid[x - distance][y] != null){
-                                nodeNeighbours.add(nodesOnGrid[x - distance][y].index);
-                                foundNeighbour = true;
-                            }
-                            if(x + distance < gridSize && nodesOnGrid[x + distance][y] != null){
-                                nodeNeighbours.add(nodesOnGrid[x + distance][y].index);
-                                foundNeighbour = true;
-                            }
-                            if(y - distance >= 0 && nodesOnGrid[x][y  - distance] != null){
-                                nodeNeighbours.add(nodesOnGrid[x][y - distance].index);
-                                foundNeighbour = true;
-                            }
-                            if(y + distance < gridSize && nodesOnGrid[x][y  + distance] != null){
-                                nodeNeighbours.add(nodesOnGrid[x][y + distance].index);
-                                foundNeighbour = true;
-                            }
-                            if(foundNeighbour){
-                                break;
-                            }
+                    if(nodesOnGrid[x][y] == null){
+                        if(squareNo == nextSquare){
+                            SpyVsSpyMapNode newNode = new SpyVsSpyMapNode(i, numTrapTypes, x, y);
+                            nodesOnGrid[x][y] = newNode;
+                            nodes.add(newNode);
+                            break searchForEmptyCycle;
                         }
-                        neighbours.put(currentNode.index, nodeNeighbours);
+                        squareNo++;
                     }
                 }
             }
-            
-            /*
-             * Graph generating withou position is obsolete. 
-            SeedableRandomGraphGenerator<SpyVsSpyMapNode, Object> graphGenerator = new SeedableRandomGraphGenerator<SpyVsSpyMapNode, Object>(numNodes, (int) ((numNodes * meanNodeDegree) / 2));
-            UndirectedGraph<SpyVsSpyMapNode, Object> nodeGraph = new SimpleGraph<SpyVsSpyMapNode, Object>(new EdgeFactory<SpyVsSpyMapNode, Object>() {
-
-                @Override
-                public Object createEdge(SpyVsSpyMapNode v, SpyVsSpyMapNode v1) {
-                    return new Object();
+        }
+        
+        //generate neighbours
+        for(int x = 0; x < gridSize; x++){
+            for(int y = 0; y < gridSize; y++){
+                if(nodesOnGrid[x][y] != null){
+                    SpyVsSpyMapNode currentNode = nodesOnGrid[x][y];
+                    List<Integer> nodeNeighbours = new ArrayList<Integer>();
+                    for(int distance = 1; distance < 3; distance++){
+                        boolean foundNeighbour = false;
+                        if(x - distance >= 0 && nodesOnGrid[x - distance][y] != null){
+                            nodeNeighbours.add(nodesOnGrid[x - distance][y].index);
+                            foundNeighbour = true;
+                        }
+                        if(x + distance < gridSize && nodesOnGrid[x + distance][y] != null){
+                            nodeNeighbours.add(nodesOnGrid[x + distance][y].index);
+                            foundNeighbour = true;
+                        }
+                        if(y - distance >= 0 && nodesOnGrid[x][y  - distance] != null){
+                            nodeNeighbours.add(nodesOnGrid[x][y - distance].index);
+                            foundNeighbour = true;
+                        }
+                        if(y + distance < gridSize && nodesOnGrid[x][y  + distance] != null){
+                            nodeNeighbours.add(nodesOnGrid[x][y + distance].index);
+                            foundNeighbour = true;
+                        }
+                        if(foundNeighbour){
+                            break;
+                        }
+                    }
+                    neighbours.put(currentNode.index, nodeNeighbours);
                 }
-            });
+            }
+        }
+        
+        /*
+         * Graph generating withou position is obsolete. 
+        SeedableRandomGraphGenerator<SpyVsSpyMapNode, Object> graphGenerator = new SeedableRandomGraphGenerator<SpyVsSpyMapNode, Object>(numNodes, (int) ((numNodes * meanNodeDegree) / 2));
+        UndirectedGraph<SpyVsSpyMapNode, Object> nodeGraph = new SimpleGraph<SpyVsSpyMapNode, Object>(new EdgeFactory<SpyVsSpyMapNode, Object>() {
+
+            @Override
+            public Object createEdge(SpyVsSpyMapNode v, SpyVsSpyMapNode v1) {
+                return new Object();
+            }
+        });
 
-            final List<SpyVsSpyMapNode> nodes = new ArrayList<SpyVsSpyMapNode>();
+        final List<SpyVsSpyMapNode> nodes = new ArrayList<SpyVsSpyMapNode>();
 
-            graphGenerator.setRandomSeed(rand.nextLong());            
-            graphGenerator.generateGraph(nodeGraph, new VertexFactory<SpyVsSpyMapNode>() {
+        graphGenerator.setRandomSeed(rand.nextLong());            
+        graphGenerator.generateGraph(nodeGraph, new VertexFactory<SpyVsSpyMapNode>() {
 
-                @Override
-                public SpyVsSpyMapNode createVertex() {
-                    SpyVsSpyMapNode newNode = new SpyVsSpyMapNode(nodes.size(), numTrapTypes);
-                    nodes.add(newNode);
-                    return newNode;
-                }
-            }, null);
+            @Override
+            public SpyVsSpyMapNode createVertex() {
+                SpyVsSpyMapNode newNode = new SpyVsSpyMapNode(nodes.size(), numTrapTypes);
+                nodes.add(newNode);
+                return newNode;
+            }
+        }, null);
 
-            Map<Integer, List<Integer>> neighbours = new HashMap<Integer, List<Integer>>();
-            for (int i = 0; i < numNodes; i++) {
-                List<Integer> nodeneighbours = new ArrayList<Integer>();
-                for (Object e : nodeGraph.edgesOf(nodes.get(i))) {
-                    nodeneighbours.add(nodeGraph.getEdgeTarget(e).getIndex());
-                }
-                neighbours.put(i, nodeneighbours);
+        Map<Integer, List<Integer>> neighbours = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < numNodes; i++) {
+            List<Integer> nodeneighbours = new ArrayList<Integer>();
+            for (Object e : nodeGraph.edgesOf(nodes.get(i))) {
+                nodeneighbours.add(nodeGraph.getEdgeTarget(e).getIndex());
             }
-            */            
+            neighbours.put(i, nodeneighbours);
+        }
+        */            
 
-            List<Integer> startingLocations = new ArrayList<Integer>(RandomUtils.randomSampleOfIntegerRange(0, numNodes, maxPlayers, rand));
+        List<Integer> startingLocations = new ArrayList<Integer>(RandomUtils.randomSampleOfIntegerRange(0, numNodes, maxPlayers, rand));
 
 
-            int[] trapsCarriedCounts = new int[numTrapTypes];
-            double trapsCarriedP = ((double) (numNodes * numTrapTypes)) / ((double)(numNodes * numTrapTypes) + 10); //the value of p is chosen se that mean number of traps is numNodes / numTrapTypes * 5
-            DiscreteDistributionInt trapCountDistribution = new NegativeBinomialDist(2, trapsCarriedP);
-            for (int i = 0; i < numTrapTypes; i++) {
-                trapsCarriedCounts[i] = trapCountDistribution.inverseFInt(rand.nextDouble());
-            }
+        int[] trapsCarriedCounts = new int[numTrapTypes];
+        double trapsCarriedP = ((double) (numNodes * numTrapTypes)) / ((double)(numNodes * numTrapTypes) + 10); //the value of p is chosen se that mean number of traps is numNodes / numTrapTypes * 5
+        DiscreteDistributionInt trapCountDistribution = new NegativeBinomialDist(2, trapsCarriedP);
+        for (int i = 0; i < numTrapTypes; i++) {
+            trapsCarriedCounts[i] = trapCountDistribution.inverseFInt(rand.nextDouble());
+        }
 
-            int maxTrapsInTheMap[] = new int[numTrapTypes];
-            for (int i = 0; i < numTrapTypes; i++) {
-                maxTrapsInTheMap[i] = trapsCarriedCounts[i] * maxPlayers;
-            }
-            //Generate items
+        int maxTrapsInTheMap[] = new int[numTrapTypes];
+        for (int i = 0; i < numTrapTypes; i++) {
+            maxTrapsInTheMap[i] = trapsCarriedCounts[i] * maxPlayers;
+        }
+        //Generate items
 
-            /**
-             * the value of p is chosen so that mean number of items is maxPlayers / 2  
-             * given r = 2 and desired mean x, we get p = x / (2 - x)
-             * our desired mean is (max_players / 2) - 0.5 , so we get:
-             */
-            double itemP = ((double) maxPlayers - 1) / (double)(maxPlayers + 3); 
-            DiscreteDistributionInt itemCountDistribution = new NegativeBinomialDist(2, itemP);
+        /**
+         * the value of p is chosen so that mean number of items is maxPlayers / 2  
+         * given r = 2 and desired mean x, we get p = x / (2 - x)
+         * our desired mean is (max_players / 2) - 0.5 , so we get:
+         */
+        double itemP = ((double) maxPlayers - 1) / (double)(maxPlayers + 3); 
+        DiscreteDistributionInt itemCountDistribution = new NegativeBinomialDist(2, itemP);
 
 
-            for (int itemType = 0; itemType < numItemTypes; itemType++) {
-                int numItemInstances = Math.min(itemCountDistribution.inverseFInt(rand.nextDouble()) , numNodes);
-                if(numItemInstances == 0){
-                    numItemInstances = 1; //without a single instance of the item, the map is not solvable
-                }
-                for (SpyVsSpyMapNode nodeWithItem : RandomUtils.randomSample(nodes, numItemInstances, rand)) {
-
-                    nodeWithItem.getItems().add(itemType);
-                    if (rand.nextDouble() < itemTrappedProbability) {
-                        int trapType = rand.nextInt(numTrapTypes);
-                        if (!nodeWithItem.getTraps().contains(trapType)) {
-                            maxTrapsInTheMap[trapType]++;
-                            nodeWithItem.getTraps().add(trapType);
-                        }
+        for (int itemType = 0; itemType < numItemTypes; itemType++) {
+            int numItemInstances = Math.min(itemCountDistribution.inverseFInt(rand.nextDouble()) , numNodes);
+            if(numItemInstances == 0){
+                numItemInstances = 1; //without a single instance of the item, the map is not solvable
+            }
+            for (SpyVsSpyMapNode nodeWithItem : sampleNodes(nodes, numItemInstances, rand)) {
+
+                nodeWithItem.addItem(itemType);
+                if (rand.nextDouble() < itemTrappedProbability) {
+                    int trapType = rand.nextInt(numTrapTypes);
+                    if (!nodeWithItem.hasTrap(trapType)) {
+                        maxTrapsInTheMap[trapType]++;
+                        nodeWithItem.addTrap(trapType);
                     }
                 }
             }
+        }
 
-            //Generate trap removers
-            for (int trapRemoverType = 0; trapRemoverType < numTrapTypes; trapRemoverType++) {
-                //the parameters are chosen se that mean number of removers is the 0.9 * (maximum number of traps of that type)
-                double expectedMean = maxTrapsInTheMap[trapRemoverType] * 0.9;
-                double removerP = 0.8;
-                DiscreteDistributionInt removerCountDistribution = new BinomialDist((int) Math.floor(expectedMean / removerP) + 1, removerP);
+        //Generate trap removers
+        for (int trapRemoverType = 0; trapRemoverType < numTrapTypes; trapRemoverType++) {
+            //the parameters are chosen se that mean number of removers is the 0.9 * (maximum number of traps of that type)
+            double expectedMean = maxTrapsInTheMap[trapRemoverType] * 0.9;
+            double removerP = 0.8;
+            DiscreteDistributionInt removerCountDistribution = new BinomialDist((int) Math.floor(expectedMean / removerP) + 1, removerP);
 
-                int numRemoverInstances = Math.min(removerCountDistribution.inverseFInt(rand.nextDouble()), numNodes);
-                for (SpyVsSpyMapNode nodeWithItem : RandomUtils.randomSample(nodes, numRemoverInstances, rand)) {
-                    nodeWithItem.getNumTrapRemovers()[trapRemoverType]++;
-                }
+            int numRemoverInstances = Math.min(removerCountDistribution.inverseFInt(rand.nextDouble()), numNodes);
+            for (SpyVsSpyMapNode nodeWithItem : sampleNodes(nodes, numRemoverInstances, rand)) {
+                nodeWithItem.getNumTrapRemovers()[trapRemoverType]++;
             }
-            
-            //Generate weapons
-            List<Integer> weaponLocations = new ArrayList<Integer>(RandomUtils.randomSampleOfIntegerRange(0, numNodes, numWeapons, rand));
-            for(int weaponLocation : weaponLocations){
-                nodes.get(weaponLocation).numWeapons = 1;
-            }
-            
+        }
+        
+        //Generate weapons
+        List<Integer> weaponLocations = new ArrayList<Integer>(RandomUtils.randomSampleOfIntegerRange(0, numNodes, numWeapons, rand));
+        for(int weaponLocation : weaponLocations){
+            nodes.get(weaponLocation).numWeapons = 1;
+        }
+        
+
 
+        int destination = rand.nextInt(numNodes);
 
-            int destination = rand.nextInt(numNodes);
+        return new SpyVsSpyEnvironmentDefinition(nodes, maxPlayers, startingLocations, neighbours, numTrapTypes, trapsCarriedCounts, numItemTypes, destination);
+    }
+    
+    /**
+     * Random sample of nodes, ordered by node index. Random numbers drawn while iterating over
+     * the sample thus do not depend on hash codes of the nodes and the level depends only on the seed.
+     */
+    private List<SpyVsSpyMapNode> sampleNodes(List<SpyVsSpyMapNode> nodes, int sampleSize, Random rand){
+        List<SpyVsSpyMapNode> sample = new ArrayList<SpyVsSpyMapNode>(RandomUtils.randomSample(nodes, sampleSize, rand));
+        Collections.sort(sample, new Comparator<SpyVsSpyMapNode>() {
 
+            @Override
+            public int compare(SpyVsSpyMapNode o1, SpyVsSpyMapNode o2) {
+                return o1.index - o2.index;
+            }
+        });
+        return sample;
+    }
+    
+    /**
+     * Generates a batch of levels and writes them to a corpus, together with their seeds.
+     * Levels are marked solvable, if they were tested with a planner, and not tested otherwise.
+     * The corpus is read with {@link #openCorpus(java.io.File) }.
+     * @param numLevels number of levels to generate
+     * @param writer the corpus to write to, it is not closed by this method
+     * @return number of levels actually written, levels for which no solvable candidate was found are skipped
+     * @throws IOException 
+     */
+    public int generateCorpus(int numLevels, LevelCorpusWriter<SpyVsSpyEnvironmentDefinition> writer) throws IOException {
+        LevelCorpusEntry.Solvability solvability = (plannerFactory == null) ? LevelCorpusEntry.Solvability.NOT_TESTED : LevelCorpusEntry.Solvability.SOLVABLE;
+        int numWritten = 0;
+        for(int i = 0; i < numLevels; i++){
+            SpyVsSpyEnvironmentDefinition envDef;
+            try {
+                envDef = generateEnvironment();
+            } catch (AisteException ex){
+                logger.warn("Level " + i + " of the corpus could not be generated: " + ex.getMessage());
+                continue;
+            }
+            writer.write(lastCandidateSeed, solvability, envDef);
+            numWritten++;
+        }
+        return numWritten;
+    }
+    
+    /**
+     * Opens a corpus of SpyVsSpy levels for lazy reading.
+     * @param corpusFile
+     * @return
+     * @throws IOException 
+     */
+    public static LevelCorpusReader<SpyVsSpyEnvironmentDefinition> openCorpus(File corpusFile) throws IOException {
+        return new LevelCorpusReader<SpyVsSpyEnvironmentDefinition>(corpusFile, SpyVsSpyLevelCodec.getInstance());
+    }
+    
+    private void logMap(SpyVsSpyEnvironmentDefinition envDef){
+        if(logger.isDebugEnabled()){
+            logger.debug("====== Map ==========");
+            for(int i = 0; i < envDef.nodes.size(); i++){
+                StringBuilder nodeInfo = new StringBuilder();
+                nodeInfo.append("Node ").append(i).append(" -> ");
+                for(int nodeIndex : envDef.neighbours.get(i)){
+                    nodeInfo.append(nodeIndex).append(" ");
+                }
+                logger.debug(nodeInfo.toString());
+            }
+            logger.debug("Destination: " + envDef.destination);
+            logger.debug("====== Map end ======");
+        }
+    }
+    
+    /**
+     * Test of a single candidate level. Players are checked concurrently, as soon as one
+     * of the checks fails, the remaining checks are cancelled.
+     */
+    private class CandidateCheck {
+        final int trial;
+        
+        final long seed;
+        
+        final SpyVsSpyEnvironmentDefinition envDef;
+        
+        private final List<Future<Boolean>> playerChecks = new ArrayList<Future<Boolean>>();
+        
+        private volatile boolean failed = false;
+        
+        /**
+         * Set when the checks are cancelled, because the result is no longer needed or other check failed.
+         * Errors of interrupted checks are not reported then.
+         */
+        private volatile boolean cancelled = false;
+        
+        private final ThreadLocal<IPlanner> planners;
+
+        /**
+         * Generates the candidate and submits checks for all players to the executor.
+         * @param planners planners of the testing threads
+         */
+        CandidateCheck(int trial, long seed, ExecutorService executor, ThreadLocal<IPlanner> planners) {
+            this.trial = trial;
+            this.seed = seed;
+            this.planners = planners;
+            envDef = generateCandidate(seed);
+            
             /**
-             * I create one instance to test (I will need to create a body and mess with it) and another identical to return, if the test is succesful
+             * The level is tested on a separate instance (I will need to create a body and mess with it),
+             * the problems are created here, only planning runs on the executor.
              */
-            SpyVsSpyEnvironmentDefinition envDef = new SpyVsSpyEnvironmentDefinition(nodes, maxPlayers, startingLocations, neighbours, numTrapTypes, trapsCarriedCounts, numItemTypes, destination);
             SpyVsSpy spyVsSpyToTest = new SpyVsSpy(envDef, 0/*For testing I can ignore weapons*/);
-            
-            
-            if(plannerToTestDomain != null){
-                logger.info("Testing domain with planner: " + plannerToTestDomain);
-                spyVsSpyToTest.init();
-                SpyVsSpyPDDLRepresentation representation = new SpyVsSpyPDDLRepresentation(spyVsSpyToTest);
-                //test for all possible bodies
-                for(int player = 0; player < maxPlayers; player++){
-                    spyVsSpyToTest.createAgentBody(SpyVsSpyAgentType.getInstance());
-                }
-                
+            spyVsSpyToTest.init();
+            SpyVsSpyPDDLRepresentation representation = new SpyVsSpyPDDLRepresentation(spyVsSpyToTest);
+            //test for all possible bodies
+            for(int player = 0; player < maxPlayers; player++){
+                spyVsSpyToTest.createAgentBody(SpyVsSpyAgentType.getInstance());
+            }
+
+            synchronized(this){
                 for(AgentBody body : spyVsSpyToTest.getActiveBodies()){
-                    PDDLDomain domain = representation.getDomain(body);
-                    PDDLProblem problem = representation.getProblem(body, new SpyVsSpyPlanningGoal(SpyVsSpyPlanningGoal.Type.DIRECT_WIN, 0));
-                    try {
-                        IPlanningResult testResult = Planning4JUtils.plan(plannerToTestDomain, domain, problem);
-                        if(!testResult.isSuccess()){
-                            logger.info("Domain could not be solved for player " + body.getId() + ", generating new one.");
-                            continue generateCycle;
-                        } else {
-                            logger.info("Domain solvable for player " + body.getId() + " in " + testResult.getPlan().size() + " actions.");
-                            if(logger.isDebugEnabled()){
-                                StringBuilder solvingPlan = new StringBuilder();
-                                for(ActionDescription ad: testResult.getPlan()){
-                                    solvingPlan.append(ad.toString()).append(" ");
-                                }
-                                logger.debug("Plan to solve: " + solvingPlan.toString());
-                            }
+                    final int bodyId = body.getId();
+                    final PDDLDomain domain = representation.getDomain(body);
+                    final PDDLProblem problem = representation.getProblem(body, new SpyVsSpyPlanningGoal(SpyVsSpyPlanningGoal.Type.DIRECT_WIN, 0));
+                    playerChecks.add(executor.submit(new Callable<Boolean>() {
+
+                        @Override
+                        public Boolean call() throws Exception {
+                            return checkPlayer(bodyId, domain, problem);
                         }
-                    } catch (PlanningException ex){
-                        logger.error("Error checking domain for player " + body.getId() + ", generating new one.", ex);
-                        continue generateCycle;
-                    }
+                    }));
                 }
-                logger.info("Domain succesfully tested");
             }
-            
-            if(logger.isDebugEnabled()){
-                logger.debug("====== Map ==========");
-                for(int i = 0; i < nodes.size(); i++){
-                    StringBuilder nodeInfo = new StringBuilder();
-                    nodeInfo.append("Node ").append(i).append(" -> ");
-                    for(int nodeIndex : neighbours.get(i)){
-                        nodeInfo.append(nodeIndex).append(" ");
+        }
+        
+        private boolean checkPlayer(int bodyId, PDDLDomain domain, PDDLProblem problem){
+            if(failed || cancelled){
+                return false;
+            }
+            try {
+                IPlanningResult testResult = Planning4JUtils.plan(planners.get(), domain, problem);
+                if(!testResult.isSuccess()){
+                    logger.info("Candidate " + trial + ": Domain could not be solved for player " + bodyId + ".");
+                    fail();
+                    return false;
+                } else {
+                    logger.info("Candidate " + trial + ": Domain solvable for player " + bodyId + " in " + testResult.getPlan().size() + " actions.");
+                    if(logger.isDebugEnabled()){
+                        StringBuilder solvingPlan = new StringBuilder();
+                        for(ActionDescription ad: testResult.getPlan()){
+                            solvingPlan.append(ad.toString()).append(" ");
+                        }
+                        logger.debug("Plan to solve: " + solvingPlan.toString());
                     }
-                    logger.debug(nodeInfo.toString());
+                    return true;
+                }
+            } catch (PlanningException ex){
+                if(!failed && !cancelled){
+                    logger.error("Candidate " + trial + ": Error checking domain for player " + bodyId + ".", ex);
                 }
-                logger.debug("Destination: " + destination);
-                logger.debug("====== Map end ======");
+                fail();
+                return false;
             }
-            
-            return envDef;
         }
         
-        throw new AisteException("After " + MAX_GENERATOR_ROUNDS + " trials, no environment created that would be solvable from all starting positions. Bad parameters?");
+        private void fail(){
+            failed = true;
+            cancel();
+        }
+        
+        synchronized void cancel(){
+            cancelled = true;
+            for(Future<Boolean> check : playerChecks){
+                check.cancel(true);
+            }
+        }
+
+        /**
+         * Waits until all players are checked or one of the checks fails.
+         * @return true if the candidate is solvable for all players
+         */
+        boolean waitForResult() throws InterruptedException, ExecutionException {
+            for(Future<Boolean> check : playerChecks){
+                try {
+                    if(!check.get()){
+                        return false;
+                    }
+                } catch (CancellationException ex){
+                    //the check was cancelled, because check of other player failed
+                    return false;
+                }
+            }
+            return true;
+        }
     }
 }
@@ -69,7 +69,11 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
      */
     Set<Integer> ignoredActionsId;
     
-    Map<AgentBody, java.util.List<Predicate> > staticDomainInfos = new HashMap<AgentBody, java.util.List<Predicate>>();
+    /**
+     * Facts that do not change throughout the simulation. Created once for each body's domain
+     * and shared by all problems for the body.
+     */
+    Map<AgentBody, Predicate[]> staticDomainInfos = new HashMap<AgentBody, Predicate[]>();
     
     
     public SpyVsSpyJShop2Representation(SpyVsSpy environment) {
@@ -127,7 +131,8 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
                     nextConstantIndex++;
                 }
             }
-            for(int trapType : mapNode.traps){
+            for(long traps = mapNode.traps; traps != 0; traps &= traps - 1){
+                int trapType = Long.numberOfTrailingZeros(traps);
                 trapToConstants.get(trapType).add(nextConstantIndex);
                 constantsToTrapType.put(nextConstantIndex, trapType);
                 additionalConstantNames[nextConstantIndex - problemConstantOffset] = "trap_"  + trapType + "_" + trapToConstants.get(trapType).size();
@@ -228,7 +233,9 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
             staticDomainInfo.add(new Predicate(SpyVsSpyJSHOP2.CONST_WEAPON, 0 , createTermList(jshop, weaponConstantId)));
         }
         
-        staticDomainInfos.put(body, staticDomainInfo);
+        staticDomainInfo.add(new Predicate(SpyVsSpyJSHOP2.CONST_USE_DIRECT_MOVES, 0, TermList.NIL));
+        
+        staticDomainInfos.put(body, staticDomainInfo.toArray(new Predicate[staticDomainInfo.size()]));
         
         return jshop;
     }
@@ -262,7 +269,7 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
             throw new IllegalStateException("Getting problem before getting domain");
         }
         
-        java.util.List<Predicate> staticDomainInfo = staticDomainInfos.get(body);
+        Predicate[] staticDomainInfo = staticDomainInfos.get(body);
             
         
         State initialState = new State(jshop.getDomain().getAxioms().length, jshop.getDomain().getAxioms());
@@ -270,62 +277,67 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
             initialState.add(p);
         }
         
-        synchronized(environment){ //synchronized not to get concurrent modification from env. updates. environment is deliberately not final
-        
-            SpyVsSpyBodyInfo info = environment.bodyInfos.get(body.getId());
+        /**
+         * Dynamic facts are read from the state snapshot, so the environment does not need to be locked
+         */
+        SpyVsSpyStateSnapshot snapshot = getSnapshotForProblem(body);
+        DynamicFacts dynamicFacts = new DynamicFacts();
+        SpyVsSpyBodyInfo info = snapshot.bodyInfos.get(body.getId());
 
-            initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_PLAYER_AT, 0, createTermList(jshop, locationIdToConstants[info.locationIndex])));
+        dynamicFacts.add(SpyVsSpyJSHOP2.CONST_PLAYER_AT, locationIdToConstants[info.locationIndex]);
 
-            /**
-             * Objects in the environment
-             */
-            int[] nextTrapIndices = new int[environment.defs.numTrapTypes];
-            int[] nextRemoverIndices = new int[environment.defs.numTrapTypes];
-            int nextWeaponIndex = 0;
-            for (SpyVsSpyMapNode mapNode : environment.nodes) {
-                for (int trapType = 0; trapType < environment.defs.numTrapTypes; trapType++) {
-                    for (int remover = 0; remover < mapNode.numTrapRemovers[trapType]; remover++) { 
-                        initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_OBJECT_AT, 0, createTermList(jshop, trapRemoversToConstants.get(trapType).get(nextRemoverIndices[trapType]), locationIdToConstants[mapNode.index])));
-                        nextRemoverIndices[trapType]++;
-                    }
-                }
-                for (int trapType : mapNode.traps) { 
-                    initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_TRAP_SET, 0, createTermList(jshop, trapToConstants.get(trapType).get(nextTrapIndices[trapType]), locationIdToConstants[mapNode.index])));
-                    nextTrapIndices[trapType]++;
-                }
-                for (int itemType : mapNode.items){
-                    initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_OBJECT_AT, 0, createTermList(jshop, itemIdToConstants[itemType], locationIdToConstants[mapNode.index])));
-                }
-                for(int weaponId = 0; weaponId < mapNode.numWeapons; weaponId++){
-                    initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_OBJECT_AT, 0, createTermList(jshop, weaponConstants.get(nextWeaponIndex), locationIdToConstants[mapNode.index])));                
-                    nextWeaponIndex++;
+        /**
+         * Objects in the environment
+         */
+        int[] nextTrapIndices = new int[environment.defs.numTrapTypes];
+        int[] nextRemoverIndices = new int[environment.defs.numTrapTypes];
+        int nextWeaponIndex = 0;
+        for (SpyVsSpyMapNode mapNode : snapshot.nodes) {
+            int locationConstant = locationIdToConstants[mapNode.index];
+            for (int trapType = 0; trapType < environment.defs.numTrapTypes; trapType++) {
+                for (int remover = 0; remover < mapNode.numTrapRemovers[trapType]; remover++) { 
+                    dynamicFacts.add(SpyVsSpyJSHOP2.CONST_OBJECT_AT, trapRemoversToConstants.get(trapType).get(nextRemoverIndices[trapType]), locationConstant);
+                    nextRemoverIndices[trapType]++;
                 }
             }
-
-            /**
-             * Objects carried by the player
-             */
-            for(int itemType : info.itemsCarried){ 
-                initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_CARRYING, 0, createTermList(jshop, itemIdToConstants[itemType])));
+            for (long traps = mapNode.traps; traps != 0; traps &= traps - 1) { 
+                int trapType = Long.numberOfTrailingZeros(traps);
+                dynamicFacts.add(SpyVsSpyJSHOP2.CONST_TRAP_SET, trapToConstants.get(trapType).get(nextTrapIndices[trapType]), locationConstant);
+                nextTrapIndices[trapType]++;
             }
-            for(int trapType = 0 ; trapType < environment.defs.numTrapTypes; trapType++){
-                for(int remover = 0; remover < info.numTrapRemoversCarried[trapType]; remover++){                
-                    initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_CARRYING, 0, createTermList(jshop, trapRemoversToConstants.get(trapType).get(nextRemoverIndices[trapType]))));
-                    nextRemoverIndices[trapType]++;
-                }
-                for(int trap = 0; trap < info.numTrapsCarried[trapType]; trap++){                
-                    initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_CARRYING, 0, createTermList(jshop, trapToConstants.get(trapType).get(nextTrapIndices[trapType]))));
-                    nextTrapIndices[trapType]++;
-                }
+            for (long items = mapNode.items; items != 0; items &= items - 1){
+                int itemType = Long.numberOfTrailingZeros(items);
+                dynamicFacts.add(SpyVsSpyJSHOP2.CONST_OBJECT_AT, itemIdToConstants[itemType], locationConstant);
             }
-            for(int i = 0 ; i < info.numWeapons; i++){ 
-                initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_CARRYING, 0, createTermList(jshop, weaponConstants.get(nextWeaponIndex))));
+            for(int weaponId = 0; weaponId < mapNode.numWeapons; weaponId++){
+                dynamicFacts.add(SpyVsSpyJSHOP2.CONST_OBJECT_AT, weaponConstants.get(nextWeaponIndex), locationConstant);
                 nextWeaponIndex++;
             }
+        }
 
+        /**
+         * Objects carried by the player
+         */
+        for(long items = info.itemsCarried; items != 0; items &= items - 1){ 
+            int itemType = Long.numberOfTrailingZeros(items);
+            dynamicFacts.add(SpyVsSpyJSHOP2.CONST_CARRYING, itemIdToConstants[itemType]);
         }
-        
-        initialState.add(new Predicate(SpyVsSpyJSHOP2.CONST_USE_DIRECT_MOVES, 0, TermList.NIL));        
+        for(int trapType = 0 ; trapType < environment.defs.numTrapTypes; trapType++){
+            for(int remover = 0; remover < info.numTrapRemoversCarried[trapType]; remover++){                
+                dynamicFacts.add(SpyVsSpyJSHOP2.CONST_CARRYING, trapRemoversToConstants.get(trapType).get(nextRemoverIndices[trapType]));
+                nextRemoverIndices[trapType]++;
+            }
+            for(int trap = 0; trap < info.numTrapsCarried[trapType]; trap++){                
+                dynamicFacts.add(SpyVsSpyJSHOP2.CONST_CARRYING, trapToConstants.get(trapType).get(nextTrapIndices[trapType]));
+                nextTrapIndices[trapType]++;
+            }
+        }
+        for(int i = 0 ; i < info.numWeapons; i++){ 
+            dynamicFacts.add(SpyVsSpyJSHOP2.CONST_CARRYING, weaponConstants.get(nextWeaponIndex));
+            nextWeaponIndex++;
+        }
+
+        dynamicFacts.addTo(initialState, jshop);
                 
         TaskList tasks;
         switch(goal.getType()){
@@ -405,4 +417,42 @@ public class SpyVsSpyJShop2Representation extends AbstractSpyVsSpyPlanningRepres
         return "JSHOP2_Default";
     }
         
+    /**
+     * Facts gathered from the environment, stored as constant indices.
+     */
+    private static class DynamicFacts {
+        private static final int NO_ARGUMENT = -1;
+        
+        /**
+         * Triples of predicate head and two arguments
+         */
+        private int[] facts = new int[192];
+        private int size = 0;
+        
+        void add(int head, int argument){
+            add(head, argument, NO_ARGUMENT);
+        }
+        
+        void add(int head, int firstArgument, int secondArgument){
+            if(size + 3 > facts.length){
+                facts = Arrays.copyOf(facts, facts.length * 2);
+            }
+            facts[size] = head;
+            facts[size + 1] = firstArgument;
+            facts[size + 2] = secondArgument;
+            size += 3;
+        }
+        
+        void addTo(State state, JSHOP2 jshop){
+            for(int i = 0; i < size; i += 3){
+                TermList params;
+                if(facts[i + 2] == NO_ARGUMENT){
+                    params = createTermList(jshop, facts[i + 1]);
+                } else {
+                    params = createTermList(jshop, facts[i + 1], facts[i + 2]);
+                }
+                state.add(new Predicate(facts[i], 0, params));
+            }
+        }
+    }
 }
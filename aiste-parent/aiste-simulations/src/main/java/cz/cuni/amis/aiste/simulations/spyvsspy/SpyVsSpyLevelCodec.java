@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.spyvsspy;
+
+import cz.cuni.amis.aiste.simulations.utils.ILevelCodec;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Binary form of {@link SpyVsSpyEnvironmentDefinition} for level corpora.
+ * @author Martin Cerny
+ */
+public class SpyVsSpyLevelCodec implements ILevelCodec<SpyVsSpyEnvironmentDefinition> {
+
+    private static final SpyVsSpyLevelCodec instance = new SpyVsSpyLevelCodec();
+
+    public static SpyVsSpyLevelCodec getInstance() {
+        return instance;
+    }
+
+    @Override
+    public String getLevelType() {
+        return "SpyVsSpy";
+    }
+
+    @Override
+    public int getFormatVersion() {
+        return 1;
+    }
+
+    @Override
+    public void writeLevel(SpyVsSpyEnvironmentDefinition level, DataOutput out) throws IOException {
+        out.writeInt(level.maxPlayers);
+        out.writeInt(level.numTrapTypes);
+        out.writeInt(level.numItemTypes);
+        out.writeInt(level.destination);
+        for(int trapType = 0; trapType < level.numTrapTypes; trapType++){
+            out.writeInt(level.trapCounts[trapType]);
+        }
+        writeIntList(level.startingLocations, out);
+
+        out.writeInt(level.nodes.size());
+        for(SpyVsSpyMapNode node : level.nodes){
+            out.writeInt(node.index);
+            out.writeInt(node.posX);
+            out.writeInt(node.posY);
+            out.writeLong(node.traps);
+            out.writeLong(node.items);
+            out.writeInt(node.numWeapons);
+            for(int trapType = 0; trapType < level.numTrapTypes; trapType++){
+                out.writeInt(node.numTrapRemovers[trapType]);
+            }
+        }
+        for(int nodeIndex = 0; nodeIndex < level.nodes.size(); nodeIndex++){
+            List<Integer> nodeNeighbours = level.neighbours.get(nodeIndex);
+            if(nodeNeighbours == null){
+                out.writeInt(-1);
+            } else {
+                writeIntList(nodeNeighbours, out);
+            }
+        }
+    }
+
+    @Override
+    public SpyVsSpyEnvironmentDefinition readLevel(DataInput in) throws IOException {
+        int maxPlayers = in.readInt();
+        int numTrapTypes = readCount(in);
+        int numItemTypes = readCount(in);
+        int destination = in.readInt();
+        int[] trapCounts = new int[numTrapTypes];
+        for(int trapType = 0; trapType < numTrapTypes; trapType++){
+            trapCounts[trapType] = in.readInt();
+        }
+        List<Integer> startingLocations = readIntList(readCount(in), in);
+
+        int numNodes = readCount(in);
+        List<SpyVsSpyMapNode> nodes = new ArrayList<SpyVsSpyMapNode>(numNodes);
+        for(int i = 0; i < numNodes; i++){
+            int index = in.readInt();
+            int posX = in.readInt();
+            int posY = in.readInt();
+            SpyVsSpyMapNode node = new SpyVsSpyMapNode(index, numTrapTypes, posX, posY);
+            node.traps = in.readLong();
+            node.items = in.readLong();
+            node.numWeapons = in.readInt();
+            for(int trapType = 0; trapType < numTrapTypes; trapType++){
+                node.numTrapRemovers[trapType] = in.readInt();
+            }
+            nodes.add(node);
+        }
+        Map<Integer, List<Integer>> neighbours = new HashMap<Integer, List<Integer>>(numNodes * 2);
+        for(int nodeIndex = 0; nodeIndex < numNodes; nodeIndex++){
+            int numNeighbours = in.readInt();
+            if(numNeighbours >= 0){
+                neighbours.put(nodeIndex, readIntList(numNeighbours, in));
+            }
+        }
+        return new SpyVsSpyEnvironmentDefinition(nodes, maxPlayers, startingLocations, neighbours, numTrapTypes, trapCounts, numItemTypes, destination);
+    }
+
+    private static void writeIntList(List<Integer> list, DataOutput out) throws IOException {
+        out.writeInt(list.size());
+        for(int value : list){
+            out.writeInt(value);
+        }
+    }
+
+    private static List<Integer> readIntList(int size, DataInput in) throws IOException {
+        List<Integer> list = new ArrayList<Integer>(size);
+        for(int i = 0; i < size; i++){
+            list.add(in.readInt());
+        }
+        return list;
+    }
+
+    private static int readCount(DataInput in) throws IOException {
+        int count = in.readInt();
+        if(count < 0){
+            throw new IOException("Invalid SpyVsSpy level data, negative count " + count);
+        }
+        return count;
+    }
+}
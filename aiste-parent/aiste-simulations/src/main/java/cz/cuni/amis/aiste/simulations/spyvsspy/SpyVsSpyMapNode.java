@@ -18,7 +18,6 @@ package cz.cuni.amis.aiste.simulations.spyvsspy;
 
 import java.io.Serializable;
 import java.util.Arrays;
-import java.util.HashSet;
 import java.util.Set;
 
 /**
@@ -28,14 +27,14 @@ import java.util.Set;
 public class SpyVsSpyMapNode implements Serializable {
 
     /**
-     * The indices of traps set at the given location
+     * The indices of traps set at the given location, as a bitmask (see {@link SpyVsSpyBitSets})
      */
-    Set<Integer> traps;
+    long traps;
 
     /**
-     * The indices of items that can be pickud up at given location
+     * The indices of items that can be pickud up at given location, as a bitmask (see {@link SpyVsSpyBitSets})
      */
-    Set<Integer> items;
+    long items;
 
     /**
      * Number of weapons that may be pickud up at given location
@@ -62,8 +61,8 @@ public class SpyVsSpyMapNode implements Serializable {
      */
     public SpyVsSpyMapNode(SpyVsSpyMapNode original){
         this.index = original.index;
-        this.traps = new HashSet<Integer>(original.traps);
-        this.items = new HashSet<Integer>(original.items);
+        this.traps = original.traps;
+        this.items = original.items;
         this.posX = original.posX;
         this.posY = original.posY;
         this.numWeapons = original.numWeapons;
@@ -72,8 +71,8 @@ public class SpyVsSpyMapNode implements Serializable {
     
     public SpyVsSpyMapNode(int index, Set<Integer> traps, Set<Integer> items, Set<Integer> trapRemovers, int numTraps, int numWeapons, int posX, int posY) {
         this.index = index;
-        this.traps = new HashSet<Integer>(traps);
-        this.items = new HashSet<Integer>(items);
+        this.traps = SpyVsSpyBitSets.fromCollection(traps);
+        this.items = SpyVsSpyBitSets.fromCollection(items);
         numTrapRemovers = new int[numTraps];
         for (int trapRemoverIndex : trapRemovers) {
             numTrapRemovers[trapRemoverIndex]++;
@@ -85,8 +84,8 @@ public class SpyVsSpyMapNode implements Serializable {
 
     public SpyVsSpyMapNode(int index, int numTraps, int posX, int posY) {
         this.index = index;
-        this.traps = new HashSet<Integer>();
-        this.items = new HashSet<Integer>();
+        this.traps = 0;
+        this.items = 0;
         numTrapRemovers = new int[numTraps];
         this.posX = posX;
         this.posY = posY;
@@ -96,16 +95,52 @@ public class SpyVsSpyMapNode implements Serializable {
         return index;
     }
 
+    /**
+     * A copy of the set of items at this location.
+     * @return 
+     */
     public Set<Integer> getItems() {
-        return items;
+        return SpyVsSpyBitSets.toSet(items);
+    }
+
+    public boolean hasItem(int itemType) {
+        return SpyVsSpyBitSets.contains(items, itemType);
+    }
+
+    public void addItem(int itemType) {
+        items = SpyVsSpyBitSets.add(items, itemType);
+    }
+
+    public void removeItem(int itemType) {
+        items = SpyVsSpyBitSets.remove(items, itemType);
     }
 
     public int[] getNumTrapRemovers() {
         return numTrapRemovers;
     }
 
+    /**
+     * A copy of the set of traps at this location.
+     * @return 
+     */
     public Set<Integer> getTraps() {
-        return traps;
+        return SpyVsSpyBitSets.toSet(traps);
+    }
+
+    public boolean hasTrap(int trapType) {
+        return SpyVsSpyBitSets.contains(traps, trapType);
+    }
+
+    public boolean hasAnyTrap() {
+        return traps != 0;
+    }
+
+    public void addTrap(int trapType) {
+        traps = SpyVsSpyBitSets.add(traps, trapType);
+    }
+
+    public void removeTrap(int trapType) {
+        traps = SpyVsSpyBitSets.remove(traps, trapType);
     }
 
     public int getPosX() {
@@ -122,6 +157,6 @@ public class SpyVsSpyMapNode implements Serializable {
     
     @Override
     public String toString() {
-        return "MapNode index: " + index + " at [" + posX + "," + posY + "], traps:" + traps + ", items: " + items + ", trapRemovers: " + Arrays.toString(numTrapRemovers) + ", numWeapons: " + numWeapons;
+        return "MapNode index: " + index + " at [" + posX + "," + posY + "], traps:" + SpyVsSpyBitSets.toString(traps) + ", items: " + SpyVsSpyBitSets.toString(items) + ", trapRemovers: " + Arrays.toString(numTrapRemovers) + ", numWeapons: " + numWeapons;
     }
 }
@@ -21,6 +21,7 @@ import cz.cuni.amis.aiste.AisteException;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import cz.cuni.amis.aiste.environment.IReactivePlan;
 import cz.cuni.amis.aiste.environment.ISimulablePDDLRepresentation;
+import cz.cuni.amis.aiste.environment.impl.PDDLFactCache;
 import cz.cuni.amis.aiste.environment.impl.SequencePlan;
 import cz.cuni.amis.planning4j.ActionDescription;
 import cz.cuni.amis.planning4j.pddl.*;
@@ -66,6 +67,18 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
     PDDLPredicate removesTrapPredicate;
     PDDLPredicate killedOponentPredicate;
     PDDLPredicate metOponentPredicate;
+    
+    /**
+     * Adjacency literals, they do not change during the game
+     */
+    List<String> adjacencyFacts;
+    
+    /*
+     * Rendered literals for the constant objects, indexed by location and item indices 
+     */
+    PDDLFactCache playerAtFacts;
+    PDDLFactCache itemAtFacts;
+    PDDLFactCache carryingItemFacts;
 
     PDDLSimpleAction moveAction;
     PDDLSimpleAction takeObjectAction;
@@ -176,6 +189,16 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
             itemConstants[i] = new PDDLObjectInstance(ITEM_PREFIX + SEPARATOR + i, itemType);
         }
         
+        adjacencyFacts = new ArrayList<String>();
+        for (int i = 0; i < locationConstants.length; i++) {
+            for (Integer neighbourIndex : environment.defs.neighbours.get(i)) {
+                adjacencyFacts.add(adjacentPredicate.stringAfterSubstitution(locationConstants[i], locationConstants[neighbourIndex]));
+            }
+        }
+        playerAtFacts = new PDDLFactCache(playerAtPredicate, locationConstants);
+        itemAtFacts = new PDDLFactCache(objectAtPredicate, itemConstants, locationConstants);
+        carryingItemFacts = new PDDLFactCache(carryingObjectPredicate, itemConstants);
+        
     }
     
     
@@ -223,7 +246,8 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
     @Override
     public PDDLProblem getProblem(AgentBody body, SpyVsSpyPlanningGoal goal) {
         PDDLProblem problem = new PDDLProblem("SpyVsSpyProblem", "SpyVsSpy");
-        for (int i = 0; i < environment.nodes.size(); i++) {
+        SpyVsSpyStateSnapshot snapshot = getSnapshotForProblem(body);
+        for (int i = 0; i < snapshot.nodes.size(); i++) {
             problem.addObject(locationConstants[i]);
         }
         for (int i = 0; i < environment.defs.numItemTypes; i++) {
@@ -237,20 +261,20 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
             trapRemoverInstances.add(new ArrayList<PDDLObjectInstance>());
         }
         
-        List<String> initialLiterals = new ArrayList<String>();
+        List<String> initialLiterals = new ArrayList<String>(adjacencyFacts.size() + snapshot.nodes.size());
+        initialLiterals.addAll(adjacencyFacts);
         
         boolean hasSomeWeapons = false;
         int weaponIndex = 0;
         
-        for (SpyVsSpyMapNode n : environment.nodes) {
+        for (SpyVsSpyMapNode n : snapshot.nodes) {
             PDDLObjectInstance nodeInstance = locationConstants[n.index];
-            for (Integer neighbourIndex : environment.defs.neighbours.get(n.index)) {
-                initialLiterals.add(adjacentPredicate.stringAfterSubstitution(nodeInstance, locationConstants[neighbourIndex]));
-            }
-            for (Integer item : n.items) {
-                initialLiterals.add(objectAtPredicate.stringAfterSubstitution(itemConstants[item], nodeInstance));
+            for (long items = n.items; items != 0; items &= items - 1) {
+                int item = Long.numberOfTrailingZeros(items);
+                initialLiterals.add(itemAtFacts.getFact(item, n.index));
             }
-            for (Integer newTrapType : n.traps) {
+            for (long traps = n.traps; traps != 0; traps &= traps - 1) {
+                int newTrapType = Long.numberOfTrailingZeros(traps);
                 PDDLObjectInstance newTrapInstance = addTrap(trapInstances, newTrapType, problem);
 
                 initialLiterals.add(trapSetPredicate.stringAfterSubstitution(newTrapInstance, nodeInstance));
@@ -279,14 +303,15 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
 
         
         boolean hasSomeOponents = false;
-        for(int currentBodyID = 0; currentBodyID < environment.bodyInfos.size(); currentBodyID++){
-            SpyVsSpyBodyInfo bodyInfo = environment.bodyInfos.get(currentBodyID);
+        for(int currentBodyID = 0; currentBodyID < snapshot.bodyInfos.size(); currentBodyID++){
+            SpyVsSpyBodyInfo bodyInfo = snapshot.bodyInfos.get(currentBodyID);
             if(currentBodyID == body.getId()){
                 //generate facts for the current player
-                initialLiterals.add(playerAtPredicate.stringAfterSubstitution(locationConstants[bodyInfo.locationIndex]));
+                initialLiterals.add(playerAtFacts.getFact(bodyInfo.locationIndex));
 
-                for (int carriedItemType : bodyInfo.itemsCarried) {
-                    initialLiterals.add(carryingObjectPredicate.stringAfterSubstitution(itemConstants[carriedItemType]));
+                for (long items = bodyInfo.itemsCarried; items != 0; items &= items - 1) {
+                    int carriedItemType = Long.numberOfTrailingZeros(items);
+                    initialLiterals.add(carryingItemFacts.getFact(carriedItemType));
                 }
 
                 for (int trapTypeIndex = 0; trapTypeIndex < environment.defs.numTrapTypes; trapTypeIndex++) {
@@ -319,7 +344,8 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
                 initialLiterals.add(oponentAtPredicate.stringAfterSubstitution(oponent, locationConstants[bodyInfo.locationIndex]));
 
                 if(includeAttacks) {
-                    for (int carriedItemType : bodyInfo.itemsCarried) {
+                    for (long items = bodyInfo.itemsCarried; items != 0; items &= items - 1) {
+                        int carriedItemType = Long.numberOfTrailingZeros(items);
                         initialLiterals.add(oponentCarryingObjectPredicate.stringAfterSubstitution(oponent, itemConstants[carriedItemType]));
                     }
 
@@ -377,9 +403,9 @@ public class SpyVsSpyPDDLRepresentation extends AbstractSpyVsSpyPlanningRepresen
         
         switch (goal.getType()) {
             case DIRECT_WIN: {
-                goalConditions.add(playerAtPredicate.stringAfterSubstitution(locationConstants[environment.defs.destination]));
-                for (PDDLObjectInstance item : itemConstants) {
-                    goalConditions.add(carryingObjectPredicate.stringAfterSubstitution(item));
+                goalConditions.add(playerAtFacts.getFact(environment.defs.destination));
+                for (int item = 0; item < itemConstants.length; item++) {
+                    goalConditions.add(carryingItemFacts.getFact(item));
                 }
                 break;
             }
@@ -20,14 +20,11 @@ import cz.cuni.amis.aiste.IRandomizable;
 import cz.cuni.amis.aiste.environment.AgentBody;
 import cz.cuni.amis.aiste.environment.IEnvironmentSpecificRepresentation;
 import cz.cuni.amis.aiste.simulations.utils.RandomUtils;
-import cz.cuni.amis.pathfinding.alg.floydwarshall.FloydWarshall;
 import cz.cuni.amis.pathfinding.map.IPFGoal;
 import cz.cuni.amis.utils.heap.IHeap;
 import java.util.ArrayDeque;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 import java.util.Random;
@@ -42,19 +39,18 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
 
     private final Logger logger = Logger.getLogger(SpyVsSpyReactiveRepresentation.class);
     
-    FloydWarshall<Integer> floydWarshall;
+    SpyVsSpyDistanceTable distanceTable;
     
     /**
-     * Last path returned from AStar, including the start and final location
+     * Last path found for each body, including the start and final location
      */
-    Map<AgentBody,List<Integer>> lastPathFound = new HashMap<AgentBody, List<Integer>>();
-    Map<AgentBody, Integer> lastPathFoundIndex = new HashMap<AgentBody, Integer>();
+    Map<AgentBody, FoundPath> lastPathFound = new HashMap<AgentBody, FoundPath>();
     
     Random rand = new Random();
 
     public SpyVsSpyReactiveRepresentation(SpyVsSpy env) {
         this.environment = env;
-        floydWarshall = new FloydWarshall<Integer>(env.defs.mapForPathFinding);
+        distanceTable = env.defs.getDistanceTable();
     }
 
     @Override
@@ -73,14 +69,14 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
          */
         boolean hasAllItems = true;
         for(int i = 0; i < environment.defs.numItemTypes; i++){
-            if(!bodyInfo.itemsCarried.contains(i)){
+            if(!bodyInfo.isCarryingItem(i)){
                 hasAllItems = false;
                 break;
             }
         }
         
         SpyVsSpyMapNode currentNode = environment.nodes.get(bodyInfo.locationIndex);
-        boolean nodeSecure = currentNode.traps.isEmpty();
+        boolean nodeSecure = !currentNode.hasAnyTrap();
         
         int usefulItemIndex = getUsefulItemIndex(currentNode, bodyInfo);
         int trapRemoverIndex = getTrapRemover(currentNode);        
@@ -113,7 +109,7 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
             return new SpyVsSpyAction(SpyVsSpyAction.ActionType.PICKUP_TRAP_REMOVER, trapRemoverIndex);     
         } else if (bodyInfo.numWeapons == 0 && currentNode.numWeapons > 0 && canRemoveAllTraps) {
             logger.debug(body.getId() + ": Removing traps for weapon");
-            return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, currentNode.traps.iterator().next() /* The first trap*/);
+            return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, SpyVsSpyBitSets.first(currentNode.traps) /* The first trap*/);
         } else  {
             
             /**
@@ -140,7 +136,7 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
                     continue;
                 }
                 
-                int nodeDistance = floydWarshall.getPathCost(bodyInfo.locationIndex, inspectedNode.index);
+                int nodeDistance = distanceTable.getDistance(bodyInfo.locationIndex, inspectedNode.index);
                 
                 //Available trap removers and useful trap removers (exploiting the fact, that they are always a subset)
                 if(nodeDistance < nearestAvailableTrapRemoverLocationDistance){                
@@ -171,31 +167,31 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
             
             if (bodyInfo.numWeapons == 0 && nearestAvailableWeaponLocation != -1) {
                 logger.debug(body.getId() + ": Moving to available weapon at loc " + nearestAvailableWeaponLocation);
-                usePathFromFloydWarshall(body, nearestAvailableWeaponLocation);
+                usePathFromDistanceTable(body, nearestAvailableWeaponLocation);
                 return followLastPathFound(body);
             } else if (usefulItemIndex != -1 && canRemoveAllTraps) {
                 logger.debug(body.getId() + ": Removing traps for useful item");
-                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, currentNode.traps.iterator().next() /* The first trap*/);
+                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, SpyVsSpyBitSets.first(currentNode.traps) /* The first trap*/);
             } else if (nearestAvailableUsefulItemLocation != -1) {
                 logger.debug(body.getId() + ": Moving to available useful item at loc " + nearestAvailableUsefulItemLocation);
-                usePathFromFloydWarshall(body, nearestAvailableUsefulItemLocation);                
+                usePathFromDistanceTable(body, nearestAvailableUsefulItemLocation);                
                 return followLastPathFound(body);
             } else if (canRemoveAllTraps && usefulTrapRemoverIndex != -1) {
                 logger.debug(body.getId() + ": Removing traps for a useful trap remover");
-                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, currentNode.traps.iterator().next() /* The first trap*/);
+                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, SpyVsSpyBitSets.first(currentNode.traps) /* The first trap*/);
             } else if (nearestAvailableUsefulTrapRemoverLocation != -1) {
                 logger.debug(body.getId() + ": Moving to available useful trap remover at loc " + nearestAvailableUsefulTrapRemoverLocation);                
-                usePathFromFloydWarshall(body, nearestAvailableUsefulTrapRemoverLocation);
+                usePathFromDistanceTable(body, nearestAvailableUsefulTrapRemoverLocation);
                 return followLastPathFound(body);
             } else if(bodyInfo.numWeapons > 0 && findPathToOponent(body)) {
                 logger.debug(body.getId() + ": Nothing better to do, hunting enemy");
                 return followLastPathFound(body);
             } else if (canRemoveAllTraps && trapRemoverIndex != -1) {
                 logger.debug(body.getId() + ": Removing traps for a trap remover");
-                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, currentNode.traps.iterator().next() /* The first trap*/);
+                return new SpyVsSpyAction(SpyVsSpyAction.ActionType.REMOVE_TRAP, SpyVsSpyBitSets.first(currentNode.traps) /* The first trap*/);
             } else if (nearestAvailableTrapRemoverLocation != -1) {
                 logger.debug(body.getId() + ": Moving to available trap remover at loc " + nearestAvailableTrapRemoverLocation);
-                usePathFromFloydWarshall(body, nearestAvailableTrapRemoverLocation);                
+                usePathFromDistanceTable(body, nearestAvailableTrapRemoverLocation);                
                 return followLastPathFound(body);
             } else {
                 //random movement
@@ -209,12 +205,11 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
     }
     
     private boolean lastPathApplicable(AgentBody body, int targetNode){
-        List<Integer> thePath = lastPathFound.get(body);
-        Integer pathIndex = lastPathFoundIndex.get(body);
-        if(thePath == null || pathIndex >= thePath.size() - 1){
+        FoundPath thePath = lastPathFound.get(body);
+        if(thePath == null || thePath.index >= thePath.length - 1){
             return false;
         } else {
-            if(thePath.get(pathIndex) == getBodyInfo(body).locationIndex && thePath.get(thePath.size() - 1) == targetNode){
+            if(thePath.nodes[thePath.index] == getBodyInfo(body).locationIndex && thePath.nodes[thePath.length - 1] == targetNode){
                 return true;
             } else {
                 return false;
@@ -223,15 +218,13 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
     }
     
     private SpyVsSpyAction followLastPathFound(AgentBody body){
-        List<Integer> thePath = lastPathFound.get(body);
-        Integer pathIndex = lastPathFoundIndex.get(body);
-        if(thePath == null || pathIndex >= thePath.size() - 1){
+        FoundPath thePath = lastPathFound.get(body);
+        if(thePath == null || thePath.index >= thePath.length - 1){
             logger.debug(body.getId() + ": Trying to follow finished or invalid path");
             return null;
         } else {
-            pathIndex++;
-            lastPathFoundIndex.put(body, pathIndex);
-            Integer nextLocation = thePath.get(pathIndex);
+            thePath.index++;
+            int nextLocation = thePath.nodes[thePath.index];
             int currentLocation = getBodyInfo(body).locationIndex;
             if(!environment.defs.neighbours.get(currentLocation).contains(nextLocation)){
                 logger.debug(body.getId() + ": Invalid location. From: " + currentLocation + " to: " + nextLocation);
@@ -241,7 +234,7 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
     }
     
     private boolean findPath(AgentBody body,int targetNode){
-        return usePathFromFloydWarshall(body, targetNode);
+        return usePathFromDistanceTable(body, targetNode);
     }
 
 
@@ -251,7 +244,8 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
 
     protected boolean canRemoveAllTraps(SpyVsSpyMapNode node, SpyVsSpyBodyInfo bodyInfo) {
         boolean canRemoveAllTraps = true;
-        for(int trapType : node.traps){            
+        for(long traps = node.traps; traps != 0; traps &= traps - 1){
+            int trapType = Long.numberOfTrailingZeros(traps);
             if(bodyInfo.numTrapRemoversCarried[trapType] <= 0){
                 canRemoveAllTraps = false;
             } 
@@ -261,7 +255,7 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
 
     protected int getUsefulItemIndex(SpyVsSpyMapNode node, SpyVsSpyBodyInfo bodyInfo) {
         for(int itemType = 0; itemType < environment.defs.numItemTypes; itemType++){
-            if(node.items.contains(itemType) && !bodyInfo.itemsCarried.contains(itemType)){
+            if(node.hasItem(itemType) && !bodyInfo.isCarryingItem(itemType)){
                 return itemType;
             }
         }
@@ -296,28 +290,33 @@ public class SpyVsSpyReactiveRepresentation extends AbstractSpyVsSpyRepresentati
         return findPath(body, environment.bodyInfos.get(getOtherId(body)).locationIndex);
     }
 
-    protected boolean usePathFromFloydWarshall(AgentBody body, int targetNode) {
+    protected boolean usePathFromDistanceTable(AgentBody body, int targetNode) {
 //        if(lastPathApplicable(body, targetNode)){
 //            return true;
 //        }
         
         int startNode = getBodyInfo(body).locationIndex;
-        int pathCost = floydWarshall.getPathCost(startNode, targetNode);
-        if(pathCost < Integer.MAX_VALUE){
-            List<Integer> path = new ArrayList<Integer>(pathCost + 2);
-            path.add(startNode);
-            path.addAll(floydWarshall.getPath(startNode, targetNode));
-            if(targetNode != startNode){
-                path.add(targetNode);
-            }
-            lastPathFound.put(body,  path);
-            lastPathFoundIndex.put(body, 0);
-            //logger.debug("Path from " + startNode + " to " + targetNode + ": " + path);
-            return true;
-        } else {
-            lastPathFound.remove(body);
-            lastPathFoundIndex.remove(body);
-            return false;
+        FoundPath path = lastPathFound.get(body);
+        if(path == null){
+            path = new FoundPath(distanceTable.getNumNodes());
+            lastPathFound.put(body, path);
+        }
+        //the buffer is reused, an unreachable target leaves the path invalid (length -1)
+        path.length = distanceTable.fillPath(startNode, targetNode, path.nodes);
+        path.index = 0;
+        return path.length >= 0;
+    }
+    
+    /**
+     * A path being followed by a body, the buffer is reused for subsequent paths.
+     */
+    private static class FoundPath {
+        final int[] nodes;
+        int length = -1;
+        int index = 0;
+
+        public FoundPath(int maxLength) {
+            nodes = new int[maxLength];
         }
     }
     
@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.spyvsspy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * State of the {@link SpyVsSpy} environment after a given time step.
+ * Snapshots are published by the environment at the end of every step and may be read
+ * from any thread without locking the environment.
+ * <p>
+ * The nodes and body infos of a snapshot are copies that are never modified once the snapshot
+ * is published, nodes that have not changed during a step are shared with the previous snapshot.
+ * Readers must not modify them either.
+ * </p>
+ * @author Martin Cerny
+ */
+public class SpyVsSpyStateSnapshot {
+
+    final long timeStep;
+
+    final List<SpyVsSpyMapNode> nodes;
+
+    final List<SpyVsSpyBodyInfo> bodyInfos;
+
+    private SpyVsSpyStateSnapshot(long timeStep, List<SpyVsSpyMapNode> nodes, List<SpyVsSpyBodyInfo> bodyInfos) {
+        this.timeStep = timeStep;
+        this.nodes = Collections.unmodifiableList(nodes);
+        this.bodyInfos = Collections.unmodifiableList(bodyInfos);
+    }
+
+    /**
+     * Creates a snapshot with copies of all nodes and body infos.
+     */
+    static SpyVsSpyStateSnapshot createFull(long timeStep, List<SpyVsSpyMapNode> nodes, List<SpyVsSpyBodyInfo> bodyInfos){
+        List<SpyVsSpyMapNode> nodeCopies = new ArrayList<SpyVsSpyMapNode>(nodes.size());
+        for(SpyVsSpyMapNode node : nodes){
+            nodeCopies.add(new SpyVsSpyMapNode(node));
+        }
+        return new SpyVsSpyStateSnapshot(timeStep, nodeCopies, copyBodyInfos(bodyInfos));
+    }
+
+    /**
+     * Creates a snapshot that copies only nodes that might have changed since previous snapshot.
+     * @param changedNodes indices of nodes that might have changed, may contain duplicates
+     */
+    static SpyVsSpyStateSnapshot createIncremental(SpyVsSpyStateSnapshot previous, long timeStep, List<SpyVsSpyMapNode> nodes, List<SpyVsSpyBodyInfo> bodyInfos, int[] changedNodes){
+        List<SpyVsSpyMapNode> nodeCopies = new ArrayList<SpyVsSpyMapNode>(previous.nodes);
+        for(int nodeIndex : changedNodes){
+            if(nodeCopies.get(nodeIndex) == previous.nodes.get(nodeIndex)){
+                nodeCopies.set(nodeIndex, new SpyVsSpyMapNode(nodes.get(nodeIndex)));
+            }
+        }
+        return new SpyVsSpyStateSnapshot(timeStep, nodeCopies, copyBodyInfos(bodyInfos));
+    }
+
+    private static List<SpyVsSpyBodyInfo> copyBodyInfos(List<SpyVsSpyBodyInfo> bodyInfos){
+        List<SpyVsSpyBodyInfo> bodyInfoCopies = new ArrayList<SpyVsSpyBodyInfo>(bodyInfos.size());
+        for(SpyVsSpyBodyInfo bodyInfo : bodyInfos){
+            bodyInfoCopies.add(new SpyVsSpyBodyInfo(bodyInfo));
+        }
+        return bodyInfoCopies;
+    }
+
+    /**
+     * The time step of the environment this snapshot was taken at.
+     * @return
+     */
+    public long getTimeStep() {
+        return timeStep;
+    }
+
+    public List<SpyVsSpyMapNode> getNodes() {
+        return nodes;
+    }
+
+    public List<SpyVsSpyBodyInfo> getBodyInfos() {
+        return bodyInfos;
+    }
+
+}
@@ -47,6 +47,7 @@ import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
 import java.util.*;
+import java.util.concurrent.Callable;
 
 /**
  *
@@ -134,11 +135,18 @@ public class Test {
         
         List<IEnvironment> environments = new ArrayList<IEnvironment>();
 
-        IPlanner plannerToTestDomain = null;
+        //every thread testing the domain gets its own planner
+        Callable<IPlanner> plannerToTestDomain = null;
         if(ItSimpleUtils.getOperatingSystem() == EPlannerPlatform.LINUX){
-                ItSimplePlannerInformation plannerToTestInfo = PlannersPackUtils.getProbe();
-                File plannerBinariesDirectory = new File("/home/martin_cerny/seq-sat-probe");					
-                plannerToTestDomain = new ExternalPlanner( new ItSimplePlannerExecutor(plannerToTestInfo, plannerBinariesDirectory));;
+                final ItSimplePlannerInformation plannerToTestInfo = PlannersPackUtils.getProbe();
+                final File plannerBinariesDirectory = new File("/home/martin_cerny/seq-sat-probe");					
+                plannerToTestDomain = new Callable<IPlanner>() {
+
+                    @Override
+                    public IPlanner call() {
+                        return new ExternalPlanner( new ItSimplePlannerExecutor(plannerToTestInfo, plannerBinariesDirectory));
+                    }
+                };
         }
 
         //double[] attackSuccessProbabilities = {0, 0.1,0.3,0.5};
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.utils;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Converts levels of a single domain to and from the binary form stored in a level corpus.
+ * @param <LEVEL> the type of levels
+ * @author Martin Cerny
+ */
+public interface ILevelCodec<LEVEL> {
+
+    /**
+     * Identifier of the level type, stored in the header of a corpus and checked when the corpus is read.
+     * @return 
+     */
+    String getLevelType();
+
+    /**
+     * Version of the binary form, increase whenever the form changes.
+     * @return 
+     */
+    int getFormatVersion();
+
+    void writeLevel(LEVEL level, DataOutput out) throws IOException;
+
+    LEVEL readLevel(DataInput in) throws IOException;
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.utils;
+
+/**
+ * A single level stored in a level corpus, together with the seed it was generated from
+ * and the result of its solvability test.
+ * @param <LEVEL> the type of levels
+ * @author Martin Cerny
+ */
+public class LevelCorpusEntry<LEVEL> {
+
+    public enum Solvability {
+        /**
+         * The level was not tested by a planner.
+         */
+        NOT_TESTED,
+        SOLVABLE,
+        UNSOLVABLE
+    }
+
+    private final int index;
+
+    private final long seed;
+
+    private final Solvability solvability;
+
+    private final LEVEL level;
+
+    public LevelCorpusEntry(int index, long seed, Solvability solvability, LEVEL level) {
+        this.index = index;
+        this.seed = seed;
+        this.solvability = solvability;
+        this.level = level;
+    }
+
+    /**
+     * Position of the level in the corpus, starting from 0.
+     * @return 
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * The seed the level was generated from. Generating with the same seed and generator parameters yields the same level.
+     * @return 
+     */
+    public long getSeed() {
+        return seed;
+    }
+
+    public Solvability getSolvability() {
+        return solvability;
+    }
+
+    public LEVEL getLevel() {
+        return level;
+    }
+
+}
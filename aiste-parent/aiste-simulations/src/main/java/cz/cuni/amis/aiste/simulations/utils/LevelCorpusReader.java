@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.utils;
+
+import cz.cuni.amis.aiste.AisteException;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Streams levels from a corpus written by {@link LevelCorpusWriter}. Levels are read
+ * and decoded lazily, one at a time, so only the level being used is held in memory.
+ * <p>
+ * Since {@link Iterator} methods cannot throw checked exceptions, I/O errors during iteration
+ * are reported as {@link AisteException}.
+ * </p>
+ * @param <LEVEL> the type of levels
+ * @author Martin Cerny
+ */
+public class LevelCorpusReader<LEVEL> implements Iterator<LevelCorpusEntry<LEVEL>>, Iterable<LevelCorpusEntry<LEVEL>>, Closeable {
+
+    private static final LevelCorpusEntry.Solvability[] SOLVABILITY_VALUES = LevelCorpusEntry.Solvability.values();
+
+    private final ILevelCodec<LEVEL> codec;
+
+    private final DataInputStream in;
+
+    /**
+     * Buffer for data of a single level, grown as needed.
+     */
+    private byte[] levelBuffer = new byte[1024];
+
+    /**
+     * True if the marker of the next record has been read, but the record itself has not.
+     */
+    private boolean recordPending = false;
+
+    private boolean endReached = false;
+
+    private int nextIndex = 0;
+
+    public LevelCorpusReader(File corpusFile, ILevelCodec<LEVEL> codec) throws IOException {
+        this(new FileInputStream(corpusFile), codec);
+    }
+
+    /**
+     * Opens the corpus and checks its header.
+     * @throws IOException if the stream is not a corpus of levels of the codec
+     */
+    public LevelCorpusReader(InputStream is, ILevelCodec<LEVEL> codec) throws IOException {
+        this.codec = codec;
+        this.in = new DataInputStream(new BufferedInputStream(is));
+        try {
+            if(in.readInt() != LevelCorpusWriter.MAGIC){
+                throw new IOException("Not a level corpus");
+            }
+            int formatVersion = in.readInt();
+            if(formatVersion != LevelCorpusWriter.FORMAT_VERSION){
+                throw new IOException("Unsupported corpus format version " + formatVersion);
+            }
+            String levelType = in.readUTF();
+            if(!levelType.equals(codec.getLevelType())){
+                throw new IOException("The corpus contains levels of type " + levelType + ", expected " + codec.getLevelType());
+            }
+            int codecVersion = in.readInt();
+            if(codecVersion != codec.getFormatVersion()){
+                throw new IOException("Unsupported version " + codecVersion + " of " + levelType + " levels");
+            }
+        } catch(IOException ex){
+            in.close();
+            throw ex;
+        }
+    }
+
+    @Override
+    public boolean hasNext() {
+        if(recordPending){
+            return true;
+        }
+        if(endReached){
+            return false;
+        }
+        try {
+            byte marker = in.readByte();
+            if(marker == LevelCorpusWriter.RECORD_MARKER){
+                recordPending = true;
+            } else if(marker == LevelCorpusWriter.END_MARKER){
+                endReached = true;
+            } else {
+                throw new AisteException("Corrupted level corpus, invalid record marker " + marker);
+            }
+            return recordPending;
+        } catch(IOException ex){
+            throw new AisteException("Error reading level corpus", ex);
+        }
+    }
+
+    @Override
+    public LevelCorpusEntry<LEVEL> next() {
+        if(!hasNext()){
+            throw new NoSuchElementException();
+        }
+        recordPending = false;
+        try {
+            long seed = in.readLong();
+            LevelCorpusEntry.Solvability solvability = readSolvability();
+            int levelLength = readLevelLength();
+            if(levelBuffer.length < levelLength){
+                levelBuffer = new byte[Math.max(levelLength, levelBuffer.length * 2)];
+            }
+            in.readFully(levelBuffer, 0, levelLength);
+            LEVEL level = codec.readLevel(new DataInputStream(new ByteArrayInputStream(levelBuffer, 0, levelLength)));
+            return new LevelCorpusEntry<LEVEL>(nextIndex++, seed, solvability, level);
+        } catch(IOException ex){
+            throw new AisteException("Error reading level corpus", ex);
+        }
+    }
+
+    /**
+     * Skips levels without decoding them.
+     * @param numLevels number of levels to skip
+     * @return number of levels actually skipped, less than numLevels if the end of the corpus was reached
+     */
+    public int skip(int numLevels) {
+        int skipped = 0;
+        try {
+            while(skipped < numLevels && hasNext()){
+                recordPending = false;
+                in.readLong();
+                readSolvability();
+                skipFully(readLevelLength());
+                nextIndex++;
+                skipped++;
+            }
+        } catch(IOException ex){
+            throw new AisteException("Error reading level corpus", ex);
+        }
+        return skipped;
+    }
+
+    private void skipFully(int numBytes) throws IOException {
+        int remaining = numBytes;
+        while(remaining > 0){
+            int skipped = in.skipBytes(remaining);
+            if(skipped <= 0){
+                //skipBytes may return 0 before end of stream, readByte throws EOFException at the end
+                in.readByte();
+                skipped = 1;
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private LevelCorpusEntry.Solvability readSolvability() throws IOException {
+        int solvabilityOrdinal = in.readUnsignedByte();
+        if(solvabilityOrdinal >= SOLVABILITY_VALUES.length){
+            throw new IOException("Corrupted level corpus, invalid solvability " + solvabilityOrdinal);
+        }
+        return SOLVABILITY_VALUES[solvabilityOrdinal];
+    }
+
+    private int readLevelLength() throws IOException {
+        int levelLength = in.readInt();
+        if(levelLength < 0){
+            throw new IOException("Corrupted level corpus, invalid level length " + levelLength);
+        }
+        return levelLength;
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException("Level corpus is read only");
+    }
+
+    /**
+     * Returns this reader, so that the corpus may be used in a for-each loop. The corpus may be iterated only once.
+     * @return 
+     */
+    @Override
+    public Iterator<LevelCorpusEntry<LEVEL>> iterator() {
+        return this;
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+
+}
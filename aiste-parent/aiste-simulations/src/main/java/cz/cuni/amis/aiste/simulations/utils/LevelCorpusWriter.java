@@ -0,0 +1,112 @@
+/*
+ * Copyright (C) 2013 AMIS research group, Faculty of Mathematics and Physics, Charles University in Prague, Czech Republic
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package cz.cuni.amis.aiste.simulations.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes generated levels to a compact binary corpus, that is read by {@link LevelCorpusReader}.
+ * <p>
+ * The corpus starts with a header (magic number, format version, level type and version of the level codec),
+ * followed by records of individual levels. Every record consists of a record marker, the seed, 
+ * the solvability, the length of the level data and the level data written by the codec.
+ * The corpus ends with an end marker, that is written by {@link #close() }.
+ * All numbers are big-endian, so the corpus can be moved between machines.
+ * </p>
+ * @param <LEVEL> the type of levels
+ * @author Martin Cerny
+ */
+public class LevelCorpusWriter<LEVEL> implements Closeable {
+
+    static final int MAGIC = 0x41494c43; //"AILC"
+
+    /**
+     * Increase whenever the layout of the header or the records changes.
+     */
+    static final int FORMAT_VERSION = 1;
+
+    static final byte RECORD_MARKER = 1;
+
+    static final byte END_MARKER = 0;
+
+    private final ILevelCodec<LEVEL> codec;
+
+    private final DataOutputStream out;
+
+    /**
+     * Buffer for data of a single level, reused for all levels.
+     */
+    private final ByteArrayOutputStream levelBuffer = new ByteArrayOutputStream();
+
+    private final DataOutputStream levelOut = new DataOutputStream(levelBuffer);
+
+    private int numLevels = 0;
+
+    public LevelCorpusWriter(File corpusFile, ILevelCodec<LEVEL> codec) throws IOException {
+        this(new FileOutputStream(corpusFile), codec);
+    }
+
+    public LevelCorpusWriter(OutputStream os, ILevelCodec<LEVEL> codec) throws IOException {
+        this.codec = codec;
+        this.out = new DataOutputStream(new BufferedOutputStream(os));
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeUTF(codec.getLevelType());
+        out.writeInt(codec.getFormatVersion());
+    }
+
+    public void write(long seed, LevelCorpusEntry.Solvability solvability, LEVEL level) throws IOException {
+        levelBuffer.reset();
+        codec.writeLevel(level, levelOut);
+        levelOut.flush();
+
+        out.writeByte(RECORD_MARKER);
+        out.writeLong(seed);
+        out.writeByte(solvability.ordinal());
+        out.writeInt(levelBuffer.size());
+        levelBuffer.writeTo(out);
+        numLevels++;
+    }
+
+    /**
+     * Number of levels written so far.
+     * @return 
+     */
+    public int getNumLevels() {
+        return numLevels;
+    }
+
+    /**
+     * Writes the end marker and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        try {
+            out.writeByte(END_MARKER);
+        } finally {
+            out.close();
+        }
+    }
+
+}